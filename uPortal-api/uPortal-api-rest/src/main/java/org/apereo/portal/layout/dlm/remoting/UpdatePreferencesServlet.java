@@ -605,6 +605,7 @@ public class UpdatePreferencesServlet {
                 // This sets the column attribute in memory but doesn't persist it.  Comment says saves changes "prior to persisting"
                 Element folder = ulm.getUserLayoutDOM().getElementById(columnId);
                 UserPrefsHandler.setUserPreference(folder, "width", per);
+                ulm.userLayoutDOMModified();
             } catch (Exception e) {
                 logger.error("Error saving new column widths", e);
             }
@@ -1078,6 +1079,7 @@ public class UpdatePreferencesServlet {
                 // This sets the column attribute in memory but doesn't persist it.  Comment says saves changes "prior to persisting"
                 Element folder = ulm.getUserLayoutDOM().getElementById(newColumn.getId());
                 UserPrefsHandler.setUserPreference(folder, "width", per);
+                ulm.userLayoutDOMModified();
             } catch (Exception e) {
                 logger.error("Error saving new column widths", e);
             }
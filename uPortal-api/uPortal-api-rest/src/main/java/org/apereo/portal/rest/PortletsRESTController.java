@@ -42,6 +42,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
@@ -110,11 +111,16 @@ public class PortletsRESTController {
 
     /**
      * Provides a single, fully-rendered portlet. NOTE: Access to this API enpoint requires only
-     * <code>IPermission.PORTAL_SUBSCRIBE</code> permission.
+     * <code>IPermission.PORTAL_SUBSCRIBE</code> permission. When <code>asyncFill</code> names a
+     * placeholder written to the user's page for this portlet, the output for that placeholder is
+     * returned.
      */
     @RequestMapping(value = "/v4-3/portlet/{fname}.html", method = RequestMethod.GET)
     public @ResponseBody String getRenderedPortlet(
-            HttpServletRequest req, HttpServletResponse res, @PathVariable String fname)
+            HttpServletRequest req,
+            HttpServletResponse res,
+            @PathVariable String fname,
+            @RequestParam(value = "asyncFill", required = false) String asyncFill)
             throws Exception {
 
         // Does the portlet exist in the registry?
@@ -134,6 +140,14 @@ public class PortletsRESTController {
 
         // Proceed...
         try {
+            if (asyncFill != null) {
+                final String rslt =
+                        portletExecutionManager.getAsyncFillOutput(asyncFill, fname, req, res);
+                if (rslt != null) {
+                    return rslt;
+                }
+            }
+
             final IPortletWindow portletWindow =
                     portletWindowRegistry.getOrCreateDefaultPortletWindow(
                             req, portletDef.getPortletDefinitionId());
@@ -0,0 +1,43 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.dao;
+
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.springframework.context.ApplicationEvent;
+
+/** Base event for {@link IPortletDefinition} changes made through {@link IPortletDefinitionDao} */
+public abstract class AbstractPortletDefinitionEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 1L;
+
+    private final IPortletDefinitionId portletDefinitionId;
+    private final transient IPortletDefinition portletDefinition;
+
+    AbstractPortletDefinitionEvent(Object source, IPortletDefinition portletDefinition) {
+        super(source);
+        this.portletDefinitionId = portletDefinition.getPortletDefinitionId();
+        this.portletDefinition = portletDefinition;
+    }
+
+    /** ID of the portlet definition */
+    public IPortletDefinitionId getPortletDefinitionId() {
+        return portletDefinitionId;
+    }
+
+    /** The portlet definition, transient so may be null if event has been serialized */
+    public IPortletDefinition getPortletDefinition() {
+        return portletDefinition;
+    }
+}
@@ -84,6 +84,33 @@ public interface IUserLayout {
      */
     String findNodeId(INodeIdResolver finder);
 
+    /**
+     * Returns the ID of a tab by its position, the same node as the XPath expression {@code
+     * /layout/folder/folder[@type='regular' and @hidden!='true'][position() = $tabIndex]/@ID}
+     *
+     * @param tabIndex 1 based index of the tab among the regular tabs that are not hidden
+     * @return The ID of the tab, null if there is no tab at the index
+     */
+    String getVisibleTabId(int tabIndex);
+
+    /**
+     * Returns the ID of the tab containing a node, the same node as {@code
+     * /layout/folder/folder[@ID=$nodeId or descendant::node()[@ID=$nodeId]]/@ID}
+     *
+     * @param nodeId ID of a tab or of a folder or channel on a tab
+     * @return The ID of the tab, null if the node is not on a tab
+     */
+    String getTabId(String nodeId);
+
+    /**
+     * Returns the subscribe ID of a channel by functional name, the same node as {@code
+     * //channel[@fname=$fname]/@ID}
+     *
+     * @param fname The functional name of the portlet
+     * @return The subscribe ID of the first channel with the fname, null if there is none
+     */
+    String getSubscribeId(String fname);
+
     /**
      * Returns an id of the root node.
      *
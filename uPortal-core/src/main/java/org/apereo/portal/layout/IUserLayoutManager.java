@@ -249,6 +249,12 @@ public interface IUserLayoutManager {
     @Deprecated
     public Document getUserLayoutDOM() throws PortalException;
 
+    /**
+     * Must be called after the document returned by {@link #getUserLayoutDOM()} has been modified,
+     * otherwise cached copies of the layout may not reflect the change.
+     */
+    public void userLayoutDOMModified() throws PortalException;
+
     /**
      * Returns a layout Id associated with this manager/
      *
@@ -0,0 +1,152 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import org.apereo.portal.events.handlers.db.IPortalEventCodec;
+import org.apereo.portal.events.handlers.db.JacksonPortalEventCodec;
+import org.apereo.portal.security.SystemPerson;
+import org.apereo.portal.url.UrlState;
+import org.apereo.portal.url.UrlType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the JSON text previously stored in the EVENT_DATA column of UP_RAW_EVENTS with the Smile
+ * encoding stored in EVENT_DATA_BINARY. Each operation encodes or decodes a batch containing the
+ * event types written most often, so throughput is in batches per second. The average encoded size
+ * per event for the codec is printed once per fork during setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PortalEventCodecBenchmark {
+    @Param({"json", "smile"})
+    public String codecName;
+
+    private IPortalEventCodec codec;
+    private List<PortalEvent> events;
+    private List<byte[]> encodedEvents;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if ("json".equals(this.codecName)) {
+            this.codec = new JacksonPortalEventCodec(new ObjectMapper().findAndRegisterModules());
+        } else {
+            this.codec = new JacksonPortalEventCodec();
+        }
+
+        this.events = createEvents();
+        this.encodedEvents = new ArrayList<byte[]>(this.events.size());
+        long totalBytes = 0;
+        for (final PortalEvent event : this.events) {
+            final byte[] eventData = this.codec.encode(event);
+            this.encodedEvents.add(eventData);
+            totalBytes += eventData.length;
+        }
+
+        System.out.println();
+        System.out.println(
+                "Average bytes per event, "
+                        + this.codecName
+                        + ": "
+                        + totalBytes / this.events.size());
+    }
+
+    @Benchmark
+    public void encode(Blackhole bh) {
+        for (final PortalEvent event : this.events) {
+            bh.consume(this.codec.encode(event));
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) {
+        for (int i = 0; i < this.events.size(); i++) {
+            bh.consume(this.codec.decode(this.encodedEvents.get(i), this.events.get(i).getClass()));
+        }
+    }
+
+    private static List<PortalEvent> createEvents() {
+        final PortalEvent.PortalEventBuilder eventBuilder =
+                new PortalEvent.PortalEventBuilder(
+                        PortalEventCodecBenchmark.class,
+                        "portal1.example.edu",
+                        "1234567890123_system_AAAAAAAAAAA",
+                        SystemPerson.INSTANCE,
+                        null);
+
+        final Map<String, List<String>> attributes =
+                ImmutableMap.<String, List<String>>of(
+                        "username",
+                        ImmutableList.of("system"),
+                        "roles",
+                        ImmutableList.of("student", "employee"));
+        final Map<String, List<String>> parameters =
+                ImmutableMap.<String, List<String>>of("pP_action", ImmutableList.of("search"));
+
+        final PortletExecutionEvent.PortletExecutionEventBuilder executionEventBuilder =
+                new PortletExecutionEvent.PortletExecutionEventBuilder(
+                        eventBuilder,
+                        null,
+                        "weather",
+                        TimeUnit.MILLISECONDS.toNanos(42),
+                        parameters,
+                        WindowState.NORMAL,
+                        PortletMode.VIEW);
+
+        final List<PortalEvent> events = new ArrayList<PortalEvent>();
+        events.add(
+                new LoginEvent(eventBuilder, ImmutableSet.of("Students", "Employees"), attributes));
+        events.add(
+                new PortalRenderEvent(
+                        eventBuilder,
+                        "/f/s2/normal/render.uP",
+                        TimeUnit.MILLISECONDS.toNanos(180),
+                        UrlState.NORMAL,
+                        UrlType.RENDER,
+                        parameters,
+                        "n4"));
+        for (int i = 0; i < 6; i++) {
+            events.add(new PortletRenderExecutionEvent(executionEventBuilder, i == 0, i % 2 == 0));
+        }
+        events.add(new PortletActionExecutionEvent(executionEventBuilder));
+        events.add(new LogoutEvent(eventBuilder));
+        return events;
+    }
+}
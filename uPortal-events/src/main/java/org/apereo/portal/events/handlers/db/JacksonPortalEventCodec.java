@@ -0,0 +1,58 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.IOException;
+import org.apereo.portal.events.PortalEvent;
+
+/**
+ * Encodes events with a Jackson {@link ObjectMapper}, by default using the Smile binary format.
+ * Smile is a binary equivalent of JSON, it reuses the same annotations and bean mappings as the
+ * JSON stored in the EVENT_DATA column but back-references repeated property names and avoids text
+ * number parsing.
+ */
+public class JacksonPortalEventCodec implements IPortalEventCodec {
+    private final ObjectMapper mapper;
+
+    /** Create a codec that uses the Smile binary format */
+    public JacksonPortalEventCodec() {
+        this(new ObjectMapper(new SmileFactory()).findAndRegisterModules());
+    }
+
+    /** Create a codec that uses the format of the specified mapper */
+    public JacksonPortalEventCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public byte[] encode(PortalEvent event) {
+        try {
+            return this.mapper.writeValueAsBytes(event);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        }
+    }
+
+    @Override
+    public <E extends PortalEvent> E decode(byte[] eventData, Class<E> eventType) {
+        try {
+            return this.mapper.readValue(eventData, eventType);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+        }
+    }
+}
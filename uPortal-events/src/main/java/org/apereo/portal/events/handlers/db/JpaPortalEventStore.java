@@ -19,7 +19,10 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -28,27 +31,46 @@ import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Root;
 import org.apereo.portal.concurrency.FunctionWithoutResult;
 import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.hibernate.DelegatingHibernateIntegrator.HibernateConfiguration;
+import org.apereo.portal.hibernate.HibernateConfigurationAware;
 import org.apereo.portal.jpa.BaseRawEventsJpaDao;
 import org.hibernate.FlushMode;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * Stores portal events using JPA/Hibenate no internal batch segmentation is done to the passed list
  * of {@link PortalEvent}s. If a {@link PortalEvent} is not mapped as a persistent entity a message
  * is logged at the WARN level and the event is ignored.
  *
+ * <p>If partitioned storage is enabled new events are stored by a {@link
+ * PartitionedPortalEventStore} instead, events already in UP_RAW_EVENTS are still read, aggregated
+ * and purged.
+ *
  */
 @Repository
-public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
+public class JpaPortalEventStore extends BaseRawEventsJpaDao
+        implements IPortalEventDao, HibernateConfigurationAware {
 
     private ObjectMapper mapper;
+    private IPortalEventCodec eventCodec = new JacksonPortalEventCodec();
+    private boolean storeBinaryEventData = false;
+    private JdbcOperations jdbcOperations;
+    private TransactionTemplate newTransactionTemplate;
+    private boolean partitionedStorage = false;
+    private volatile PartitionedPortalEventStore partitionedEventStore;
     private String deleteQuery;
     private String selectQuery;
     private String selectUnaggregatedQuery;
@@ -63,6 +85,51 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         this.mapper = mapper;
     }
 
+    /**
+     * Codec used to write and read the EVENT_DATA_BINARY column, defaults to a Smile {@link
+     * JacksonPortalEventCodec}. Changing the codec makes previously stored binary events
+     * unreadable.
+     */
+    @Autowired(required = false)
+    public void setEventCodec(IPortalEventCodec eventCodec) {
+        this.eventCodec = eventCodec;
+    }
+
+    /**
+     * If new events should be stored in the EVENT_DATA_BINARY column using the {@link
+     * IPortalEventCodec} instead of as JSON in EVENT_DATA, defaults to false. Events are read from
+     * whichever column has data so both formats can exist in the table during migration.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.storeBinaryEventData:false}")
+    public void setStoreBinaryEventData(boolean storeBinaryEventData) {
+        this.storeBinaryEventData = storeBinaryEventData;
+    }
+
+    @Autowired
+    @Qualifier(PERSISTENCE_UNIT_NAME)
+    public void setJdbcOperations(JdbcOperations jdbcOperations) {
+        this.jdbcOperations = jdbcOperations;
+    }
+
+    @Autowired
+    public void setPlatformTransactionManager(
+            @Qualifier(PERSISTENCE_UNIT_NAME)
+                    PlatformTransactionManager platformTransactionManager) {
+        this.newTransactionTemplate = new TransactionTemplate(platformTransactionManager);
+        this.newTransactionTemplate.setPropagationBehavior(
+                TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.newTransactionTemplate.afterPropertiesSet();
+    }
+
+    /**
+     * If new events should be stored in one table per day by a {@link PartitionedPortalEventStore}
+     * instead of in UP_RAW_EVENTS, defaults to false. Purging then drops whole days of events.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.partitionedStorage:false}")
+    public void setPartitionedStorage(boolean partitionedStorage) {
+        this.partitionedStorage = partitionedStorage;
+    }
+
     /**
      * Frequency that updated events should be flushed during a call to {@link
      * #aggregatePortalEvents(DateTime, DateTime, int, FunctionWithoutResult)}, defaults to 1000.
@@ -73,6 +140,27 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         this.flushPeriod = flushPeriod;
     }
 
+    @Override
+    public boolean supports(String persistenceUnit) {
+        return PERSISTENCE_UNIT_NAME.equals(persistenceUnit);
+    }
+
+    @Override
+    public void setConfiguration(
+            String persistenceUnit, HibernateConfiguration hibernateConfiguration) {
+        if (this.partitionedStorage) {
+            final Dialect dialect = hibernateConfiguration.getSessionFactory().getDialect();
+            final PartitionedPortalEventStore partitionedEventStore =
+                    new PartitionedPortalEventStore(
+                            this.jdbcOperations,
+                            this.newTransactionTemplate,
+                            dialect,
+                            this.eventCodec);
+            partitionedEventStore.setFlushPeriod(this.flushPeriod);
+            this.partitionedEventStore = partitionedEventStore;
+        }
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         this.startTimeParameter = this.createParameterExpression(DateTime.class, "startTime");
@@ -176,6 +264,12 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvent(PortalEvent portalEvent) {
+        final PartitionedPortalEventStore partitionedEventStore = this.getPartitionedEventStore();
+        if (partitionedEventStore != null) {
+            partitionedEventStore.storePortalEvents(Collections.singleton(portalEvent));
+            return;
+        }
+
         final PersistentPortalEvent persistentPortalEvent = this.wrapPortalEvent(portalEvent);
         this.getEntityManager().persist(persistentPortalEvent);
     }
@@ -183,6 +277,12 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvents(PortalEvent... portalEvents) {
+        final PartitionedPortalEventStore partitionedEventStore = this.getPartitionedEventStore();
+        if (partitionedEventStore != null) {
+            partitionedEventStore.storePortalEvents(Arrays.asList(portalEvents));
+            return;
+        }
+
         for (final PortalEvent portalEvent : portalEvents) {
             try {
                 storePortalEvent(portalEvent);
@@ -200,6 +300,12 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvents(Iterable<PortalEvent> portalEvents) {
+        final PartitionedPortalEventStore partitionedEventStore = this.getPartitionedEventStore();
+        if (partitionedEventStore != null) {
+            partitionedEventStore.storePortalEvents(portalEvents);
+            return;
+        }
+
         for (final PortalEvent portalEvent : portalEvents) {
             try {
                 storePortalEvent(portalEvent);
@@ -219,11 +325,25 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         final TypedQuery<DateTime> query =
                 this.createQuery(this.findOldestPersistentPortalEventTimestampQuery);
         final List<DateTime> results = query.getResultList();
-        return DataAccessUtils.uniqueResult(results);
+        final DateTime oldest = DataAccessUtils.uniqueResult(results);
+
+        final PartitionedPortalEventStore partitionedEventStore = this.getPartitionedEventStore();
+        if (oldest == null && partitionedEventStore != null) {
+            return partitionedEventStore.getOldestPortalEventTimestamp();
+        }
+        return oldest;
     }
 
     @Override
     public DateTime getNewestPortalEventTimestamp() {
+        final PartitionedPortalEventStore partitionedEventStore = this.getPartitionedEventStore();
+        if (partitionedEventStore != null) {
+            final DateTime newest = partitionedEventStore.getNewestPortalEventTimestamp();
+            if (newest != null) {
+                return newest;
+            }
+        }
+
         final TypedQuery<DateTime> query =
                 this.createQuery(this.findNewestPersistentPortalEventTimestampQuery);
         final List<DateTime> results = query.getResultList();
@@ -233,6 +353,43 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public boolean aggregatePortalEvents(
+            DateTime startTime,
+            DateTime endTime,
+            int maxEvents,
+            final Function<PortalEvent, Boolean> handler) {
+        final PartitionedPortalEventStore partitionedEventStore = this.getPartitionedEventStore();
+        if (partitionedEventStore == null) {
+            return this.aggregatePersistentPortalEvents(startTime, endTime, maxEvents, handler);
+        }
+
+        //Events stored in UP_RAW_EVENTS before partitioning was enabled are aggregated first
+        final AtomicInteger eventCount = new AtomicInteger();
+        final boolean complete =
+                this.aggregatePersistentPortalEvents(
+                        startTime,
+                        endTime,
+                        maxEvents,
+                        new Function<PortalEvent, Boolean>() {
+                            @Override
+                            public Boolean apply(PortalEvent input) {
+                                eventCount.incrementAndGet();
+                                return handler.apply(input);
+                            }
+                        });
+        if (!complete) {
+            return false;
+        }
+
+        if (maxEvents > 0) {
+            if (eventCount.get() >= maxEvents) {
+                return true;
+            }
+            maxEvents -= eventCount.get();
+        }
+        return partitionedEventStore.aggregatePortalEvents(startTime, endTime, maxEvents, handler);
+    }
+
+    private boolean aggregatePersistentPortalEvents(
             DateTime startTime,
             DateTime endTime,
             int maxEvents,
@@ -254,10 +411,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                     (PersistentPortalEvent) results.get(0);
             final PortalEvent portalEvent;
             try {
-                portalEvent =
-                        this.toPortalEvent(
-                                persistentPortalEvent.getEventData(),
-                                persistentPortalEvent.getEventType());
+                portalEvent = this.toPortalEvent(persistentPortalEvent);
             } catch (RuntimeException e) {
                 this.logger.warn(
                         "Failed to convert PersistentPortalEvent to PortalEvent: "
@@ -313,6 +467,40 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
     @Override
     public void getPortalEvents(
+            DateTime startTime,
+            DateTime endTime,
+            int maxEvents,
+            final FunctionWithoutResult<PortalEvent> handler) {
+        final PartitionedPortalEventStore partitionedEventStore = this.getPartitionedEventStore();
+        if (partitionedEventStore == null) {
+            this.getPersistentPortalEvents(startTime, endTime, maxEvents, handler);
+            return;
+        }
+
+        //Events stored in UP_RAW_EVENTS before partitioning was enabled are returned first
+        final AtomicInteger eventCount = new AtomicInteger();
+        this.getPersistentPortalEvents(
+                startTime,
+                endTime,
+                maxEvents,
+                new FunctionWithoutResult<PortalEvent>() {
+                    @Override
+                    protected void applyWithoutResult(PortalEvent input) {
+                        eventCount.incrementAndGet();
+                        handler.apply(input);
+                    }
+                });
+
+        if (maxEvents > 0) {
+            if (eventCount.get() >= maxEvents) {
+                return;
+            }
+            maxEvents -= eventCount.get();
+        }
+        partitionedEventStore.getPortalEvents(startTime, endTime, maxEvents, handler);
+    }
+
+    private void getPersistentPortalEvents(
             DateTime startTime,
             DateTime endTime,
             int maxEvents,
@@ -330,10 +518,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                 ) {
             final PersistentPortalEvent persistentPortalEvent =
                     (PersistentPortalEvent) results.get(0);
-            final PortalEvent portalEvent =
-                    this.toPortalEvent(
-                            persistentPortalEvent.getEventData(),
-                            persistentPortalEvent.getEventType());
+            final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent);
             handler.apply(portalEvent);
             persistentPortalEvent.setAggregated(true);
             session.evict(persistentPortalEvent);
@@ -345,14 +530,50 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     public int deletePortalEventsBefore(DateTime time) {
         final Query query = this.getEntityManager().createQuery(this.deleteQuery);
         query.setParameter(this.endTimeParameter.getName(), time);
-        return query.executeUpdate();
+        int events = query.executeUpdate();
+
+        final PartitionedPortalEventStore partitionedEventStore = this.getPartitionedEventStore();
+        if (partitionedEventStore != null) {
+            events += partitionedEventStore.deletePortalEventsBefore(time);
+        }
+        return events;
+    }
+
+    private PartitionedPortalEventStore getPartitionedEventStore() {
+        if (!this.partitionedStorage) {
+            return null;
+        }
+
+        final PartitionedPortalEventStore partitionedEventStore = this.partitionedEventStore;
+        if (partitionedEventStore == null) {
+            throw new IllegalStateException(
+                    "Partitioned raw event storage is enabled but the Hibernate configuration for "
+                            + PERSISTENCE_UNIT_NAME
+                            + " has not been loaded");
+        }
+        return partitionedEventStore;
     }
 
     protected PersistentPortalEvent wrapPortalEvent(PortalEvent event) {
+        if (this.storeBinaryEventData) {
+            final byte[] portalEventData = this.eventCodec.encode(event);
+            return new PersistentPortalEvent(event, portalEventData);
+        }
+
         final String portalEventData = this.toString(event);
         return new PersistentPortalEvent(event, portalEventData);
     }
 
+    protected PortalEvent toPortalEvent(PersistentPortalEvent persistentPortalEvent) {
+        final byte[] eventDataBinary = persistentPortalEvent.getEventDataBinary();
+        if (eventDataBinary != null) {
+            return this.eventCodec.decode(eventDataBinary, persistentPortalEvent.getEventType());
+        }
+
+        return this.toPortalEvent(
+                persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
+    }
+
     protected <E extends PortalEvent> E toPortalEvent(final String eventData, Class<E> eventType) {
         try {
             return mapper.readValue(eventData, eventType);
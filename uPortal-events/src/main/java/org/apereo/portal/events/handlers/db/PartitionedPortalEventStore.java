@@ -0,0 +1,652 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import com.google.common.base.Function;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+import org.apereo.portal.concurrency.FunctionWithoutResult;
+import org.apereo.portal.events.PortalEvent;
+import org.hibernate.dialect.Dialect;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Stores raw portal events in one table per UTC day named UP_RAW_EVENTS_yyyyMMdd, created the first
+ * time an event for that day is stored. Reads and aggregation only query the tables that overlap
+ * the requested time range and purging drops whole tables instead of deleting rows, so a table is
+ * only purged once all of its day is before the purge time. Event data is stored using the {@link
+ * IPortalEventCodec}. The DDL is built from the Hibernate {@link Dialect} of the raw events
+ * database, using an identity column for the event id or a per table sequence if the database does
+ * not support identity columns. Tables are created in their own transaction before any events are
+ * inserted so the DDL never runs inside, or commits, the transaction storing the events.
+ *
+ * <p>Used by {@link JpaPortalEventStore} when partitioned storage is enabled.
+ */
+class PartitionedPortalEventStore {
+    static final String TABLE_PREFIX = "UP_RAW_EVENTS_";
+
+    private static final Pattern TABLE_PATTERN =
+            Pattern.compile(TABLE_PREFIX + "\\d{8}", Pattern.CASE_INSENSITIVE);
+    private static final DateTimeFormatter PARTITION_FORMAT =
+            DateTimeFormat.forPattern("yyyyMMdd").withZoneUTC();
+
+    private static final String COL_EVENT_ID = "EVENT_ID";
+    private static final String COL_TIMESTAMP = "TIMESTAMP";
+    private static final String COL_SERVER_ID = "SERVER_ID";
+    private static final String COL_SESSION_ID = "SESSION_ID";
+    private static final String COL_USER_NAME = "USER_NAME";
+    private static final String COL_EVENT_TYPE = "EVENT_TYPE";
+    private static final String COL_EVENT_DATA = "EVENT_DATA";
+    private static final String COL_AGGREGATED = "AGGREGATED";
+    private static final String COL_ERROR_AGGR = "ERROR_AGGR";
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final NavigableSet<String> partitions = new ConcurrentSkipListSet<String>();
+    private final JdbcOperations jdbcOperations;
+    private final TransactionOperations partitionTransactionOperations;
+    private final Dialect dialect;
+    private final IPortalEventCodec eventCodec;
+    private final boolean useSequences;
+    private int flushPeriod = 1000;
+
+    /**
+     * @param partitionTransactionOperations Used to create and drop partitions, must start a new
+     *     transaction (PROPAGATION_REQUIRES_NEW)
+     */
+    PartitionedPortalEventStore(
+            JdbcOperations jdbcOperations,
+            TransactionOperations partitionTransactionOperations,
+            Dialect dialect,
+            IPortalEventCodec eventCodec) {
+        if (!dialect.supportsIdentityColumns() && !dialect.supportsSequences()) {
+            throw new IllegalArgumentException(
+                    "Partitioned raw event storage requires identity column or sequence support, "
+                            + dialect
+                            + " supports neither");
+        }
+
+        this.jdbcOperations = jdbcOperations;
+        this.partitionTransactionOperations = partitionTransactionOperations;
+        this.dialect = dialect;
+        this.eventCodec = eventCodec;
+        this.useSequences = !dialect.supportsIdentityColumns();
+    }
+
+    /** Number of rows marked as aggregated between batched updates, defaults to 1000 */
+    void setFlushPeriod(int flushPeriod) {
+        this.flushPeriod = flushPeriod;
+    }
+
+    /** @return The name of the table that stores events from the instant */
+    static String getPartition(DateTime timestamp) {
+        return TABLE_PREFIX + PARTITION_FORMAT.print(timestamp);
+    }
+
+    /** @return The start of the day stored in the table */
+    static DateTime getPartitionStart(String partition) {
+        return PARTITION_FORMAT.parseDateTime(partition.substring(TABLE_PREFIX.length()));
+    }
+
+    /** @return The names of the existing partition tables, oldest first */
+    List<String> getPartitions() {
+        this.refreshPartitions();
+        return new ArrayList<String>(this.partitions);
+    }
+
+    void storePortalEvents(Iterable<PortalEvent> portalEvents) {
+        //Group by partition, creating all partitions first so DDL never follows an insert
+        final Map<String, List<PortalEvent>> partitionEvents =
+                new LinkedHashMap<String, List<PortalEvent>>();
+        for (final PortalEvent portalEvent : portalEvents) {
+            final String partition = getPartition(portalEvent.getTimestampAsDate());
+            List<PortalEvent> events = partitionEvents.get(partition);
+            if (events == null) {
+                events = new ArrayList<PortalEvent>();
+                partitionEvents.put(partition, events);
+            }
+            events.add(portalEvent);
+        }
+        this.ensurePartitions(partitionEvents.keySet());
+
+        for (final Map.Entry<String, List<PortalEvent>> partitionEntry :
+                partitionEvents.entrySet()) {
+            final String partition = partitionEntry.getKey();
+            final List<PortalEvent> events = partitionEntry.getValue();
+            this.jdbcOperations.batchUpdate(
+                    this.getInsertSql(partition),
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            final PortalEvent event = events.get(i);
+                            ps.setTimestamp(1, new Timestamp(event.getTimestamp()));
+                            ps.setString(2, event.getServerId());
+                            ps.setString(3, event.getEventSessionId());
+                            ps.setString(4, event.getUserName());
+                            ps.setString(5, event.getClass().getName());
+                            ps.setBytes(6, eventCodec.encode(event));
+                            ps.setBoolean(7, false);
+                            ps.setBoolean(8, false);
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return events.size();
+                        }
+                    });
+        }
+    }
+
+    DateTime getOldestPortalEventTimestamp() {
+        this.refreshPartitions();
+        for (final String partition : this.partitions) {
+            final Timestamp oldest =
+                    this.jdbcOperations.queryForObject(
+                            "SELECT MIN(" + COL_TIMESTAMP + ") FROM " + partition, Timestamp.class);
+            if (oldest != null) {
+                return new DateTime(oldest.getTime());
+            }
+        }
+        return null;
+    }
+
+    DateTime getNewestPortalEventTimestamp() {
+        this.refreshPartitions();
+        for (final String partition : this.partitions.descendingSet()) {
+            final Timestamp newest =
+                    this.jdbcOperations.queryForObject(
+                            "SELECT MAX(" + COL_TIMESTAMP + ") FROM " + partition, Timestamp.class);
+            if (newest != null) {
+                return new DateTime(newest.getTime());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @see IPortalEventDao#aggregatePortalEvents(DateTime, DateTime, int, Function)
+     * @return false if the handler requested that aggregation stop
+     */
+    boolean aggregatePortalEvents(
+            DateTime startTime,
+            DateTime endTime,
+            int maxEvents,
+            Function<PortalEvent, Boolean> handler) {
+        int remaining = maxEvents;
+        for (final String partition : this.getPartitions(startTime, endTime)) {
+            final AggregationExtractor extractor = new AggregationExtractor(partition, handler);
+            final boolean complete =
+                    this.jdbcOperations.query(
+                            this.createSelectStatement(
+                                    partition,
+                                    startTime,
+                                    endTime,
+                                    remaining,
+                                    " AND "
+                                            + COL_AGGREGATED
+                                            + " = ? AND "
+                                            + COL_ERROR_AGGR
+                                            + " = ?"),
+                            extractor);
+            if (!complete) {
+                return false;
+            }
+
+            if (maxEvents > 0) {
+                remaining -= extractor.resultCount;
+                if (remaining <= 0) {
+                    break;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /** @see IPortalEventDao#getPortalEvents(DateTime, DateTime, int, FunctionWithoutResult) */
+    void getPortalEvents(
+            DateTime startTime,
+            DateTime endTime,
+            int maxEvents,
+            final FunctionWithoutResult<PortalEvent> handler) {
+        int remaining = maxEvents;
+        for (final String partition : this.getPartitions(startTime, endTime)) {
+            final int resultCount =
+                    this.jdbcOperations.query(
+                            this.createSelectStatement(
+                                    partition, startTime, endTime, remaining, ""),
+                            new ResultSetExtractor<Integer>() {
+                                @Override
+                                public Integer extractData(ResultSet rs)
+                                        throws SQLException, DataAccessException {
+                                    int resultCount = 0;
+                                    while (rs.next()) {
+                                        resultCount++;
+                                        handler.apply(toPortalEvent(rs));
+                                    }
+                                    return resultCount;
+                                }
+                            });
+
+            if (maxEvents > 0) {
+                remaining -= resultCount;
+                if (remaining <= 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the partitions that only contain events from before the specified time. Events in the
+     * partition containing the time are kept until the whole partition can be dropped.
+     *
+     * @return The number of events dropped
+     */
+    int deletePortalEventsBefore(DateTime time) {
+        this.refreshPartitions();
+
+        int events = 0;
+        for (final String partition : this.partitions) {
+            if (getPartitionStart(partition).plusDays(1).isAfter(time)) {
+                break;
+            }
+
+            //DDL commits implicitly on most databases, keep it out of the caller's transaction
+            events +=
+                    this.partitionTransactionOperations.execute(
+                            new TransactionCallback<Integer>() {
+                                @Override
+                                public Integer doInTransaction(TransactionStatus status) {
+                                    return dropPartition(partition);
+                                }
+                            });
+            this.partitions.remove(partition);
+        }
+
+        return events;
+    }
+
+    /** @return The number of events in the dropped partition */
+    private int dropPartition(String partition) {
+        final int events =
+                this.jdbcOperations.queryForObject(
+                        "SELECT COUNT(*) FROM " + partition, Integer.class);
+        logger.debug("Dropping raw event partition {}", partition);
+        this.jdbcOperations.execute("DROP TABLE " + partition);
+        if (this.useSequences) {
+            for (final String sql : this.dialect.getDropSequenceStrings(getSequence(partition))) {
+                this.jdbcOperations.execute(sql);
+            }
+        }
+        return events;
+    }
+
+    /** @return The partitions that may contain events in the time range, oldest first */
+    private List<String> getPartitions(DateTime startTime, DateTime endTime) {
+        this.refreshPartitions();
+
+        final List<String> partitions = new ArrayList<String>();
+        for (final String partition :
+                this.partitions.subSet(
+                        getPartition(startTime), true, getPartition(endTime), true)) {
+            partitions.add(partition);
+        }
+        return partitions;
+    }
+
+    /** Reload the partition tables from the database, other servers create and drop them */
+    private void refreshPartitions() {
+        final NavigableSet<String> partitions =
+                this.jdbcOperations.execute(
+                        new ConnectionCallback<NavigableSet<String>>() {
+                            @Override
+                            public NavigableSet<String> doInConnection(Connection con)
+                                    throws SQLException, DataAccessException {
+                                final NavigableSet<String> partitions = new TreeSet<String>();
+                                final DatabaseMetaData metaData = con.getMetaData();
+                                final ResultSet tables =
+                                        metaData.getTables(
+                                                con.getCatalog(),
+                                                getSchema(con),
+                                                null,
+                                                new String[] {"TABLE"});
+                                try {
+                                    while (tables.next()) {
+                                        final String table = tables.getString("TABLE_NAME");
+                                        if (TABLE_PATTERN.matcher(table).matches()) {
+                                            partitions.add(table.toUpperCase());
+                                        }
+                                    }
+                                } finally {
+                                    tables.close();
+                                }
+                                return partitions;
+                            }
+                        });
+
+        this.partitions.retainAll(partitions);
+        this.partitions.addAll(partitions);
+    }
+
+    /** @return The schema of the connection, null if the driver predates JDBC 4.1 */
+    private static String getSchema(Connection con) throws SQLException {
+        try {
+            return con.getSchema();
+        } catch (SQLFeatureNotSupportedException e) {
+            return null;
+        } catch (AbstractMethodError e) {
+            return null;
+        }
+    }
+
+    /** Create the missing partitions, each in a new transaction */
+    private void ensurePartitions(Set<String> required) {
+        if (this.partitions.containsAll(required)) {
+            return;
+        }
+
+        this.refreshPartitions();
+        for (final String partition : required) {
+            if (this.partitions.contains(partition)) {
+                continue;
+            }
+
+            try {
+                this.partitionTransactionOperations.execute(
+                        new TransactionCallbackWithoutResult() {
+                            @Override
+                            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                                createPartition(partition);
+                            }
+                        });
+            } catch (DataAccessException e) {
+                //Another server may have created the partition concurrently
+                this.refreshPartitions();
+                if (!this.partitions.contains(partition)) {
+                    throw e;
+                }
+            }
+
+            this.partitions.add(partition);
+        }
+    }
+
+    private void createPartition(String partition) {
+        logger.info("Creating raw event partition {}", partition);
+
+        final String idColumn;
+        if (this.useSequences) {
+            for (final String sql :
+                    this.dialect.getCreateSequenceStrings(getSequence(partition), 1, 1)) {
+                this.jdbcOperations.execute(sql);
+            }
+            idColumn = this.dialect.getTypeName(Types.BIGINT) + " not null";
+        } else if (this.dialect.hasDataTypeInIdentityColumn()) {
+            idColumn =
+                    this.dialect.getTypeName(Types.BIGINT)
+                            + " "
+                            + this.dialect.getIdentityColumnString(Types.BIGINT);
+        } else {
+            idColumn = this.dialect.getIdentityColumnString(Types.BIGINT);
+        }
+
+        final String booleanType = this.dialect.getTypeName(Types.BIT);
+        this.jdbcOperations.execute(
+                "CREATE TABLE "
+                        + partition
+                        + " ("
+                        + COL_EVENT_ID
+                        + " "
+                        + idColumn
+                        + ", "
+                        + COL_TIMESTAMP
+                        + " "
+                        + this.dialect.getTypeName(Types.TIMESTAMP)
+                        + " not null, "
+                        + COL_SERVER_ID
+                        + " "
+                        + this.dialect.getTypeName(Types.VARCHAR, 200, 0, 0)
+                        + " not null, "
+                        + COL_SESSION_ID
+                        + " "
+                        + this.dialect.getTypeName(Types.VARCHAR, 500, 0, 0)
+                        + " not null, "
+                        + COL_USER_NAME
+                        + " "
+                        + this.dialect.getTypeName(Types.VARCHAR, 100, 0, 0)
+                        + " not null, "
+                        + COL_EVENT_TYPE
+                        + " "
+                        + this.dialect.getTypeName(Types.VARCHAR, 200, 0, 0)
+                        + " not null, "
+                        + COL_EVENT_DATA
+                        + " "
+                        + this.dialect.getTypeName(Types.LONGVARBINARY, 10000, 0, 0)
+                        + " not null, "
+                        + COL_AGGREGATED
+                        + " "
+                        + booleanType
+                        + " not null, "
+                        + COL_ERROR_AGGR
+                        + " "
+                        + booleanType
+                        + " not null, "
+                        + "primary key ("
+                        + COL_EVENT_ID
+                        + "))");
+        this.jdbcOperations.execute(
+                "CREATE INDEX IDX_" + partition + " ON " + partition + " (" + COL_TIMESTAMP + ")");
+    }
+
+    private static String getSequence(String partition) {
+        return partition + "_SEQ";
+    }
+
+    private String getInsertSql(String partition) {
+        final StringBuilder sql = new StringBuilder("INSERT INTO ").append(partition).append(" (");
+        if (this.useSequences) {
+            sql.append(COL_EVENT_ID).append(", ");
+        }
+        sql.append(COL_TIMESTAMP).append(", ");
+        sql.append(COL_SERVER_ID).append(", ");
+        sql.append(COL_SESSION_ID).append(", ");
+        sql.append(COL_USER_NAME).append(", ");
+        sql.append(COL_EVENT_TYPE).append(", ");
+        sql.append(COL_EVENT_DATA).append(", ");
+        sql.append(COL_AGGREGATED).append(", ");
+        sql.append(COL_ERROR_AGGR).append(") VALUES (");
+        if (this.useSequences) {
+            sql.append(this.dialect.getSelectSequenceNextValString(getSequence(partition)))
+                    .append(", ");
+        }
+        sql.append("?, ?, ?, ?, ?, ?, ?, ?)");
+        return sql.toString();
+    }
+
+    private PreparedStatementCreator createSelectStatement(
+            final String partition,
+            final DateTime startTime,
+            final DateTime endTime,
+            final int maxEvents,
+            final String additionalCriteria) {
+        return new PreparedStatementCreator() {
+            @Override
+            public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                final PreparedStatement ps =
+                        con.prepareStatement(
+                                "SELECT "
+                                        + COL_EVENT_ID
+                                        + ", "
+                                        + COL_EVENT_TYPE
+                                        + ", "
+                                        + COL_EVENT_DATA
+                                        + " FROM "
+                                        + partition
+                                        + " WHERE "
+                                        + COL_TIMESTAMP
+                                        + " >= ? AND "
+                                        + COL_TIMESTAMP
+                                        + " < ?"
+                                        + additionalCriteria
+                                        + " ORDER BY "
+                                        + COL_TIMESTAMP
+                                        + " ASC");
+                ps.setTimestamp(1, new Timestamp(startTime.getMillis()));
+                ps.setTimestamp(2, new Timestamp(endTime.getMillis()));
+                if (additionalCriteria.length() > 0) {
+                    ps.setBoolean(3, false);
+                    ps.setBoolean(4, false);
+                }
+                if (maxEvents > 0) {
+                    ps.setMaxRows(maxEvents);
+                }
+                return ps;
+            }
+        };
+    }
+
+    private PortalEvent toPortalEvent(ResultSet rs) throws SQLException {
+        final Class<? extends PortalEvent> eventType;
+        try {
+            eventType =
+                    ClassUtils.forName(rs.getString(2), PortalEvent.class.getClassLoader())
+                            .asSubclass(PortalEvent.class);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Failed to load PortalEvent type " + rs.getString(2), e);
+        }
+        return this.eventCodec.decode(rs.getBytes(3), eventType);
+    }
+
+    private void markEvents(String partition, String column, final List<Long> eventIds) {
+        if (eventIds.isEmpty()) {
+            return;
+        }
+
+        this.jdbcOperations.batchUpdate(
+                "UPDATE " + partition + " SET " + column + " = ? WHERE " + COL_EVENT_ID + " = ?",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setBoolean(1, true);
+                        ps.setLong(2, eventIds.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return eventIds.size();
+                    }
+                });
+        eventIds.clear();
+    }
+
+    /** Passes unaggregated events to the handler, marking each as aggregated or erred */
+    private final class AggregationExtractor implements ResultSetExtractor<Boolean> {
+        private final String partition;
+        private final Function<PortalEvent, Boolean> handler;
+        private final List<Long> aggregated = new ArrayList<Long>();
+        private final List<Long> erred = new ArrayList<Long>();
+        private int resultCount = 0;
+
+        AggregationExtractor(String partition, Function<PortalEvent, Boolean> handler) {
+            this.partition = partition;
+            this.handler = handler;
+        }
+
+        @Override
+        public Boolean extractData(ResultSet rs) throws SQLException, DataAccessException {
+            try {
+                while (rs.next()) {
+                    this.resultCount++;
+                    final long eventId = rs.getLong(1);
+
+                    final PortalEvent portalEvent;
+                    try {
+                        portalEvent = toPortalEvent(rs);
+                    } catch (RuntimeException e) {
+                        logger.warn(
+                                "Failed to convert event "
+                                        + eventId
+                                        + " in "
+                                        + this.partition
+                                        + " to PortalEvent",
+                                e);
+                        this.erred.add(eventId);
+                        continue;
+                    }
+
+                    try {
+                        final Boolean eventHandled = this.handler.apply(portalEvent);
+                        if (!eventHandled) {
+                            logger.debug(
+                                    "Aggregation stop requested before processing event {}",
+                                    portalEvent);
+                            return false;
+                        }
+
+                        this.aggregated.add(eventId);
+
+                        //periodic flush of aggregated marks to bound memory use
+                        if (this.aggregated.size() >= flushPeriod) {
+                            this.flush();
+                        }
+                    } catch (Exception e) {
+                        logger.warn("Failed to aggregate portal event: " + portalEvent, e);
+                        this.erred.add(eventId);
+                    }
+                }
+
+                return true;
+            } finally {
+                this.flush();
+            }
+        }
+
+        private void flush() {
+            markEvents(this.partition, COL_AGGREGATED, this.aggregated);
+            markEvents(this.partition, COL_ERROR_AGGR, this.erred);
+        }
+    }
+}
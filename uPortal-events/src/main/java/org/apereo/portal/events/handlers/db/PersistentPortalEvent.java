@@ -31,7 +31,9 @@ import org.hibernate.annotations.Type;
 import org.joda.time.DateTime;
 
 /**
- * Persistent wrapper for storing portal events
+ * Persistent wrapper for storing portal events. The event data is either JSON text in EVENT_DATA or
+ * the output of an {@link IPortalEventCodec} in EVENT_DATA_BINARY, rows written before the binary
+ * column existed only have the JSON text.
  *
  */
 @Entity
@@ -81,10 +83,14 @@ public class PersistentPortalEvent implements Serializable {
     @Type(type = "class")
     private final Class<PortalEvent> eventType;
 
-    @Column(name = "EVENT_DATA", nullable = false, updatable = false, length = 10000)
+    @Column(name = "EVENT_DATA", updatable = false, length = 10000)
     @Lob
     private final String eventData;
 
+    @Column(name = "EVENT_DATA_BINARY", updatable = false, length = 10000)
+    @Lob
+    private final byte[] eventDataBinary;
+
     @Index(name = "IDX_UP_RAW_EVENTS_AGGREGATED")
     @Column(name = "AGGREGATED")
     private Boolean aggregated = false;
@@ -98,6 +104,7 @@ public class PersistentPortalEvent implements Serializable {
     private PersistentPortalEvent() {
         this.id = -1;
         this.eventData = null;
+        this.eventDataBinary = null;
         this.timestamp = null;
         this.serverId = null;
         this.eventSessionId = null;
@@ -105,10 +112,20 @@ public class PersistentPortalEvent implements Serializable {
         this.eventType = null;
     }
 
-    @SuppressWarnings("unchecked")
     PersistentPortalEvent(PortalEvent portalEvent, String eventData) {
+        this(portalEvent, eventData, null);
+    }
+
+    PersistentPortalEvent(PortalEvent portalEvent, byte[] eventDataBinary) {
+        this(portalEvent, null, eventDataBinary);
+    }
+
+    @SuppressWarnings("unchecked")
+    private PersistentPortalEvent(
+            PortalEvent portalEvent, String eventData, byte[] eventDataBinary) {
         this.id = -1;
         this.eventData = eventData;
+        this.eventDataBinary = eventDataBinary;
         this.timestamp = new DateTime(portalEvent.getTimestamp());
         this.serverId = portalEvent.getServerId();
         this.eventSessionId = portalEvent.getEventSessionId();
@@ -120,11 +137,16 @@ public class PersistentPortalEvent implements Serializable {
         return this.eventType;
     }
 
-    /** @return the eventData */
+    /** @return the JSON eventData, null if the event was stored in binary form */
     public String getEventData() {
         return this.eventData;
     }
 
+    /** @return the binary eventData, null if the event was stored as JSON */
+    public byte[] getEventDataBinary() {
+        return this.eventDataBinary;
+    }
+
     public boolean isAggregated() {
         Boolean a = this.aggregated;
         if (a == null) {
@@ -156,6 +178,12 @@ public class PersistentPortalEvent implements Serializable {
      */
     @Override
     public String toString() {
-        return this.eventData;
+        if (this.eventData != null) {
+            return this.eventData;
+        }
+        return this.eventType.getName()
+                + " ["
+                + (this.eventDataBinary != null ? this.eventDataBinary.length : 0)
+                + " bytes]";
     }
 }
@@ -0,0 +1,230 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable, case-insensitive index of group names that answers the {@link IGroupConstants}
+ * search methods without scanning every group. {@link IGroupConstants#IS} is a hash lookup, {@link
+ * IGroupConstants#STARTS_WITH} and {@link IGroupConstants#ENDS_WITH} are range scans over the
+ * sorted names and the sorted reversed names, and {@link IGroupConstants#CONTAINS} uses an index of
+ * every substring of up to three characters.
+ *
+ * <p>Group stores build a new index each time their set of groups is refreshed and search the
+ * current one, see {@link #builder()}.
+ */
+public final class GroupNameIndex {
+    private static final int MAX_GRAM_LENGTH = 3;
+
+    /** Distinct upper case names, sorted */
+    private final String[] names;
+    /** Keys of the groups with each name */
+    private final List<List<String>> keys;
+
+    private final Map<String, Integer> nameIds;
+    /** Reversed upper case names, sorted, and the ID of each */
+    private final String[] reversedNames;
+
+    private final int[] reversedNameIds;
+    /** IDs of the names containing each substring of up to MAX_GRAM_LENGTH characters */
+    private final Map<String, int[]> grams;
+
+    private GroupNameIndex(TreeMap<String, List<String>> keysByName) {
+        final int size = keysByName.size();
+        this.names = keysByName.keySet().toArray(new String[size]);
+        this.keys = new ArrayList<>(size);
+        this.nameIds = new HashMap<>(size * 4 / 3 + 1);
+        final TreeMap<String, Integer> reversed = new TreeMap<>();
+        final Map<String, List<Integer>> grams = new HashMap<>();
+
+        for (int id = 0; id < size; id++) {
+            final String name = this.names[id];
+            this.keys.add(Collections.unmodifiableList(keysByName.get(name)));
+            this.nameIds.put(name, id);
+            reversed.put(new StringBuilder(name).reverse().toString(), id);
+
+            for (int length = 1; length <= MAX_GRAM_LENGTH; length++) {
+                for (int i = 0; i + length <= name.length(); i++) {
+                    final String gram = name.substring(i, i + length);
+                    List<Integer> ids = grams.get(gram);
+                    if (ids == null) {
+                        ids = new ArrayList<>();
+                        grams.put(gram, ids);
+                    }
+                    // IDs are added in order, a gram repeated within a name is added once
+                    if (ids.isEmpty() || ids.get(ids.size() - 1) != id) {
+                        ids.add(id);
+                    }
+                }
+            }
+        }
+
+        this.reversedNames = reversed.keySet().toArray(new String[size]);
+        this.reversedNameIds = new int[size];
+        int i = 0;
+        for (final Integer id : reversed.values()) {
+            this.reversedNameIds[i++] = id;
+        }
+
+        this.grams = new HashMap<>(grams.size() * 4 / 3 + 1);
+        for (final Map.Entry<String, List<Integer>> entry : grams.entrySet()) {
+            final List<Integer> ids = entry.getValue();
+            final int[] postings = new int[ids.size()];
+            for (int j = 0; j < postings.length; j++) {
+                postings[j] = ids.get(j);
+            }
+            this.grams.put(entry.getKey(), postings);
+        }
+    }
+
+    /** @return A builder for a new index */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** @return The number of distinct names, ignoring case */
+    public int size() {
+        return this.names.length;
+    }
+
+    /**
+     * @param query The name, or part of the name, to search for; matched ignoring case
+     * @param method One of the {@link IGroupConstants} search methods
+     * @return Keys of the matching groups, ordered by name
+     * @throws GroupsException If the search method is not supported
+     */
+    public List<String> search(String query, int method) throws GroupsException {
+        final String upperCaseQuery = query.toUpperCase();
+        final int[] ids;
+        switch (method) {
+            case IGroupConstants.IS:
+                final Integer id = this.nameIds.get(upperCaseQuery);
+                ids = id == null ? new int[0] : new int[] {id};
+                break;
+            case IGroupConstants.STARTS_WITH:
+                ids = findByPrefix(upperCaseQuery);
+                break;
+            case IGroupConstants.ENDS_WITH:
+                ids = findBySuffix(upperCaseQuery);
+                break;
+            case IGroupConstants.CONTAINS:
+                ids = findBySubstring(upperCaseQuery);
+                break;
+            default:
+                throw new GroupsException("Unsupported search method:  " + method);
+        }
+
+        final List<String> rslt = new ArrayList<>(ids.length);
+        for (final int id : ids) {
+            rslt.addAll(this.keys.get(id));
+        }
+        return rslt;
+    }
+
+    private int[] findByPrefix(String prefix) {
+        final int start = lowerBound(this.names, prefix);
+        int end = start;
+        while (end < this.names.length && this.names[end].startsWith(prefix)) {
+            end++;
+        }
+
+        final int[] rslt = new int[end - start];
+        for (int i = 0; i < rslt.length; i++) {
+            rslt[i] = start + i;
+        }
+        return rslt;
+    }
+
+    private int[] findBySuffix(String suffix) {
+        final String reversedSuffix = new StringBuilder(suffix).reverse().toString();
+        final int start = lowerBound(this.reversedNames, reversedSuffix);
+        int end = start;
+        while (end < this.reversedNames.length
+                && this.reversedNames[end].startsWith(reversedSuffix)) {
+            end++;
+        }
+
+        final int[] rslt = Arrays.copyOfRange(this.reversedNameIds, start, end);
+        Arrays.sort(rslt);
+        return rslt;
+    }
+
+    private int[] findBySubstring(String substring) {
+        if (substring.isEmpty()) {
+            return findByPrefix(substring);
+        }
+        if (substring.length() <= MAX_GRAM_LENGTH) {
+            final int[] postings = this.grams.get(substring);
+            return postings == null ? new int[0] : postings;
+        }
+
+        // Check the names containing the least common gram of the substring
+        int[] candidates = null;
+        for (int i = 0; i + MAX_GRAM_LENGTH <= substring.length(); i++) {
+            final int[] postings = this.grams.get(substring.substring(i, i + MAX_GRAM_LENGTH));
+            if (postings == null) {
+                return new int[0];
+            }
+            if (candidates == null || postings.length < candidates.length) {
+                candidates = postings;
+            }
+        }
+
+        final int[] rslt = new int[candidates.length];
+        int count = 0;
+        for (final int id : candidates) {
+            if (this.names[id].contains(substring)) {
+                rslt[count++] = id;
+            }
+        }
+        return Arrays.copyOf(rslt, count);
+    }
+
+    /** @return Index of the first of the sorted values that is not less than the key */
+    private static int lowerBound(String[] sorted, String key) {
+        final int i = Arrays.binarySearch(sorted, key);
+        return i >= 0 ? i : -(i + 1);
+    }
+
+    /** Collects group names and keys for a new {@link GroupNameIndex} */
+    public static final class Builder {
+        private final TreeMap<String, List<String>> keysByName = new TreeMap<>();
+
+        private Builder() {}
+
+        /** Adds a group, several groups may have the same name */
+        public Builder add(String name, String key) {
+            final String upperCaseName = name.toUpperCase();
+            List<String> keys = this.keysByName.get(upperCaseName);
+            if (keys == null) {
+                keys = new ArrayList<>(1);
+                this.keysByName.put(upperCaseName, keys);
+            }
+            keys.add(key);
+            return this;
+        }
+
+        public GroupNameIndex build() {
+            return new GroupNameIndex(this.keysByName);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GroupNameIndexTest {
+    private static final String[] NAMES = {
+        "Students",
+        "Staff",
+        "All Staff",
+        "Faculty",
+        "Faculty and Staff",
+        "students",
+        "Student Employees",
+        "Alumni",
+        "Administrators",
+        "a",
+        "",
+    };
+
+    private GroupNameIndex index;
+
+    @Before
+    public void setUp() {
+        final GroupNameIndex.Builder builder = GroupNameIndex.builder();
+        for (int i = 0; i < NAMES.length; i++) {
+            builder.add(NAMES[i], "key" + i);
+        }
+        this.index = builder.build();
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(NAMES.length - 1, this.index.size());
+    }
+
+    @Test
+    public void testSearch() {
+        final String[] queries = {
+            "",
+            "a",
+            "A",
+            "st",
+            "STAFF",
+            "staff",
+            "Stu",
+            "ents",
+            "nts",
+            "culty and st",
+            "x",
+            "Staffs",
+            "and Staff",
+            "ALL STAFF"
+        };
+        for (final String query : queries) {
+            assertSearch(query, IGroupConstants.IS);
+            assertSearch(query, IGroupConstants.STARTS_WITH);
+            assertSearch(query, IGroupConstants.ENDS_WITH);
+            assertSearch(query, IGroupConstants.CONTAINS);
+        }
+    }
+
+    @Test
+    public void testSameName() {
+        assertEquals(
+                Arrays.asList("key0", "key5"), this.index.search("students", IGroupConstants.IS));
+    }
+
+    @Test(expected = GroupsException.class)
+    public void testUnsupportedMethod() {
+        this.index.search("staff", 0);
+    }
+
+    /** Compares the index with a scan of every name */
+    private void assertSearch(String query, int method) {
+        final String upperCaseQuery = query.toUpperCase();
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < NAMES.length; i++) {
+            final String name = NAMES[i].toUpperCase();
+            final boolean matches;
+            switch (method) {
+                case IGroupConstants.IS:
+                    matches = name.equals(upperCaseQuery);
+                    break;
+                case IGroupConstants.STARTS_WITH:
+                    matches = name.startsWith(upperCaseQuery);
+                    break;
+                case IGroupConstants.ENDS_WITH:
+                    matches = name.endsWith(upperCaseQuery);
+                    break;
+                default:
+                    matches = name.contains(upperCaseQuery);
+                    break;
+            }
+            if (matches) {
+                expected.add("key" + i);
+            }
+        }
+
+        final List<String> actual = new ArrayList<>(this.index.search(query, method));
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(method + ":" + query, expected, actual);
+    }
+}
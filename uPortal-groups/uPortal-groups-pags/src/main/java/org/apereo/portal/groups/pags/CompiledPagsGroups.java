@@ -0,0 +1,342 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.apereo.portal.groups.pags.testers.BaseAttributeTester;
+import org.apereo.portal.groups.pags.testers.RegexTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.security.IPerson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of {@link PagsGroup} definitions compiled for evaluating every group against a person in
+ * one pass. The tests of all groups are numbered and indexed by attribute name, so each attribute
+ * of the person is read once: {@link StringEqualsTester} and {@link StringEqualsIgnoreCaseTester}
+ * tests become hash lookups, and the {@link RegexTester} tests on an attribute share one combined
+ * pattern that rejects the values none of them match in a single scan. Any other tester is called
+ * as is, once per person.
+ *
+ * <p>Instances are immutable and answer exactly as {@link PagsGroup#contains(IPerson)} would. A
+ * tester that throws an exception only fails the group it belongs to.
+ *
+ * @since 5.0
+ */
+public final class CompiledPagsGroups {
+    private static final Logger logger = LoggerFactory.getLogger(CompiledPagsGroups.class);
+
+    private final List<PagsGroup> groups;
+    /** Tests required by each test group of each group, null if the group can't have members */
+    private final List<List<BitSet>> groupTestGroups;
+
+    private final Map<String, AttributeTests> attributeTests;
+    private final List<IPersonTester> otherTesters;
+    private final List<Integer> otherTests;
+    /** Index of the group each of the other testers belongs to */
+    private final List<Integer> otherTestGroups;
+    private final int testCount;
+
+    /** @param groups Group definitions, null for a group that can't have members */
+    public CompiledPagsGroups(List<PagsGroup> groups) {
+        final Map<String, AttributeTests> attributeTests = new LinkedHashMap<>();
+        final Map<List<Object>, Integer> testNumbers = new HashMap<>();
+        final List<IPersonTester> otherTesters = new ArrayList<>();
+        final List<Integer> otherTests = new ArrayList<>();
+        final List<Integer> otherTestGroups = new ArrayList<>();
+        final List<List<BitSet>> groupTestGroups = new ArrayList<>(groups.size());
+
+        for (final PagsGroup group : groups) {
+            if (group == null || group.getTestGroups().isEmpty()) {
+                groupTestGroups.add(null);
+                continue;
+            }
+
+            final List<BitSet> testGroups = new ArrayList<>();
+            for (final TestGroup testGroup : group.getTestGroups()) {
+                final BitSet required = new BitSet();
+                boolean satisfiable = true;
+                for (final IPersonTester tester : testGroup.getTests()) {
+                    if (tester == null) {
+                        satisfiable = false;
+                        break;
+                    }
+
+                    final List<Object> testKey = getTestKey(tester);
+                    Integer testNumber = testKey == null ? null : testNumbers.get(testKey);
+                    if (testNumber == null) {
+                        testNumber = testNumbers.size() + otherTests.size();
+                        if (testKey == null) {
+                            otherTesters.add(tester);
+                            otherTests.add(testNumber);
+                            otherTestGroups.add(groupTestGroups.size());
+                        } else {
+                            testNumbers.put(testKey, testNumber);
+                            final BaseAttributeTester attributeTester =
+                                    (BaseAttributeTester) tester;
+                            AttributeTests tests =
+                                    attributeTests.get(attributeTester.getAttributeName());
+                            if (tests == null) {
+                                tests = new AttributeTests();
+                                attributeTests.put(attributeTester.getAttributeName(), tests);
+                            }
+                            tests.add(attributeTester, testNumber);
+                        }
+                    }
+                    required.set(testNumber);
+                }
+                if (satisfiable) {
+                    testGroups.add(required);
+                }
+            }
+            groupTestGroups.add(testGroups);
+        }
+
+        for (final AttributeTests tests : attributeTests.values()) {
+            tests.compile();
+        }
+
+        this.groups = Collections.unmodifiableList(new ArrayList<>(groups));
+        this.groupTestGroups = groupTestGroups;
+        this.attributeTests = attributeTests;
+        this.otherTesters = otherTesters;
+        this.otherTests = otherTests;
+        this.otherTestGroups = otherTestGroups;
+        this.testCount = testNumbers.size() + otherTests.size();
+    }
+
+    /** @return The group definitions, in the order used by {@link #test(IPerson)} */
+    public List<PagsGroup> getGroups() {
+        return this.groups;
+    }
+
+    /** @return true if compiled from exactly these group definition instances */
+    public boolean isCompiledFrom(List<PagsGroup> groups) {
+        if (groups.size() != this.groups.size()) {
+            return false;
+        }
+        for (int i = 0; i < groups.size(); i++) {
+            if (groups.get(i) != this.groups.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return The indexes into {@link #getGroups()} of the groups that contain the person */
+    public BitSet test(IPerson person) {
+        return test(person, new BitSet());
+    }
+
+    /**
+     * @param failed Set to the indexes into {@link #getGroups()} of the groups that could not be
+     *     evaluated because one of their testers threw an exception
+     * @return The indexes into {@link #getGroups()} of the groups that contain the person, never
+     *     includes failed groups
+     */
+    public BitSet test(IPerson person, BitSet failed) {
+        final BitSet passed = new BitSet(this.testCount);
+        for (final Map.Entry<String, AttributeTests> entry : this.attributeTests.entrySet()) {
+            final Object[] values = person.getAttributeValues(entry.getKey());
+            if (values != null) {
+                entry.getValue().test(values, passed);
+            }
+        }
+        for (int i = 0; i < this.otherTests.size(); i++) {
+            final IPersonTester tester = this.otherTesters.get(i);
+            try {
+                if (tester.test(person)) {
+                    passed.set(this.otherTests.get(i));
+                }
+            } catch (RuntimeException e) {
+                final int group = this.otherTestGroups.get(i);
+                logger.error(
+                        "Exception running "
+                                + tester
+                                + " for person "
+                                + person.getUserName()
+                                + ", treating PAGS group "
+                                + this.groups.get(group).getName()
+                                + " as not containing the person",
+                        e);
+                failed.set(group);
+            }
+        }
+
+        final BitSet rslt = new BitSet(this.groups.size());
+        for (int i = 0; i < this.groupTestGroups.size(); i++) {
+            final List<BitSet> testGroups = this.groupTestGroups.get(i);
+            if (testGroups == null) {
+                continue;
+            }
+            for (final BitSet required : testGroups) {
+                if (containsAll(passed, required)) {
+                    rslt.set(i);
+                    break;
+                }
+            }
+        }
+        rslt.andNot(failed);
+        return rslt;
+    }
+
+    private static boolean containsAll(BitSet passed, BitSet required) {
+        for (int i = required.nextSetBit(0); i >= 0; i = required.nextSetBit(i + 1)) {
+            if (!passed.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Identifies a tester that is indexed by attribute, and behaves the same as any other
+     *     tester with the same key; null for testers that are called as is
+     */
+    private static List<Object> getTestKey(IPersonTester tester) {
+        final Class<?> testerClass = tester.getClass();
+        if (testerClass != StringEqualsTester.class
+                && testerClass != StringEqualsIgnoreCaseTester.class
+                && testerClass != RegexTester.class) {
+            return null;
+        }
+        final BaseAttributeTester attributeTester = (BaseAttributeTester) tester;
+        return Arrays.<Object>asList(
+                testerClass, attributeTester.getAttributeName(), attributeTester.getTestValue());
+    }
+
+    /**
+     * Folds the value so that two strings have the same key exactly when {@link
+     * String#equalsIgnoreCase(String)} considers them equal
+     */
+    private static String foldCase(String value) {
+        final char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /** The indexed tests on a single attribute */
+    private static final class AttributeTests {
+        private final Map<String, BitSet> equalsTests = new HashMap<>();
+        private final Map<String, BitSet> equalsIgnoreCaseTests = new HashMap<>();
+        private final List<Pattern> patterns = new ArrayList<>();
+        private final List<Integer> patternTests = new ArrayList<>();
+        private final List<Pattern> separatePatterns = new ArrayList<>();
+        private final List<Integer> separatePatternTests = new ArrayList<>();
+        /** Matches any value matched by one of the patterns, null if there are none */
+        private Pattern combinedPattern;
+
+        void add(BaseAttributeTester tester, int testNumber) {
+            final String testValue = tester.getTestValue();
+            if (testValue == null) {
+                // Never equal to an attribute value
+                return;
+            } else if (tester instanceof StringEqualsTester) {
+                addTest(this.equalsTests, testValue, testNumber);
+            } else if (tester instanceof StringEqualsIgnoreCaseTester) {
+                addTest(this.equalsIgnoreCaseTests, foldCase(testValue), testNumber);
+            } else {
+                final Pattern pattern = Pattern.compile(testValue);
+                if (isCombinable(pattern)) {
+                    this.patterns.add(pattern);
+                    this.patternTests.add(testNumber);
+                } else {
+                    this.separatePatterns.add(pattern);
+                    this.separatePatternTests.add(testNumber);
+                }
+            }
+        }
+
+        void compile() {
+            if (this.patterns.isEmpty()) {
+                return;
+            }
+            final StringBuilder combined = new StringBuilder();
+            for (final Pattern pattern : this.patterns) {
+                if (combined.length() > 0) {
+                    combined.append('|');
+                }
+                combined.append("(?:").append(pattern.pattern()).append(')');
+            }
+            this.combinedPattern = Pattern.compile(combined.toString());
+        }
+
+        void test(Object[] values, BitSet passed) {
+            for (final Object value : values) {
+                // Matches AbstractStringTester, which can only test String values
+                if (!(value instanceof String)) {
+                    continue;
+                }
+                final String att = (String) value;
+
+                BitSet tests = this.equalsTests.get(att);
+                if (tests != null) {
+                    passed.or(tests);
+                }
+                if (!this.equalsIgnoreCaseTests.isEmpty()) {
+                    tests = this.equalsIgnoreCaseTests.get(foldCase(att));
+                    if (tests != null) {
+                        passed.or(tests);
+                    }
+                }
+                if (this.combinedPattern != null && this.combinedPattern.matcher(att).matches()) {
+                    testPatterns(this.patterns, this.patternTests, att, passed);
+                }
+                testPatterns(this.separatePatterns, this.separatePatternTests, att, passed);
+            }
+        }
+
+        private static void testPatterns(
+                List<Pattern> patterns, List<Integer> tests, String att, BitSet passed) {
+            for (int i = 0; i < patterns.size(); i++) {
+                final int test = tests.get(i);
+                if (!passed.get(test) && patterns.get(i).matcher(att).matches()) {
+                    passed.set(test);
+                }
+            }
+        }
+
+        private static void addTest(Map<String, BitSet> tests, String key, int testNumber) {
+            BitSet bits = tests.get(key);
+            if (bits == null) {
+                bits = new BitSet();
+                tests.put(key, bits);
+            }
+            bits.set(testNumber);
+        }
+
+        /**
+         * Patterns with groups (which may be referred to by number), comments or quoted sections
+         * could change meaning as part of an alternation, they are always tested on their own.
+         */
+        private static boolean isCombinable(Pattern pattern) {
+            final String regex = pattern.pattern();
+            return pattern.matcher("").groupCount() == 0
+                    && regex.indexOf('#') < 0
+                    && !regex.contains("\\Q");
+        }
+    }
+}
@@ -16,10 +16,13 @@ package org.apereo.portal.groups.pags.dao;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
@@ -27,6 +30,7 @@ import net.sf.ehcache.Element;
 import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.groups.EntityImpl;
 import org.apereo.portal.groups.EntityTestingGroupImpl;
+import org.apereo.portal.groups.GroupNameIndex;
 import org.apereo.portal.groups.GroupsException;
 import org.apereo.portal.groups.IEntity;
 import org.apereo.portal.groups.IEntityGroup;
@@ -35,6 +39,7 @@ import org.apereo.portal.groups.IEntitySearcher;
 import org.apereo.portal.groups.IEntityStore;
 import org.apereo.portal.groups.IGroupMember;
 import org.apereo.portal.groups.ILockableEntityGroup;
+import org.apereo.portal.groups.pags.CompiledPagsGroups;
 import org.apereo.portal.groups.pags.IPersonTester;
 import org.apereo.portal.groups.pags.PagsGroup;
 import org.apereo.portal.groups.pags.TestGroup;
@@ -74,6 +79,14 @@ public class EntityPersonAttributesGroupStore
      */
     private final Cache membershipCache;
 
+    /** All PAGS group definitions, compiled for evaluating every group for a person in one pass */
+    private volatile CompiledPagsGroups compiledGroups;
+
+    /** Index of the names of all PAGS groups, rebuilt when the set of groups changes */
+    private volatile GroupNameIndex nameIndex;
+
+    private volatile Set<String> nameIndexGroupNames;
+
     public EntityPersonAttributesGroupStore() {
         super();
         ApplicationContext applicationContext = ApplicationContextLocator.getApplicationContext();
@@ -249,18 +262,94 @@ public class EntityPersonAttributesGroupStore
     private Iterator<IEntityGroup> findParentGroupsForEntity(IEntity member)
             throws GroupsException {
 
-        Set<IPersonAttributesGroupDefinition> pagsGroups =
-                personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions();
-        List<IEntityGroup> results = new ArrayList<IEntityGroup>();
+        final List<IPersonAttributesGroupDefinition> pagsGroups =
+                new ArrayList<IPersonAttributesGroupDefinition>(
+                        personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions());
+        final List<IEntityGroup> groups = new ArrayList<IEntityGroup>(pagsGroups.size());
+        final List<MembershipCacheKey> cacheKeys =
+                new ArrayList<MembershipCacheKey>(pagsGroups.size());
+        final List<IEntityGroup> results = new ArrayList<IEntityGroup>();
+        boolean allCached = true;
+        for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
+            final IEntityGroup group = convertPagsGroupToEntity(pagsGroup);
+            final MembershipCacheKey cacheKey =
+                    new MembershipCacheKey(
+                            group.getEntityIdentifier(), member.getUnderlyingEntityIdentifier());
+            groups.add(group);
+            cacheKeys.add(cacheKey);
+
+            if (allCached) {
+                final Element element = membershipCache.get(cacheKey);
+                if (element == null) {
+                    // At least one membership is unknown, evaluate them all in one pass
+                    allCached = false;
+                } else if ((Boolean) element.getObjectValue()) {
+                    results.add(group);
+                }
+            }
+        }
+        if (allCached) {
+            return results.iterator();
+        }
+
+        logger.debug("Evaluating all PAGS groups for member {}", member.getKey());
+        final List<PagsGroup> groupDefs = new ArrayList<PagsGroup>(pagsGroups.size());
         for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-            IEntityGroup group = convertPagsGroupToEntity(pagsGroup);
-            if (contains(group, member)) {
-                results.add(group);
+            groupDefs.add(initGroupDef(pagsGroup));
+        }
+        final CompiledPagsGroups compiled = getCompiledGroups(groupDefs);
+
+        final IPersonAttributes personAttributes;
+        try {
+            final IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+            personAttributes = pa.getPerson(member.getKey());
+        } catch (Exception ex) {
+            logger.error(
+                    "Exception acquiring attributes for member "
+                            + member
+                            + " while finding the groups that contain this member.",
+                    ex);
+            return Collections.emptyIterator();
+        }
+
+        final BitSet memberships;
+        final BitSet failed = new BitSet();
+        if (personAttributes != null) {
+            final RestrictedPerson rp = PersonFactory.createRestrictedPerson();
+            rp.setAttributes(personAttributes.getAttributes());
+            memberships = compiled.test(rp, failed);
+        } else {
+            memberships = new BitSet();
+        }
+
+        results.clear();
+        for (int i = 0; i < groups.size(); i++) {
+            final boolean answer = memberships.get(i);
+            // Like contains(), a group that failed to evaluate is not a match and is not cached
+            if (!failed.get(i)) {
+                membershipCache.put(new Element(cacheKeys.get(i), answer));
+            }
+            if (answer) {
+                results.add(groups.get(i));
             }
         }
         return results.iterator();
     }
 
+    /**
+     * The compiled groups are reused for as long as the group definitions they were compiled from
+     * remain in the pagsGroup cache.
+     */
+    private CompiledPagsGroups getCompiledGroups(List<PagsGroup> groupDefs) {
+        CompiledPagsGroups rslt = this.compiledGroups;
+        if (rslt == null || !rslt.isCompiledFrom(groupDefs)) {
+            logger.debug("Compiling {} PAGS group definitions", groupDefs.size());
+            rslt = new CompiledPagsGroups(groupDefs);
+            this.compiledGroups = rslt;
+        }
+        return rslt;
+    }
+
     @Override
     public Iterator<IEntityGroup> findEntitiesForGroup(IEntityGroup group) throws GroupsException {
         // PAGS groups are synthetic;  we don't support this behavior.
@@ -315,42 +404,33 @@ public class EntityPersonAttributesGroupStore
         if (leaftype != IPERSON_CLASS) {
             return EMPTY_SEARCH_RESULTS;
         }
-        Set<IPersonAttributesGroupDefinition> pagsGroups =
-                personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions();
-        List<EntityIdentifier> results = new ArrayList<EntityIdentifier>();
-        switch (method) {
-            case IS:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().equalsIgnoreCase(query)) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
-            case STARTS_WITH:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().toUpperCase().startsWith(query.toUpperCase())) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
-            case ENDS_WITH:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().toUpperCase().endsWith(query.toUpperCase())) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
-            case CONTAINS:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().toUpperCase().indexOf(query.toUpperCase()) != -1) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
+        final Map<String, IPersonAttributesGroupDefinition> pagsGroups =
+                new HashMap<String, IPersonAttributesGroupDefinition>();
+        for (IPersonAttributesGroupDefinition pagsGroup :
+                personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions()) {
+            pagsGroups.put(pagsGroup.getName(), pagsGroup);
+        }
+
+        GroupNameIndex index = this.nameIndex;
+        if (index == null || !pagsGroups.keySet().equals(this.nameIndexGroupNames)) {
+            logger.debug("Indexing the names of {} PAGS groups", pagsGroups.size());
+            final GroupNameIndex.Builder builder = GroupNameIndex.builder();
+            for (String name : pagsGroups.keySet()) {
+                builder.add(name, name);
+            }
+            index = builder.build();
+            synchronized (this) {
+                this.nameIndex = index;
+                this.nameIndexGroupNames = new HashSet<String>(pagsGroups.keySet());
+            }
+        }
+
+        final List<EntityIdentifier> results = new ArrayList<EntityIdentifier>();
+        for (String name : index.search(query, method)) {
+            final IPersonAttributesGroupDefinition pagsGroup = pagsGroups.get(name);
+            if (pagsGroup != null) {
+                results.add(convertPagsGroupToEntity(pagsGroup).getEntityIdentifier());
+            }
         }
         return results.toArray(new EntityIdentifier[] {});
     }
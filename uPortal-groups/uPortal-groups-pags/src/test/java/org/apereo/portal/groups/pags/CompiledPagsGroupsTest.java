@@ -0,0 +1,170 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.apereo.portal.groups.pags.testers.IntegerGTTester;
+import org.apereo.portal.groups.pags.testers.InvertedRegexTester;
+import org.apereo.portal.groups.pags.testers.RegexTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.groups.pags.testers.ValueExistsTester;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.provider.PersonImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompiledPagsGroupsTest {
+    private final List<PagsGroup> groups = new ArrayList<PagsGroup>();
+    private CompiledPagsGroups compiled;
+
+    @Before
+    public void setUp() {
+        // Equality tests, some shared between groups
+        this.groups.add(group(test(new StringEqualsTester(def("affiliation", "student")))));
+        this.groups.add(
+                group(
+                        test(new StringEqualsTester(def("affiliation", "student"))),
+                        test(new StringEqualsTester(def("affiliation", "staff")))));
+        this.groups.add(
+                group(test(new StringEqualsIgnoreCaseTester(def("affiliation", "FACULTY")))));
+
+        // Regex tests, combined and separate
+        this.groups.add(group(test(new RegexTester(def("mail", ".*@example\\.edu")))));
+        this.groups.add(group(test(new RegexTester(def("mail", "(?i)ADMIN@.*")))));
+        this.groups.add(group(test(new RegexTester(def("mail", "(\\w)\\1.*")))));
+        this.groups.add(group(test(new RegexTester(def("mail", "\\Qa.b@x")))));
+
+        // Testers called as is
+        this.groups.add(group(test(new InvertedRegexTester(def("mail", ".*@example\\.edu")))));
+        this.groups.add(group(test(new IntegerGTTester(def("age", "20")))));
+
+        // Test groups that require several tests on different attributes
+        this.groups.add(
+                group(
+                        test(
+                                new StringEqualsTester(def("affiliation", "student")),
+                                new RegexTester(def("mail", ".*@example\\.edu")),
+                                new ValueExistsTester(def("age", null)))));
+
+        // A group without tests, with a test group without tests, a missing tester and null
+        this.groups.add(group());
+        this.groups.add(group(test()));
+        this.groups.add(group(test((IPersonTester) null)));
+        this.groups.add(null);
+
+        this.compiled = new CompiledPagsGroups(this.groups);
+    }
+
+    @Test
+    public void testMatchesPagsGroup() {
+        assertMatches(person());
+        assertMatches(person("affiliation", "student"));
+        assertMatches(person("affiliation", "staff", "faculty"));
+        assertMatches(person("affiliation", "Faculty"));
+        assertMatches(person("mail", "someone@example.edu"));
+        assertMatches(person("mail", "admin@example.org"));
+        assertMatches(person("mail", "aardvark@example.org"));
+        assertMatches(person("mail", "a.b@x"));
+        assertMatches(person("mail", "someone@example.com", "other@example.edu"));
+        assertMatches(person("age", "21"));
+
+        final IPerson person = person("affiliation", "student");
+        person.setAttribute("mail", "student@example.edu");
+        person.setAttribute("age", "18");
+        assertMatches(person);
+    }
+
+    @Test
+    public void testFailingTesterOnlyFailsItsGroup() {
+        final IPersonTester failing =
+                new IPersonTester() {
+                    @Override
+                    public boolean test(IPerson person) {
+                        throw new IllegalStateException("broken tester");
+                    }
+                };
+        final List<PagsGroup> groups = new ArrayList<PagsGroup>(this.groups);
+        groups.add(group(test(failing), test(new StringEqualsTester(def("affiliation", "staff")))));
+        final CompiledPagsGroups compiled = new CompiledPagsGroups(groups);
+
+        final IPerson person = person("affiliation", "student", "staff");
+        final BitSet failed = new BitSet();
+        final BitSet memberships = compiled.test(person, failed);
+
+        final int failingGroup = groups.size() - 1;
+        final BitSet expectedFailed = new BitSet();
+        expectedFailed.set(failingGroup);
+        assertEquals(expectedFailed, failed);
+        assertEquals(this.compiled.test(person), memberships);
+    }
+
+    @Test
+    public void testIsCompiledFrom() {
+        assertEquals(true, this.compiled.isCompiledFrom(new ArrayList<PagsGroup>(this.groups)));
+
+        final List<PagsGroup> changed = new ArrayList<PagsGroup>(this.groups);
+        changed.set(0, group(test(new StringEqualsTester(def("affiliation", "student")))));
+        assertEquals(false, this.compiled.isCompiledFrom(changed));
+    }
+
+    private void assertMatches(IPerson person) {
+        final BitSet expected = new BitSet();
+        for (int i = 0; i < this.groups.size(); i++) {
+            final PagsGroup group = this.groups.get(i);
+            if (group != null && group.contains(person)) {
+                expected.set(i);
+            }
+        }
+        assertEquals(person.getAttributeMap().toString(), expected, this.compiled.test(person));
+    }
+
+    private static IPerson person(String name, String... values) {
+        final IPerson rslt = person();
+        rslt.setAttribute(name, Arrays.<Object>asList(values));
+        return rslt;
+    }
+
+    private static IPerson person() {
+        final IPerson rslt = new PersonImpl();
+        rslt.setAttribute(IPerson.USERNAME, "user");
+        return rslt;
+    }
+
+    private static PagsGroup group(TestGroup... testGroups) {
+        final PagsGroup rslt = new PagsGroup();
+        for (TestGroup testGroup : testGroups) {
+            rslt.addTestGroup(testGroup);
+        }
+        return rslt;
+    }
+
+    private static TestGroup test(IPersonTester... testers) {
+        final TestGroup rslt = new TestGroup();
+        for (IPersonTester tester : testers) {
+            rslt.addTest(tester);
+        }
+        return rslt;
+    }
+
+    private static TestPersonAttributesGroupTestDefinition def(String name, String value) {
+        return new TestPersonAttributesGroupTestDefinition(name, value);
+    }
+}
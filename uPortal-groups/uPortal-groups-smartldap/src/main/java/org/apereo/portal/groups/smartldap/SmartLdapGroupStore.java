@@ -14,6 +14,8 @@
  */
 package org.apereo.portal.groups.smartldap;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -23,8 +25,18 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.concurrent.ConcurrentException;
 import org.apache.commons.lang3.concurrent.LazyInitializer;
@@ -36,7 +48,6 @@ import org.apereo.portal.groups.GroupsException;
 import org.apereo.portal.groups.IEntityGroup;
 import org.apereo.portal.groups.IEntityGroupStore;
 import org.apereo.portal.groups.IEntityGroupStoreFactory;
-import org.apereo.portal.groups.IGroupConstants;
 import org.apereo.portal.groups.IGroupMember;
 import org.apereo.portal.groups.ILockableEntityGroup;
 import org.apereo.portal.security.IPerson;
@@ -50,6 +61,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.ldap.core.AttributesMapper;
 import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.filter.AndFilter;
+import org.springframework.ldap.filter.GreaterThanOrEqualsFilter;
+import org.springframework.ldap.filter.HardcodedFilter;
 
 public final class SmartLdapGroupStore implements IEntityGroupStore {
 
@@ -113,9 +128,56 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         this.groupsTreeRefreshIntervalSeconds = groupsTreeRefreshIntervalSeconds;
     }
 
+    /**
+     * Period after which a refresh reads all groups from LDAP; the refreshes in between only read
+     * the groups changed since the last one (see changeMarkerAttributeName). Groups deleted from
+     * LDAP are dropped by the next full refresh. A value of zero or less (negative) makes every
+     * refresh a full refresh. So does resolveMemberGroups, since member groups found outside the
+     * baseGroupDn and filter would be missed by an incremental refresh.
+     */
+    private long groupsTreeFullRefreshIntervalSeconds = 86400; // default
+
+    public void setGroupsTreeFullRefreshIntervalSeconds(long groupsTreeFullRefreshIntervalSeconds) {
+        this.groupsTreeFullRefreshIntervalSeconds = groupsTreeFullRefreshIntervalSeconds;
+    }
+
+    /**
+     * Name of the LDAP attribute that increases each time a group changes, normally
+     * 'modifyTimestamp', or 'uSNChanged' when every query goes to the same Active Directory domain
+     * controller. A blank value disables incremental refreshes.
+     */
+    private String changeMarkerAttributeName = "modifyTimestamp"; // default
+
+    public void setChangeMarkerAttributeName(String changeMarkerAttributeName) {
+        this.changeMarkerAttributeName = changeMarkerAttributeName;
+    }
+
+    /**
+     * File in which SmartLdap keeps a snapshot of the groups tree after each refresh, so that the
+     * portal starts with the last known groups rather than waiting for a full refresh. A blank
+     * value disables snapshots.
+     */
+    private String snapshotFile = null; // default
+
+    public void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
     /** Timestamp (milliseconds) of the last tree refresh. */
     private volatile long lastTreeRefreshTime = 0;
 
+    /** Refreshes the groups tree, one refresh at a time. */
+    private final ExecutorService refreshExecutor =
+            Executors.newSingleThreadExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            final Thread rslt = new Thread(r, "SmartLdap Refresh Worker");
+                            rslt.setDaemon(true);
+                            return rslt;
+                        }
+                    });
+
     // Cernunnos tech...
     private final ScriptRunner runner = new ScriptRunner();
     private final Task initTask =
@@ -131,19 +193,10 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
      */
 
     /**
-     * Single-object abstraction that contains all knowledge of SmartLdap groups:
-     *
-     * <ul>
-     *   <li>Map of all groups keyed by 'key' (DN). Includes ROOT_GROUP.
-     *   <li>Map of all parent relationships keyed by the 'key' (DN) of the child; the values are
-     *       lists of the 'keys' (DNs) of its parents. Includes ROOT_GROUP.
-     *   <li>Map of all child relationships keyed by the 'key' (DN) of the parent; the values are
-     *       lists of the 'keys' (DNs) of its children. Includes ROOT_GROUP.
-     *   <li>Map of all 'keys' (DNs) of SmartLdap managed groups indexed by group name in upper
-     *       case. Includes ROOT_GROUP.
-     * </ul>
+     * Single-object abstraction that contains all knowledge of SmartLdap groups, replaced as a
+     * whole by each refresh.
      */
-    private GroupsTree groupsTree;
+    private volatile SmartLdapGroupsTree groupsTree;
 
     /*
      * Public API.
@@ -363,60 +416,13 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             return new EntityIdentifier[0];
         }
 
-        // We need to escape regex special characters that appear in the query string...
-        final String[][] specials =
-                new String[][] {
-                    /* backslash must come first! */
-                    new String[] {"\\", "\\\\"},
-                    new String[] {"[", "\\["},
-                    /* closing ']' isn't needed b/c it's a normal character w/o a preceding '[' */
-                    new String[] {"{", "\\{"},
-                    /* closing '}' isn't needed b/c it's a normal character w/o a preceding '{' */
-                    new String[] {"^", "\\^"},
-                    new String[] {"$", "\\$"},
-                    new String[] {".", "\\."},
-                    new String[] {"|", "\\|"},
-                    new String[] {"?", "\\?"},
-                    new String[] {"*", "\\*"},
-                    new String[] {"+", "\\+"},
-                    new String[] {"(", "\\("},
-                    new String[] {")", "\\)"}
-                };
-        for (String[] s : specials) {
-            query = query.replace(s[0], s[1]);
-        }
-
-        // Establish the regex pattern to match on...
-        String regex;
-        switch (method) {
-            case IGroupConstants.IS:
-                regex = query.toUpperCase();
-                break;
-            case IGroupConstants.STARTS_WITH:
-                regex = query.toUpperCase() + ".*";
-                break;
-            case IGroupConstants.ENDS_WITH:
-                regex = ".*" + query.toUpperCase();
-                break;
-            case IGroupConstants.CONTAINS:
-                regex = ".*" + query.toUpperCase() + ".*";
-                break;
-            default:
-                String msg = "Unsupported search method:  " + method;
-                throw new GroupsException(msg);
-        }
-
-        List<EntityIdentifier> rslt = new LinkedList<>();
-        for (Map.Entry<String, List<String>> y : groupsTree.getKeysByUpperCaseName().entrySet()) {
-            if (y.getKey().matches(regex)) {
-                List<String> keys = y.getValue();
-                for (String k : keys) {
-                    rslt.add(new EntityIdentifier(k, IEntityGroup.class));
-                }
-            }
+        final List<String> keys = groupsTree.getNameIndex().search(query, method);
+        final EntityIdentifier[] rslt = new EntityIdentifier[keys.size()];
+        for (int i = 0; i < rslt.length; i++) {
+            rslt[i] = new EntityIdentifier(keys.get(i), IEntityGroup.class);
         }
 
-        return rslt.toArray(new EntityIdentifier[rslt.size()]);
+        return rslt;
     }
 
     public void update(IEntityGroup group) throws GroupsException {
@@ -494,6 +500,11 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         Factory.setInstance(this);
     }
 
+    @PreDestroy
+    private void preDestroy() {
+        refreshExecutor.shutdownNow();
+    }
+
     private IEntityGroup getRootGroup() {
         try {
             return rootGroupInitializer.get();
@@ -524,8 +535,8 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     }
 
     /**
-     * Verifies that the collection of groups needs rebuilding and, if so, spawns a new worker
-     * <code>Thread</code> for that purpose.
+     * Verifies that the collection of groups needs refreshing and, if so, submits the refresh to
+     * the worker <code>Thread</code>.
      */
     private synchronized void refreshTree() {
 
@@ -535,54 +546,73 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             return;
         }
 
+        if (groupsTree == null) {
+            // Start with the last known groups, if we have them...
+            groupsTree = readSnapshot();
+        }
+
         log.info("Refreshing groups tree for SmartLdap");
 
-        // We must join the builder thread if
+        // We must wait for the refresh if
         // we don't have an existing groupsTree.
         final boolean doJoin = groupsTree == null;
 
-        // In most cases, re-build the tree in a separate thread;  the current
+        // In most cases, refresh the tree in the background;  the current
         // request can proceed with the newly-expired groupsTree.
-        Thread refresh =
-                new Thread("SmartLdap Refresh Worker") {
-                    public void run() {
-                        // Replace the old with the new...
-                        try {
-                            groupsTree = buildGroupsTree();
-                        } catch (Throwable t) {
-                            log.error("SmartLdapGroupStore failed to build the groups tree", t);
-                        }
-                    }
-                };
-        refresh.setDaemon(true);
-        refresh.start();
+        final Future<?> refresh =
+                refreshExecutor.submit(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                // Replace the old with the new;  read the tree only now, a
+                                // refresh queued behind another must start from its result...
+                                final SmartLdapGroupsTree current = groupsTree;
+                                try {
+                                    final SmartLdapGroupsTree tree =
+                                            isFullRefreshRequired(current)
+                                                    ? buildGroupsTree()
+                                                    : updateGroupsTree(current);
+                                    if (tree != current) {
+                                        groupsTree = tree;
+                                        writeSnapshot(tree);
+                                    }
+                                } catch (Throwable t) {
+                                    log.error(
+                                            "SmartLdapGroupStore failed to build the groups tree",
+                                            t);
+                                }
+                            }
+                        });
         if (doJoin) {
             try {
-                log.info("Joining the SmartLdap Refresh Worker Thread");
-                refresh.join();
-            } catch (InterruptedException ie) {
-                throw new RuntimeException(ie);
+                log.info("Waiting for the SmartLdap Refresh Worker");
+                refresh.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
             }
         }
 
-        // Even if the refresh thread failed, don't try
+        // Even if the refresh failed, don't try
         // again for another groupsTreeRefreshIntervalSeconds.
         lastTreeRefreshTime = System.currentTimeMillis();
     }
 
-    private GroupsTree buildGroupsTree() {
+    private boolean isFullRefreshRequired(SmartLdapGroupsTree tree) {
+        if (tree == null
+                || resolveMemberGroups
+                || tree.getChangeMarker() == null
+                || StringUtils.isBlank(changeMarkerAttributeName)
+                || groupsTreeFullRefreshIntervalSeconds <= 0) {
+            return true;
+        }
+        final long fullRefreshExpiresTimestamp =
+                tree.getFullRefreshTime() + (groupsTreeFullRefreshIntervalSeconds * 1000L);
+        return System.currentTimeMillis() > fullRefreshExpiresTimestamp;
+    }
 
-        long timestamp = System.currentTimeMillis();
+    private SmartLdapGroupsTree buildGroupsTree() {
 
-        // Prepare the new local indeces...
-        Map<String, IEntityGroup> new_groups =
-                Collections.synchronizedMap(new HashMap<String, IEntityGroup>());
-        Map<String, List<String>> new_parents =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
-        Map<String, List<String>> new_children =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
-        Map<String, List<String>> new_keysByUpperCaseName =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
+        long timestamp = System.currentTimeMillis();
 
         // Gather IEntityGroup objects from LDAP...
         RuntimeRequestResponse req = new RuntimeRequestResponse();
@@ -605,160 +635,168 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         req.setAttribute("resolveDnList", resolveDnList);
         req.setAttribute("memberOfAttributeName", memberOfAttributeName);
         req.setAttribute("attributesMapper", attributesMapper);
+
+        // Read the change marker first;  groups that change while the
+        // records are gathered are read again by the next incremental refresh...
+        final String changeMarker = readChangeMarker();
+
         runner.run(initTask, req);
 
         log.info("init() found {} records", set.size());
 
-        // Do a first loop to build the main catalog (new_groups)...
-        for (LdapRecord r : set) {
+        final SmartLdapGroupsTree rslt =
+                SmartLdapGroupsTree.build(getRootGroup(), set, changeMarker, timestamp);
 
-            // new_groups (me)...
-            IEntityGroup g = r.getGroup();
-            new_groups.put(g.getLocalKey(), g);
-        }
+        final long benchmark = System.currentTimeMillis() - timestamp;
+        log.info("Refresh of groups tree completed in {} milliseconds", benchmark);
+        log.info("Total number of LDAP queries:  {}", queryCounter.getCount() + 1);
 
-        // Do a second loop to build local indeces...
-        for (LdapRecord r : set) {
+        return rslt;
+    }
 
-            IEntityGroup g = r.getGroup();
+    /** Applies the groups added or modified since the tree was built to a new tree. */
+    private SmartLdapGroupsTree updateGroupsTree(SmartLdapGroupsTree tree) {
 
-            // new_parents (I am a parent for all my children)...
-            for (String childKey : r.getKeysOfChildren()) {
+        final long timestamp = System.currentTimeMillis();
 
-                // NB:  We're only interested in relationships between
-                // objects in the main catalog (i.e. new_groups);
-                // discard everything else...
-                if (!new_groups.containsKey(childKey)) {
-                    break;
-                }
+        final AndFilter changedFilter = new AndFilter();
+        changedFilter.and(new HardcodedFilter(filter));
+        changedFilter.and(
+                new GreaterThanOrEqualsFilter(changeMarkerAttributeName, tree.getChangeMarker()));
 
-                List<String> parentsList = new_parents.get(childKey);
-                if (parentsList == null) {
-                    // first parent for this child...
-                    parentsList = Collections.synchronizedList(new LinkedList<String>());
-                    new_parents.put(childKey, parentsList);
-                }
-                parentsList.add(g.getLocalKey());
-            }
+        final ChangedRecordsMapper mapper = new ChangedRecordsMapper();
+        @SuppressWarnings("unchecked")
+        final List<LdapRecord> changed =
+                newLdapTemplate()
+                        .search(
+                                baseGroupDn,
+                                changedFilter.encode(),
+                                newSearchControls("*", changeMarkerAttributeName),
+                                mapper);
 
-            // new_children...
-            List<String> childrenList = Collections.synchronizedList(new LinkedList<String>());
-            for (String childKey : r.getKeysOfChildren()) {
-                // NB:  We're only interested in relationships between
-                // objects in the main catalog (i.e. new_groups);
-                // discard everything else...
-                if (new_groups.containsKey(childKey)) {
-                    childrenList.add(childKey);
-                }
-            }
-            new_children.put(g.getLocalKey(), childrenList);
-
-            // new_keysByUpperCaseName...
-            List<String> groupsWithMyName = new_keysByUpperCaseName.get(g.getName().toUpperCase());
-            if (groupsWithMyName == null) {
-                // I am the first group with my name (pretty likely)...
-                groupsWithMyName = Collections.synchronizedList(new LinkedList<String>());
-                new_keysByUpperCaseName.put(g.getName().toUpperCase(), groupsWithMyName);
-            }
-            groupsWithMyName.add(g.getLocalKey());
+        log.info(
+                "Incremental refresh found {} groups changed since {}",
+                changed.size(),
+                tree.getChangeMarker());
+        if (changed.isEmpty()) {
+            return tree;
         }
 
-        /*
-         * Now load the ROOT_GROUP into the collections...
-         */
+        final SmartLdapGroupsTree rslt =
+                tree.applyChanges(getRootGroup(), changed, mapper.getChangeMarker());
 
-        // new_groups (me)...
-        final IEntityGroup root = getRootGroup();
-        new_groups.put(root.getLocalKey(), root);
-
-        // new_parents (I am a parent for all groups that have no other parent)...
-        List<String> childrenOfRoot =
-                Collections.synchronizedList(new LinkedList<String>()); // for later...
-        for (String possibleChildKey : new_groups.keySet()) {
-            if (!possibleChildKey.equals(root.getLocalKey())
-                    && !new_parents.containsKey(possibleChildKey)) {
-                List<String> p = Collections.synchronizedList(new LinkedList<String>());
-                p.add(root.getLocalKey());
-                new_parents.put(possibleChildKey, p);
-                childrenOfRoot.add(possibleChildKey); // for later...
-            }
-        }
+        final long benchmark = System.currentTimeMillis() - timestamp;
+        log.info("Incremental refresh of groups tree completed in {} milliseconds", benchmark);
 
-        // new_children...
-        new_children.put(root.getLocalKey(), childrenOfRoot);
+        return rslt;
+    }
 
-        // new_keysByUpperCaseName...
-        List<String> groupsWithMyName = new_keysByUpperCaseName.get(root.getName().toUpperCase());
-        if (groupsWithMyName == null) {
-            // I am the first group with my name (pretty likely)...
-            groupsWithMyName = Collections.synchronizedList(new LinkedList<String>());
-            new_keysByUpperCaseName.put(root.getName().toUpperCase(), groupsWithMyName);
+    /** @return The highest change marker of all groups, null if not available */
+    private String readChangeMarker() {
+        if (StringUtils.isBlank(changeMarkerAttributeName)) {
+            return null;
         }
-        groupsWithMyName.add(root.getLocalKey());
+        try {
+            final ChangedRecordsMapper mapper = new ChangedRecordsMapper();
+            mapper.setMarkersOnly(true);
+            newLdapTemplate()
+                    .search(
+                            baseGroupDn,
+                            filter,
+                            newSearchControls(changeMarkerAttributeName),
+                            mapper);
+            return mapper.getChangeMarker();
+        } catch (RuntimeException re) {
+            log.warn(
+                    "Failed to read the '{}' attribute of groups;  incremental refreshes are "
+                            + "disabled until the next full refresh",
+                    changeMarkerAttributeName,
+                    re);
+            return null;
+        }
+    }
 
-        final long benchmark = System.currentTimeMillis() - timestamp;
-        log.info("Refresh of groups tree completed in {} milliseconds", benchmark);
-        log.info("Total number of LDAP queries:  {}", queryCounter.getCount() + 1);
-        final String msg =
-                "init() :: final size of each collection is as follows..."
-                        + "\n\tgroups={}"
-                        + "\n\tparents={}"
-                        + "\n\tchildren={}"
-                        + "\n\tkeysByUpperCaseName={}";
-        log.info(
-                msg,
-                new_groups.size(),
-                new_parents.size(),
-                new_children.size(),
-                new_keysByUpperCaseName.size());
+    private LdapTemplate newLdapTemplate() {
+        if (StringUtils.isBlank(baseGroupDn)) {
+            throw new IllegalStateException("baseGroupDn property not set");
+        }
+        if (ldapContext == null) {
+            throw new IllegalStateException("ldapContext property not set");
+        }
+        return new LdapTemplate(ldapContext);
+    }
 
-        if (log.isTraceEnabled()) {
+    private static SearchControls newSearchControls(String... returningAttributes) {
+        final SearchControls rslt = new SearchControls();
+        rslt.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        rslt.setReturningAttributes(returningAttributes);
+        return rslt;
+    }
 
-            StringBuilder sbuilder = new StringBuilder();
+    private SmartLdapGroupsTree readSnapshot() {
+        if (StringUtils.isBlank(snapshotFile)) {
+            return null;
+        }
+        final File file = new File(snapshotFile);
+        if (!file.isFile()) {
+            return null;
+        }
 
-            // new_groups...
-            sbuilder.setLength(0);
-            sbuilder.append("Here are the keys of the new_groups collection:");
-            for (String s : new_groups.keySet()) {
-                sbuilder.append("\n\t").append(s);
-            }
-            log.trace(sbuilder.toString());
-
-            // new_parents...
-            sbuilder.setLength(0);
-            sbuilder.append("Here are the parents of each child in the new_parents collection:");
-            for (Map.Entry<String, List<String>> y : new_parents.entrySet()) {
-                sbuilder.append("\n\tchild=").append(y.getKey());
-                for (String s : y.getValue()) {
-                    sbuilder.append("\n\t\tparent=").append(s);
-                }
-            }
-            log.trace(sbuilder.toString());
-
-            // new_children...
-            sbuilder.setLength(0);
-            sbuilder.append("Here are the children of each parent in the new_children collection:");
-            for (Map.Entry<String, List<String>> y : new_children.entrySet()) {
-                sbuilder.append("\n\tparent=").append(y.getKey());
-                for (String s : y.getValue()) {
-                    sbuilder.append("\n\t\tchild=").append(s);
-                }
-            }
-            log.trace(sbuilder.toString());
-
-            // new_keysByUpperCaseName...
-            sbuilder.append(
-                    "Here are the groups that have each name in the new_keysByUpperCaseName collection:");
-            for (Map.Entry<String, List<String>> y : new_keysByUpperCaseName.entrySet()) {
-                sbuilder.append("\n\tname=").append(y.getKey());
-                for (String s : y.getValue()) {
-                    sbuilder.append("\n\t\tgroup=").append(s);
-                }
+        try {
+            final SmartLdapGroupsTree rslt =
+                    SmartLdapGroupsTree.readSnapshot(
+                            file,
+                            getSnapshotSource(),
+                            getRootGroup(),
+                            new SmartLdapGroupsTree.GroupFactory() {
+                                @Override
+                                public IEntityGroup newGroup(
+                                        String key,
+                                        String name,
+                                        String description,
+                                        String creatorId) {
+                                    IEntityGroup g = new EntityTestingGroupImpl(key, IPerson.class);
+                                    g.setCreatorID(creatorId);
+                                    g.setName(name);
+                                    g.setDescription(description);
+                                    return g;
+                                }
+                            });
+            if (rslt != null) {
+                log.info(
+                        "Loaded {} groups from the SmartLdap snapshot {}",
+                        rslt.getRecords().size(),
+                        file);
             }
-            log.trace(sbuilder.toString());
+            return rslt;
+        } catch (Exception e) {
+            log.warn("Failed to read the SmartLdap snapshot {}", file, e);
+            return null;
         }
+    }
 
-        return new GroupsTree(new_groups, new_parents, new_children, new_keysByUpperCaseName);
+    private void writeSnapshot(SmartLdapGroupsTree tree) {
+        if (StringUtils.isBlank(snapshotFile)) {
+            return;
+        }
+        try {
+            tree.writeSnapshot(new File(snapshotFile), getSnapshotSource());
+        } catch (IOException ioe) {
+            log.warn("Failed to write the SmartLdap snapshot {}", snapshotFile, ioe);
+        }
+    }
+
+    /** Snapshots are only used with the settings that select the same groups. */
+    private String getSnapshotSource() {
+        return baseGroupDn
+                + "|"
+                + filter
+                + "|"
+                + resolveMemberGroups
+                + "|"
+                + resolveDnList
+                + "|"
+                + changeMarkerAttributeName;
     }
 
     /*
@@ -787,63 +825,39 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         }
     }
 
-    private static final class GroupsTree {
-
-        // Instance Members.
-        private final Map<String, IEntityGroup> groups;
-        private final Map<String, List<String>> parents;
-        private final Map<String, List<String>> children;
-        private final Map<String, List<String>> keysByUpperCaseName;
-
-        /*
-         * Public API.
-         */
-
-        public GroupsTree(
-                Map<String, IEntityGroup> groups,
-                Map<String, List<String>> parents,
-                Map<String, List<String>> children,
-                Map<String, List<String>> keysByUpperCaseName) {
-
-            // Assertions.
-            if (groups == null) {
-                String msg = "Argument 'groups' cannot be null.";
-                throw new IllegalArgumentException(msg);
-            }
-            if (parents == null) {
-                String msg = "Argument 'parents' cannot be null.";
-                throw new IllegalArgumentException(msg);
-            }
-            if (children == null) {
-                String msg = "Argument 'children' cannot be null.";
-                throw new IllegalArgumentException(msg);
-            }
-            if (keysByUpperCaseName == null) {
-                String msg = "Argument 'keysByUpperCaseName' cannot be null.";
-                throw new IllegalArgumentException(msg);
-            }
+    /**
+     * Maps groups with the configured attributesMapper and keeps the highest change marker seen. In
+     * markersOnly mode only the change markers are read.
+     */
+    private final class ChangedRecordsMapper implements AttributesMapper {
 
-            // Instance Members.
-            this.groups = groups;
-            this.parents = parents;
-            this.children = children;
-            this.keysByUpperCaseName = keysByUpperCaseName;
-        }
+        private boolean markersOnly = false;
+        private String changeMarker = null;
 
-        public Map<String, IEntityGroup> getGroups() {
-            return groups;
+        public void setMarkersOnly(boolean markersOnly) {
+            this.markersOnly = markersOnly;
         }
 
-        public Map<String, List<String>> getParents() {
-            return parents;
+        public String getChangeMarker() {
+            return changeMarker;
         }
 
-        public Map<String, List<String>> getChildren() {
-            return children;
-        }
+        @Override
+        public Object mapFromAttributes(Attributes attributes) throws NamingException {
+            final Attribute marker = attributes.get(changeMarkerAttributeName);
+            if (marker != null && marker.get() != null) {
+                changeMarker =
+                        SmartLdapGroupsTree.maxChangeMarker(changeMarker, marker.get().toString());
+            }
+            if (markersOnly) {
+                return null;
+            }
 
-        public Map<String, List<String>> getKeysByUpperCaseName() {
-            return keysByUpperCaseName;
+            // Drop references to itself, other circular references
+            // are removed by the next full refresh...
+            final LdapRecord rslt = (LdapRecord) attributesMapper.mapFromAttributes(attributes);
+            return detectAndEliminateGroupReferences(
+                    rslt, Collections.singletonList(rslt.getGroup().getLocalKey()));
         }
     }
 
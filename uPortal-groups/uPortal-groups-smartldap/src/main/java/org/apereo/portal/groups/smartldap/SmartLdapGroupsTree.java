@@ -0,0 +1,460 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.smartldap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apereo.portal.groups.GroupNameIndex;
+import org.apereo.portal.groups.IEntityGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable, single-object abstraction that contains all knowledge of SmartLdap groups:
+ *
+ * <ul>
+ *   <li>Map of the LDAP records the tree was built from keyed by 'key' (DN). Excludes ROOT_GROUP.
+ *   <li>Map of all groups keyed by 'key' (DN). Includes ROOT_GROUP.
+ *   <li>Map of all parent relationships keyed by the 'key' (DN) of the child; the values are lists
+ *       of the 'keys' (DNs) of its parents. Includes ROOT_GROUP.
+ *   <li>Map of all child relationships keyed by the 'key' (DN) of the parent; the values are lists
+ *       of the 'keys' (DNs) of its children. Includes ROOT_GROUP.
+ *   <li>Map of all 'keys' (DNs) of SmartLdap managed groups indexed by group name in upper case,
+ *       and a {@link GroupNameIndex} over the same. Includes ROOT_GROUP.
+ *   <li>The highest change marker (e.g. modifyTimestamp) seen on the records, from which the next
+ *       incremental refresh starts.
+ * </ul>
+ *
+ * <p>Changes are applied by building a new tree with {@link #applyChanges(IEntityGroup, Collection,
+ * String)}, which the group store then swaps in.
+ */
+final class SmartLdapGroupsTree {
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final Logger log = LoggerFactory.getLogger(SmartLdapGroupsTree.class);
+
+    // Instance Members.
+    private final Map<String, LdapRecord> records;
+    private final Map<String, IEntityGroup> groups;
+    private final Map<String, List<String>> parents;
+    private final Map<String, List<String>> children;
+    private final Map<String, List<String>> keysByUpperCaseName;
+    private final GroupNameIndex nameIndex;
+    private final String changeMarker;
+    private final long fullRefreshTime;
+
+    /** Creates the groups for records read from a snapshot */
+    interface GroupFactory {
+        IEntityGroup newGroup(String key, String name, String description, String creatorId);
+    }
+
+    /*
+     * Public API.
+     */
+
+    /**
+     * @param root The SmartLdap ROOT_GROUP, parent of every group that has no other parent
+     * @param records All records read from LDAP
+     * @param changeMarker The highest change marker of the records, null if not known
+     * @param fullRefreshTime When the records were read from LDAP
+     */
+    public static SmartLdapGroupsTree build(
+            IEntityGroup root,
+            Collection<LdapRecord> records,
+            String changeMarker,
+            long fullRefreshTime) {
+        final Map<String, LdapRecord> recordsByKey = new LinkedHashMap<>();
+        for (LdapRecord r : records) {
+            recordsByKey.put(r.getGroup().getLocalKey(), r);
+        }
+        return new SmartLdapGroupsTree(root, recordsByKey, changeMarker, fullRefreshTime);
+    }
+
+    private SmartLdapGroupsTree(
+            IEntityGroup root,
+            Map<String, LdapRecord> records,
+            String changeMarker,
+            long fullRefreshTime) {
+
+        long timestamp = System.currentTimeMillis();
+
+        // Prepare the new local indeces...
+        Map<String, IEntityGroup> new_groups = new HashMap<>();
+        Map<String, List<String>> new_parents = new HashMap<>();
+        Map<String, List<String>> new_children = new HashMap<>();
+        Map<String, List<String>> new_keysByUpperCaseName = new HashMap<>();
+
+        // Do a first loop to build the main catalog (new_groups)...
+        for (LdapRecord r : records.values()) {
+
+            // new_groups (me)...
+            IEntityGroup g = r.getGroup();
+            new_groups.put(g.getLocalKey(), g);
+        }
+
+        // Do a second loop to build local indeces...
+        for (LdapRecord r : records.values()) {
+
+            IEntityGroup g = r.getGroup();
+
+            // new_parents (I am a parent for all my children)...
+            for (String childKey : r.getKeysOfChildren()) {
+
+                // NB:  We're only interested in relationships between
+                // objects in the main catalog (i.e. new_groups);
+                // discard everything else...
+                if (!new_groups.containsKey(childKey)) {
+                    break;
+                }
+
+                List<String> parentsList = new_parents.get(childKey);
+                if (parentsList == null) {
+                    // first parent for this child...
+                    parentsList = new ArrayList<>();
+                    new_parents.put(childKey, parentsList);
+                }
+                parentsList.add(g.getLocalKey());
+            }
+
+            // new_children...
+            List<String> childrenList = new ArrayList<>();
+            for (String childKey : r.getKeysOfChildren()) {
+                // NB:  We're only interested in relationships between
+                // objects in the main catalog (i.e. new_groups);
+                // discard everything else...
+                if (new_groups.containsKey(childKey)) {
+                    childrenList.add(childKey);
+                }
+            }
+            new_children.put(g.getLocalKey(), childrenList);
+
+            // new_keysByUpperCaseName...
+            addKeyByName(new_keysByUpperCaseName, g);
+        }
+
+        /*
+         * Now load the ROOT_GROUP into the collections...
+         */
+
+        // new_groups (me)...
+        new_groups.put(root.getLocalKey(), root);
+
+        // new_parents (I am a parent for all groups that have no other parent)...
+        List<String> childrenOfRoot = new ArrayList<>(); // for later...
+        for (String possibleChildKey : new_groups.keySet()) {
+            if (!possibleChildKey.equals(root.getLocalKey())
+                    && !new_parents.containsKey(possibleChildKey)) {
+                new_parents.put(possibleChildKey, Collections.singletonList(root.getLocalKey()));
+                childrenOfRoot.add(possibleChildKey); // for later...
+            }
+        }
+
+        // new_children...
+        new_children.put(root.getLocalKey(), childrenOfRoot);
+
+        // new_keysByUpperCaseName...
+        addKeyByName(new_keysByUpperCaseName, root);
+
+        final GroupNameIndex.Builder nameIndexBuilder = GroupNameIndex.builder();
+        for (Map.Entry<String, List<String>> y : new_keysByUpperCaseName.entrySet()) {
+            for (String key : y.getValue()) {
+                nameIndexBuilder.add(y.getKey(), key);
+            }
+        }
+
+        // Instance Members.
+        this.records = Collections.unmodifiableMap(records);
+        this.groups = Collections.unmodifiableMap(new_groups);
+        this.parents = unmodifiableLists(new_parents);
+        this.children = unmodifiableLists(new_children);
+        this.keysByUpperCaseName = unmodifiableLists(new_keysByUpperCaseName);
+        this.nameIndex = nameIndexBuilder.build();
+        this.changeMarker = changeMarker;
+        this.fullRefreshTime = fullRefreshTime;
+
+        final long benchmark = System.currentTimeMillis() - timestamp;
+        log.info("Indexing of groups tree completed in {} milliseconds", benchmark);
+        final String msg =
+                "init() :: final size of each collection is as follows..."
+                        + "\n\tgroups={}"
+                        + "\n\tparents={}"
+                        + "\n\tchildren={}"
+                        + "\n\tkeysByUpperCaseName={}";
+        log.info(
+                msg,
+                new_groups.size(),
+                new_parents.size(),
+                new_children.size(),
+                new_keysByUpperCaseName.size());
+
+        if (log.isTraceEnabled()) {
+
+            StringBuilder sbuilder = new StringBuilder();
+
+            // new_groups...
+            sbuilder.setLength(0);
+            sbuilder.append("Here are the keys of the new_groups collection:");
+            for (String s : new_groups.keySet()) {
+                sbuilder.append("\n\t").append(s);
+            }
+            log.trace(sbuilder.toString());
+
+            // new_parents...
+            sbuilder.setLength(0);
+            sbuilder.append("Here are the parents of each child in the new_parents collection:");
+            for (Map.Entry<String, List<String>> y : new_parents.entrySet()) {
+                sbuilder.append("\n\tchild=").append(y.getKey());
+                for (String s : y.getValue()) {
+                    sbuilder.append("\n\t\tparent=").append(s);
+                }
+            }
+            log.trace(sbuilder.toString());
+
+            // new_children...
+            sbuilder.setLength(0);
+            sbuilder.append("Here are the children of each parent in the new_children collection:");
+            for (Map.Entry<String, List<String>> y : new_children.entrySet()) {
+                sbuilder.append("\n\tparent=").append(y.getKey());
+                for (String s : y.getValue()) {
+                    sbuilder.append("\n\t\tchild=").append(s);
+                }
+            }
+            log.trace(sbuilder.toString());
+
+            // new_keysByUpperCaseName...
+            sbuilder.append(
+                    "Here are the groups that have each name in the new_keysByUpperCaseName collection:");
+            for (Map.Entry<String, List<String>> y : new_keysByUpperCaseName.entrySet()) {
+                sbuilder.append("\n\tname=").append(y.getKey());
+                for (String s : y.getValue()) {
+                    sbuilder.append("\n\t\tgroup=").append(s);
+                }
+            }
+            log.trace(sbuilder.toString());
+        }
+    }
+
+    /**
+     * Builds a new tree with the records that were added or modified since this one was built. LDAP
+     * reports no change markers for deleted groups, so they stay in the tree until the next full
+     * refresh.
+     *
+     * @param changeMarker The highest change marker of the changed records, null if none
+     */
+    public SmartLdapGroupsTree applyChanges(
+            IEntityGroup root, Collection<LdapRecord> changedRecords, String changeMarker) {
+        final Map<String, LdapRecord> new_records = new LinkedHashMap<>(records);
+        for (LdapRecord r : changedRecords) {
+            new_records.put(r.getGroup().getLocalKey(), r);
+        }
+        return new SmartLdapGroupsTree(
+                root,
+                new_records,
+                maxChangeMarker(this.changeMarker, changeMarker),
+                this.fullRefreshTime);
+    }
+
+    public Map<String, LdapRecord> getRecords() {
+        return records;
+    }
+
+    public Map<String, IEntityGroup> getGroups() {
+        return groups;
+    }
+
+    public Map<String, List<String>> getParents() {
+        return parents;
+    }
+
+    public Map<String, List<String>> getChildren() {
+        return children;
+    }
+
+    public Map<String, List<String>> getKeysByUpperCaseName() {
+        return keysByUpperCaseName;
+    }
+
+    public GroupNameIndex getNameIndex() {
+        return nameIndex;
+    }
+
+    /** @return The highest change marker seen on the records, null if not known */
+    public String getChangeMarker() {
+        return changeMarker;
+    }
+
+    /** @return When all records were last read from LDAP */
+    public long getFullRefreshTime() {
+        return fullRefreshTime;
+    }
+
+    /**
+     * Change markers are compared as numbers if both are numeric (e.g. uSNChanged), otherwise as
+     * strings, which orders generalized time values (e.g. modifyTimestamp) from one server.
+     *
+     * @return The higher change marker, either may be null
+     */
+    public static String maxChangeMarker(String marker1, String marker2) {
+        if (marker1 == null) {
+            return marker2;
+        }
+        if (marker2 == null) {
+            return marker1;
+        }
+        if (isNumeric(marker1) && isNumeric(marker2)) {
+            if (marker1.length() != marker2.length()) {
+                return marker1.length() > marker2.length() ? marker1 : marker2;
+            }
+        }
+        return marker1.compareTo(marker2) >= 0 ? marker1 : marker2;
+    }
+
+    /**
+     * Writes the records and change marker to the file, replacing it atomically so that a reader
+     * never sees a partial snapshot.
+     *
+     * @param source Describes where the records were read from, see {@link #readSnapshot(File,
+     *     String, IEntityGroup, GroupFactory)}
+     */
+    public void writeSnapshot(File file, String source) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(
+                        new BufferedOutputStream(
+                                new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(source);
+            out.writeLong(fullRefreshTime);
+            writeNullable(out, changeMarker);
+            out.writeInt(records.size());
+            for (LdapRecord r : records.values()) {
+                final IEntityGroup g = r.getGroup();
+                out.writeUTF(g.getLocalKey());
+                writeNullable(out, g.getName());
+                writeNullable(out, g.getDescription());
+                writeNullable(out, g.getCreatorID());
+                out.writeInt(r.getKeysOfChildren().size());
+                for (String childKey : r.getKeysOfChildren()) {
+                    out.writeUTF(childKey);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @param source Describes where the records should have been read from
+     * @return The tree stored in the file, null if the snapshot is from an incompatible version or
+     *     a different source
+     */
+    public static SmartLdapGroupsTree readSnapshot(
+            File file, String source, IEntityGroup root, GroupFactory groupFactory)
+            throws IOException {
+        try (DataInputStream in =
+                new DataInputStream(
+                        new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            final int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                log.warn("Ignoring SmartLdap snapshot {} of version {}", file, version);
+                return null;
+            }
+            final String snapshotSource = in.readUTF();
+            if (!snapshotSource.equals(source)) {
+                log.warn("Ignoring SmartLdap snapshot {} of {}", file, snapshotSource);
+                return null;
+            }
+            final long fullRefreshTime = in.readLong();
+            final String changeMarker = readNullable(in);
+            final int count = in.readInt();
+            final List<LdapRecord> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                final IEntityGroup g =
+                        groupFactory.newGroup(
+                                key, readNullable(in), readNullable(in), readNullable(in));
+                final int childCount = in.readInt();
+                final List<String> keysOfChildren = new ArrayList<>(childCount);
+                for (int j = 0; j < childCount; j++) {
+                    keysOfChildren.add(in.readUTF());
+                }
+                records.add(new LdapRecord(g, keysOfChildren));
+            }
+            return build(root, records, changeMarker, fullRefreshTime);
+        }
+    }
+
+    /*
+     * Implementation.
+     */
+
+    private static void addKeyByName(
+            Map<String, List<String>> keysByUpperCaseName, IEntityGroup g) {
+        List<String> groupsWithMyName = keysByUpperCaseName.get(g.getName().toUpperCase());
+        if (groupsWithMyName == null) {
+            // I am the first group with my name (pretty likely)...
+            groupsWithMyName = new ArrayList<>(1);
+            keysByUpperCaseName.put(g.getName().toUpperCase(), groupsWithMyName);
+        }
+        groupsWithMyName.add(g.getLocalKey());
+    }
+
+    private static Map<String, List<String>> unmodifiableLists(Map<String, List<String>> map) {
+        for (Map.Entry<String, List<String>> y : map.entrySet()) {
+            y.setValue(Collections.unmodifiableList(y.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static boolean isNumeric(String marker) {
+        if (marker.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < marker.length(); i++) {
+            if (!Character.isDigit(marker.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
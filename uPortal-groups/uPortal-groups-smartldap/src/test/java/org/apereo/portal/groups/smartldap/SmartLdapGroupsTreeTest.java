@@ -0,0 +1,147 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.smartldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupConstants;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SmartLdapGroupsTreeTest {
+    private static final String SOURCE = "ou=groups|(objectClass=group)";
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private IEntityGroup root;
+    private SmartLdapGroupsTree tree;
+
+    @Before
+    public void setUp() {
+        this.root = group(SmartLdapGroupStore.ROOT_KEY, SmartLdapGroupStore.ROOT_KEY);
+
+        // staff -- faculty
+        //       -- admins
+        this.tree =
+                SmartLdapGroupsTree.build(
+                        this.root,
+                        Arrays.asList(
+                                record("cn=staff", "Staff", "cn=faculty", "cn=admins"),
+                                record("cn=faculty", "Faculty"),
+                                record("cn=admins", "Admins")),
+                        "20170101000000Z",
+                        1000L);
+    }
+
+    @Test
+    public void testBuild() {
+        assertEquals(4, this.tree.getGroups().size());
+        assertEquals(
+                Collections.singletonList("cn=staff"), this.tree.getParents().get("cn=faculty"));
+        assertEquals(
+                Collections.singletonList("cn=staff"),
+                this.tree.getChildren().get(SmartLdapGroupStore.ROOT_KEY));
+        assertEquals(
+                Collections.singletonList("cn=faculty"),
+                this.tree.getNameIndex().search("fac", IGroupConstants.STARTS_WITH));
+    }
+
+    @Test
+    public void testApplyChanges() {
+        // A new group, and admins moves from staff to the new group
+        final SmartLdapGroupsTree changed =
+                this.tree.applyChanges(
+                        this.root,
+                        Arrays.asList(
+                                record("cn=staff", "Staff", "cn=faculty"),
+                                record("cn=it", "IT", "cn=admins")),
+                        "20170102000000Z");
+
+        assertEquals(5, changed.getGroups().size());
+        assertEquals(Collections.singletonList("cn=it"), changed.getParents().get("cn=admins"));
+        assertEquals(
+                new HashSet<String>(Arrays.asList("cn=staff", "cn=it")),
+                new HashSet<String>(changed.getChildren().get(SmartLdapGroupStore.ROOT_KEY)));
+        assertEquals("20170102000000Z", changed.getChangeMarker());
+        assertEquals(1000L, changed.getFullRefreshTime());
+
+        // The original tree is unchanged
+        assertEquals(4, this.tree.getGroups().size());
+        assertEquals(
+                Collections.singletonList("cn=staff"), this.tree.getParents().get("cn=admins"));
+    }
+
+    @Test
+    public void testMaxChangeMarker() {
+        assertEquals("9", SmartLdapGroupsTree.maxChangeMarker(null, "9"));
+        assertEquals("10", SmartLdapGroupsTree.maxChangeMarker("10", "9"));
+        assertEquals("10", SmartLdapGroupsTree.maxChangeMarker("9", "10"));
+        assertEquals(
+                "20170102000000Z",
+                SmartLdapGroupsTree.maxChangeMarker("20170102000000Z", "20170101120000Z"));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        final File file = this.temporaryFolder.newFile("smartldap.snapshot");
+        this.tree.writeSnapshot(file, SOURCE);
+
+        final SmartLdapGroupsTree.GroupFactory groupFactory =
+                new SmartLdapGroupsTree.GroupFactory() {
+                    @Override
+                    public IEntityGroup newGroup(
+                            String key, String name, String description, String creatorId) {
+                        return group(key, name);
+                    }
+                };
+
+        final SmartLdapGroupsTree read =
+                SmartLdapGroupsTree.readSnapshot(file, SOURCE, this.root, groupFactory);
+        assertEquals(this.tree.getGroups().keySet(), read.getGroups().keySet());
+        assertEquals(this.tree.getParents(), read.getParents());
+        assertEquals(this.tree.getChildren(), read.getChildren());
+        assertEquals(this.tree.getKeysByUpperCaseName(), read.getKeysByUpperCaseName());
+        assertEquals("20170101000000Z", read.getChangeMarker());
+        assertEquals(1000L, read.getFullRefreshTime());
+
+        assertNull(
+                "Snapshots of other groups are ignored",
+                SmartLdapGroupsTree.readSnapshot(file, "ou=other", this.root, groupFactory));
+    }
+
+    private static LdapRecord record(String key, String name, String... children) {
+        final List<String> keysOfChildren = Arrays.asList(children);
+        return new LdapRecord(group(key, name), keysOfChildren);
+    }
+
+    private static IEntityGroup group(String key, String name) {
+        final IEntityGroup rslt = mock(IEntityGroup.class);
+        when(rslt.getLocalKey()).thenReturn(key);
+        when(rslt.getKey()).thenReturn(key);
+        when(rslt.getName()).thenReturn(name);
+        return rslt;
+    }
+}
@@ -15,8 +15,18 @@
 package org.apereo.portal.i18n;
 
 import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apereo.portal.i18n.dao.IMessageDao;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.MessageSource;
 import org.springframework.context.support.AbstractMessageSource;
@@ -36,8 +46,17 @@ import org.springframework.context.support.AbstractMessageSource;
  * message source will be set as parent to this message source, then this message source will become
  * the primary one.
  *
+ * <p>Messages are served from an in-memory catalog of all database messages, loaded in bulk at
+ * startup and replaced when a periodic check finds the messages changed.
+ *
  */
-public class DatabaseMessageSource extends AbstractMessageSource implements MessageSource {
+public class DatabaseMessageSource extends AbstractMessageSource
+        implements MessageSource, InitializingBean {
+
+    private final Lock catalogLoadLock = new ReentrantLock();
+    private volatile MessageCatalog catalog;
+    private volatile long nextCatalogRefresh;
+    private long catalogRefreshMillis = TimeUnit.SECONDS.toMillis(60);
 
     private IMessageDao messageDao;
 
@@ -46,14 +65,31 @@ public class DatabaseMessageSource extends AbstractMessageSource implements Mess
         this.messageDao = messageDao;
     }
 
+    /**
+     * How often the in-memory catalog is checked against the database, picking up messages changed
+     * through the DAO or on other nodes of a cluster. Defaults to 60 seconds.
+     */
+    public void setCatalogRefreshSeconds(int catalogRefreshSeconds) {
+        this.catalogRefreshMillis = TimeUnit.SECONDS.toMillis(catalogRefreshSeconds);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            getCatalog();
+        } catch (RuntimeException e) {
+            // The catalog is loaded again on first use
+            logger.warn("Failed to load the message catalog at startup", e);
+        }
+    }
+
     @Override
     protected MessageFormat resolveCode(String code, Locale locale) {
         if (locale == null) {
             return null;
         }
 
-        Message message = messageDao.getMessage(code, locale);
-        return message != null ? new MessageFormat(message.getValue(), locale) : null;
+        return getCatalog().getMessageFormat(code, locale);
     }
 
     @Override
@@ -62,7 +98,127 @@ public class DatabaseMessageSource extends AbstractMessageSource implements Mess
             return null;
         }
 
-        Message message = messageDao.getMessage(code, locale);
-        return message != null ? message.getValue() : null;
+        return getCatalog().getMessage(code, locale);
+    }
+
+    /**
+     * Returns the current catalog. The first caller loads it, every caller waits for that. Once a
+     * catalog exists a caller finding it due for a refresh reloads it while everybody else keeps
+     * using the current one, which is then swapped for the new catalog.
+     */
+    private MessageCatalog getCatalog() {
+        final MessageCatalog current = this.catalog;
+        if (current == null) {
+            this.catalogLoadLock.lock();
+        } else if (System.currentTimeMillis() < this.nextCatalogRefresh
+                || !this.catalogLoadLock.tryLock()) {
+            return current;
+        }
+
+        try {
+            if (this.catalog != current) {
+                // Loaded by another thread while waiting for the lock
+                return this.catalog;
+            }
+
+            try {
+                final MessageCatalog loaded = MessageCatalog.load(this.messageDao.getMessages());
+                if (current == null || !current.hasSameMessages(loaded)) {
+                    this.catalog = loaded;
+                }
+            } catch (RuntimeException e) {
+                if (current == null) {
+                    throw e;
+                }
+                logger.warn("Failed to refresh the message catalog, keeping the current one", e);
+            }
+            this.nextCatalogRefresh = System.currentTimeMillis() + this.catalogRefreshMillis;
+            return this.catalog;
+        } finally {
+            this.catalogLoadLock.unlock();
+        }
+    }
+
+    /**
+     * Immutable snapshot of all database messages by locale. Lookups fall back from the requested
+     * locale to its language and country, then to its language alone. Compiled {@link
+     * MessageFormat}s are cached per code and requested locale for the life of the catalog, callers
+     * get a clone since a {@link MessageFormat} is not thread-safe.
+     */
+    static final class MessageCatalog {
+        private final Map<Locale, Map<String, String>> messages;
+        private final ConcurrentMap<Locale, ConcurrentMap<String, MessageFormat>> formats =
+                new ConcurrentHashMap<>();
+
+        private MessageCatalog(Map<Locale, Map<String, String>> messages) {
+            this.messages = messages;
+        }
+
+        static MessageCatalog load(Collection<Message> messages) {
+            final Map<Locale, Map<String, String>> byLocale = new HashMap<>();
+            for (final Message message : messages) {
+                if (message.getLocale() == null || message.getValue() == null) {
+                    continue;
+                }
+
+                Map<String, String> localeMessages = byLocale.get(message.getLocale());
+                if (localeMessages == null) {
+                    localeMessages = new HashMap<>();
+                    byLocale.put(message.getLocale(), localeMessages);
+                }
+                localeMessages.put(message.getCode(), message.getValue());
+            }
+
+            final Map<Locale, Map<String, String>> catalog = new HashMap<>(byLocale.size());
+            for (final Map.Entry<Locale, Map<String, String>> entry : byLocale.entrySet()) {
+                catalog.put(entry.getKey(), Collections.unmodifiableMap(entry.getValue()));
+            }
+            return new MessageCatalog(Collections.unmodifiableMap(catalog));
+        }
+
+        boolean hasSameMessages(MessageCatalog other) {
+            return this.messages.equals(other.messages);
+        }
+
+        String getMessage(String code, Locale locale) {
+            String message = getExactMessage(code, locale);
+            if (message == null && locale.getVariant().length() > 0) {
+                message =
+                        getExactMessage(
+                                code, new Locale(locale.getLanguage(), locale.getCountry()));
+            }
+            if (message == null && locale.getCountry().length() > 0) {
+                message = getExactMessage(code, new Locale(locale.getLanguage()));
+            }
+            return message;
+        }
+
+        MessageFormat getMessageFormat(String code, Locale locale) {
+            ConcurrentMap<String, MessageFormat> localeFormats = this.formats.get(locale);
+            if (localeFormats == null) {
+                localeFormats = new ConcurrentHashMap<>();
+                final ConcurrentMap<String, MessageFormat> existing =
+                        this.formats.putIfAbsent(locale, localeFormats);
+                if (existing != null) {
+                    localeFormats = existing;
+                }
+            }
+
+            MessageFormat format = localeFormats.get(code);
+            if (format == null) {
+                final String message = getMessage(code, locale);
+                if (message == null) {
+                    return null;
+                }
+                format = new MessageFormat(message, locale);
+                localeFormats.putIfAbsent(code, format);
+            }
+            return (MessageFormat) format.clone();
+        }
+
+        private String getExactMessage(String code, Locale locale) {
+            final Map<String, String> localeMessages = this.messages.get(locale);
+            return localeMessages != null ? localeMessages.get(code) : null;
+        }
     }
 }
@@ -82,4 +82,11 @@ public interface IMessageDao {
      * @since 4.0.2
      */
     Set<String> getCodes();
+
+    /**
+     * Get all messages for all locales, used to load message catalogs in bulk.
+     *
+     * @return A set of all messages.
+     */
+    Set<Message> getMessages();
 }
@@ -38,6 +38,7 @@ public class JpaMessageDao extends BasePortalJpaDao implements IMessageDao {
     private CriteriaQuery<MessageImpl> findMessageByCodeQuery;
     private CriteriaQuery<MessageImpl> findMessageByLocaleQuery;
     private CriteriaQuery<String> findCodes;
+    private CriteriaQuery<MessageImpl> findAllMessagesQuery;
 
     private ParameterExpression<String> codeParameter;
     private ParameterExpression<Locale> localeParameter;
@@ -122,6 +123,20 @@ public class JpaMessageDao extends BasePortalJpaDao implements IMessageDao {
                                 return criteriaQuery;
                             }
                         });
+
+        this.findAllMessagesQuery =
+                this.createCriteriaQuery(
+                        new Function<CriteriaBuilder, CriteriaQuery<MessageImpl>>() {
+                            @Override
+                            public CriteriaQuery<MessageImpl> apply(CriteriaBuilder cb) {
+                                final CriteriaQuery<MessageImpl> criteriaQuery =
+                                        cb.createQuery(MessageImpl.class);
+                                final Root<MessageImpl> root =
+                                        criteriaQuery.from(MessageImpl.class);
+                                criteriaQuery.select(root);
+                                return criteriaQuery;
+                            }
+                        });
     }
 
     @Override
@@ -193,4 +208,11 @@ public class JpaMessageDao extends BasePortalJpaDao implements IMessageDao {
         final List<String> codes = query.getResultList();
         return new LinkedHashSet<String>(codes);
     }
+
+    @Override
+    public Set<Message> getMessages() {
+        final TypedQuery<MessageImpl> query = createCachedQuery(findAllMessagesQuery);
+        final List<MessageImpl> messages = query.getResultList();
+        return new LinkedHashSet<Message>(messages);
+    }
 }
@@ -0,0 +1,101 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.i18n;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import org.apereo.portal.i18n.dao.IMessageDao;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DatabaseMessageSourceTest {
+    private IMessageDao messageDao;
+    private DatabaseMessageSource messageSource;
+
+    @Before
+    public void setup() {
+        this.messageDao = mock(IMessageDao.class);
+        final Set<Message> messages =
+                messages(
+                        message("tab.home", Locale.FRENCH, "Accueil"),
+                        message("tab.home", Locale.CANADA_FRENCH, "Page d'accueil"),
+                        message("greeting", Locale.ENGLISH, "Hello {0}"));
+        when(this.messageDao.getMessages()).thenReturn(messages);
+
+        this.messageSource = new DatabaseMessageSource();
+        this.messageSource.setMessageDao(this.messageDao);
+        this.messageSource.afterPropertiesSet();
+    }
+
+    @Test
+    public void testFallbackChain() {
+        assertEquals("Accueil", this.messageSource.getMessage("tab.home", null, Locale.FRANCE));
+        assertEquals(
+                "Page d'accueil",
+                this.messageSource.getMessage("tab.home", null, Locale.CANADA_FRENCH));
+        assertEquals(
+                "Page d'accueil",
+                this.messageSource.getMessage("tab.home", null, new Locale("fr", "CA", "QC")));
+        assertEquals(
+                "missing",
+                this.messageSource.getMessage("tab.home", null, "missing", Locale.GERMAN));
+    }
+
+    @Test
+    public void testFormatsAreCached() {
+        for (final String name : new String[] {"World", "Portal"}) {
+            assertEquals(
+                    "Hello " + name,
+                    this.messageSource.getMessage("greeting", new Object[] {name}, Locale.US));
+        }
+        verify(this.messageDao, times(1)).getMessages();
+    }
+
+    @Test
+    public void testCatalogIsRefreshed() {
+        this.messageSource = new DatabaseMessageSource();
+        this.messageSource.setMessageDao(this.messageDao);
+        this.messageSource.setCatalogRefreshSeconds(0);
+        this.messageSource.afterPropertiesSet();
+        final Set<Message> messages = messages(message("greeting", Locale.ENGLISH, "Hi {0}"));
+        when(this.messageDao.getMessages()).thenReturn(messages);
+
+        assertEquals(
+                "Hi World",
+                this.messageSource.getMessage("greeting", new Object[] {"World"}, Locale.US));
+        assertNull(this.messageSource.getMessage("tab.home", null, null, Locale.FRENCH));
+    }
+
+    private static Set<Message> messages(Message... messages) {
+        return new LinkedHashSet<Message>(Arrays.asList(messages));
+    }
+
+    private static Message message(String code, Locale locale, String value) {
+        final Message message = mock(Message.class);
+        when(message.getCode()).thenReturn(code);
+        when(message.getLocale()).thenReturn(locale);
+        when(message.getValue()).thenReturn(value);
+        return message;
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.transform.dom.DOMSource;
+import org.apereo.portal.utils.DocumentFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Compares a layout held as a DOM with the same layout held as a {@link CompactLayout}. The stream
+ * benchmarks measure the cost of producing the events the rendering pipeline reads. The approximate
+ * retained heap per cached layout for both representations is printed once per fork during setup,
+ * each simulated user gets the same fragment tabs and a tab of their own.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompactLayoutBenchmark {
+    /** Number of tabs pushed to every user by fragments */
+    @Param({"2", "8"})
+    public int fragmentTabs;
+
+    private final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+
+    private Document layout;
+    private CompactLayout compactLayout;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.layout = createLayout(this.fragmentTabs, 0);
+        this.compactLayout = CompactLayout.fromDocument(this.layout);
+
+        final int users = 2000;
+        final long compactBytes = retainedBytesPerLayout(users, true);
+        final long domBytes = retainedBytesPerLayout(users, false);
+        System.out.println();
+        System.out.println(
+                "Retained bytes per layout, DOM: " + domBytes + ", compact: " + compactBytes);
+    }
+
+    @Benchmark
+    public void streamDom(Blackhole bh) throws Exception {
+        consume(this.xmlInputFactory.createXMLEventReader(new DOMSource(this.layout)), bh);
+    }
+
+    @Benchmark
+    public void streamCompact(Blackhole bh) throws Exception {
+        consume(this.compactLayout.getXMLEventReader(), bh);
+    }
+
+    @Benchmark
+    public CompactLayout buildCompact() {
+        return CompactLayout.fromDocument(this.layout);
+    }
+
+    private static void consume(XMLEventReader reader, Blackhole bh) throws Exception {
+        while (reader.hasNext()) {
+            bh.consume(reader.nextEvent());
+        }
+        reader.close();
+    }
+
+    /**
+     * Approximates the heap retained per layout by filling the heap with layouts for distinct users
+     * and comparing used memory before and after.
+     */
+    private long retainedBytesPerLayout(int users, boolean compact) {
+        final Object[] retained = new Object[users];
+        final long before = usedMemory();
+        for (int i = 0; i < users; i++) {
+            final Document userLayout = createLayout(this.fragmentTabs, i);
+            if (compact) {
+                retained[i] = CompactLayout.fromDocument(userLayout);
+            } else {
+                retained[i] = userLayout;
+            }
+        }
+        final long after = usedMemory();
+        final long bytesPerLayout = (after - before) / users;
+
+        // Keep the layouts reachable until after the measurement
+        if (retained[users - 1] == null) {
+            throw new IllegalStateException();
+        }
+        return bytesPerLayout;
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Builds a layout shaped like a DLM incorporated layout: fragment tabs of four columns with a
+     * few portlets each followed by a personal tab with ids unique to the user.
+     */
+    private static Document createLayout(int fragmentTabs, int user) {
+        final Document document = DocumentFactory.getThreadDocument();
+        final Element layout = document.createElement("layout");
+        layout.setAttribute(Constants.NS_DECL, Constants.NS_URI);
+        document.appendChild(layout);
+
+        final Element root = createFolder(document, "s1", "root", "Root");
+        layout.appendChild(root);
+
+        for (int tab = 0; tab < fragmentTabs; tab++) {
+            final String prefix = Constants.FRAGMENT_ID_USER_PREFIX + (tab + 2) + "l1";
+            final Element fragmentTab = createFolder(document, prefix + "s1", "regular", "Tab");
+            fragmentTab.setAttributeNS(Constants.NS_URI, Constants.ATT_FRAGMENT, "" + tab);
+            fragmentTab.setAttributeNS(Constants.NS_URI, Constants.ATT_PRECEDENCE, "50.0");
+            addColumns(document, fragmentTab, prefix);
+            root.appendChild(fragmentTab);
+        }
+
+        final Element userTab = createFolder(document, "s" + (user + 100), "regular", "My Tab");
+        addColumns(document, userTab, "");
+        root.appendChild(userTab);
+
+        return document;
+    }
+
+    private static void addColumns(Document document, Element tab, String prefix) {
+        for (int column = 0; column < 4; column++) {
+            final Element folder =
+                    createFolder(document, prefix + "s" + (column + 2), "regular", "Column");
+            for (int portlet = 0; portlet < 4; portlet++) {
+                final Element channel = document.createElement("channel");
+                final String id = prefix + "n" + (column * 4 + portlet + 10);
+                channel.setAttribute(Constants.ATT_ID, id);
+                channel.setIdAttribute(Constants.ATT_ID, true);
+                channel.setAttribute("fname", "portlet-" + portlet);
+                channel.setAttribute("chanID", "" + (portlet + 20));
+                channel.setAttribute("title", "Portlet " + portlet);
+                channel.setAttribute("hidden", "false");
+                channel.setAttribute("unremovable", "false");
+                channel.setAttribute("immutable", "false");
+
+                final Element parameter = document.createElement("parameter");
+                parameter.setAttribute("name", "iconUrl");
+                parameter.setAttribute("value", "/ResourceServingWebapp/icons/" + portlet + ".png");
+                channel.appendChild(parameter);
+                folder.appendChild(channel);
+            }
+            tab.appendChild(folder);
+        }
+    }
+
+    private static Element createFolder(Document document, String id, String type, String name) {
+        final Element folder = document.createElement("folder");
+        folder.setAttribute(Constants.ATT_ID, id);
+        folder.setIdAttribute(Constants.ATT_ID, true);
+        folder.setAttribute("type", type);
+        folder.setAttribute("name", name);
+        folder.setAttribute("hidden", "false");
+        folder.setAttribute("unremovable", "false");
+        folder.setAttribute("immutable", "false");
+        return folder;
+    }
+}
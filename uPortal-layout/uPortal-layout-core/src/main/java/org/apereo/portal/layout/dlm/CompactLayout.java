@@ -0,0 +1,552 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.XMLEvent;
+import org.apereo.portal.utils.DocumentFactory;
+import org.apereo.portal.xml.stream.BaseXMLEventReader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Immutable, array backed copy of a layout document. A layout DOM has an object per element,
+ * attribute and attribute value, this model stores each element as a single object with its
+ * attributes in a flat array. Element names, attribute names and attribute values are interned and
+ * subtrees incorporated from fragments are shared by every layout that contains an identical copy,
+ * so the users of a fragment only pay for it once.
+ *
+ * <p>Instances are safe to share between threads. Use {@link #toDocument()} to get a mutable DOM
+ * and {@link #getXMLEventReader()} to stream the layout without building one.
+ */
+public final class CompactLayout {
+    /**
+     * Events need a Location for StAXSource and XSLTC. The location is set once here and never
+     * changed, leaving the factory safe to share between readers.
+     */
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+
+    static {
+        EVENT_FACTORY.setLocation(new LayoutLocation());
+    }
+
+    private static final XMLEvent START_DOCUMENT = EVENT_FACTORY.createStartDocument();
+    private static final XMLEvent END_DOCUMENT = EVENT_FACTORY.createEndDocument();
+    private static final String XMLNS_PREFIX = XMLConstants.XMLNS_ATTRIBUTE + ":";
+
+    private static final Interner<String> VALUE_INTERNER = Interners.newWeakInterner();
+    private static final Interner<LayoutNode> FRAGMENT_NODE_INTERNER = Interners.newWeakInterner();
+
+    private final LayoutNode root;
+    private volatile LayoutNodeIndex nodeIndex;
+
+    private CompactLayout(LayoutNode root) {
+        this.root = root;
+    }
+
+    /** Create a compact copy of the layout document */
+    public static CompactLayout fromDocument(Document layout) {
+        final Element documentElement = layout.getDocumentElement();
+        if (documentElement == null) {
+            throw new IllegalArgumentException("Layout document has no document element");
+        }
+        return new CompactLayout(createNode(documentElement));
+    }
+
+    /** @return The document element of the layout */
+    public LayoutNode getRoot() {
+        return this.root;
+    }
+
+    /** @return The number of elements in the layout */
+    public int getElementCount() {
+        return this.root.getElementCount();
+    }
+
+    /**
+     * @return A new DOM copy of the layout, elements with an {@link Constants#ATT_ID} attribute
+     *     have it registered as their id so {@link Document#getElementById(String)} works
+     */
+    public Document toDocument() {
+        final Document document = DocumentFactory.getThreadDocument();
+        document.appendChild(createElement(document, this.root));
+        return document;
+    }
+
+    /**
+     * @return Lookup tables for the layout nodes, built on first use. Concurrent first calls may
+     *     each build the index, they all produce the same result
+     */
+    public LayoutNodeIndex getNodeIndex() {
+        LayoutNodeIndex nodeIndex = this.nodeIndex;
+        if (nodeIndex == null) {
+            nodeIndex = new LayoutNodeIndex(this.root);
+            this.nodeIndex = nodeIndex;
+        }
+        return nodeIndex;
+    }
+
+    /** @return A reader that streams the layout as StAX events */
+    public XMLEventReader getXMLEventReader() {
+        return new CompactLayoutEventReader(this.root);
+    }
+
+    private static LayoutNode createNode(Element element) {
+        final NamedNodeMap attributeMap = element.getAttributes();
+        final String[] attributes = new String[attributeMap.getLength() * 3];
+        for (int i = 0; i < attributeMap.getLength(); i++) {
+            final Node attribute = attributeMap.item(i);
+            attributes[i * 3] = internName(attribute.getNamespaceURI());
+            attributes[i * 3 + 1] = internName(attribute.getNodeName());
+            attributes[i * 3 + 2] = VALUE_INTERNER.intern(attribute.getNodeValue());
+        }
+
+        final NodeList childNodes = element.getChildNodes();
+        final List<Object> children = new ArrayList<Object>(childNodes.getLength());
+        for (int i = 0; i < childNodes.getLength(); i++) {
+            final Node child = childNodes.item(i);
+            switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    children.add(createNode((Element) child));
+                    break;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    children.add(VALUE_INTERNER.intern(child.getNodeValue()));
+                    break;
+                default:
+                    // Comments and processing instructions are not part of the layout
+                    break;
+            }
+        }
+
+        final LayoutNode node =
+                new LayoutNode(
+                        internName(element.getNamespaceURI()),
+                        internName(element.getNodeName()),
+                        attributes,
+                        children.toArray());
+
+        // Nodes incorporated from a fragment are identical for most users of the fragment
+        final String id = node.getAttribute(null, Constants.ATT_ID);
+        if (id != null && id.startsWith(Constants.FRAGMENT_ID_USER_PREFIX)) {
+            return FRAGMENT_NODE_INTERNER.intern(node);
+        }
+        return node;
+    }
+
+    private static String internName(String name) {
+        return name == null ? null : name.intern();
+    }
+
+    private static Element createElement(Document document, LayoutNode node) {
+        final Element element;
+        if (node.namespaceURI != null) {
+            element = document.createElementNS(node.namespaceURI, node.name);
+        } else {
+            element = document.createElement(node.name);
+        }
+
+        final String[] attributes = node.attributes;
+        for (int i = 0; i < attributes.length; i += 3) {
+            if (attributes[i] != null) {
+                element.setAttributeNS(attributes[i], attributes[i + 1], attributes[i + 2]);
+            } else {
+                element.setAttribute(attributes[i + 1], attributes[i + 2]);
+                if (Constants.ATT_ID.equals(attributes[i + 1])) {
+                    element.setIdAttribute(Constants.ATT_ID, true);
+                }
+            }
+        }
+
+        for (final Object child : node.children) {
+            if (child instanceof LayoutNode) {
+                element.appendChild(createElement(document, (LayoutNode) child));
+            } else {
+                element.appendChild(document.createTextNode((String) child));
+            }
+        }
+
+        return element;
+    }
+
+    /**
+     * An element in a {@link CompactLayout}. Attributes are stored as (namespace URI, qualified
+     * name, value) triples, the namespace URI is null for attributes created without a namespace.
+     * Children are either {@link LayoutNode}s or text {@link String}s.
+     */
+    public static final class LayoutNode {
+        private final String namespaceURI;
+        private final String name;
+        private final String[] attributes;
+        private final Object[] children;
+        private final int elementCount;
+        private final int hash;
+
+        LayoutNode(String namespaceURI, String name, String[] attributes, Object[] children) {
+            this.namespaceURI = namespaceURI;
+            this.name = name;
+            this.attributes = attributes;
+            this.children = children;
+
+            int elementCount = 1;
+            for (final Object child : children) {
+                if (child instanceof LayoutNode) {
+                    elementCount += ((LayoutNode) child).elementCount;
+                }
+            }
+            this.elementCount = elementCount;
+
+            int hash = name.hashCode();
+            hash = 31 * hash + (namespaceURI == null ? 0 : namespaceURI.hashCode());
+            hash = 31 * hash + Arrays.hashCode(attributes);
+            hash = 31 * hash + Arrays.hashCode(children);
+            this.hash = hash;
+        }
+
+        /** @return The namespace URI of the element, null if created without a namespace */
+        public String getNamespaceURI() {
+            return this.namespaceURI;
+        }
+
+        /** @return The qualified name of the element */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @param namespaceURI The namespace URI of the attribute, null for attributes created
+         *     without a namespace
+         * @param name The qualified name of the attribute
+         * @return The attribute value, null if the element does not have the attribute
+         */
+        public String getAttribute(String namespaceURI, String name) {
+            for (int i = 0; i < this.attributes.length; i += 3) {
+                if (name.equals(this.attributes[i + 1])
+                        && (namespaceURI == null
+                                ? this.attributes[i] == null
+                                : namespaceURI.equals(this.attributes[i]))) {
+                    return this.attributes[i + 2];
+                }
+            }
+            return null;
+        }
+
+        /** @return The number of attributes on the element */
+        public int getAttributeCount() {
+            return this.attributes.length / 3;
+        }
+
+        /** @return The number of child elements and text nodes */
+        public int getChildCount() {
+            return this.children.length;
+        }
+
+        /** @return The child element or text at the index */
+        public Object getChild(int index) {
+            return this.children[index];
+        }
+
+        /** @return The number of elements in this subtree, including this element */
+        public int getElementCount() {
+            return this.elementCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof LayoutNode)) {
+                return false;
+            }
+            final LayoutNode other = (LayoutNode) obj;
+            return this.hash == other.hash
+                    && this.elementCount == other.elementCount
+                    && this.name.equals(other.name)
+                    && (this.namespaceURI == null
+                            ? other.namespaceURI == null
+                            : this.namespaceURI.equals(other.namespaceURI))
+                    && Arrays.equals(this.attributes, other.attributes)
+                    && Arrays.equals(this.children, other.children);
+        }
+
+        @Override
+        public String toString() {
+            return "LayoutNode [name="
+                    + this.name
+                    + ", attributes="
+                    + this.getAttributeCount()
+                    + ", elementCount="
+                    + this.elementCount
+                    + "]";
+        }
+    }
+
+    /** Walks the layout tree depth first producing StAX events */
+    private static final class CompactLayoutEventReader extends BaseXMLEventReader {
+        private final LayoutNode root;
+        private final Deque<Frame> stack = new ArrayDeque<Frame>();
+        private final Map<String, String> namespaces = new HashMap<String, String>();
+
+        private boolean started = false;
+        private boolean rootStarted = false;
+        private boolean ended = false;
+        private XMLEvent peekedEvent = null;
+
+        CompactLayoutEventReader(LayoutNode root) {
+            super(null);
+            this.root = root;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.peekedEvent != null || !this.ended;
+        }
+
+        @Override
+        public XMLEvent peek() throws XMLStreamException {
+            if (this.peekedEvent == null && !this.ended) {
+                this.peekedEvent = this.createNextEvent();
+            }
+            return this.peekedEvent;
+        }
+
+        @Override
+        protected XMLEvent internalNextEvent() throws XMLStreamException {
+            final XMLEvent event = this.peek();
+            if (event == null) {
+                throw new NoSuchElementException();
+            }
+            this.peekedEvent = null;
+            return event;
+        }
+
+        private XMLEvent createNextEvent() {
+            if (!this.started) {
+                this.started = true;
+                return START_DOCUMENT;
+            }
+            if (!this.rootStarted) {
+                this.rootStarted = true;
+                return this.startElement(this.root);
+            }
+            if (this.stack.isEmpty()) {
+                this.ended = true;
+                return END_DOCUMENT;
+            }
+
+            final Frame frame = this.stack.peek();
+            if (frame.childIndex < frame.node.children.length) {
+                final Object child = frame.node.children[frame.childIndex++];
+                if (child instanceof LayoutNode) {
+                    return this.startElement((LayoutNode) child);
+                }
+                return EVENT_FACTORY.createCharacters((String) child);
+            }
+
+            this.stack.pop();
+            return this.endElement(frame);
+        }
+
+        private XMLEvent startElement(LayoutNode node) {
+            final String[] attributes = node.attributes;
+
+            // Namespace declarations first so prefixes on this element resolve
+            List<Namespace> declared = null;
+            final Frame frame = new Frame(node);
+            for (int i = 0; i < attributes.length; i += 3) {
+                final String attributeName = attributes[i + 1];
+                final String prefix;
+                if (attributeName.startsWith(XMLNS_PREFIX)) {
+                    prefix = attributeName.substring(XMLNS_PREFIX.length());
+                } else if (attributeName.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+                    prefix = XMLConstants.DEFAULT_NS_PREFIX;
+                } else {
+                    continue;
+                }
+
+                if (declared == null) {
+                    declared = new ArrayList<Namespace>(2);
+                }
+                final String namespaceURI = attributes[i + 2];
+                declared.add(EVENT_FACTORY.createNamespace(prefix, namespaceURI));
+                frame.declare(prefix, this.namespaces.put(prefix, namespaceURI));
+            }
+            frame.declaredNamespaces = declared;
+
+            List<Attribute> attributeEvents = null;
+            for (int i = 0; i < attributes.length; i += 3) {
+                final String attributeName = attributes[i + 1];
+                if (attributeName.startsWith(XMLNS_PREFIX)
+                        || attributeName.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+                    continue;
+                }
+                if (attributeEvents == null) {
+                    attributeEvents = new ArrayList<Attribute>(attributes.length / 3);
+                }
+                attributeEvents.add(
+                        EVENT_FACTORY.createAttribute(
+                                this.getQName(attributes[i], attributeName, false),
+                                attributes[i + 2]));
+            }
+
+            frame.name = this.getQName(node.namespaceURI, node.name, true);
+            this.stack.push(frame);
+
+            return EVENT_FACTORY.createStartElement(
+                    frame.name, iterator(attributeEvents), iterator(declared));
+        }
+
+        private XMLEvent endElement(Frame frame) {
+            final XMLEvent endElement =
+                    EVENT_FACTORY.createEndElement(frame.name, iterator(frame.declaredNamespaces));
+            frame.restore(this.namespaces);
+            return endElement;
+        }
+
+        /**
+         * Builds the QName for an element or attribute, resolving the namespace from the prefix for
+         * nodes that were created without one
+         */
+        private QName getQName(String namespaceURI, String name, boolean element) {
+            final int separator = name.indexOf(':');
+            final String prefix =
+                    separator < 0 ? XMLConstants.DEFAULT_NS_PREFIX : name.substring(0, separator);
+            final String localName = separator < 0 ? name : name.substring(separator + 1);
+
+            if (namespaceURI == null && (separator >= 0 || element)) {
+                namespaceURI = this.namespaces.get(prefix);
+            }
+            if (namespaceURI == null) {
+                namespaceURI = XMLConstants.NULL_NS_URI;
+            }
+            return new QName(namespaceURI, localName, prefix);
+        }
+
+        private static <T> Iterator<T> iterator(List<T> list) {
+            if (list == null) {
+                return Collections.<T>emptyList().iterator();
+            }
+            return list.iterator();
+        }
+
+        @Override
+        public Object getProperty(String name) throws IllegalArgumentException {
+            return null;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            this.stack.clear();
+            this.peekedEvent = null;
+            this.ended = true;
+        }
+    }
+
+    private static final class LayoutLocation implements Location {
+        @Override
+        public int getLineNumber() {
+            return -1;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return -1;
+        }
+
+        @Override
+        public int getCharacterOffset() {
+            return -1;
+        }
+
+        @Override
+        public String getPublicId() {
+            return null;
+        }
+
+        @Override
+        public String getSystemId() {
+            return null;
+        }
+    }
+
+    private static final class Frame {
+        private final LayoutNode node;
+        private int childIndex = 0;
+        private QName name;
+        private List<Namespace> declaredNamespaces;
+        /** Prefix and previous URI pairs to restore when the element ends */
+        private List<String> shadowed;
+
+        Frame(LayoutNode node) {
+            this.node = node;
+        }
+
+        void declare(String prefix, String previousNamespaceURI) {
+            if (this.shadowed == null) {
+                this.shadowed = new ArrayList<String>(2);
+            }
+            this.shadowed.add(prefix);
+            this.shadowed.add(previousNamespaceURI);
+        }
+
+        void restore(Map<String, String> namespaces) {
+            if (this.shadowed == null) {
+                return;
+            }
+            for (int i = this.shadowed.size() - 2; i >= 0; i -= 2) {
+                final String prefix = this.shadowed.get(i);
+                final String previousNamespaceURI = this.shadowed.get(i + 1);
+                if (previousNamespaceURI == null) {
+                    namespaces.remove(prefix);
+                } else {
+                    namespaces.put(prefix, previousNamespaceURI);
+                }
+            }
+        }
+    }
+}
@@ -14,6 +14,8 @@
  */
 package org.apereo.portal.layout.dlm;
 
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
@@ -23,9 +25,21 @@ import org.w3c.dom.Document;
 /**
  * A user's layout and meta-data about that layout
  *
+ * <p>The layout is kept as a {@link CompactLayout} once it has been snapshotted by {@link
+ * #getCompactLayout()}, the DOM used to edit the layout is then only softly referenced and is
+ * re-created from the compact copy when needed. Code that modifies the DOM must get it from {@link
+ * #getLayoutForUpdate()} and call {@link #layoutModified()} once done so the change is not lost.
+ *
  */
 public class DistributedUserLayout {
-    private final Document layout;
+    private final Object layoutMonitor = new Object();
+    /** Strong reference to the DOM while it has changes that are not in the compact layout */
+    private Document layout;
+    /** The DOM when it matches the compact layout, may be cleared by the garbage collector */
+    private Reference<Document> releasedLayout;
+    private CompactLayout compactLayout;
+    private boolean modified = true;
+
     private final Set<String> fragmentNames;
     private final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences;
     private final IStylesheetUserPreferences distributedThemeStylesheetUserPreferences;
@@ -59,9 +73,66 @@ public class DistributedUserLayout {
         this.distributedThemeStylesheetUserPreferences = distributedThemeStylesheetUserPreferences;
     }
 
-    /** @return The layout document */
+    /**
+     * @return The layout document, null if the layout is null. Changes to it are only seen by
+     *     {@link #getCompactLayout()} if it came from {@link #getLayoutForUpdate()} and {@link
+     *     #layoutModified()} is called after them
+     */
     public Document getLayout() {
-        return this.layout;
+        synchronized (this.layoutMonitor) {
+            if (this.layout != null) {
+                return this.layout;
+            }
+
+            Document document = this.releasedLayout != null ? this.releasedLayout.get() : null;
+            if (document == null && this.compactLayout != null) {
+                document = this.compactLayout.toDocument();
+                this.releasedLayout = new SoftReference<Document>(document);
+            }
+            return document;
+        }
+    }
+
+    /**
+     * @return The layout document to modify, {@link #layoutModified()} must be called after it is
+     *     modified
+     */
+    public Document getLayoutForUpdate() {
+        synchronized (this.layoutMonitor) {
+            this.layout = this.getLayout();
+            return this.layout;
+        }
+    }
+
+    /**
+     * Must be called after the document returned by {@link #getLayoutForUpdate()} is modified. A
+     * {@link #getCompactLayout()} that ran while it was being modified may have missed the change,
+     * the next one snapshots it.
+     */
+    public void layoutModified() {
+        synchronized (this.layoutMonitor) {
+            // The caller still references the modified document so it cannot have been collected
+            this.layout = this.getLayout();
+            this.modified = true;
+        }
+    }
+
+    /**
+     * @return An immutable copy of the layout that reflects all modifications reported via {@link
+     *     #layoutModified()}, null if the layout is null
+     */
+    public CompactLayout getCompactLayout() {
+        synchronized (this.layoutMonitor) {
+            if (this.modified && this.layout != null) {
+                this.compactLayout = CompactLayout.fromDocument(this.layout);
+            }
+            if (this.layout != null) {
+                this.releasedLayout = new SoftReference<Document>(this.layout);
+                this.layout = null;
+            }
+            this.modified = false;
+            return this.compactLayout;
+        }
     }
 
     public IStylesheetUserPreferences getDistributedStructureStylesheetUserPreferences() {
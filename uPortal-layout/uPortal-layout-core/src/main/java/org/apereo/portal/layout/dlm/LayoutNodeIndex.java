@@ -0,0 +1,152 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang.StringUtils;
+import org.apereo.portal.layout.dlm.CompactLayout.LayoutNode;
+
+/**
+ * Lookup tables over a {@link CompactLayout} for the questions asked while generating and parsing
+ * portal URLs. Answers the same questions as the tab XPath expressions, {@link
+ * org.apereo.portal.layout.PortletTabIdResolver} and {@link
+ * org.apereo.portal.layout.PortletSubscribeIdResolver} without walking the layout. Built once per
+ * layout snapshot, see {@link CompactLayout#getNodeIndex()}.
+ */
+public final class LayoutNodeIndex {
+    private static final String ATT_FNAME = "fname";
+    private static final String TYPE_REGULAR = "regular";
+
+    private final List<String> visibleTabIds;
+    private final Map<String, String> nodeTabIds;
+    private final Map<String, String> fnameNodeIds;
+
+    LayoutNodeIndex(LayoutNode layout) {
+        final List<String> visibleTabIds = new ArrayList<String>();
+        final Map<String, String> nodeTabIds = new HashMap<String, String>();
+        final Map<String, String> fnameNodeIds = new HashMap<String, String>();
+
+        // '/layout/folder' - root/header/footer folders
+        for (int i = 0; i < layout.getChildCount(); i++) {
+            final Object rootFolder = layout.getChild(i);
+            if (!(rootFolder instanceof LayoutNode)) {
+                continue;
+            }
+
+            // '/layout/folder/folder' - tabs
+            final LayoutNode folder = (LayoutNode) rootFolder;
+            for (int j = 0; j < folder.getChildCount(); j++) {
+                final Object child = folder.getChild(j);
+                if (!(child instanceof LayoutNode)) {
+                    continue;
+                }
+
+                final LayoutNode tab = (LayoutNode) child;
+                if (isVisibleTab(tab)) {
+                    visibleTabIds.add(tab.getAttribute(null, Constants.ATT_ID));
+                }
+                indexTab(tab, tab.getAttribute(null, Constants.ATT_ID), nodeTabIds);
+            }
+        }
+        indexChannels(layout, fnameNodeIds);
+
+        this.visibleTabIds = Collections.unmodifiableList(visibleTabIds);
+        this.nodeTabIds = Collections.unmodifiableMap(nodeTabIds);
+        this.fnameNodeIds = Collections.unmodifiableMap(fnameNodeIds);
+    }
+
+    /**
+     * @param tabIndex 1 based index of the tab among the regular tabs that are not hidden
+     * @return The ID of the tab, null if there is no tab at the index
+     */
+    public String getVisibleTabId(int tabIndex) {
+        if (tabIndex < 1 || tabIndex > this.visibleTabIds.size()) {
+            return null;
+        }
+        return this.visibleTabIds.get(tabIndex - 1);
+    }
+
+    /** @return The number of regular tabs that are not hidden */
+    public int getVisibleTabCount() {
+        return this.visibleTabIds.size();
+    }
+
+    /**
+     * @param nodeId ID of a tab or of a folder or channel on a tab
+     * @return The ID of the tab containing the node, null if the node is not on a tab
+     */
+    public String getTabId(String nodeId) {
+        return this.nodeTabIds.get(nodeId);
+    }
+
+    /** @return The subscribe ID of the first channel with the fname, null if there is none */
+    public String getSubscribeId(String fname) {
+        final String nodeId = this.fnameNodeIds.get(fname);
+        return StringUtils.isEmpty(nodeId) ? null : nodeId;
+    }
+
+    /** Matches {@code folder[@type='regular' and @hidden!='true']} */
+    private static boolean isVisibleTab(LayoutNode tab) {
+        final String hidden = tab.getAttribute(null, Constants.ATT_HIDDEN);
+        return Constants.ELM_FOLDER.equals(tab.getName())
+                && TYPE_REGULAR.equals(tab.getAttribute(null, Constants.ATT_TYPE))
+                && hidden != null
+                && !"true".equals(hidden);
+    }
+
+    /** Maps the IDs of the node and the folders and channels under it to the tab ID */
+    private static void indexTab(LayoutNode node, String tabId, Map<String, String> nodeTabIds) {
+        final String name = node.getName();
+        if (!Constants.ELM_FOLDER.equals(name) && !Constants.ELM_CHANNEL.equals(name)) {
+            return;
+        }
+
+        final String nodeId = node.getAttribute(null, Constants.ATT_ID);
+        if (nodeId != null && !nodeTabIds.containsKey(nodeId)) {
+            nodeTabIds.put(nodeId, tabId);
+        }
+
+        if (Constants.ELM_FOLDER.equals(name)) {
+            for (int i = 0; i < node.getChildCount(); i++) {
+                final Object child = node.getChild(i);
+                if (child instanceof LayoutNode) {
+                    indexTab((LayoutNode) child, tabId, nodeTabIds);
+                }
+            }
+        }
+    }
+
+    /** Maps the fname of every channel to its ID, the first channel in document order wins */
+    private static void indexChannels(LayoutNode node, Map<String, String> fnameNodeIds) {
+        if (Constants.ELM_CHANNEL.equals(node.getName())) {
+            final String fname = node.getAttribute(null, ATT_FNAME);
+            if (fname != null && !fnameNodeIds.containsKey(fname)) {
+                final String nodeId = node.getAttribute(null, Constants.ATT_ID);
+                fnameNodeIds.put(fname, nodeId == null ? "" : nodeId);
+            }
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++) {
+            final Object child = node.getChild(i);
+            if (child instanceof LayoutNode) {
+                indexChannels((LayoutNode) child, fnameNodeIds);
+            }
+        }
+    }
+}
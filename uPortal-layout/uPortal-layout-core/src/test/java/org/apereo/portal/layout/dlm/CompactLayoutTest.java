@@ -0,0 +1,198 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import org.apereo.portal.layout.dlm.CompactLayout.LayoutNode;
+import org.apereo.portal.utils.DocumentFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class CompactLayoutTest {
+
+    @Test
+    public void testToDocument() {
+        final Document layout = createLayout("u12l1", "Home");
+        final CompactLayout compactLayout = CompactLayout.fromDocument(layout);
+        assertEquals(6, compactLayout.getElementCount());
+
+        final Document copy = compactLayout.toDocument();
+        final Element channel = copy.getElementById("u12l1n3");
+        assertNotNull(channel);
+        assertEquals("channel", channel.getNodeName());
+        assertEquals("weather", channel.getAttribute("fname"));
+        assertEquals("2", channel.getAttributeNS(Constants.NS_URI, "precedence"));
+        assertEquals("parameter", channel.getFirstChild().getNodeName());
+
+        final Element folder = copy.getElementById("s2");
+        assertEquals("My Tab", folder.getAttribute("name"));
+        assertEquals("Home", copy.getElementById("u12l1s1").getAttribute("name"));
+    }
+
+    @Test
+    public void testEventReader() throws Exception {
+        final CompactLayout compactLayout =
+                CompactLayout.fromDocument(createLayout("u12l1", "Home"));
+        final XMLEventReader reader = compactLayout.getXMLEventReader();
+
+        assertTrue(reader.nextEvent().isStartDocument());
+
+        final StartElement layout = reader.nextEvent().asStartElement();
+        assertEquals("layout", layout.getName().getLocalPart());
+        final Iterator<?> namespaces = layout.getNamespaces();
+        final Namespace dlm = (Namespace) namespaces.next();
+        assertEquals("dlm", dlm.getPrefix());
+        assertEquals(Constants.NS_URI, dlm.getNamespaceURI());
+
+        final StartElement root = reader.nextEvent().asStartElement();
+        assertEquals("root", root.getAttributeByName(new QName("type")).getValue());
+
+        final StartElement tab = reader.nextEvent().asStartElement();
+        assertEquals("u12l1s1", tab.getAttributeByName(new QName("ID")).getValue());
+        assertEquals(
+                "1", tab.getAttributeByName(new QName(Constants.NS_URI, "fragment")).getValue());
+
+        final StartElement channel = reader.nextEvent().asStartElement();
+        assertEquals(
+                "2",
+                channel.getAttributeByName(new QName(Constants.NS_URI, "precedence")).getValue());
+        assertTrue(reader.nextEvent().isStartElement());
+        assertTrue(reader.nextEvent().isEndElement());
+        assertTrue(reader.nextEvent().isEndElement());
+        assertTrue(reader.nextEvent().isEndElement());
+
+        final StartElement userTab = reader.nextEvent().asStartElement();
+        assertEquals("s2", userTab.getAttributeByName(new QName("ID")).getValue());
+        final XMLEvent text = reader.nextEvent();
+        assertEquals("text", text.asCharacters().getData());
+        assertTrue(reader.nextEvent().isEndElement());
+
+        assertTrue(reader.nextEvent().isEndElement());
+        assertTrue(reader.nextEvent().isEndElement());
+        assertTrue(reader.nextEvent().isEndDocument());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testFragmentSharing() {
+        final LayoutNode first =
+                getFragmentTab(CompactLayout.fromDocument(createLayout("u12l1", "Home")));
+        final LayoutNode second =
+                getFragmentTab(CompactLayout.fromDocument(createLayout("u12l1", "Home")));
+        assertSame(first, second);
+
+        final LayoutNode renamed =
+                getFragmentTab(CompactLayout.fromDocument(createLayout("u12l1", "Renamed")));
+        assertNotSame(first, renamed);
+        assertSame(first.getChild(0), renamed.getChild(0));
+    }
+
+    @Test
+    public void testDistributedUserLayout() {
+        final DistributedUserLayout userLayout =
+                new DistributedUserLayout(createLayout("u12l1", "Home"));
+        final CompactLayout compactLayout = userLayout.getCompactLayout();
+        assertSame(compactLayout, userLayout.getCompactLayout());
+
+        final Document layout = userLayout.getLayoutForUpdate();
+        layout.getElementById("s2").setAttribute("name", "Renamed");
+        userLayout.layoutModified();
+
+        final CompactLayout modifiedLayout = userLayout.getCompactLayout();
+        assertNotSame(compactLayout, modifiedLayout);
+        final LayoutNode root = (LayoutNode) modifiedLayout.getRoot().getChild(0);
+        assertEquals("Renamed", ((LayoutNode) root.getChild(1)).getAttribute(null, "name"));
+        assertEquals("Renamed", userLayout.getLayout().getElementById("s2").getAttribute("name"));
+
+        assertNull(new DistributedUserLayout((Document) null).getCompactLayout());
+    }
+
+    @Test
+    public void testSnapshotDuringUpdate() {
+        final DistributedUserLayout userLayout =
+                new DistributedUserLayout(createLayout("u12l1", "Home"));
+        final Document layout = userLayout.getLayoutForUpdate();
+
+        //Another thread snapshots the layout before the change is made
+        final CompactLayout compactLayout = userLayout.getCompactLayout();
+        layout.getElementById("s2").setAttribute("name", "Renamed");
+        userLayout.layoutModified();
+
+        final CompactLayout modifiedLayout = userLayout.getCompactLayout();
+        assertNotSame(compactLayout, modifiedLayout);
+        final LayoutNode root = (LayoutNode) modifiedLayout.getRoot().getChild(0);
+        assertEquals("Renamed", ((LayoutNode) root.getChild(1)).getAttribute(null, "name"));
+    }
+
+    private static LayoutNode getFragmentTab(CompactLayout compactLayout) {
+        final LayoutNode root = (LayoutNode) compactLayout.getRoot().getChild(0);
+        return (LayoutNode) root.getChild(0);
+    }
+
+    private static Document createLayout(String fragmentPrefix, String fragmentTabName) {
+        final Document document = DocumentFactory.getThreadDocument();
+        final Element layout = document.createElement("layout");
+        layout.setAttribute(Constants.NS_DECL, Constants.NS_URI);
+        document.appendChild(layout);
+
+        final Element root = document.createElement("folder");
+        root.setAttribute("ID", "s1");
+        root.setIdAttribute("ID", true);
+        root.setAttribute("type", "root");
+        layout.appendChild(root);
+
+        final Element fragmentTab = document.createElement("folder");
+        fragmentTab.setAttribute("ID", fragmentPrefix + "s1");
+        fragmentTab.setIdAttribute("ID", true);
+        fragmentTab.setAttribute("name", fragmentTabName);
+        fragmentTab.setAttributeNS(Constants.NS_URI, Constants.ATT_FRAGMENT, "1");
+        root.appendChild(fragmentTab);
+
+        final Element channel = document.createElement("channel");
+        channel.setAttribute("ID", fragmentPrefix + "n3");
+        channel.setIdAttribute("ID", true);
+        channel.setAttribute("fname", "weather");
+        channel.setAttributeNS(Constants.NS_URI, Constants.ATT_PRECEDENCE, "2");
+        fragmentTab.appendChild(channel);
+
+        final Element parameter = document.createElement("parameter");
+        parameter.setAttribute("name", "zip");
+        parameter.setAttribute("value", "55455");
+        channel.appendChild(parameter);
+
+        final Element userTab = document.createElement("folder");
+        userTab.setAttribute("ID", "s2");
+        userTab.setIdAttribute("ID", true);
+        userTab.setAttribute("name", "My Tab");
+        userTab.appendChild(document.createTextNode("text"));
+        root.appendChild(userTab);
+
+        return document;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apereo.portal.layout.PortletSubscribeIdResolver;
+import org.apereo.portal.layout.PortletTabIdResolver;
+import org.apereo.portal.utils.DocumentFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class LayoutNodeIndexTest {
+    private Document layout;
+    private LayoutNodeIndex nodeIndex;
+
+    @Before
+    public void setup() {
+        this.layout = createLayout();
+        this.nodeIndex = CompactLayout.fromDocument(this.layout).getNodeIndex();
+    }
+
+    @Test
+    public void testVisibleTabIds() {
+        assertEquals(2, this.nodeIndex.getVisibleTabCount());
+        assertEquals("s2", this.nodeIndex.getVisibleTabId(1));
+        assertEquals("s6", this.nodeIndex.getVisibleTabId(2));
+        assertNull(this.nodeIndex.getVisibleTabId(0));
+        assertNull(this.nodeIndex.getVisibleTabId(3));
+    }
+
+    @Test
+    public void testTabIds() {
+        for (final String nodeId : new String[] {"s2", "s3", "n4", "s5", "n9", "s6", "n7", "x"}) {
+            assertEquals(
+                    nodeId,
+                    new PortletTabIdResolver(nodeId).traverseDocument(this.layout),
+                    this.nodeIndex.getTabId(nodeId));
+        }
+        assertEquals("s2", this.nodeIndex.getTabId("n4"));
+        assertEquals("s5", this.nodeIndex.getTabId("n9"));
+    }
+
+    @Test
+    public void testSubscribeIds() {
+        for (final String fname : new String[] {"weather", "email", "unknown"}) {
+            assertEquals(
+                    fname,
+                    new PortletSubscribeIdResolver(fname).traverseDocument(this.layout),
+                    this.nodeIndex.getSubscribeId(fname));
+        }
+        assertEquals("n4", this.nodeIndex.getSubscribeId("weather"));
+    }
+
+    @Test
+    public void testIndexIsCached() {
+        final CompactLayout compactLayout = CompactLayout.fromDocument(this.layout);
+        assertSame(compactLayout.getNodeIndex(), compactLayout.getNodeIndex());
+    }
+
+    private static Document createLayout() {
+        final Document document = DocumentFactory.getThreadDocument();
+        final Element layout = document.createElement("layout");
+        document.appendChild(layout);
+
+        final Element root = createFolder(document, "s1", "root", "false");
+        layout.appendChild(root);
+
+        final Element homeTab = createFolder(document, "s2", "regular", "false");
+        root.appendChild(homeTab);
+        final Element column = createFolder(document, "s3", "regular", "false");
+        homeTab.appendChild(column);
+        column.appendChild(createChannel(document, "n4", "weather"));
+
+        final Element hiddenTab = createFolder(document, "s5", "regular", "true");
+        hiddenTab.appendChild(createChannel(document, "n9", "email"));
+        root.appendChild(hiddenTab);
+
+        final Element secondTab = createFolder(document, "s6", "regular", "false");
+        secondTab.appendChild(createChannel(document, "n7", "weather"));
+        root.appendChild(secondTab);
+
+        root.appendChild(createFolder(document, "s8", "header", "false"));
+
+        return document;
+    }
+
+    private static Element createFolder(Document document, String id, String type, String hidden) {
+        final Element folder = document.createElement(Constants.ELM_FOLDER);
+        folder.setAttribute(Constants.ATT_ID, id);
+        folder.setIdAttribute(Constants.ATT_ID, true);
+        folder.setAttribute(Constants.ATT_TYPE, type);
+        folder.setAttribute(Constants.ATT_HIDDEN, hidden);
+        return folder;
+    }
+
+    private static Element createChannel(Document document, String id, String fname) {
+        final Element channel = document.createElement(Constants.ELM_CHANNEL);
+        channel.setAttribute(Constants.ATT_ID, id);
+        channel.setIdAttribute(Constants.ATT_ID, true);
+        channel.setAttribute("fname", fname);
+        return channel;
+    }
+}
@@ -89,6 +89,11 @@ public class TransientUserLayoutManagerWrapper implements IUserLayoutManager {
         return man.getUserLayoutDOM();
     }
 
+    @Override
+    public void userLayoutDOMModified() throws PortalException {
+        man.userLayoutDOMModified();
+    }
+
     public void loadUserLayout() throws PortalException {
         man.loadUserLayout();
     }
@@ -27,9 +27,6 @@ import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
 import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.transform.dom.DOMSource;
 import javax.xml.xpath.XPathConstants;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,7 +37,6 @@ import org.apereo.portal.events.IPortalLayoutEventFactory;
 import org.apereo.portal.layout.IUserLayout;
 import org.apereo.portal.layout.IUserLayoutManager;
 import org.apereo.portal.layout.IUserLayoutStore;
-import org.apereo.portal.layout.PortletSubscribeIdResolver;
 import org.apereo.portal.layout.node.IUserLayoutChannelDescription;
 import org.apereo.portal.layout.node.IUserLayoutFolderDescription;
 import org.apereo.portal.layout.node.IUserLayoutNodeDescription;
@@ -56,7 +52,6 @@ import org.apereo.portal.security.IAuthorizationService;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.security.PersonFactory;
 import org.apereo.portal.spring.locator.PortletDefinitionRegistryLocator;
-import org.apereo.portal.xml.XmlUtilities;
 import org.apereo.portal.xml.xpath.XPathOperations;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -75,7 +70,6 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
     private static final Log LOG = LogFactory.getLog(DistributedLayoutManager.class);
 
-    private XmlUtilities xmlUtilities;
     private ILayoutCachingService layoutCachingService;
     private IUserLayoutStore distributedLayoutStore;
     private XPathOperations xpathOperations;
@@ -133,11 +127,6 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         this.xpathOperations = xpathOperations;
     }
 
-    @Autowired
-    public void setXmlUtilities(XmlUtilities xmlUtilities) {
-        this.xmlUtilities = xmlUtilities;
-    }
-
     @Autowired
     public void setLayoutCachingService(ILayoutCachingService layoutCachingService) {
         this.layoutCachingService = layoutCachingService;
@@ -198,6 +187,18 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     @Deprecated
     @Override
     public Document getUserLayoutDOM() {
+        final DistributedUserLayout userLayout = getDistributedUserLayout();
+        //Callers may modify the returned document, see userLayoutDOMModified()
+        return userLayout.getLayoutForUpdate();
+    }
+
+    @Override
+    public void userLayoutDOMModified() {
+        this.layoutModified();
+    }
+
+    /** @return The layout document for read-only use */
+    private Document getLayoutDocument() {
         final DistributedUserLayout userLayout = getDistributedUserLayout();
         return userLayout.getLayout();
     }
@@ -211,7 +212,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
             }
             userLayout = this.distributedLayoutStore.getUserLayout(this.owner, this.profile);
 
-            final Document userLayoutDocument = userLayout.getLayout();
+            final Document userLayoutDocument = userLayout.getLayoutForUpdate();
 
             // DistributedLayoutManager shall gracefully remove channels
             // that the user isn't authorized to render from folders of type
@@ -261,6 +262,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                     }
                 }
             }
+            userLayout.layoutModified();
 
             setUserLayoutDOM(userLayout);
         }
@@ -269,24 +271,14 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
     @Override
     public XMLEventReader getUserLayoutReader() {
-        Document ul = this.getUserLayoutDOM();
+        final CompactLayout ul = this.getDistributedUserLayout().getCompactLayout();
         if (ul == null) {
             throw new PortalException(
                     "User layout has not been initialized for "
                             + owner.getAttribute(IPerson.USERNAME));
         }
 
-        final XMLInputFactory xmlInputFactory = this.xmlUtilities.getXmlInputFactory();
-
-        final DOMSource layoutSoure = new DOMSource(ul);
-        try {
-            return xmlInputFactory.createXMLEventReader(layoutSoure);
-        } catch (XMLStreamException e) {
-            throw new RuntimeException(
-                    "Failed to create Layout XMLStreamReader for user: "
-                            + owner.getAttribute(IPerson.USERNAME),
-                    e);
-        }
+        return ul.getXMLEventReader();
     }
 
     public synchronized void loadUserLayout() throws PortalException {
@@ -301,7 +293,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                 this.layoutCachingService.removeCachedLayout(owner, profile);
             }
 
-            uli = getUserLayoutDOM();
+            uli = getLayoutDocument();
         } catch (Exception e) {
             throw new PortalException(
                     "Exception encountered while "
@@ -325,7 +317,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     }
 
     public synchronized void saveUserLayout() throws PortalException {
-        Document uld = this.getUserLayoutDOM();
+        Document uld = this.getLayoutDocument();
 
         if (uld == null) {
             throw new PortalException(
@@ -350,7 +342,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
     @Override
     public Set<String> getAllSubscribedChannels() {
-        final Document uld = this.getUserLayoutDOM();
+        final Document uld = this.getLayoutDocument();
 
         if (uld == null) {
             throw new PortalException(
@@ -374,7 +366,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     public IUserLayoutNodeDescription getNode(String nodeId) throws PortalException {
         if (nodeId == null) return null;
 
-        Document uld = this.getUserLayoutDOM();
+        Document uld = this.getLayoutDocument();
 
         if (uld == null)
             throw new PortalException(
@@ -431,7 +423,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
             // register element id
             childElement.setIdAttribute(Constants.ATT_ID, true);
             childElement.setAttribute(Constants.ATT_ID, node.getId());
-            this.updateCacheKey();
+            this.layoutModified();
 
             // push into the user's real layout that gets persisted.
             HandlerUtils.createPlfNodeAndPath(childElement, isChannel, owner);
@@ -469,7 +461,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                 Node nextSibling = uld.getElementById(nextSiblingId);
                 parentElement.insertBefore(childElement, nextSibling);
             }
-            this.updateCacheKey();
+            this.layoutModified();
 
             // propagate the change into the PLF
             Element oldParent = uld.getElementById(oldParentNodeId);
@@ -508,7 +500,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                                 + owner.getAttribute(IPerson.USERNAME)
                                 + ".");
             }
-            this.updateCacheKey();
+            this.layoutModified();
 
             // now push into the PLF
             TabColumnPrefsHandler.deleteNode(ilfNode, owner);
@@ -573,7 +565,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                     updateFolderNode(nodeId, newFolderDesc, oldFolderDesc);
                 }
             }
-            this.updateCacheKey();
+            this.layoutModified();
             return true;
         }
         return false;
@@ -996,7 +988,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                     && canAddNode(node, parent, nextSiblingId);
 
         // same parent. which direction are we moving?
-        Document uld = this.getUserLayoutDOM();
+        Document uld = this.getLayoutDocument();
         Element parentE = uld.getElementById(parent.getId());
         Element child = (Element) parentE.getFirstChild();
         int idx = 0;
@@ -1104,7 +1096,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     }
 
     public String getParentId(String nodeId) throws PortalException {
-        Document uld = this.getUserLayoutDOM();
+        Document uld = this.getLayoutDocument();
         Element nelement = uld.getElementById(nodeId);
         if (nelement != null) {
             Node parent = nelement.getParentNode();
@@ -1129,7 +1121,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     }
 
     public String getNextSiblingId(String nodeId) throws PortalException {
-        Document uld = this.getUserLayoutDOM();
+        Document uld = this.getLayoutDocument();
         Element nelement = uld.getElementById(nodeId);
         if (nelement != null) {
             Node nsibling = nelement.getNextSibling();
@@ -1153,7 +1145,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     }
 
     public String getPreviousSiblingId(String nodeId) throws PortalException {
-        Document uld = this.getUserLayoutDOM();
+        Document uld = this.getLayoutDocument();
         Element nelement = uld.getElementById(nodeId);
         if (nelement != null) {
             Node nsibling = nelement.getPreviousSibling();
@@ -1188,7 +1180,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         Vector<String> v = new Vector<String>();
         IUserLayoutNodeDescription node = getNode(nodeId);
         if (node instanceof IUserLayoutFolderDescription) {
-            Document uld = this.getUserLayoutDOM();
+            Document uld = this.getLayoutDocument();
             Element felement = uld.getElementById(nodeId);
             for (Node n = felement.getFirstChild(); n != null; n = n.getNextSibling()) {
                 if (n.getNodeType() == Node.ELEMENT_NODE
@@ -1223,6 +1215,12 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         this.cacheKey = Long.toString(rnd.nextLong());
     }
 
+    /** Called after the document returned by getUserLayoutDOM() has been modified */
+    private void layoutModified() {
+        this.updateCacheKey();
+        this.getDistributedUserLayout().layoutModified();
+    }
+
     public int getLayoutId() {
         return profile.getLayoutId();
     }
@@ -1233,8 +1231,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
      */
     @Override
     public String getSubscribeId(String fname) {
-        final Document userLayout = this.getUserLayoutDOM();
-        return new PortletSubscribeIdResolver(fname).traverseDocument(userLayout);
+        return this.getUserLayout().getSubscribeId(fname);
     }
 
     public String getSubscribeId(String parentFolderId, String fname) {
@@ -1242,7 +1239,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         variables.put("parentFolderId", parentFolderId);
         variables.put("fname", fname);
 
-        final Document userLayout = this.getUserLayoutDOM();
+        final Document userLayout = this.getLayoutDocument();
         final Element fnameNode =
                 this.xpathOperations.evaluate(
                         "//folder[@ID=$parentFolderId]/descendant::channel[@fname=$fname]",
@@ -1275,7 +1272,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
      */
     public String getRootFolderId() {
         if (rootNodeId == null) {
-            Document layout = getUserLayoutDOM();
+            Document layout = getLayoutDocument();
 
             Element rootNode =
                     this.xpathOperations.evaluate("//layout/folder", layout, XPathConstants.NODE);
@@ -1411,7 +1408,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
             if (person == owner) {
                 this.layoutCachingService.removeCachedLayout(person, profile);
                 updateCacheKey();
-                getUserLayoutDOM();
+                getLayoutDocument();
             }
             //if (isFragmentOwner)
             //{
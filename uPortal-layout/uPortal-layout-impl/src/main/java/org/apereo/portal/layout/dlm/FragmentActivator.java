@@ -18,9 +18,14 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.constructs.blocking.CacheEntryFactory;
@@ -60,6 +65,27 @@ public class FragmentActivator {
                                 }
                             });
 
+    /**
+     * Incremented each time an owner's nodes are removed from the index, an activation that started
+     * before the removal must not index the owner's nodes again
+     */
+    private final LoadingCache<String, AtomicLong> fragmentOwnerGenerations =
+            CacheBuilder.newBuilder()
+                    .<String, AtomicLong>build(
+                            new CacheLoader<String, AtomicLong>() {
+                                @Override
+                                public AtomicLong load(String key) throws Exception {
+                                    return new AtomicLong();
+                                }
+                            });
+
+    /** Owner id of the fragment each node id belongs to, see {@link #getFragmentOwnerId(String)} */
+    private final ConcurrentMap<String, String> fragmentNodeOwners =
+            new ConcurrentHashMap<String, String>();
+    /** Node ids indexed for each fragment owner, used to update the index on re-activation */
+    private final ConcurrentMap<String, Set<String>> ownerFragmentNodes =
+            new ConcurrentHashMap<String, Set<String>>();
+
     private Ehcache userViews;
     private Ehcache userViewErrors;
     private IUserIdentityStore identityStore;
@@ -179,7 +205,16 @@ public class FragmentActivator {
 
     private UserView activateFragment(final UserViewKey userViewKey) {
         final String ownerId = userViewKey.getOwnerId();
+        final long generation = getOwnerGeneration(ownerId);
         final FragmentDefinition fd = configurationLoader.getFragmentByOwnerId(ownerId);
+        if (fd == null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Skipping activation of deleted fragment owned by " + ownerId);
+            }
+
+            removeFragmentNodes(ownerId);
+            return null;
+        }
 
         final Locale locale = userViewKey.getLocale();
 
@@ -194,6 +229,7 @@ public class FragmentActivator {
                                 + fd);
             }
 
+            removeFragmentNodes(ownerId);
             return null;
         }
 
@@ -223,6 +259,7 @@ public class FragmentActivator {
 
         loadPreferences(view, fd);
         fragmentizeLayout(view, fd);
+        indexFragmentNodes(ownerId, view, generation);
 
         if (LOG.isInfoEnabled()) {
             LOG.info("Activated FragmentDefinition " + fd.getName() + " with locale " + locale);
@@ -479,7 +516,118 @@ public class FragmentActivator {
         }
     }
 
+    /** @return The owner's current index generation, see {@link #indexFragmentNodes} */
+    long getOwnerGeneration(String ownerId) {
+        return fragmentOwnerGenerations.getUnchecked(ownerId).get();
+    }
+
+    /**
+     * Records the ids of all nodes in the fragmentized layout. Nodes that are no longer in the
+     * layout since the owner's last activation are removed from the index. Nothing is indexed if
+     * the owner's nodes were removed after the activation started, the view is already stale.
+     *
+     * @param generation The owner's generation when the activation started
+     */
+    void indexFragmentNodes(String ownerId, UserView view, long generation) {
+        if (view.getLayout() == null) {
+            return;
+        }
+
+        final Set<String> nodeIds = new HashSet<String>();
+        collectNodeIds(view.getLayout().getDocumentElement(), nodeIds);
+
+        final AtomicLong ownerGeneration = fragmentOwnerGenerations.getUnchecked(ownerId);
+        synchronized (ownerGeneration) {
+            if (ownerGeneration.get() != generation) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(
+                            "Not indexing nodes of fragment owned by "
+                                    + ownerId
+                                    + ", it was cleared while activating");
+                }
+                return;
+            }
+
+            final Set<String> previousNodeIds = ownerFragmentNodes.put(ownerId, nodeIds);
+            if (previousNodeIds != null) {
+                for (final String nodeId : previousNodeIds) {
+                    if (!nodeIds.contains(nodeId)) {
+                        fragmentNodeOwners.remove(nodeId, ownerId);
+                    }
+                }
+            }
+            for (final String nodeId : nodeIds) {
+                fragmentNodeOwners.put(nodeId, ownerId);
+            }
+        }
+    }
+
+    /** Removes all of the owner's nodes from the index */
+    private void removeFragmentNodes(String ownerId) {
+        final AtomicLong ownerGeneration = fragmentOwnerGenerations.getUnchecked(ownerId);
+        synchronized (ownerGeneration) {
+            ownerGeneration.incrementAndGet();
+
+            final Set<String> nodeIds = ownerFragmentNodes.remove(ownerId);
+            if (nodeIds != null) {
+                for (final String nodeId : nodeIds) {
+                    fragmentNodeOwners.remove(nodeId, ownerId);
+                }
+            }
+        }
+    }
+
+    private void collectNodeIds(Element parent, Set<String> nodeIds) {
+        NodeList children = parent.getChildNodes();
+
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                Element child = (Element) children.item(i);
+                String id = child.getAttribute(Constants.ATT_ID);
+                if (!id.equals("")) {
+                    nodeIds.add(id);
+                    collectNodeIds(child, nodeIds);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the fragment a node belongs to without searching the fragment layouts. Only fragments
+     * that have been activated are indexed.
+     *
+     * @param nodeId The globally unique id of a node in a fragment layout
+     * @return The owner id of the fragment that contains the node, null if the node is not in an
+     *     activated fragment
+     */
+    public String getFragmentOwnerId(String nodeId) {
+        return fragmentNodeOwners.get(nodeId);
+    }
+
+    /**
+     * Drops the cached views and indexed nodes of fragment owners that no longer have a fragment
+     * definition.
+     *
+     * @param fragments All of the current fragment definitions
+     */
+    public void removeDeletedFragmentOwners(List<FragmentDefinition> fragments) {
+        final Set<String> ownerIds = new HashSet<String>();
+        for (final FragmentDefinition fragment : fragments) {
+            ownerIds.add(fragment.getOwnerId());
+        }
+
+        for (final String ownerId : ownerFragmentNodes.keySet()) {
+            if (!ownerIds.contains(ownerId)) {
+                clearChacheForOwner(ownerId);
+                fragmentOwnerLocales.invalidate(ownerId);
+            }
+        }
+    }
+
     public void clearChacheForOwner(final String ownerId) {
+        //The owner's nodes are indexed again when the fragment is re-activated
+        removeFragmentNodes(ownerId);
+
         final List<Locale> locales = fragmentOwnerLocales.getIfPresent(ownerId);
         if (locales == null) {
             //Nothing to purge
@@ -16,8 +16,6 @@ package org.apereo.portal.layout.dlm;
 
 import com.google.common.cache.Cache;
 import java.io.StringWriter;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -46,6 +44,7 @@ import org.apereo.portal.layout.StylesheetUserPreferencesImpl;
 import org.apereo.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.apereo.portal.layout.om.IStylesheetDescriptor;
 import org.apereo.portal.layout.om.IStylesheetUserPreferences;
+import org.apereo.portal.layout.simple.LayoutRows;
 import org.apereo.portal.layout.simple.RDBMUserLayoutStore;
 import org.apereo.portal.portlet.dao.IPortletEntityDao;
 import org.apereo.portal.portlet.dao.jpa.PortletPreferenceImpl;
@@ -1551,32 +1550,58 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                 element != null ? (FragmentNodeInfo) element.getObjectValue() : null;
 
         if (info == null) {
-            for (final FragmentDefinition fragmentDefinition : fragments) {
-                final UserView userView =
-                        this.fragmentUtils.getUserView(fragmentDefinition, defaultLocale);
-                if (userView == null) {
-                    logger.warn(
-                            "No UserView is present for fragment {} it will be skipped when fragment node information",
-                            fragmentDefinition.getName());
-                    continue;
-                }
-
-                final Element node = userView.getLayout().getElementById(sId);
-                if (node != null) // found it
-                {
-                    if (node.getTagName().equals(Constants.ELM_CHANNEL)) {
-                        info = new FragmentChannelInfo(node);
-                    } else {
-                        info = new FragmentNodeInfo(node);
+            info = this.findFragmentNodeInfo(sId, defaultLocale);
+
+            if (info == null) {
+                // The node index only covers activated fragments, make sure all are active
+                for (final FragmentDefinition fragmentDefinition : fragments) {
+                    final UserView userView =
+                            this.fragmentUtils.getUserView(fragmentDefinition, defaultLocale);
+                    if (userView == null) {
+                        logger.warn(
+                                "No UserView is present for fragment {} it will be skipped when fragment node information",
+                                fragmentDefinition.getName());
                     }
-                    this.fragmentNodeInfoCache.put(new net.sf.ehcache.Element(sId, info));
-                    break;
                 }
+                this.fragmentActivator.removeDeletedFragmentOwners(fragments);
+                info = this.findFragmentNodeInfo(sId, defaultLocale);
+            }
+
+            if (info != null) {
+                this.fragmentNodeInfoCache.put(new net.sf.ehcache.Element(sId, info));
             }
         }
         return info;
     }
 
+    /** Looks up the node in the fragment the {@link FragmentActivator} indexed it under */
+    private FragmentNodeInfo findFragmentNodeInfo(String sId, Locale locale) {
+        final String ownerId = this.fragmentActivator.getFragmentOwnerId(sId);
+        if (ownerId == null) {
+            return null;
+        }
+
+        final FragmentDefinition fragmentDefinition =
+                this.fragmentUtils.getFragmentDefinitionByOwner(ownerId);
+        if (fragmentDefinition == null) {
+            return null;
+        }
+
+        final UserView userView = this.fragmentUtils.getUserView(fragmentDefinition, locale);
+        if (userView == null || userView.getLayout() == null) {
+            return null;
+        }
+
+        final Element node = userView.getLayout().getElementById(sId);
+        if (node == null) {
+            return null;
+        }
+        if (node.getTagName().equals(Constants.ELM_CHANNEL)) {
+            return new FragmentChannelInfo(node);
+        }
+        return new FragmentNodeInfo(node);
+    }
+
     @Override
     protected Element getStructure(Document doc, LayoutStructure ls) {
         Element structure = null;
@@ -1719,14 +1744,13 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     }
 
     @Override
-    protected int saveStructure(Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException {
+    protected int saveStructure(Node node, LayoutRows layoutRows) {
         if (node == null) { // No more
             return 0;
         }
         if (node.getNodeName().equals("parameter")) {
             //parameter, skip it and go on to the next node
-            return this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
+            return this.saveStructure(node.getNextSibling(), layoutRows);
         }
         if (!(node instanceof Element)) {
             return 0;
@@ -1768,36 +1792,29 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         }
 
         if (node.hasChildNodes()) {
-            childStructId = this.saveStructure(node.getFirstChild(), structStmt, parmStmt);
+            childStructId = this.saveStructure(node.getFirstChild(), layoutRows);
         }
-        nextStructId = this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
-        structStmt.clearParameters();
-        structStmt.setInt(1, saveStructId);
-        structStmt.setInt(2, nextStructId);
-        structStmt.setInt(3, childStructId);
+        nextStructId = this.saveStructure(node.getNextSibling(), layoutRows);
 
+        Integer eID = null;
         final String externalId = structure.getAttribute("external_id");
         if (externalId != null && externalId.trim().length() > 0) {
-            final Integer eID = new Integer(externalId);
-            structStmt.setInt(4, eID.intValue());
-        } else {
-            structStmt.setNull(4, java.sql.Types.NUMERIC);
-        }
-        if (isChannel) {
-            structStmt.setInt(5, chanId);
-            structStmt.setNull(6, java.sql.Types.VARCHAR);
-        } else {
-            structStmt.setNull(5, java.sql.Types.NUMERIC);
-            structStmt.setString(6, structure.getAttribute("name"));
-        }
-        final String structType = structure.getAttribute("type");
-        structStmt.setString(7, structType);
-        structStmt.setString(8, RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))));
-        structStmt.setString(9, RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))));
-        structStmt.setString(
-                10, RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
-        logger.debug(structStmt.toString());
-        structStmt.executeUpdate();
+            eID = new Integer(externalId);
+        }
+        final LayoutRows.StructRow structRow =
+                new LayoutRows.StructRow(
+                        saveStructId,
+                        nextStructId,
+                        childStructId,
+                        eID,
+                        isChannel ? chanId : null,
+                        isChannel ? null : structure.getAttribute("name"),
+                        structure.getAttribute("type"),
+                        RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))),
+                        RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))),
+                        RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
+        logger.debug("{}", structRow);
+        layoutRows.addStruct(structRow);
 
         // code to persist extension attributes for dlm
         final NamedNodeMap attribs = node.getAttributes();
@@ -1810,12 +1827,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                     && !name.equals(Constants.ATT_FRAGMENT)
                     && !name.equals(Constants.ATT_PRECEDENCE)) {
                 // a cp extension attribute. Push into param table.
-                parmStmt.clearParameters();
-                parmStmt.setInt(1, saveStructId);
-                parmStmt.setString(2, name);
-                parmStmt.setString(3, attrib.getNodeValue());
-                logger.debug(parmStmt.toString());
-                parmStmt.executeUpdate();
+                layoutRows.addParam(saveStructId, name, attrib.getNodeValue());
             }
         }
         final NodeList parameters = node.getChildNodes();
@@ -1835,12 +1847,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                         // override only for adhoc or if diff from chan def
                         final IPortletDefinitionParameter cp = portletDef.getParameter(parmName);
                         if (cp == null || !cp.getValue().equals(parmValue)) {
-                            parmStmt.clearParameters();
-                            parmStmt.setInt(1, saveStructId);
-                            parmStmt.setString(2, parmName);
-                            parmStmt.setString(3, parmValue);
-                            logger.debug(parmStmt.toString());
-                            parmStmt.executeUpdate();
+                            layoutRows.addParam(saveStructId, parmName, parmValue);
                         }
                     }
                 }
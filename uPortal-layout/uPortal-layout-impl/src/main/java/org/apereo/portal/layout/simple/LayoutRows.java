@@ -0,0 +1,389 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows of a single user layout. Used to compare the rows
+ * generated from a layout document with the rows already in the database so that saving a layout
+ * only writes the rows that actually changed.
+ */
+public final class LayoutRows {
+    private final Map<Integer, StructRow> structs = new LinkedHashMap<Integer, StructRow>();
+    private final Map<ParamKey, ParamRow> params = new LinkedHashMap<ParamKey, ParamRow>();
+    private final Set<Integer> staleStructs = new HashSet<Integer>();
+
+    /** Add a structure row, replaces any existing row with the same struct id */
+    public void addStruct(StructRow struct) {
+        this.structs.put(struct.getStructId(), struct);
+    }
+
+    /**
+     * Mark a structure row as needing to be rewritten even if it compares equal, used for persisted
+     * rows with column values that could not be read back
+     */
+    public void markStale(int structId) {
+        this.staleStructs.add(structId);
+    }
+
+    /** Add a parameter row, replaces any existing row with the same struct id and name */
+    public void addParam(int structId, String name, String value) {
+        final ParamRow param = new ParamRow(structId, name, value);
+        this.params.put(new ParamKey(structId, name), param);
+    }
+
+    public Map<Integer, StructRow> getStructs() {
+        return Collections.unmodifiableMap(this.structs);
+    }
+
+    public Map<ParamKey, ParamRow> getParams() {
+        return Collections.unmodifiableMap(this.params);
+    }
+
+    /**
+     * Compute the changes needed to turn the persisted rows into these rows. Empty and NULL
+     * parameter values are equal, as are the struct columns compared by {@link
+     * StructRow#equals(Object)}.
+     *
+     * @param persisted The rows currently stored in the database
+     */
+    public Changes diff(LayoutRows persisted) {
+        final Changes changes = new Changes();
+
+        for (final StructRow struct : this.structs.values()) {
+            final StructRow existing = persisted.structs.get(struct.getStructId());
+            if (existing == null) {
+                changes.insertedStructs.add(struct);
+            } else if (!existing.equals(struct)
+                    || persisted.staleStructs.contains(struct.getStructId())) {
+                changes.updatedStructs.add(struct);
+            }
+        }
+        for (final Integer structId : persisted.structs.keySet()) {
+            if (!this.structs.containsKey(structId)) {
+                changes.deletedStructs.add(structId);
+            }
+        }
+
+        for (final Map.Entry<ParamKey, ParamRow> paramEntry : this.params.entrySet()) {
+            final ParamRow param = paramEntry.getValue();
+            final ParamRow existing = persisted.params.get(paramEntry.getKey());
+            if (existing == null) {
+                changes.insertedParams.add(param);
+            } else if (!StringUtils.equals(
+                    StringUtils.defaultString(existing.getValue()),
+                    StringUtils.defaultString(param.getValue()))) {
+                changes.updatedParams.add(param);
+            }
+        }
+        for (final ParamKey paramKey : persisted.params.keySet()) {
+            if (!this.params.containsKey(paramKey)) {
+                changes.deletedParams.add(paramKey);
+            }
+        }
+
+        return changes;
+    }
+
+    /** A single UP_LAYOUT_STRUCT row, the user and layout ids are implied by the owning layout */
+    public static final class StructRow {
+        private final int structId;
+        private final int nextStructId;
+        private final int childStructId;
+        private final Integer externalId;
+        private final Integer chanId;
+        private final String name;
+        private final String type;
+        private final String hidden;
+        private final String immutable;
+        private final String unremovable;
+
+        /**
+         * @param externalId The external id, null if none
+         * @param chanId The portlet definition id for channels, null for folders
+         * @param name The folder name, null for channels
+         * @param hidden Database flag, see {@link org.apereo.portal.jdbc.RDBMServices#dbFlag}
+         * @param immutable Database flag
+         * @param unremovable Database flag
+         */
+        public StructRow(
+                int structId,
+                int nextStructId,
+                int childStructId,
+                Integer externalId,
+                Integer chanId,
+                String name,
+                String type,
+                String hidden,
+                String immutable,
+                String unremovable) {
+            this.structId = structId;
+            this.nextStructId = nextStructId;
+            this.childStructId = childStructId;
+            this.externalId = externalId;
+            this.chanId = chanId;
+            this.name = name;
+            this.type = type;
+            this.hidden = hidden;
+            this.immutable = immutable;
+            this.unremovable = unremovable;
+        }
+
+        public int getStructId() {
+            return this.structId;
+        }
+
+        public int getNextStructId() {
+            return this.nextStructId;
+        }
+
+        public int getChildStructId() {
+            return this.childStructId;
+        }
+
+        public Integer getExternalId() {
+            return this.externalId;
+        }
+
+        public Integer getChanId() {
+            return this.chanId;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public String getHidden() {
+            return this.hidden;
+        }
+
+        public String getImmutable() {
+            return this.immutable;
+        }
+
+        public String getUnremovable() {
+            return this.unremovable;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.structId;
+        }
+
+        /**
+         * Some databases store empty strings as NULL so the two are considered equal, otherwise
+         * every save would update those rows.
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StructRow)) {
+                return false;
+            }
+            final StructRow other = (StructRow) obj;
+            return this.structId == other.structId
+                    && this.nextStructId == other.nextStructId
+                    && this.childStructId == other.childStructId
+                    && ObjectUtils.equals(this.externalId, other.externalId)
+                    && ObjectUtils.equals(this.chanId, other.chanId)
+                    && StringUtils.equals(
+                            StringUtils.defaultString(this.name),
+                            StringUtils.defaultString(other.name))
+                    && StringUtils.equals(
+                            StringUtils.defaultString(this.type),
+                            StringUtils.defaultString(other.type))
+                    && StringUtils.equals(this.hidden, other.hidden)
+                    && StringUtils.equals(this.immutable, other.immutable)
+                    && StringUtils.equals(this.unremovable, other.unremovable);
+        }
+
+        @Override
+        public String toString() {
+            return "StructRow [structId="
+                    + this.structId
+                    + ", nextStructId="
+                    + this.nextStructId
+                    + ", childStructId="
+                    + this.childStructId
+                    + ", chanId="
+                    + this.chanId
+                    + ", name="
+                    + this.name
+                    + ", type="
+                    + this.type
+                    + "]";
+        }
+    }
+
+    /** A single UP_LAYOUT_PARAM row */
+    public static final class ParamRow {
+        private final int structId;
+        private final String name;
+        private final String value;
+
+        ParamRow(int structId, String name, String value) {
+            this.structId = structId;
+            this.name = name;
+            this.value = value;
+        }
+
+        public int getStructId() {
+            return this.structId;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getValue() {
+            return this.value;
+        }
+
+        @Override
+        public String toString() {
+            return "ParamRow [structId="
+                    + this.structId
+                    + ", name="
+                    + this.name
+                    + ", value="
+                    + this.value
+                    + "]";
+        }
+    }
+
+    /** Primary key of a UP_LAYOUT_PARAM row within a layout */
+    public static final class ParamKey {
+        private final int structId;
+        private final String name;
+
+        public ParamKey(int structId, String name) {
+            this.structId = structId;
+            this.name = name;
+        }
+
+        public int getStructId() {
+            return this.structId;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.structId + (this.name == null ? 0 : this.name.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ParamKey)) {
+                return false;
+            }
+            final ParamKey other = (ParamKey) obj;
+            return this.structId == other.structId && StringUtils.equals(this.name, other.name);
+        }
+
+        @Override
+        public String toString() {
+            return this.structId + ":" + this.name;
+        }
+    }
+
+    /** The row changes needed to bring the persisted layout up to date */
+    public static final class Changes {
+        private final List<Integer> deletedStructs = new ArrayList<Integer>();
+        private final List<StructRow> updatedStructs = new ArrayList<StructRow>();
+        private final List<StructRow> insertedStructs = new ArrayList<StructRow>();
+        private final List<ParamKey> deletedParams = new ArrayList<ParamKey>();
+        private final List<ParamRow> updatedParams = new ArrayList<ParamRow>();
+        private final List<ParamRow> insertedParams = new ArrayList<ParamRow>();
+
+        private Changes() {}
+
+        public List<Integer> getDeletedStructs() {
+            return this.deletedStructs;
+        }
+
+        public List<StructRow> getUpdatedStructs() {
+            return this.updatedStructs;
+        }
+
+        public List<StructRow> getInsertedStructs() {
+            return this.insertedStructs;
+        }
+
+        public List<ParamKey> getDeletedParams() {
+            return this.deletedParams;
+        }
+
+        public List<ParamRow> getUpdatedParams() {
+            return this.updatedParams;
+        }
+
+        public List<ParamRow> getInsertedParams() {
+            return this.insertedParams;
+        }
+
+        /** @return true if the persisted rows already match the layout */
+        public boolean isEmpty() {
+            return this.getChangeCount() == 0;
+        }
+
+        /** @return Total number of rows to delete, update or insert */
+        public int getChangeCount() {
+            return this.deletedStructs.size()
+                    + this.updatedStructs.size()
+                    + this.insertedStructs.size()
+                    + this.deletedParams.size()
+                    + this.updatedParams.size()
+                    + this.insertedParams.size();
+        }
+
+        @Override
+        public String toString() {
+            return "Changes [deletedStructs="
+                    + this.deletedStructs.size()
+                    + ", updatedStructs="
+                    + this.updatedStructs.size()
+                    + ", insertedStructs="
+                    + this.insertedStructs.size()
+                    + ", deletedParams="
+                    + this.deletedParams.size()
+                    + ", updatedParams="
+                    + this.updatedParams.size()
+                    + ", insertedParams="
+                    + this.insertedParams.size()
+                    + "]";
+        }
+    }
+}
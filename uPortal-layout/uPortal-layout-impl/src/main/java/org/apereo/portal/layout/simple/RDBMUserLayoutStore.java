@@ -60,6 +60,7 @@ import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
@@ -1098,9 +1099,289 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
     protected abstract Element getStructure(Document doc, LayoutStructure ls);
 
-    protected abstract int saveStructure(
-            Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException;
+    /**
+     * Add the UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows for the node, its children and its
+     * following siblings to the layout rows.
+     *
+     * @return The struct id of the node, 0 if the node was not saved
+     */
+    protected abstract int saveStructure(Node node, LayoutRows layoutRows);
+
+    /**
+     * Lock the user's UP_USER row for the rest of the transaction. Saving a layout reads the stored
+     * rows, diffs them and writes the difference, so concurrent saves for the same user from
+     * different portal nodes have to be serialized or they could insert the same struct ids or
+     * overwrite each other's changes.
+     */
+    protected void lockUserLayouts(Connection con, int userId) throws SQLException {
+        final String sql = "UPDATE UP_USER SET NEXT_STRUCT_ID=NEXT_STRUCT_ID WHERE USER_ID=?";
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            logger.debug(sql);
+            pstmt.executeUpdate();
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    /** Load the UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows currently stored for the layout */
+    protected LayoutRows loadLayoutRows(Connection con, int userId, int layoutId)
+            throws SQLException {
+        final LayoutRows layoutRows = new LayoutRows();
+
+        String sql =
+                "SELECT STRUCT_ID,NEXT_STRUCT_ID,CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE "
+                        + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
+        PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    Integer chanId = rs.getInt("CHAN_ID");
+                    if (rs.wasNull()) {
+                        chanId = null;
+                    }
+                    final int structId = rs.getInt("STRUCT_ID");
+                    final String externalId = rs.getString("EXTERNAL_ID");
+                    final Integer eID = parseExternalId(externalId);
+                    if (eID == null && externalId != null && externalId.trim().length() != 0) {
+                        //Not written by this store, treat as changed so the row is rewritten
+                        layoutRows.markStale(structId);
+                    }
+                    layoutRows.addStruct(
+                            new LayoutRows.StructRow(
+                                    structId,
+                                    rs.getInt("NEXT_STRUCT_ID"),
+                                    rs.getInt("CHLD_STRUCT_ID"),
+                                    eID,
+                                    chanId,
+                                    rs.getString("NAME"),
+                                    rs.getString("TYPE"),
+                                    rs.getString("HIDDEN"),
+                                    rs.getString("IMMUTABLE"),
+                                    rs.getString("UNREMOVABLE")));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        sql =
+                "SELECT STRUCT_ID,STRUCT_PARM_NM,STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+        pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    layoutRows.addParam(
+                            rs.getInt("STRUCT_ID"),
+                            rs.getString("STRUCT_PARM_NM"),
+                            rs.getString("STRUCT_PARM_VAL"));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        return layoutRows;
+    }
+
+    private Integer parseExternalId(String externalId) {
+        if (externalId == null || externalId.trim().length() == 0) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(externalId.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Apply the row changes for the layout using JDBC batches. Rows are deleted before inserts and
+     * parameters are deleted before and inserted after their structure rows.
+     */
+    protected void saveLayoutChanges(
+            Connection con, int userId, int layoutId, LayoutRows.Changes changes)
+            throws SQLException {
+        final boolean batch = JdbcUtils.supportsBatchUpdates(con);
+
+        if (!changes.getDeletedParams().isEmpty()) {
+            final String sql =
+                    "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?";
+            logger.debug(sql);
+            final PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                for (final LayoutRows.ParamKey param : changes.getDeletedParams()) {
+                    pstmt.setInt(1, userId);
+                    pstmt.setInt(2, layoutId);
+                    pstmt.setInt(3, param.getStructId());
+                    pstmt.setString(4, param.getName());
+                    addUpdate(pstmt, batch);
+                }
+                executeUpdates(pstmt, batch);
+            } finally {
+                pstmt.close();
+            }
+        }
+
+        if (!changes.getDeletedStructs().isEmpty()) {
+            final String sql =
+                    "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+            logger.debug(sql);
+            final PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                for (final Integer structId : changes.getDeletedStructs()) {
+                    pstmt.setInt(1, userId);
+                    pstmt.setInt(2, layoutId);
+                    pstmt.setInt(3, structId);
+                    addUpdate(pstmt, batch);
+                }
+                executeUpdates(pstmt, batch);
+            } finally {
+                pstmt.close();
+            }
+        }
+
+        if (!changes.getUpdatedStructs().isEmpty()) {
+            final String sql =
+                    "UPDATE UP_LAYOUT_STRUCT SET NEXT_STRUCT_ID=?,CHLD_STRUCT_ID=?,EXTERNAL_ID=?,CHAN_ID=?,NAME=?,TYPE=?,HIDDEN=?,IMMUTABLE=?,UNREMOVABLE=? "
+                            + "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+            logger.debug(sql);
+            final PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                for (final LayoutRows.StructRow struct : changes.getUpdatedStructs()) {
+                    pstmt.setInt(1, struct.getNextStructId());
+                    pstmt.setInt(2, struct.getChildStructId());
+                    setStructColumns(pstmt, 3, struct);
+                    pstmt.setInt(10, userId);
+                    pstmt.setInt(11, layoutId);
+                    pstmt.setInt(12, struct.getStructId());
+                    addUpdate(pstmt, batch);
+                }
+                executeUpdates(pstmt, batch);
+            } finally {
+                pstmt.close();
+            }
+        }
+
+        if (!changes.getInsertedStructs().isEmpty()) {
+            final String sql =
+                    "INSERT INTO UP_LAYOUT_STRUCT "
+                            + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
+                            + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+            logger.debug(sql);
+            final PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                for (final LayoutRows.StructRow struct : changes.getInsertedStructs()) {
+                    pstmt.setInt(1, userId);
+                    pstmt.setInt(2, layoutId);
+                    pstmt.setInt(3, struct.getStructId());
+                    pstmt.setInt(4, struct.getNextStructId());
+                    pstmt.setInt(5, struct.getChildStructId());
+                    setStructColumns(pstmt, 6, struct);
+                    addUpdate(pstmt, batch);
+                }
+                executeUpdates(pstmt, batch);
+            } finally {
+                pstmt.close();
+            }
+        }
+
+        if (!changes.getUpdatedParams().isEmpty()) {
+            final String sql =
+                    "UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=? WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?";
+            logger.debug(sql);
+            final PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                for (final LayoutRows.ParamRow param : changes.getUpdatedParams()) {
+                    pstmt.setString(1, param.getValue());
+                    pstmt.setInt(2, userId);
+                    pstmt.setInt(3, layoutId);
+                    pstmt.setInt(4, param.getStructId());
+                    pstmt.setString(5, param.getName());
+                    addUpdate(pstmt, batch);
+                }
+                executeUpdates(pstmt, batch);
+            } finally {
+                pstmt.close();
+            }
+        }
+
+        if (!changes.getInsertedParams().isEmpty()) {
+            final String sql =
+                    "INSERT INTO UP_LAYOUT_PARAM "
+                            + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) "
+                            + "VALUES (?,?,?,?,?)";
+            logger.debug(sql);
+            final PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                for (final LayoutRows.ParamRow param : changes.getInsertedParams()) {
+                    pstmt.setInt(1, userId);
+                    pstmt.setInt(2, layoutId);
+                    pstmt.setInt(3, param.getStructId());
+                    pstmt.setString(4, param.getName());
+                    pstmt.setString(5, param.getValue());
+                    addUpdate(pstmt, batch);
+                }
+                executeUpdates(pstmt, batch);
+            } finally {
+                pstmt.close();
+            }
+        }
+    }
+
+    /**
+     * Binds EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE and UNREMOVABLE starting at the
+     * specified parameter index
+     */
+    private void setStructColumns(PreparedStatement pstmt, int index, LayoutRows.StructRow struct)
+            throws SQLException {
+        if (struct.getExternalId() != null) {
+            pstmt.setInt(index, struct.getExternalId());
+        } else {
+            pstmt.setNull(index, java.sql.Types.NUMERIC);
+        }
+        if (struct.getChanId() != null) {
+            pstmt.setInt(index + 1, struct.getChanId());
+        } else {
+            pstmt.setNull(index + 1, java.sql.Types.NUMERIC);
+        }
+        if (struct.getName() != null) {
+            pstmt.setString(index + 2, struct.getName());
+        } else {
+            pstmt.setNull(index + 2, java.sql.Types.VARCHAR);
+        }
+        pstmt.setString(index + 3, struct.getType());
+        pstmt.setString(index + 4, struct.getHidden());
+        pstmt.setString(index + 5, struct.getImmutable());
+        pstmt.setString(index + 6, struct.getUnremovable());
+    }
+
+    private void addUpdate(PreparedStatement pstmt, boolean batch) throws SQLException {
+        if (batch) {
+            pstmt.addBatch();
+        } else {
+            pstmt.executeUpdate();
+        }
+    }
+
+    private void executeUpdates(PreparedStatement pstmt, boolean batch) throws SQLException {
+        if (batch) {
+            pstmt.executeBatch();
+        }
+    }
 
     /**
      * Save the user layout.
@@ -1141,6 +1422,9 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                                         int layoutId = 0;
                                         ResultSet rs;
 
+                                        // Keep other nodes from saving between the read and the write
+                                        lockUserLayouts(con, userId);
+
                                         // Eventually we want to be able to just get layoutId from the
                                         // profile, but because of the template user layouts we have to do this for now ...
                                         layoutId = getLayoutID(userId, profileId);
@@ -1152,70 +1436,29 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                                             firstLayout = true;
                                         }
 
-                                        String sql =
-                                                "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        PreparedStatement pstmt = con.prepareStatement(sql);
-                                        try {
-                                            pstmt.clearParameters();
-                                            pstmt.setInt(1, userId);
-                                            pstmt.setInt(2, layoutId);
-                                            logger.debug(sql);
-                                            pstmt.executeUpdate();
-                                        } finally {
-                                            pstmt.close();
-                                        }
-
-                                        sql =
-                                                "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        pstmt = con.prepareStatement(sql);
-                                        try {
-                                            pstmt.clearParameters();
-                                            pstmt.setInt(1, userId);
-                                            pstmt.setInt(2, layoutId);
-                                            logger.debug(sql);
-                                            pstmt.executeUpdate();
-                                        } finally {
-                                            pstmt.close();
-                                        }
-
-                                        PreparedStatement structStmt =
-                                                con.prepareStatement(
-                                                        "INSERT INTO UP_LAYOUT_STRUCT "
-                                                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
-                                                                + "VALUES ("
-                                                                + userId
-                                                                + ","
-                                                                + layoutId
-                                                                + ",?,?,?,?,?,?,?,?,?,?)");
-
-                                        PreparedStatement parmStmt =
-                                                con.prepareStatement(
-                                                        "INSERT INTO UP_LAYOUT_PARAM "
-                                                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) "
-                                                                + "VALUES ("
-                                                                + userId
-                                                                + ","
-                                                                + layoutId
-                                                                + ",?,?,?)");
-
-                                        int firstStructId;
-                                        try {
-                                            firstStructId =
-                                                    saveStructure(
-                                                            layoutXML
-                                                                    .getFirstChild()
-                                                                    .getFirstChild(),
-                                                            structStmt,
-                                                            parmStmt);
-                                        } finally {
-                                            structStmt.close();
-                                            parmStmt.close();
+                                        // Only write rows that differ from the stored layout
+                                        final LayoutRows persistedRows =
+                                                loadLayoutRows(con, userId, layoutId);
+                                        final LayoutRows layoutRows = new LayoutRows();
+                                        final int firstStructId =
+                                                saveStructure(
+                                                        layoutXML.getFirstChild().getFirstChild(),
+                                                        layoutRows);
+                                        final LayoutRows.Changes changes =
+                                                layoutRows.diff(persistedRows);
+                                        logger.debug(
+                                                "Saving layout {} for user {} with {}",
+                                                layoutId,
+                                                userId,
+                                                changes);
+                                        if (!changes.isEmpty()) {
+                                            saveLayoutChanges(con, userId, layoutId, changes);
                                         }
 
                                         //Check to see if the user has a matching layout
-                                        sql =
+                                        String sql =
                                                 "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        pstmt = con.prepareStatement(sql);
+                                        PreparedStatement pstmt = con.prepareStatement(sql);
                                         try {
                                             pstmt.clearParameters();
                                             pstmt.setInt(1, userId);
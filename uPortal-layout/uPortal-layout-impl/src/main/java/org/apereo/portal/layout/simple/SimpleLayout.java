@@ -27,7 +27,9 @@ import org.apache.commons.logging.LogFactory;
 import org.apereo.portal.PortalException;
 import org.apereo.portal.layout.INodeIdResolver;
 import org.apereo.portal.layout.IUserLayout;
+import org.apereo.portal.layout.dlm.CompactLayout;
 import org.apereo.portal.layout.dlm.DistributedUserLayout;
+import org.apereo.portal.layout.dlm.LayoutNodeIndex;
 import org.apereo.portal.layout.node.IUserLayoutFolderDescription;
 import org.apereo.portal.layout.node.IUserLayoutNodeDescription;
 import org.apereo.portal.layout.node.UserLayoutNodeDescription;
@@ -47,27 +49,38 @@ import org.w3c.dom.NodeList;
 public class SimpleLayout implements IUserLayout {
 
     private final DistributedUserLayout userLayout;
-    private final Document layout;
     private final String layoutId;
 
     private final Log log = LogFactory.getLog(getClass());
 
     public SimpleLayout(DistributedUserLayout userLayout, String layoutId) {
         this.userLayout = userLayout;
-        this.layout = this.userLayout.getLayout();
         this.layoutId = layoutId;
     }
 
+    /** The DOM is only fetched when needed, the index lookups don't use it */
+    private Document getLayout() {
+        return this.userLayout.getLayout();
+    }
+
+    private LayoutNodeIndex getNodeIndex() {
+        final CompactLayout compactLayout = this.userLayout.getCompactLayout();
+        if (compactLayout == null) {
+            throw new PortalException("Layout " + this.layoutId + " has not been initialized");
+        }
+        return compactLayout.getNodeIndex();
+    }
+
     @Override
     public IUserLayoutNodeDescription getNodeDescription(String nodeId) throws PortalException {
-        Element element = layout.getElementById(nodeId);
+        Element element = getLayout().getElementById(nodeId);
         return UserLayoutNodeDescription.createUserLayoutNodeDescription(element);
     }
 
     @Override
     public String getParentId(String nodeId) throws PortalException {
         String parentId = null;
-        Element element = layout.getElementById(nodeId);
+        Element element = getLayout().getElementById(nodeId);
         if (element != null) {
             Node parent = element.getParentNode();
             if (parent != null && parent.getNodeType() == Node.ELEMENT_NODE) {
@@ -83,7 +96,7 @@ public class SimpleLayout implements IUserLayout {
         Vector v = new Vector();
         IUserLayoutNodeDescription node = getNodeDescription(nodeId);
         if (node instanceof IUserLayoutFolderDescription) {
-            Element element = layout.getElementById(nodeId);
+            Element element = getLayout().getElementById(nodeId);
             for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
                 if (n.getNodeType() == Node.ELEMENT_NODE) {
                     Element e = (Element) n;
@@ -107,7 +120,7 @@ public class SimpleLayout implements IUserLayout {
     @Override
     public String findNodeId(XPathExpression xpathExpression) throws PortalException {
         try {
-            return xpathExpression.evaluate(this.layout);
+            return xpathExpression.evaluate(this.getLayout());
         } catch (XPathExpressionException e) {
             throw new PortalException(
                     "Exception while executing XPathExpression: " + xpathExpression, e);
@@ -116,7 +129,22 @@ public class SimpleLayout implements IUserLayout {
 
     @Override
     public String findNodeId(INodeIdResolver finder) {
-        return finder.traverseDocument(this.layout);
+        return finder.traverseDocument(this.getLayout());
+    }
+
+    @Override
+    public String getVisibleTabId(int tabIndex) {
+        return this.getNodeIndex().getVisibleTabId(tabIndex);
+    }
+
+    @Override
+    public String getTabId(String nodeId) {
+        return this.getNodeIndex().getTabId(nodeId);
+    }
+
+    @Override
+    public String getSubscribeId(String fname) {
+        return this.getNodeIndex().getSubscribeId(fname);
     }
 
     @Override
@@ -127,7 +155,8 @@ public class SimpleLayout implements IUserLayout {
             String expression = "/layout/folder";
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
-            Element rootNodeE = (Element) xpath.evaluate(expression, layout, XPathConstants.NODE);
+            Element rootNodeE =
+                    (Element) xpath.evaluate(expression, getLayout(), XPathConstants.NODE);
 
             rootNode = rootNodeE.getAttribute("ID");
         } catch (Exception e) {
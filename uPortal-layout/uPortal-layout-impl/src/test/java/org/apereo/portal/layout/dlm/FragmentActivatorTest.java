@@ -0,0 +1,103 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class FragmentActivatorTest {
+    private final FragmentActivator fragmentActivator = new FragmentActivator();
+
+    @Test
+    public void testIndexHitAndMiss() throws Exception {
+        index("news-lo", "u10l1s2", "u10l1n3");
+
+        assertEquals("news-lo", this.fragmentActivator.getFragmentOwnerId("u10l1s2"));
+        assertEquals("news-lo", this.fragmentActivator.getFragmentOwnerId("u10l1n3"));
+        assertNull(this.fragmentActivator.getFragmentOwnerId("u11l1s2"));
+    }
+
+    @Test
+    public void testOwnerReloadReplacesNodes() throws Exception {
+        index("news-lo", "u10l1s2", "u10l1n3");
+        index("news-lo", "u10l1s2", "u10l1n4");
+
+        assertEquals("news-lo", this.fragmentActivator.getFragmentOwnerId("u10l1s2"));
+        assertEquals("news-lo", this.fragmentActivator.getFragmentOwnerId("u10l1n4"));
+        assertNull(this.fragmentActivator.getFragmentOwnerId("u10l1n3"));
+    }
+
+    @Test
+    public void testDeletedOwnerRemoved() throws Exception {
+        index("news-lo", "u10l1s2");
+        index("sports-lo", "u11l1s2");
+
+        final FragmentDefinition sports = mock(FragmentDefinition.class);
+        when(sports.getOwnerId()).thenReturn("sports-lo");
+        this.fragmentActivator.removeDeletedFragmentOwners(Collections.singletonList(sports));
+
+        assertNull(this.fragmentActivator.getFragmentOwnerId("u10l1s2"));
+        assertEquals("sports-lo", this.fragmentActivator.getFragmentOwnerId("u11l1s2"));
+    }
+
+    @Test
+    public void testClearedOwnerNotIndexedByEarlierActivation() throws Exception {
+        index("news-lo", "u10l1s2");
+
+        // An activation is in progress when the owner's cache is cleared
+        final long generation = this.fragmentActivator.getOwnerGeneration("news-lo");
+        this.fragmentActivator.clearChacheForOwner("news-lo");
+        this.fragmentActivator.indexFragmentNodes(
+                "news-lo", createView("u10l1s2", "u10l1n3"), generation);
+
+        assertNull(this.fragmentActivator.getFragmentOwnerId("u10l1s2"));
+        assertNull(this.fragmentActivator.getFragmentOwnerId("u10l1n3"));
+
+        // The next activation indexes the owner again
+        index("news-lo", "u10l1n3");
+        assertEquals("news-lo", this.fragmentActivator.getFragmentOwnerId("u10l1n3"));
+    }
+
+    private void index(String ownerId, String... nodeIds) throws Exception {
+        this.fragmentActivator.indexFragmentNodes(
+                ownerId, createView(nodeIds), this.fragmentActivator.getOwnerGeneration(ownerId));
+    }
+
+    /** A layout with each node nested in the previous one */
+    private UserView createView(String... nodeIds) throws Exception {
+        final Document layout =
+                DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element parent = layout.createElement("layout");
+        layout.appendChild(parent);
+        for (final String nodeId : nodeIds) {
+            final Element node = layout.createElement("folder");
+            node.setAttribute(Constants.ATT_ID, nodeId);
+            parent.appendChild(node);
+            parent = node;
+        }
+
+        final UserView view = new UserView(10);
+        view.setLayout(layout);
+        return view;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class LayoutRowsTest {
+
+    @Test
+    public void testUnchangedLayout() {
+        final LayoutRows persisted = createLayout();
+        final LayoutRows layout = createLayout();
+
+        final LayoutRows.Changes changes = layout.diff(persisted);
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testEmptyStringMatchesNull() {
+        final LayoutRows persisted = new LayoutRows();
+        persisted.addStruct(folder(1, 0, 0, null));
+
+        final LayoutRows layout = new LayoutRows();
+        layout.addStruct(folder(1, 0, 0, ""));
+
+        assertTrue(layout.diff(persisted).isEmpty());
+    }
+
+    @Test
+    public void testEmptyParamMatchesNull() {
+        final LayoutRows persisted = createLayout();
+        persisted.addParam(3, "title", null);
+
+        final LayoutRows layout = createLayout();
+        layout.addParam(3, "title", "");
+
+        assertTrue(layout.diff(persisted).isEmpty());
+    }
+
+    @Test
+    public void testStaleRowRewritten() {
+        final LayoutRows persisted = createLayout();
+        persisted.markStale(2);
+        final LayoutRows layout = createLayout();
+
+        final LayoutRows.Changes changes = layout.diff(persisted);
+        assertEquals(1, changes.getChangeCount());
+        assertEquals(2, changes.getUpdatedStructs().get(0).getStructId());
+    }
+
+    @Test
+    public void testMovePortlet() {
+        final LayoutRows persisted = createLayout();
+
+        //Move portlet 4 in front of portlet 3
+        final LayoutRows layout = new LayoutRows();
+        layout.addStruct(folder(1, 0, 2, "Tab"));
+        layout.addStruct(folder(2, 0, 4, "Column"));
+        layout.addStruct(portlet(4, 3, 20));
+        layout.addStruct(portlet(3, 0, 10));
+        layout.addParam(3, "color", "blue");
+        layout.addParam(4, "color", "green");
+
+        final LayoutRows.Changes changes = layout.diff(persisted);
+        assertEquals(3, changes.getChangeCount());
+        assertEquals(Collections.emptyList(), changes.getInsertedStructs());
+        assertEquals(Collections.emptyList(), changes.getDeletedStructs());
+        assertEquals(3, changes.getUpdatedStructs().size());
+        assertEquals(2, changes.getUpdatedStructs().get(0).getStructId());
+        assertEquals(4, changes.getUpdatedStructs().get(1).getStructId());
+        assertEquals(3, changes.getUpdatedStructs().get(2).getStructId());
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        final LayoutRows persisted = createLayout();
+
+        //Remove portlet 4, add portlet 5 and change the parameters
+        final LayoutRows layout = new LayoutRows();
+        layout.addStruct(folder(1, 0, 2, "Tab"));
+        layout.addStruct(folder(2, 0, 3, "Column"));
+        layout.addStruct(portlet(3, 5, 10));
+        layout.addStruct(portlet(5, 0, 30));
+        layout.addParam(3, "color", "red");
+        layout.addParam(5, "size", "large");
+
+        final LayoutRows.Changes changes = layout.diff(persisted);
+        assertEquals(Arrays.asList(4), changes.getDeletedStructs());
+        assertEquals(1, changes.getUpdatedStructs().size());
+        assertEquals(3, changes.getUpdatedStructs().get(0).getStructId());
+        assertEquals(1, changes.getInsertedStructs().size());
+        assertEquals(5, changes.getInsertedStructs().get(0).getStructId());
+
+        assertEquals(
+                Arrays.asList(new LayoutRows.ParamKey(4, "color")), changes.getDeletedParams());
+        assertEquals(1, changes.getUpdatedParams().size());
+        assertEquals("red", changes.getUpdatedParams().get(0).getValue());
+        assertEquals(1, changes.getInsertedParams().size());
+        assertEquals("size", changes.getInsertedParams().get(0).getName());
+        assertEquals(6, changes.getChangeCount());
+    }
+
+    private static LayoutRows createLayout() {
+        final LayoutRows layout = new LayoutRows();
+        layout.addStruct(folder(1, 0, 2, "Tab"));
+        layout.addStruct(folder(2, 0, 3, "Column"));
+        layout.addStruct(portlet(3, 4, 10));
+        layout.addStruct(portlet(4, 0, 20));
+        layout.addParam(3, "color", "blue");
+        layout.addParam(4, "color", "green");
+        return layout;
+    }
+
+    private static LayoutRows.StructRow folder(int id, int next, int child, String name) {
+        return new LayoutRows.StructRow(
+                id, next, child, null, null, name, "regular", "N", "N", "N");
+    }
+
+    private static LayoutRows.StructRow portlet(int id, int next, int chanId) {
+        return new LayoutRows.StructRow(id, next, 0, null, chanId, null, null, "N", "N", "N");
+    }
+}
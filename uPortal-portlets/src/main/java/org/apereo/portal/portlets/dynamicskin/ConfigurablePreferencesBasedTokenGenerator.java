@@ -41,7 +41,7 @@ public class ConfigurablePreferencesBasedTokenGenerator implements DynamicSkinUn
      * @see DynamicSkinUniqueTokenGenerator#generateToken(DynamicSkinInstanceData)
      */
     public String generateToken(final DynamicSkinInstanceData data) {
-        final PortletPreferences preferences = data.getPortletRequest().getPreferences();
+        final PortletPreferences preferences = data.getPortletPreferences();
         int hash = 0;
         // Add the list of preference names to an ordered list so we can get reliable hashcode calculations.
         final Map<String, String[]> prefs = preferences.getMap();
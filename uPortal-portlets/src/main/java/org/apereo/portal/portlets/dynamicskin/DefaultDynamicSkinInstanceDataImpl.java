@@ -37,12 +37,18 @@ public class DefaultDynamicSkinInstanceDataImpl implements DynamicSkinInstanceDa
 
     private String portletAbsolutePathRoot;
     private String skinName;
+    private String portletDefinitionId;
     private PortletRequest portletRequest;
     private Map<String, String> variableNameToValueMap;
 
-    public DefaultDynamicSkinInstanceDataImpl(final PortletRequest request) {
+    /**
+     * @param request the current portlet request
+     * @param portletDefinitionId id of the portlet definition being rendered
+     */
+    public DefaultDynamicSkinInstanceDataImpl(final PortletRequest request, final String portletDefinitionId) {
         this.pullDataFromPortletPreferences(request.getPreferences());
         this.pullDataFromPortletContext(request.getPortletSession().getPortletContext());
+        this.portletDefinitionId = portletDefinitionId;
         this.portletRequest = request;
     }
 
@@ -62,11 +68,24 @@ public class DefaultDynamicSkinInstanceDataImpl implements DynamicSkinInstanceDa
         return this.skinName;
     }
 
+    /**
+     * @see DynamicSkinInstanceData#getPortletDefinitionId()
+     */
+    @Override
+    public String getPortletDefinitionId() {
+        return this.portletDefinitionId;
+    }
+
     @Override
     public PortletRequest getPortletRequest() {
         return this.portletRequest;
     }
 
+    @Override
+    public PortletPreferences getPortletPreferences() {
+        return this.portletRequest.getPreferences();
+    }
+
     /**
      * @see DynamicSkinInstanceData#getVariablesValuesMap()
      */
@@ -0,0 +1,186 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.dynamicskin;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import javax.portlet.PortletPreferences;
+import javax.portlet.PortletRequest;
+import javax.portlet.ReadOnlyException;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * {@link DynamicSkinInstanceData} built from a copy of the portlet preferences rather than a live
+ * portlet request, so it can be used to compile a skin outside of the request that asked for it, or
+ * to warm skins when no request is available at all.
+ */
+public class DetachedDynamicSkinInstanceData implements DynamicSkinInstanceData {
+
+    private final String portletAbsolutePathRoot;
+    private final String skinName;
+    private final String portletDefinitionId;
+    private final Map<String, String> variableNameToValueMap;
+    private final PortletPreferences preferences;
+
+    /**
+     * @param portletAbsolutePathRoot absolute path root of the portlet
+     * @param portletDefinitionId id of the portlet definition of the skin, may be null
+     * @param preferences portlet preference names to values, copied by this constructor
+     */
+    public DetachedDynamicSkinInstanceData(
+            final String portletAbsolutePathRoot,
+            final String portletDefinitionId,
+            final Map<String, String[]> preferences) {
+        final Map<String, String[]> preferencesCopy = new HashMap<>(preferences.size());
+        for (final Map.Entry<String, String[]> entry : preferences.entrySet()) {
+            final String[] values = entry.getValue();
+            preferencesCopy.put(
+                    entry.getKey(), values != null ? Arrays.copyOf(values, values.length) : null);
+        }
+
+        this.portletAbsolutePathRoot = portletAbsolutePathRoot;
+        this.portletDefinitionId = portletDefinitionId;
+        this.preferences = new SnapshotPortletPreferences(preferencesCopy);
+        this.skinName =
+                this.preferences.getValue(
+                        DynamicRespondrSkinConstants.PREF_SKIN_NAME,
+                        DynamicRespondrSkinConstants.DEFAULT_SKIN_NAME);
+
+        final Map<String, String> variables = new HashMap<>();
+        for (final String prefName : preferencesCopy.keySet()) {
+            if (prefName.startsWith(DynamicRespondrSkinConstants.CONFIGURABLE_PREFIX)) {
+                final String nameWithoutPrefix =
+                        prefName.substring(
+                                DynamicRespondrSkinConstants.CONFIGURABLE_PREFIX.length());
+                variables.put(nameWithoutPrefix, this.preferences.getValue(prefName, ""));
+            }
+        }
+        this.variableNameToValueMap = Collections.unmodifiableMap(variables);
+    }
+
+    /** Copies the state of the provided instance data, which may be backed by a live request. */
+    public static DetachedDynamicSkinInstanceData detach(final DynamicSkinInstanceData data) {
+        if (data instanceof DetachedDynamicSkinInstanceData) {
+            return (DetachedDynamicSkinInstanceData) data;
+        }
+        return new DetachedDynamicSkinInstanceData(
+                data.getPortletAbsolutePathRoot(),
+                data.getPortletDefinitionId(),
+                data.getPortletPreferences().getMap());
+    }
+
+    @Override
+    public String getPortletAbsolutePathRoot() {
+        return this.portletAbsolutePathRoot;
+    }
+
+    @Override
+    public String getSkinName() {
+        return this.skinName;
+    }
+
+    @Override
+    public String getPortletDefinitionId() {
+        return this.portletDefinitionId;
+    }
+
+    /** @return null, detached instance data is not associated with a request */
+    @Override
+    public PortletRequest getPortletRequest() {
+        return null;
+    }
+
+    /** @return read-only copy of the portlet preferences */
+    @Override
+    public PortletPreferences getPortletPreferences() {
+        return this.preferences;
+    }
+
+    @Override
+    public Map<String, String> getVariableNameToValueMap() {
+        return this.variableNameToValueMap;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("portletAbsolutePathRoot", this.portletAbsolutePathRoot)
+                .append("skinName", this.skinName)
+                .append("portletDefinitionId", this.portletDefinitionId)
+                .append("variableNameToValueMap", this.variableNameToValueMap)
+                .toString();
+    }
+
+    /** Read-only {@link PortletPreferences} over a copy of the preference values. */
+    private static final class SnapshotPortletPreferences implements PortletPreferences {
+        private final Map<String, String[]> preferences;
+
+        SnapshotPortletPreferences(Map<String, String[]> preferences) {
+            this.preferences = Collections.unmodifiableMap(preferences);
+        }
+
+        @Override
+        public boolean isReadOnly(String key) {
+            return true;
+        }
+
+        @Override
+        public String getValue(String key, String def) {
+            final String[] values = this.preferences.get(key);
+            final String value = values != null && values.length > 0 ? values[0] : null;
+            return value != null ? value : def;
+        }
+
+        @Override
+        public String[] getValues(String key, String[] def) {
+            final String[] values = this.preferences.get(key);
+            return values != null ? Arrays.copyOf(values, values.length) : def;
+        }
+
+        @Override
+        public void setValue(String key, String value) throws ReadOnlyException {
+            throw new ReadOnlyException("Preferences of detached skin instance data are read-only");
+        }
+
+        @Override
+        public void setValues(String key, String[] values) throws ReadOnlyException {
+            throw new ReadOnlyException("Preferences of detached skin instance data are read-only");
+        }
+
+        @Override
+        public Enumeration<String> getNames() {
+            return Collections.enumeration(this.preferences.keySet());
+        }
+
+        @Override
+        public Map<String, String[]> getMap() {
+            return this.preferences;
+        }
+
+        @Override
+        public void reset(String key) throws ReadOnlyException {
+            throw new ReadOnlyException("Preferences of detached skin instance data are read-only");
+        }
+
+        @Override
+        public void store() {
+            throw new UnsupportedOperationException(
+                    "Preferences of detached skin instance data are read-only");
+        }
+    }
+}
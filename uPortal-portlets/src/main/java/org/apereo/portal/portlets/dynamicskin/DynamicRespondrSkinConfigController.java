@@ -23,13 +23,19 @@ import javax.portlet.ActionResponse;
 import javax.portlet.PortletMode;
 import javax.portlet.PortletModeException;
 import javax.portlet.PortletPreferences;
+import javax.portlet.PortletRequest;
 import javax.portlet.ReadOnlyException;
 import javax.portlet.RenderRequest;
 import javax.portlet.ValidatorException;
 import javax.portlet.WindowState;
 import javax.portlet.WindowStateException;
+import javax.servlet.http.HttpServletRequest;
 
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.portlets.dynamicskin.storage.DynamicSkinService;
+import org.apereo.portal.url.IPortalRequestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -52,6 +58,10 @@ public class DynamicRespondrSkinConfigController {
 
     @Autowired private DynamicSkinService skinService;
 
+    @Autowired private IPortalRequestUtils portalRequestUtils;
+
+    @Autowired private IPortletWindowRegistry portletWindowRegistry;
+
     @ActionMapping(params = "action=update")
     public void updateSkinConfiguration(
             ActionRequest request, ActionResponse response, PortletPreferences prefs)
@@ -79,6 +89,12 @@ public class DynamicRespondrSkinConfigController {
         prefs.store();
         log.debug("Saved updated configuration");
 
+        // Start compiling the updated skin so it is likely ready by the time the page renders
+        if (Boolean.valueOf(prefs.getValue(DynamicRespondrSkinConstants.PREF_DYNAMIC, "false"))) {
+            skinService.getCurrentSkinCssPath(
+                    new DefaultDynamicSkinInstanceDataImpl(request, getPortletDefinitionId(request)));
+        }
+
         response.setPortletMode(PortletMode.VIEW);
     }
 
@@ -115,4 +131,14 @@ public class DynamicRespondrSkinConfigController {
 
         return "jsp/DynamicRespondrSkin/skinConfig";
     }
+
+    /** @return the id of the portlet definition of the window being configured */
+    private String getPortletDefinitionId(PortletRequest request) {
+        final HttpServletRequest httpr = portalRequestUtils.getCurrentPortalRequest();
+        final IPortletWindowId portletWindowId =
+                portletWindowRegistry.getPortletWindowId(httpr, request.getWindowID());
+        final IPortletWindow portletWindow =
+                portletWindowRegistry.getPortletWindow(httpr, portletWindowId);
+        return portletWindow.getPortletEntity().getPortletDefinitionId().getStringId();
+    }
 }
\ No newline at end of file
@@ -97,12 +97,7 @@ public class DynamicRespondrSkinViewController {
             final IPerson user = personManager.getPerson(httpr);
             final IAuthorizationPrincipal principal =
                     AuthorizationPrincipalHelper.principalFromUser(user);
-            final IPortletWindowId portletWindowId =
-                    portletWindowRegistry.getPortletWindowId(httpr, request.getWindowID());
-            final IPortletWindow portletWindow =
-                    portletWindowRegistry.getPortletWindow(httpr, portletWindowId);
-            final IPortletEntity portletEntity = portletWindow.getPortletEntity();
-            if (principal.canConfigure(portletEntity.getPortletDefinitionId().toString())) {
+            if (principal.canConfigure(getPortletDefinitionId(request))) {
                 canAccessSkinConfig = true;
             }
             // RENDER_MARKUP
@@ -115,19 +110,32 @@ public class DynamicRespondrSkinViewController {
 
     /**
      * Calculate the default skin URL path or the path to a skin CSS file that is specific to the set of
-     * portlet preference values currently defined.
+     * portlet preference values currently defined.  If that CSS file is not generated yet, the path to the
+     * previous CSS file generated for the skin is used until it is.
      *
      * @param request
      * @return
      * @throws IOException
      */
     private String calculateDynamicSkinUrlPathToUse(PortletRequest request, String lessfileBaseName) throws IOException {
-        final DynamicSkinInstanceData data = new DefaultDynamicSkinInstanceDataImpl(request);
-        if (!service.skinCssFileExists(data)) {
-            // Trigger the LESS compilation
-            service.generateSkinCssFile(data);
-        }
-        return service.getSkinCssPath(data);
+        final DynamicSkinInstanceData data =
+                new DefaultDynamicSkinInstanceDataImpl(request, getPortletDefinitionId(request));
+        final String cssPath = service.getCurrentSkinCssPath(data);
+        // Use the default skin while the first CSS file for the skin is compiled in the background
+        return cssPath != null ? cssPath : calculateDefaultSkinCssLocationInWebapp(lessfileBaseName);
+    }
+
+    /**
+     * @return the id of the portlet definition of the window being rendered
+     */
+    private String getPortletDefinitionId(PortletRequest request) {
+        final HttpServletRequest httpr = portalRequestUtils.getCurrentPortalRequest();
+        final IPortletWindowId portletWindowId =
+                portletWindowRegistry.getPortletWindowId(httpr, request.getWindowID());
+        final IPortletWindow portletWindow =
+                portletWindowRegistry.getPortletWindow(httpr, portletWindowId);
+        final IPortletEntity portletEntity = portletWindow.getPortletEntity();
+        return portletEntity.getPortletDefinitionId().getStringId();
     }
 
     /**
@@ -20,6 +20,7 @@ package org.apereo.portal.portlets.dynamicskin;
 
 import java.util.Map;
 
+import javax.portlet.PortletPreferences;
 import javax.portlet.PortletRequest;
 
 /**
@@ -32,6 +33,12 @@ public interface DynamicSkinInstanceData {
      * @return skin name
      */
     String getSkinName();
+    /**
+     * Returns the id of the portlet definition the skin is configured on.  Publications of the skin portlet can
+     * use the same skin name with different preferences, so state kept between compiles is kept per definition.
+     * @return portlet definition id, null if not known
+     */
+    String getPortletDefinitionId();
     /**
      * Returns the absolute path root for the portlet.
      * @return portlet absolute path root
@@ -42,6 +49,12 @@ public interface DynamicSkinInstanceData {
      * @return the portlet request object
      */
     PortletRequest getPortletRequest();
+    /**
+     * Returns the portlet preferences the skin is configured with.  Use this rather than the preferences of
+     * {@link #getPortletRequest()}, which is not available when the skin is compiled outside of a request.
+     * @return portlet preferences
+     */
+    PortletPreferences getPortletPreferences();
     /**
      * Returns the map of variables that will be used in the LESS compilation for the dynamic skin.
      * @return variables map to be used for LESS compilation
@@ -23,12 +23,28 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.portlet.PortletConfig;
 import javax.portlet.PortletContext;
 import javax.portlet.PortletRequest;
 import javax.xml.parsers.DocumentBuilder;
@@ -39,6 +55,13 @@ import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.pluto.container.PortletPreference;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.container.om.portlet.Preference;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDescriptorKey;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.portlets.dynamicskin.DetachedDynamicSkinInstanceData;
 import org.apereo.portal.portlets.dynamicskin.DynamicRespondrSkinConstants;
 import org.apereo.portal.portlets.dynamicskin.DynamicSkinException;
 import org.apereo.portal.portlets.dynamicskin.DynamicSkinInstanceData;
@@ -48,16 +71,26 @@ import org.lesscss.LessException;
 import org.lesscss.LessSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.Assert;
+import org.springframework.web.portlet.context.PortletConfigAware;
+import org.springframework.web.portlet.context.PortletContextAware;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
  * Abstract base class for {@link DynamicSkinService} classes.
+ *
+ * LESS compilation takes seconds, so it is done by a small bounded pool of background threads rather than in the
+ * request that needs the CSS.  Compiles are deduplicated by CSS instance key, and until the new CSS is ready
+ * requests are given the last CSS generated for the same portlet definition.  The skins configured on the portlet
+ * definitions are compiled when the service starts so the first visitors after a deploy do not have to wait for them.
  */
-public abstract class AbstractDynamicSkinService implements DynamicSkinService {
+public abstract class AbstractDynamicSkinService
+        implements DynamicSkinService, PortletContextAware, PortletConfigAware {
 
     protected static final String LESS_CSS_JAVASCRIPT_URL = "/media/skins/common/javascript/less/less-1.6.2.js";
     protected static final String DYNASKIN_TEMPLATE_INCLUDE_FILE = "{0}/{1}.less";
@@ -81,6 +114,26 @@ public abstract class AbstractDynamicSkinService implements DynamicSkinService {
     private DynamicSkinUniqueTokenGenerator uniqueTokenGenerator;
     private DynamicSkinCssFileNamer cssFileNamer;
 
+    /**
+     * Compiles that are queued or running, by CSS instance key.
+     */
+    private final ConcurrentMap<String, Future<?>> pendingCompiles = new ConcurrentHashMap<String, Future<?>>();
+
+    /**
+     * Path to the CSS most recently known to exist for each portlet definition, served while a new CSS is compiled.
+     * Keyed by definition rather than skin name since publications sharing a skin name have their own branding.
+     */
+    private final ConcurrentMap<String, String> lastGoodCssPaths = new ConcurrentHashMap<String, String>();
+
+    private DynamicSkinCompileStatistics compileStatistics = new DynamicSkinCompileStatistics();
+    private IPortletDefinitionRegistry portletDefinitionRegistry;
+    private PortletContext portletContext;
+    private PortletConfig portletConfig;
+    private ThreadPoolExecutor compileExecutor;
+    private int compileThreads = 2;
+    private int compileQueueSize = 50;
+    private boolean warmOnStartup = true;
+
     public AbstractDynamicSkinService(
             final DynamicSkinUniqueTokenGenerator uniqueTokenGenerator,
             final DynamicSkinCssFileNamer namer,
@@ -93,6 +146,36 @@ public abstract class AbstractDynamicSkinService implements DynamicSkinService {
         this.cssFileNamer = namer;
     }
 
+    @PostConstruct
+    public void init() {
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("DynamicSkinCompile-");
+        threadFactory.setDaemon(true);
+        this.compileExecutor = new ThreadPoolExecutor(
+                this.compileThreads, this.compileThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(this.compileQueueSize), threadFactory);
+        this.compileExecutor.allowCoreThreadTimeOut(true);
+
+        if (this.warmOnStartup) {
+            try {
+                this.compileExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        warmConfiguredSkins();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("Unable to queue warming of the configured dynamic skins", e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (this.compileExecutor != null) {
+            this.compileExecutor.shutdownNow();
+        }
+    }
+
 
 
     @Override
@@ -161,53 +244,205 @@ public abstract class AbstractDynamicSkinService implements DynamicSkinService {
     abstract protected boolean innerSkinCssFileExists(DynamicSkinInstanceData data);
 
     /**
-     * Creates the skin css file in a thread-safe manner that allows multiple different skin files to be created
-     * simultaneously to handle large tenant situations where all the custom CSS files were cleared away after a
-     * uPortal deploy.
+     * Returns the path to the skin CSS file if it exists.  Otherwise queues the generation of the CSS file in the
+     * background and returns the path to the last CSS file known to exist for the same portlet definition, or null if
+     * there is none.
+     * Checking for the CSS file is skipped while its generation is pending.
      *
-     * Since the less compilation phase is fairly slow (several seconds) and intensive, this method will
-     * allow multiple threads to process different less compilations at the same time but ensure the same
-     * output file will not be created multiple times. Also this method will not let a bad LESS file cause repeated
-     * LESS compilations and completely take down the portal.  The bad file will be blacklisted for a period
-     * of time to limit performance impacts.
+     * @see DynamicSkinService#getCurrentSkinCssPath(DynamicSkinInstanceData)
+     */
+    @Override
+    public String getCurrentSkinCssPath(DynamicSkinInstanceData data) {
+        final String cssInstanceKey = this.getCssInstanceKey(data);
+        if (!this.pendingCompiles.containsKey(cssInstanceKey) && this.skinCssFileExists(data)) {
+            final String cssPath = this.getSkinCssPath(data);
+            this.recordLastGoodCssPath(data, cssPath);
+            return cssPath;
+        }
+
+        this.queueSkinCssFileGeneration(cssInstanceKey, data, false);
+        final String portletDefinitionId = data.getPortletDefinitionId();
+        return portletDefinitionId != null ? this.lastGoodCssPaths.get(portletDefinitionId) : null;
+    }
+
+    private void recordLastGoodCssPath(DynamicSkinInstanceData data, String cssPath) {
+        final String portletDefinitionId = data.getPortletDefinitionId();
+        if (portletDefinitionId != null) {
+            this.lastGoodCssPaths.put(portletDefinitionId, cssPath);
+        }
+    }
+
+    /**
+     * Creates the skin css file, waiting for it to be generated.  The compile is done by the same background
+     * threads as for {@link #getCurrentSkinCssPath(DynamicSkinInstanceData)}, so a thread needing a CSS file that is
+     * already being generated waits for that compile rather than starting another one.  If the compile queue is
+     * full the CSS file is compiled on the calling thread instead.  This method will not let a
+     * bad LESS file cause repeated LESS compilations and completely take down the portal.  The bad file will be
+     * blacklisted for a period of time to limit performance impacts.
      * 
      * @see DynamicSkinService#generateSkinCssFile(DynamicSkinInstanceData)
      */
     @Override
     public void generateSkinCssFile(DynamicSkinInstanceData data) {
         final String cssInstanceKey = this.getCssInstanceKey(data);
-        synchronized(cssInstanceKey) {
-            if (this.instanceKeysForExistingCss.contains(cssInstanceKey)) {
-                /*
-                 * Two or more threads needing the same CSS file managed to invoke 
-                 * this method.  An earlier thread has already generated the file 
-                 * we need.  Concurrency features of the CopyOnWriteArraySet 
-                 * (compiledCssFilepaths) guarantee that we will enter this if {} 
-                 * block (and exit) for a filePathname that's been successfully 
-                 * generated by another thread.
-                 */
-                return;
+        if (this.instanceKeysForExistingCss.contains(cssInstanceKey)) {
+            return;
+        }
+
+        final Future<?> compile = this.queueSkinCssFileGeneration(cssInstanceKey, data, true);
+        if (compile == null) {
+            return;
+        }
+        try {
+            compile.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DynamicSkinException("Interrupted waiting for the LESS file to create:  " + cssInstanceKey, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error compiling the LESS file to create:  " + cssInstanceKey, e.getCause());
+        }
+    }
+
+    /**
+     * @return the statistics of the background LESS compiles
+     */
+    public DynamicSkinCompileStatistics getCompileStatistics() {
+        return this.compileStatistics;
+    }
+
+    /**
+     * Queues the generation of the skin CSS file unless it is already queued or running.  Since the request may be
+     * over before the compile is done, the compile works from a detached copy of the skin instance data.
+     *
+     * @param runIfRejected if the compile should be run on the calling thread when the compile queue is full
+     * @return the pending compile, or null if the skin recently failed to compile or the compile queue is full and
+     *      runIfRejected is false
+     */
+    protected Future<?> queueSkinCssFileGeneration(
+            final String cssInstanceKey, final DynamicSkinInstanceData data, final boolean runIfRejected) {
+        final Future<?> pending = this.pendingCompiles.get(cssInstanceKey);
+        if (pending != null) {
+            return pending;
+        }
+
+        if (this.cssSkinFailureCache.getKeysWithExpiryCheck().contains(cssInstanceKey)) {
+            // Though this should never happen except when developers are modifying the LESS files and make a mistake,
+            // if we previously tried to create the CSS file and failed for some reason, don't try to compile it
+            // again for a bit since the process is so processor intensive. It would virtually hang the uPortal
+            // service trying to compile a bad LESS file repeatedly on different threads.
+            log.warn("Skipping generation of CSS file {} due to previous LESS compilation failures", cssInstanceKey);
+            return null;
+        }
+
+        final DynamicSkinInstanceData detachedData = DetachedDynamicSkinInstanceData.detach(data);
+        final FutureTask<Void> compile = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                compileSkinCssFile(cssInstanceKey, detachedData);
+                return null;
             }
-            try {
-                if (!this.cssSkinFailureCache.getKeysWithExpiryCheck().contains(cssInstanceKey)) {
-                    this.createLessIncludeFile(data);
-                    this.processLessFile(data);
-                    if (!this.supportsRetainmentOfNonCurrentCss()) {
-                        this.instanceKeysForExistingCss.clear();
+        });
+        final Future<?> existing = this.pendingCompiles.putIfAbsent(cssInstanceKey, compile);
+        if (existing != null) {
+            return existing;
+        }
+
+        try {
+            this.compileExecutor.execute(compile);
+        } catch (RejectedExecutionException e) {
+            this.compileStatistics.recordRejected();
+            if (runIfRejected) {
+                log.warn("LESS compile queue is full, generating CSS file {} on the requesting thread", cssInstanceKey);
+                compile.run();
+                return compile;
+            }
+            this.pendingCompiles.remove(cssInstanceKey, compile);
+            log.warn("LESS compile queue is full, generation of CSS file {} will be retried later", cssInstanceKey);
+            return null;
+        }
+        return compile;
+    }
+
+    private void compileSkinCssFile(String cssInstanceKey, DynamicSkinInstanceData data) throws Exception {
+        final long start = System.nanoTime();
+        try {
+            this.compileSkinCss(data);
+            if (!this.supportsRetainmentOfNonCurrentCss()) {
+                this.instanceKeysForExistingCss.clear();
+            }
+            this.instanceKeysForExistingCss.add(cssInstanceKey);
+            this.recordLastGoodCssPath(data, this.getSkinCssPath(data));
+
+            final long compileNanos = System.nanoTime() - start;
+            this.compileStatistics.recordCompile(compileNanos);
+            log.info("Generated CSS file {} in {}ms", cssInstanceKey, TimeUnit.NANOSECONDS.toMillis(compileNanos));
+        } catch (Exception e) {
+            this.cssSkinFailureCache.put(new Element(cssInstanceKey, cssInstanceKey));
+            this.compileStatistics.recordFailure();
+            log.error("Error compiling the LESS file to create:  {}", cssInstanceKey, e);
+            throw e;
+        } finally {
+            this.pendingCompiles.remove(cssInstanceKey);
+        }
+    }
+
+    /**
+     * Creates the LESS include file and compiles it to the skin CSS file.  Called from the background compile threads.
+     */
+    protected void compileSkinCss(DynamicSkinInstanceData data) throws IOException, LessException {
+        this.createLessIncludeFile(data);
+        this.processLessFile(data);
+    }
+
+    /**
+     * Queues the generation of the skin CSS files for the dynamic skins configured on the definitions of this
+     * portlet, merging the preferences of each definition over the defaults from the portlet descriptor.
+     */
+    protected void warmConfiguredSkins() {
+        if (this.portletDefinitionRegistry == null || this.portletContext == null || this.portletConfig == null) {
+            log.debug("Not warming dynamic skins, the portlet definition registry or portlet context is not available");
+            return;
+        }
+
+        final String portletAbsolutePathRoot = this.portletContext.getRealPath("/");
+        int queued = 0;
+        try {
+            for (final IPortletDefinition definition : this.portletDefinitionRegistry.getAllPortletDefinitions()) {
+                final IPortletDescriptorKey descriptorKey = definition.getPortletDescriptorKey();
+                if (!descriptorKey.isFrameworkPortlet()
+                        || !this.portletConfig.getPortletName().equals(descriptorKey.getPortletName())) {
+                    continue;
+                }
+
+                final Map<String, String[]> preferences = new HashMap<String, String[]>();
+                final PortletDefinition descriptor =
+                        this.portletDefinitionRegistry.getParentPortletDescriptor(definition.getPortletDefinitionId());
+                if (descriptor != null && descriptor.getPortletPreferences() != null) {
+                    for (final Preference preference : descriptor.getPortletPreferences().getPortletPreferences()) {
+                        final List<String> values = preference.getValues();
+                        preferences.put(preference.getName(), values.toArray(new String[values.size()]));
                     }
-                    this.instanceKeysForExistingCss.add(cssInstanceKey);
-                } else {
-                    // Though this should never happen except when developers are modifying the LESS files and make a mistake,
-                    // if we previously tried to create the CSS file and failed for some reason, don't try to compile it
-                    // again for a bit since the process is so processor intensive. It would virtually hang the uPortal
-                    // service trying to compile a bad LESS file repeatedly on different threads.
-                    log.warn("Skipping generation of CSS file {} due to previous LESS compilation failures", cssInstanceKey);
                 }
-            } catch (Exception e) {
-                this.cssSkinFailureCache.put(new Element(cssInstanceKey, cssInstanceKey));
-                throw new RuntimeException("Error compiling the LESS file to create:  " + cssInstanceKey, e);
+                for (final PortletPreference preference : definition.getPortletPreferences()) {
+                    preferences.put(preference.getName(), preference.getValues());
+                }
+
+                final DynamicSkinInstanceData data =
+                        new DetachedDynamicSkinInstanceData(
+                                portletAbsolutePathRoot,
+                                definition.getPortletDefinitionId().getStringId(),
+                                preferences);
+                final String dynamic =
+                        data.getPortletPreferences().getValue(DynamicRespondrSkinConstants.PREF_DYNAMIC, "false");
+                if (Boolean.valueOf(dynamic)) {
+                    this.getCurrentSkinCssPath(data);
+                    queued++;
+                }
             }
+        } catch (RuntimeException e) {
+            log.warn("Failed to warm the configured dynamic skins", e);
         }
+        log.info("Warmed {} configured dynamic skins", queued);
     }
 
     /**
@@ -268,7 +503,8 @@ public abstract class AbstractDynamicSkinService implements DynamicSkinService {
      * @throws LessException
      */
     private void processLessFile(DynamicSkinInstanceData data) throws IOException, LessException {
-        final PortletContext ctx = data.getPortletRequest().getPortletSession().getPortletContext();
+        final PortletContext ctx = this.portletContext != null
+                ? this.portletContext : data.getPortletRequest().getPortletSession().getPortletContext();
         final URL lessCssJavascriptUrl = ctx.getResource(this.lessCssJavascriptUrlPath);
         final LessSource lessSource = new LessSource(new File(this.getSkinLessPath(data)));
         if (log.isDebugEnabled()) {
@@ -375,4 +611,48 @@ public abstract class AbstractDynamicSkinService implements DynamicSkinService {
         this.skinIncludeFile = new MessageFormat(skinIncludeFile);
     }
 
+    @Override
+    public void setPortletContext(PortletContext portletContext) {
+        this.portletContext = portletContext;
+    }
+
+    @Override
+    public void setPortletConfig(PortletConfig portletConfig) {
+        this.portletConfig = portletConfig;
+    }
+
+    @Autowired(required = false)
+    public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
+        this.portletDefinitionRegistry = portletDefinitionRegistry;
+    }
+
+    @Autowired(required = false)
+    public void setCompileStatistics(DynamicSkinCompileStatistics compileStatistics) {
+        this.compileStatistics = compileStatistics;
+    }
+
+    /**
+     * Number of threads compiling LESS in the background.
+     */
+    @Value("${dynamic-skin.compile.threads:2}")
+    public void setCompileThreads(int compileThreads) {
+        this.compileThreads = compileThreads;
+    }
+
+    /**
+     * Number of compiles that can wait for a thread, further compiles are retried on a later request.
+     */
+    @Value("${dynamic-skin.compile.queue-size:50}")
+    public void setCompileQueueSize(int compileQueueSize) {
+        this.compileQueueSize = compileQueueSize;
+    }
+
+    /**
+     * Whether to compile the skins configured on the portlet definitions when the service starts.
+     */
+    @Value("${dynamic-skin.compile.warm-on-startup:true}")
+    public void setWarmOnStartup(boolean warmOnStartup) {
+        this.warmOnStartup = warmOnStartup;
+    }
+
 }
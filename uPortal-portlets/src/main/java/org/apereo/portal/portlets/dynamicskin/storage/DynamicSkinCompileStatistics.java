@@ -0,0 +1,111 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.dynamicskin.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+
+/**
+ * Statistics for the LESS compiles done in the background by {@link AbstractDynamicSkinService},
+ * exposed via JMX. Times are wall times of the whole compile, including writing the LESS include
+ * file and storing the CSS, in milliseconds.
+ */
+@Component("dynamicSkinCompileStatistics")
+public class DynamicSkinCompileStatistics {
+    private final AtomicLong compileCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalCompileTime = new AtomicLong();
+    private final AtomicLong maxCompileTime = new AtomicLong();
+    private final AtomicLong lastCompileTime = new AtomicLong();
+
+    void recordCompile(long compileNanos) {
+        this.compileCount.incrementAndGet();
+
+        final long compileMillis = TimeUnit.NANOSECONDS.toMillis(compileNanos);
+        this.totalCompileTime.addAndGet(compileMillis);
+        this.lastCompileTime.set(compileMillis);
+        long current;
+        do {
+            current = this.maxCompileTime.get();
+        } while (compileMillis > current
+                && !this.maxCompileTime.compareAndSet(current, compileMillis));
+    }
+
+    void recordFailure() {
+        this.failureCount.incrementAndGet();
+    }
+
+    void recordRejected() {
+        this.rejectedCount.incrementAndGet();
+    }
+
+    /** @return Number of successful compiles */
+    public long getCompileCount() {
+        return this.compileCount.get();
+    }
+
+    /** @return Number of compiles that failed */
+    public long getFailureCount() {
+        return this.failureCount.get();
+    }
+
+    /** @return Number of compiles not queued because the compile queue was full */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /** @return Average time of a successful compile in milliseconds */
+    public double getAverageCompileTime() {
+        final long compiles = this.compileCount.get();
+        return compiles == 0 ? 0 : (double) this.totalCompileTime.get() / compiles;
+    }
+
+    /** @return Longest time of a successful compile in milliseconds */
+    public long getMaxCompileTime() {
+        return this.maxCompileTime.get();
+    }
+
+    /** @return Time of the last successful compile in milliseconds */
+    public long getLastCompileTime() {
+        return this.lastCompileTime.get();
+    }
+
+    /** Reset all counters */
+    public void reset() {
+        this.compileCount.set(0);
+        this.failureCount.set(0);
+        this.rejectedCount.set(0);
+        this.totalCompileTime.set(0);
+        this.maxCompileTime.set(0);
+        this.lastCompileTime.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "DynamicSkinCompileStatistics [compileCount="
+                + this.compileCount
+                + ", failureCount="
+                + this.failureCount
+                + ", rejectedCount="
+                + this.rejectedCount
+                + ", totalCompileTime="
+                + this.totalCompileTime
+                + ", maxCompileTime="
+                + this.maxCompileTime
+                + "]";
+    }
+}
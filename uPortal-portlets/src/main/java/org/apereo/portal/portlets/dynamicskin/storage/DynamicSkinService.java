@@ -55,6 +55,16 @@ public interface DynamicSkinService {
      */
     void generateSkinCssFile(DynamicSkinInstanceData data);
 
+    /**
+     * Returns the path to the skin CSS file for the provided data if it exists.  Otherwise starts generating the CSS
+     * file without waiting for it, and returns the path to the last CSS file generated for the same skin, or null if
+     * there is none yet.
+     *
+     * @param data skin instance data
+     * @return path to the skin CSS file to use now, or null if none is available yet
+     */
+    String getCurrentSkinCssPath(DynamicSkinInstanceData data);
+
     /**
      * Return set of skins that exist.
      *
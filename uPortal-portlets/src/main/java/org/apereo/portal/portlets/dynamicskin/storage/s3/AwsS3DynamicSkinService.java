@@ -169,7 +169,7 @@ public class AwsS3DynamicSkinService extends AbstractDynamicSkinService {
         final ObjectMetadata metadata = new ObjectMetadata();
         this.addContentMetadata(metadata, content);
         this.addUserMetatadata(metadata);
-        this.addPortletPreferenceMetadata(metadata, data.getPortletRequest().getPreferences());
+        this.addPortletPreferenceMetadata(metadata, data.getPortletPreferences());
         this.addDynamicSkinMetadata(metadata, data);
         return metadata;
     }
@@ -0,0 +1,205 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.dynamicskin.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+import org.apereo.portal.portlets.dynamicskin.DetachedDynamicSkinInstanceData;
+import org.apereo.portal.portlets.dynamicskin.DynamicSkinInstanceData;
+import org.apereo.portal.portlets.dynamicskin.DynamicSkinUniqueTokenGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lesscss.LessException;
+
+public class AbstractDynamicSkinServiceTest {
+    private CacheManager cacheManager;
+    private TestDynamicSkinService service;
+
+    @Before
+    public void setUp() {
+        this.cacheManager = new CacheManager(new Configuration());
+        final Cache failureCache = new Cache("failureCache", 100, false, false, 60, 60);
+        this.cacheManager.addCache(failureCache);
+
+        final DynamicSkinUniqueTokenGenerator tokenGenerator =
+                new DynamicSkinUniqueTokenGenerator() {
+                    @Override
+                    public String generateToken(DynamicSkinInstanceData data) {
+                        return data.getPortletPreferences().getValue("PREFcolor1", "");
+                    }
+                };
+        this.service = new TestDynamicSkinService(tokenGenerator, failureCache);
+        this.service.setWarmOnStartup(false);
+        this.service.init();
+    }
+
+    @After
+    public void tearDown() {
+        this.service.destroy();
+        this.cacheManager.shutdown();
+    }
+
+    @Test
+    public void testCompilesInBackgroundOnce() throws Exception {
+        final DynamicSkinInstanceData red = skin("red");
+
+        assertNull(this.service.getCurrentSkinCssPath(red));
+        assertNull(this.service.getCurrentSkinCssPath(red));
+        this.service.release.countDown();
+
+        this.service.generateSkinCssFile(red);
+        assertEquals(1, this.service.compiles.get());
+        assertEquals("/skins/red.css", this.service.getCurrentSkinCssPath(red));
+        assertEquals(1, this.service.getCompileStatistics().getCompileCount());
+    }
+
+    @Test
+    public void testServesLastGoodCssWhileCompiling() throws Exception {
+        this.service.release.countDown();
+        this.service.generateSkinCssFile(skin("red"));
+        assertEquals("/skins/red.css", this.service.getCurrentSkinCssPath(skin("red")));
+
+        this.service.release = new CountDownLatch(1);
+        assertEquals("/skins/red.css", this.service.getCurrentSkinCssPath(skin("blue")));
+        this.service.release.countDown();
+
+        this.service.generateSkinCssFile(skin("blue"));
+        assertEquals("/skins/blue.css", this.service.getCurrentSkinCssPath(skin("blue")));
+        assertEquals(2, this.service.compiles.get());
+    }
+
+    @Test
+    public void testLastGoodCssIsPerPortletDefinition() throws Exception {
+        this.service.release.countDown();
+        this.service.generateSkinCssFile(skin("1", "red"));
+        assertEquals("/skins/red.css", this.service.getCurrentSkinCssPath(skin("1", "red")));
+
+        this.service.release = new CountDownLatch(1);
+        assertNull(this.service.getCurrentSkinCssPath(skin("2", "blue")));
+        this.service.release.countDown();
+    }
+
+    @Test
+    public void testCompilesOnCallingThreadWhenQueueFull() throws Exception {
+        this.service.destroy();
+        this.service.setCompileThreads(1);
+        this.service.setCompileQueueSize(1);
+        this.service.init();
+
+        assertNull(this.service.getCurrentSkinCssPath(skin("red")));
+        assertNull(this.service.getCurrentSkinCssPath(skin("blue")));
+        this.service.generateSkinCssFile(skin("green"));
+
+        assertEquals(1, this.service.callerCompiles.get());
+        assertEquals("/skins/green.css", this.service.getCurrentSkinCssPath(skin("green")));
+        assertTrue(this.service.getCompileStatistics().getRejectedCount() > 0);
+        this.service.release.countDown();
+    }
+
+    @Test
+    public void testFailedCompileIsNotRetried() throws Exception {
+        this.service.release.countDown();
+        this.service.failure = new LessException("Bad LESS", null);
+        try {
+            this.service.generateSkinCssFile(skin("red"));
+            fail("Expected the compile failure to be thrown");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof LessException);
+        }
+
+        assertNull(this.service.getCurrentSkinCssPath(skin("red")));
+        assertEquals(1, this.service.compiles.get());
+        assertEquals(1, this.service.getCompileStatistics().getFailureCount());
+    }
+
+    private static DynamicSkinInstanceData skin(String color) {
+        return skin("1", color);
+    }
+
+    private static DynamicSkinInstanceData skin(String portletDefinitionId, String color) {
+        return new DetachedDynamicSkinInstanceData(
+                "/portlet",
+                portletDefinitionId,
+                Collections.singletonMap("PREFcolor1", new String[] {color}));
+    }
+
+    private static final class TestDynamicSkinService extends AbstractDynamicSkinService {
+        private final AtomicInteger compiles = new AtomicInteger();
+        private final AtomicInteger callerCompiles = new AtomicInteger();
+        private volatile CountDownLatch release = new CountDownLatch(1);
+        private volatile LessException failure;
+
+        TestDynamicSkinService(DynamicSkinUniqueTokenGenerator tokenGenerator, Cache failureCache) {
+            super(
+                    tokenGenerator,
+                    new DynamicSkinCssFileNamer() {
+                        @Override
+                        public String generateCssFileName(DynamicSkinInstanceData data) {
+                            return data.getPortletPreferences().getValue("PREFcolor1", "") + ".css";
+                        }
+                    },
+                    failureCache);
+        }
+
+        @Override
+        public String getSkinCssPath(DynamicSkinInstanceData data) {
+            return "/skins/" + this.getSkinCssFilename(data);
+        }
+
+        @Override
+        protected boolean supportsRetainmentOfNonCurrentCss() {
+            return true;
+        }
+
+        @Override
+        protected boolean innerSkinCssFileExists(DynamicSkinInstanceData data) {
+            return false;
+        }
+
+        @Override
+        protected void moveCssFileToFinalLocation(DynamicSkinInstanceData data, File tempCssFile) {}
+
+        @Override
+        protected void compileSkinCss(DynamicSkinInstanceData data)
+                throws IOException, LessException {
+            this.compiles.incrementAndGet();
+            if (!Thread.currentThread().getName().startsWith("DynamicSkinCompile-")) {
+                this.callerCompiles.incrementAndGet();
+            } else {
+                try {
+                    this.release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (this.failure != null) {
+                throw this.failure;
+            }
+        }
+    }
+}
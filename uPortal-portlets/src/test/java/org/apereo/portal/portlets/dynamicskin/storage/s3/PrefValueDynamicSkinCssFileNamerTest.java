@@ -22,7 +22,6 @@ import static org.junit.Assert.assertEquals;
 import static org.mockito.BDDMockito.given;
 
 import javax.portlet.PortletPreferences;
-import javax.portlet.PortletRequest;
 
 import org.apereo.portal.portlets.dynamicskin.DynamicSkinException;
 import org.apereo.portal.portlets.dynamicskin.DynamicSkinInstanceData;
@@ -39,7 +38,6 @@ import org.mockito.MockitoAnnotations;
 public class PrefValueDynamicSkinCssFileNamerTest {
 
     @Mock private DynamicSkinInstanceData data;
-    @Mock private PortletRequest request;
     @Mock private PortletPreferences preferences;
     private PrefValueDynamicSkinCssFileNamer namer;
 
@@ -47,8 +45,7 @@ public class PrefValueDynamicSkinCssFileNamerTest {
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         this.namer = new PrefValueDynamicSkinCssFileNamer();
-        given(this.data.getPortletRequest()).willReturn(this.request);
-        given(this.request.getPreferences()).willReturn(this.preferences);
+        given(this.data.getPortletPreferences()).willReturn(this.preferences);
     }
 
     @After
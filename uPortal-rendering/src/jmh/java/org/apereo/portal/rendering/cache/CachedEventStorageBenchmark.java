@@ -0,0 +1,197 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the LinkedList previously used to hold cached character events with the compacted, array
+ * backed {@link CachedEventReader}. The replay benchmarks measure iteration throughput, the build
+ * benchmarks measure the cost of populating a cache entry (run with {@code -prof gc} to see
+ * allocation per entry). The approximate retained heap per cache entry for both representations is
+ * printed once per fork during setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CachedEventStorageBenchmark {
+    /** Number of events emitted by the page, a typical theme produces a few thousand */
+    @Param({"500", "5000"})
+    public int eventCount;
+
+    private List<CharacterEvent> events;
+    private List<CharacterEvent> linkedEvents;
+    private CachedEventReader<CharacterEvent> compactReader;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.events = createEvents(this.eventCount);
+        this.linkedEvents = new LinkedList<CharacterEvent>(this.events);
+        this.compactReader = createCompactReader(this.events);
+
+        final int entries = Math.max(1, 2000000 / this.eventCount);
+        System.out.println();
+        System.out.println(
+                "Retained bytes per entry, LinkedList: "
+                        + retainedBytesPerEntry(entries, false)
+                        + ", compact: "
+                        + retainedBytesPerEntry(entries, true));
+    }
+
+    @Benchmark
+    public void replayLinkedList(Blackhole bh) {
+        replay(this.linkedEvents, bh);
+    }
+
+    @Benchmark
+    public void replayCompact(Blackhole bh) {
+        replay(this.compactReader.getEventCache(), bh);
+    }
+
+    @Benchmark
+    public List<CharacterEvent> buildLinkedList() {
+        final List<CharacterEvent> eventCache = new LinkedList<CharacterEvent>();
+        for (final CharacterEvent event : this.events) {
+            eventCache.add(event);
+        }
+        return eventCache;
+    }
+
+    @Benchmark
+    public CachedEventReader<CharacterEvent> buildCompact() {
+        final List<CharacterEvent> eventBuffer = new ArrayList<CharacterEvent>();
+        for (final CharacterEvent event : this.events) {
+            eventBuffer.add(event);
+        }
+        return createCompactReader(eventBuffer);
+    }
+
+    private static void replay(List<CharacterEvent> eventCache, Blackhole bh) {
+        for (final CharacterEvent event : eventCache) {
+            bh.consume(event.getEventType());
+        }
+    }
+
+    private static CachedEventReader<CharacterEvent> createCompactReader(
+            List<CharacterEvent> events) {
+        final List<CharacterEvent> eventCache =
+                new CachingCharacterPipelineComponent().compactEvents(events);
+        return new CachedEventReader<CharacterEvent>(
+                eventCache, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Approximates the heap retained by a cache entry by filling the heap with entries and
+     * comparing used memory before and after. The event objects themselves are shared by both
+     * representations and are not counted, only the list structure and merged character data.
+     */
+    private long retainedBytesPerEntry(int entries, boolean compact) {
+        final Object[] retained = new Object[entries];
+        final long before = usedMemory();
+        for (int i = 0; i < entries; i++) {
+            if (compact) {
+                retained[i] = createCompactReader(this.events);
+            } else {
+                retained[i] = new LinkedList<CharacterEvent>(this.events);
+            }
+        }
+        final long after = usedMemory();
+        final long bytesPerEntry = (after - before) / entries;
+
+        // Keep the entries reachable until after the measurement
+        if (retained[entries - 1] == null) {
+            throw new IllegalStateException();
+        }
+        return bytesPerEntry;
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Mimics the output of the theme transform: short runs of markup split across many character
+     * events with chunk points and portlet placeholders mixed in.
+     */
+    private static List<CharacterEvent> createEvents(int eventCount) {
+        final List<CharacterEvent> events = new ArrayList<CharacterEvent>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            if (i % 50 == 0) {
+                events.add(
+                        new PortletContentPlaceholderEventImpl(
+                                new BenchmarkPortletWindowId("w" + i)));
+            } else if (i % 10 == 0) {
+                events.add(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+            } else {
+                events.add(CharacterDataEventImpl.create("<div class=\"c" + (i % 7) + "\">"));
+            }
+        }
+        return events;
+    }
+
+    private static final class BenchmarkPortletWindowId implements IPortletWindowId {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        BenchmarkPortletWindowId(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getStringId() {
+            return this.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.id.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof BenchmarkPortletWindowId
+                    && this.id.equals(((BenchmarkPortletWindowId) obj).id);
+        }
+    }
+}
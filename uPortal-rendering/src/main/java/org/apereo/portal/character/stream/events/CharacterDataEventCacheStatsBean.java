@@ -17,9 +17,34 @@ package org.apereo.portal.character.stream.events;
 import com.google.common.cache.Cache;
 import org.apereo.portal.jmx.GuavaCacheStatsBean;
 
+/**
+ * Statistics for the two ways {@link CharacterDataEvent}s are created. The inherited cache
+ * statistics cover the de-duplicated events from {@link CharacterDataEventImpl#create(String)}, the
+ * uncached statistics cover the dynamic events from {@link
+ * CharacterDataEventImpl#createUncached(String)} which by design never hit.
+ */
 public class CharacterDataEventCacheStatsBean extends GuavaCacheStatsBean {
     @Override
     protected Cache<?, ?> getCache() {
         return CharacterDataEventImpl.getEventCache();
     }
+
+    /** @return Number of events created without de-duplication */
+    public long getUncachedEventCount() {
+        return CharacterDataEventImpl.getUncachedEventCount();
+    }
+
+    /** @return Total characters in events created without de-duplication */
+    public long getUncachedCharacterCount() {
+        return CharacterDataEventImpl.getUncachedCharacterCount();
+    }
+
+    /**
+     * @return Ratio of all event creation requests served from the event cache, includes the
+     *     uncached events as misses
+     */
+    public double getOverallHitRate() {
+        final long requests = this.getRequestCount() + this.getUncachedEventCount();
+        return requests == 0 ? 1.0 : (double) this.getHitCount() / requests;
+    }
 }
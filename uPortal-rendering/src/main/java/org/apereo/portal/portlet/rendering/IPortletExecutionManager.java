@@ -95,6 +95,25 @@ public interface IPortletExecutionManager {
             HttpServletRequest request,
             HttpServletResponse response);
 
+    /**
+     * @return true if getting the HEAD output of the specified portlet will not have to wait on the
+     *     portlet, either because it does not render header output or because its header render has
+     *     already completed.
+     */
+    boolean isPortletRenderHeaderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
+    /**
+     * @return true if the specified portlet has already completed rendering it's output for the
+     *     BODY during this request.
+     */
+    boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
     /**
      * @param portletWindowId
      * @param request
@@ -117,6 +136,33 @@ public interface IPortletExecutionManager {
             HttpServletRequest request,
             HttpServletResponse response);
 
+    /**
+     * Gets the portlet content for inclusion in a rendered page. Works like {@link
+     * #getPortletOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)} but when
+     * adaptive timeouts are enabled a portlet that runs past its adaptive timeout is replaced with
+     * a placeholder that loads its content once the page is displayed.
+     */
+    String getPortletPageOutput(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
+    /**
+     * Gets the output of a render that was replaced by a placeholder by {@link
+     * #getPortletPageOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)}. Output the
+     * page's render completed is returned, otherwise the portlet window is rendered again as part
+     * of this request.
+     *
+     * @param fname The fname of the portlet the placeholder is for
+     * @return The output, null if there is no such placeholder for the portlet in the current
+     *     session
+     */
+    String getAsyncFillOutput(
+            String asyncFillId,
+            String fname,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
     /** Gets the title for the specified portlet */
     String getPortletTitle(
             IPortletWindowId portletWindowId,
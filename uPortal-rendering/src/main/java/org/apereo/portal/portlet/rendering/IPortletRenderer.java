@@ -96,6 +96,14 @@ public interface IPortletRenderer {
     public static final String ATTRIBUTE__PORTLET_CACHE_CONTROL =
             RENDERER_ATTRIBUTE_PREFIX + ".CACHE_CONTROL";
 
+    /**
+     * Prefix, followed by the portlet window's string id, of the attribute that holds a render
+     * cache state that was already checked before the render was dispatched. The renderer replays
+     * that state instead of looking the cached output up again.
+     */
+    public static final String ATTRIBUTE__CHECKED_RENDER_STATE_PREFIX =
+            RENDERER_ATTRIBUTE_PREFIX + ".CHECKED_RENDER_STATE.";
+
     /**
      * Executes an action in a portlet, handles all the request and response setup and teardown
      *
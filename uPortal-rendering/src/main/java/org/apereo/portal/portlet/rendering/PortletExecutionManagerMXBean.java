@@ -51,6 +51,33 @@ public interface PortletExecutionManagerMXBean {
     /** @return Multiplier to use for extended timeouts */
     long getExtendedTimeoutMultiplier();
 
+    /**
+     * @param inlineCachedRenders If true renders with valid cached output are replayed on the
+     *     request thread instead of the portlet thread pool
+     */
+    void setInlineCachedRenders(boolean inlineCachedRenders);
+
+    /**
+     * @return If true renders with valid cached output are replayed on the request thread instead
+     *     of the portlet thread pool
+     */
+    boolean isInlineCachedRenders();
+
+    /**
+     * @param adaptiveTimeouts If true page renders use a timeout derived from each portlet's recent
+     *     render times, bounded by its configured timeout
+     */
+    void setAdaptiveTimeouts(boolean adaptiveTimeouts);
+
+    /**
+     * @return If true page renders use a timeout derived from each portlet's recent render times,
+     *     bounded by its configured timeout
+     */
+    boolean isAdaptiveTimeouts();
+
+    /** @return Current adaptive render timeout for each portlet with enough recorded renders */
+    Map<String, Long> getAdaptiveRenderTimeouts();
+
     /** @return Number of times each portlet has been executed */
     Map<String, Integer> getPortletExecutionCounts();
 }
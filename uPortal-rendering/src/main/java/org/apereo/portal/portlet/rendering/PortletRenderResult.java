@@ -27,6 +27,7 @@ public class PortletRenderResult implements Serializable {
     private final long renderTime;
     private final int newItemCount;
     private final String externalLink;
+    private final boolean cached;
 
     public PortletRenderResult(
             String title, String externalLink, int newItemCount, long renderTime) {
@@ -34,13 +35,20 @@ public class PortletRenderResult implements Serializable {
         this.renderTime = renderTime;
         this.newItemCount = newItemCount;
         this.externalLink = externalLink;
+        this.cached = false;
     }
 
     public PortletRenderResult(PortletRenderResult portletRenderResult, long renderTime) {
+        this(portletRenderResult, renderTime, false);
+    }
+
+    public PortletRenderResult(
+            PortletRenderResult portletRenderResult, long renderTime, boolean cached) {
         this.title = portletRenderResult.getTitle();
         this.newItemCount = portletRenderResult.getNewItemCount();
         this.externalLink = portletRenderResult.getExternalLink();
         this.renderTime = renderTime;
+        this.cached = cached;
     }
 
     /** @return The title set by the portlet, null if none was set */
@@ -62,6 +70,11 @@ public class PortletRenderResult implements Serializable {
         return this.externalLink;
     }
 
+    /** @return true if the output was replayed from the cache without executing the portlet */
+    public boolean isCached() {
+        return this.cached;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
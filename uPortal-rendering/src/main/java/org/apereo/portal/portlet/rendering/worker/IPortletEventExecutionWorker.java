@@ -14,6 +14,7 @@
  */
 package org.apereo.portal.portlet.rendering.worker;
 
+import java.util.concurrent.BlockingQueue;
 import javax.portlet.Event;
 
 /**
@@ -23,4 +24,14 @@ import javax.portlet.Event;
 public interface IPortletEventExecutionWorker extends IPortletExecutionWorker<Long> {
     /** @return The event that will be executed */
     public Event getEvent();
+
+    /**
+     * Submit the worker for execution, once execution completes or fails the worker adds itself to
+     * the completion queue. Lets the caller wait on whichever of several workers finishes first.
+     *
+     * <p>Submit should only be called ONCE
+     *
+     * @param completionQueue Queue the worker is offered to when execution ends
+     */
+    public void submit(BlockingQueue<? super IPortletEventExecutionWorker> completionQueue);
 }
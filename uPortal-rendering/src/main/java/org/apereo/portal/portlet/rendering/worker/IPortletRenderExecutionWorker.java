@@ -23,6 +23,13 @@ import org.apereo.portal.portlet.rendering.PortletRenderResult;
 public interface IPortletRenderExecutionWorker
         extends IPortletExecutionWorker<PortletRenderResult> {
 
+    /**
+     * Execution attribute set to {@link Boolean#TRUE} when the output was replayed from the portlet
+     * cache without executing the portlet, see {@link PortletRenderResult#isCached()}
+     */
+    public static final String CACHED_REPLAY_ATTRIBUTE =
+            IPortletRenderExecutionWorker.class.getName() + ".CACHED_REPLAY";
+
     /** @return The output written by the portlet */
     public String getOutput(long timeout) throws Exception;
 }
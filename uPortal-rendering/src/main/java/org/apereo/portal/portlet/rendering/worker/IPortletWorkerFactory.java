@@ -46,6 +46,15 @@ public interface IPortletWorkerFactory {
             HttpServletRequest request,
             HttpServletResponse response,
             IPortletWindowId portletWindowId);
+    /**
+     * Create a worker that will execute a render request on the specified portlet window on the
+     * calling thread when submitted, for renders too cheap to be worth handing off to the thread
+     * pool
+     */
+    public IPortletRenderExecutionWorker createInlineRenderWorker(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            IPortletWindowId portletWindowId);
     /** Create a worker that will execute a resource request on the specified portlet window */
     public IPortletResourceExecutionWorker createResourceWorker(
             HttpServletRequest request,
@@ -0,0 +1,203 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per portlet state kept by {@link PortletThreadPoolExecutor}, exposed via JMX. Limits how many
+ * executions of a single portlet can be queued or running at once and tracks consecutive timeouts.
+ * When a portlet times out too many times in a row its circuit is opened and executions fail
+ * immediately until the circuit has been open long enough, then a single execution is allowed
+ * through to decide if the circuit should be closed again.
+ */
+public class PortletBulkhead {
+    private final String fname;
+
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong circuitRejectedCount = new AtomicLong();
+    private final AtomicLong circuitOpenCount = new AtomicLong();
+    private final AtomicInteger consecutiveTimeouts = new AtomicInteger();
+    private final AtomicBoolean trialInFlight = new AtomicBoolean();
+    private volatile long circuitOpenUntil = 0;
+
+    PortletBulkhead(String fname) {
+        this.fname = fname;
+    }
+
+    /**
+     * Reserve a slot for an execution of the portlet
+     *
+     * @return true if the execution is the single trial let through a half open circuit, the same
+     *     value must be passed when the slot is released
+     * @throws PortletCircuitOpenException If the portlet's circuit is open
+     * @throws RejectedExecutionException If the portlet already has the maximum number of
+     *     executions queued or running
+     */
+    boolean acquire(int maxInFlight, long now) {
+        int inFlight;
+        do {
+            inFlight = this.inFlightCount.get();
+            if (inFlight >= maxInFlight) {
+                this.rejectedCount.incrementAndGet();
+                throw new RejectedExecutionException(
+                        "Not executing portlet "
+                                + this.fname
+                                + ", it already has "
+                                + inFlight
+                                + " executions queued or running. maxPerFname="
+                                + maxInFlight);
+            }
+        } while (!this.inFlightCount.compareAndSet(inFlight, inFlight + 1));
+
+        final long openUntil = this.circuitOpenUntil;
+        if (openUntil == 0) {
+            return false;
+        }
+        if (now < openUntil || !this.trialInFlight.compareAndSet(false, true)) {
+            this.inFlightCount.decrementAndGet();
+            this.circuitRejectedCount.incrementAndGet();
+            throw new PortletCircuitOpenException(this.fname, openUntil);
+        }
+        return true;
+    }
+
+    /**
+     * Release a slot reserved by {@link #acquire(int, long)} for an execution that was never queued
+     */
+    void abort(boolean trial) {
+        this.inFlightCount.decrementAndGet();
+        this.releaseTrial(trial);
+    }
+
+    /**
+     * An execution was cancelled before it started running, this is not a timeout and if it was the
+     * trial of a half open circuit another trial execution is let through
+     */
+    void dequeued(boolean trial) {
+        this.inFlightCount.decrementAndGet();
+        this.releaseTrial(trial);
+    }
+
+    /** An execution started running */
+    void started() {
+        this.activeCount.incrementAndGet();
+    }
+
+    /** An execution stopped running and its thread is available again */
+    void finished() {
+        this.activeCount.decrementAndGet();
+        this.inFlightCount.decrementAndGet();
+    }
+
+    /** An execution completed, successfully or not, without being cancelled */
+    void recordCompletion(boolean trial) {
+        this.completedCount.incrementAndGet();
+        this.consecutiveTimeouts.set(0);
+        this.circuitOpenUntil = 0;
+        this.releaseTrial(trial);
+    }
+
+    /** An execution was cancelled because it took too long */
+    void recordTimeout(
+            int circuitBreakerTimeouts, long circuitBreakerOpenMillis, long now, boolean trial) {
+        this.timeoutCount.incrementAndGet();
+        if (circuitBreakerTimeouts > 0
+                && this.consecutiveTimeouts.incrementAndGet() >= circuitBreakerTimeouts) {
+            if (this.circuitOpenUntil == 0) {
+                this.circuitOpenCount.incrementAndGet();
+            }
+            this.circuitOpenUntil = now + circuitBreakerOpenMillis;
+        }
+        this.releaseTrial(trial);
+    }
+
+    /**
+     * Only the trial execution frees the half open circuit for another trial, executions admitted
+     * before the circuit opened must not let a second trial through while the first is running
+     */
+    private void releaseTrial(boolean trial) {
+        if (trial) {
+            this.trialInFlight.set(false);
+        }
+    }
+
+    /** @return Number of executions currently running */
+    public int getActiveCount() {
+        return this.activeCount.get();
+    }
+
+    /** @return Number of executions waiting for a thread */
+    public int getQueuedCount() {
+        return Math.max(0, this.inFlightCount.get() - this.activeCount.get());
+    }
+
+    /** @return Number of executions that completed without being cancelled */
+    public long getCompletedCount() {
+        return this.completedCount.get();
+    }
+
+    /** @return Number of executions cancelled because they took too long */
+    public long getTimeoutCount() {
+        return this.timeoutCount.get();
+    }
+
+    /** @return Number of executions rejected because the portlet was at its limit */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /** @return Number of executions rejected because the portlet's circuit was open */
+    public long getCircuitRejectedCount() {
+        return this.circuitRejectedCount.get();
+    }
+
+    /** @return Number of times the portlet's circuit has been opened */
+    public long getCircuitOpenCount() {
+        return this.circuitOpenCount.get();
+    }
+
+    /** @return Number of timeouts since the last execution that completed */
+    public int getConsecutiveTimeouts() {
+        return this.consecutiveTimeouts.get();
+    }
+
+    /** @return true if executions of the portlet are currently failing immediately */
+    public boolean isCircuitOpen() {
+        return this.circuitOpenUntil != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PortletBulkhead [fname="
+                + this.fname
+                + ", inFlightCount="
+                + this.inFlightCount
+                + ", activeCount="
+                + this.activeCount
+                + ", consecutiveTimeouts="
+                + this.consecutiveTimeouts
+                + ", circuitOpenUntil="
+                + this.circuitOpenUntil
+                + "]";
+    }
+}
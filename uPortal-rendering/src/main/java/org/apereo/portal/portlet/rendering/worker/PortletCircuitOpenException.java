@@ -0,0 +1,43 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.Date;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown by {@link PortletThreadPoolExecutor} when a portlet is not executed because it has timed
+ * out too many times in a row. The worker fails immediately and the portlet's last cached output,
+ * or its error output, is rendered instead of tying up another thread.
+ */
+public class PortletCircuitOpenException extends RejectedExecutionException {
+    private static final long serialVersionUID = 1L;
+
+    private final String fname;
+
+    public PortletCircuitOpenException(String fname, long retryTime) {
+        super(
+                "Not executing portlet "
+                        + fname
+                        + ", it has timed out repeatedly and will not be retried until "
+                        + new Date(retryTime));
+        this.fname = fname;
+    }
+
+    /** @return The fname of the portlet that was not executed */
+    public String getFname() {
+        return this.fname;
+    }
+}
@@ -15,6 +15,7 @@
 package org.apereo.portal.portlet.rendering.worker;
 
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import javax.portlet.Event;
 import javax.servlet.http.HttpServletRequest;
@@ -25,6 +26,7 @@ import org.apereo.portal.portlet.rendering.IPortletRenderer;
 class PortletEventExecutionWorker extends PortletExecutionWorker<Long>
         implements IPortletEventExecutionWorker {
     private final Event event;
+    private volatile BlockingQueue<? super IPortletEventExecutionWorker> completionQueue;
 
     public PortletEventExecutionWorker(
             ExecutorService executorService,
@@ -58,6 +60,20 @@ class PortletEventExecutionWorker extends PortletExecutionWorker<Long>
         return this.event;
     }
 
+    @Override
+    public void submit(BlockingQueue<? super IPortletEventExecutionWorker> completionQueue) {
+        this.completionQueue = completionQueue;
+        this.submit();
+    }
+
+    @Override
+    protected void executionEnded() {
+        final BlockingQueue<? super IPortletEventExecutionWorker> queue = this.completionQueue;
+        if (queue != null) {
+            queue.offer(this);
+        }
+    }
+
     @Override
     protected Long callInternal() throws Exception {
         return portletRenderer.doEvent(portletWindowId, request, response, event);
@@ -221,6 +221,7 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
                 throw e;
             } finally {
                 executionComplete();
+                executionEnded();
             }
         }
     }
@@ -273,6 +274,12 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         }
     }
 
+    /**
+     * Called on the executing thread once execution has completed or failed, after {@link
+     * #isComplete()} starts returning true. Does nothing by default.
+     */
+    protected void executionEnded() {}
+
     /** @see Callable#call() */
     protected abstract V callInternal() throws Exception;
 
@@ -288,9 +295,18 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
 
     @Override
     public boolean isComplete() {
-        return this.complete > 0
-                || this.workerThread == null
-                || this.workerThread.getState() == State.TERMINATED;
+        if (this.complete > 0) {
+            return true;
+        }
+
+        if (this.started == 0) {
+            //Still waiting for a thread, only complete if it was cancelled and will never run
+            final Future<V> localFuture = this.future;
+            return localFuture != null && localFuture.isDone();
+        }
+
+        final Thread localWorkerThread = this.workerThread;
+        return localWorkerThread == null || localWorkerThread.getState() == State.TERMINATED;
     }
 
     @Override
@@ -316,6 +332,10 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
 
         try {
             final long startTime = this.waitForStart(timeout);
+            if (startTime == 0 && !this.future.isDone()) {
+                //Still queued for a thread after the full timeout
+                throw new TimeoutException();
+            }
             final long waitTime = Math.max(0, timeout - (System.currentTimeMillis() - startTime));
             return this.future.get(waitTime, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
@@ -70,6 +70,9 @@ class PortletRenderExecutionWorker extends PortletExecutionWorker<PortletRenderR
                         portletWindowId, request, response, renderPortletOutputHandler);
 
         this.output = renderPortletOutputHandler.getOutput();
+        if (result != null && result.isCached()) {
+            this.setExecutionAttribute(CACHED_REPLAY_ATTRIBUTE, Boolean.TRUE);
+        }
 
         return result;
     }
@@ -0,0 +1,265 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apereo.portal.utils.ConcurrentMapUtils;
+import org.apereo.portal.utils.threading.QualityOfServiceBlockingQueue;
+
+/**
+ * Thread pool used to execute portlets. Each portlet fname gets a {@link PortletBulkhead} that
+ * limits how many of its executions can be queued or running so a single slow portlet cannot use up
+ * every thread. Executions waiting for a thread are queued per fname and taken round-robin so a
+ * burst of requests for one portlet does not delay every other portlet on the page.
+ *
+ * <p>Workers that are cancelled while running count as timeouts against their portlet, once {@link
+ * #setCircuitBreakerTimeouts(int)} consecutive timeouts are seen the portlet's executions are
+ * rejected with a {@link PortletCircuitOpenException} for {@link
+ * #setCircuitBreakerOpenSeconds(int)} so the failure output is rendered without waiting for the
+ * portlet to time out again.
+ */
+public class PortletThreadPoolExecutor extends ThreadPoolExecutor
+        implements PortletThreadPoolExecutorMXBean {
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private final ConcurrentMap<String, PortletBulkhead> bulkheads =
+            new ConcurrentHashMap<String, PortletBulkhead>();
+
+    private volatile double percentPermittedPerFname = .5;
+    private volatile int circuitBreakerTimeouts = 5;
+    private volatile int circuitBreakerOpenSeconds = 30;
+
+    public PortletThreadPoolExecutor(
+            int maxThreads,
+            int queueSize,
+            long keepAliveSeconds,
+            ThreadFactory threadFactory,
+            RejectedExecutionHandler handler) {
+        super(
+                maxThreads,
+                maxThreads,
+                keepAliveSeconds,
+                TimeUnit.SECONDS,
+                new FairPortletQueue(queueSize),
+                threadFactory,
+                handler);
+
+        //Threads are only created as needed and the queue is only used once all have been created
+        this.allowCoreThreadTimeOut(true);
+    }
+
+    /** @param initialThreads Number of threads to start before the first portlet is executed */
+    public void setInitialThreads(int initialThreads) {
+        int started = 0;
+        while (started < initialThreads && this.prestartCoreThread()) {
+            started++;
+        }
+    }
+
+    @Override
+    public void setPercentPermittedPerFname(double percentPermittedPerFname) {
+        this.percentPermittedPerFname = percentPermittedPerFname;
+    }
+
+    @Override
+    public double getPercentPermittedPerFname() {
+        return this.percentPermittedPerFname;
+    }
+
+    @Override
+    public void setCircuitBreakerTimeouts(int circuitBreakerTimeouts) {
+        this.circuitBreakerTimeouts = circuitBreakerTimeouts;
+    }
+
+    @Override
+    public int getCircuitBreakerTimeouts() {
+        return this.circuitBreakerTimeouts;
+    }
+
+    @Override
+    public void setCircuitBreakerOpenSeconds(int circuitBreakerOpenSeconds) {
+        this.circuitBreakerOpenSeconds = circuitBreakerOpenSeconds;
+    }
+
+    @Override
+    public int getCircuitBreakerOpenSeconds() {
+        return this.circuitBreakerOpenSeconds;
+    }
+
+    @Override
+    public int getMaxTasksPerFname() {
+        return Math.max(1, (int) (this.getMaximumPoolSize() * this.percentPermittedPerFname));
+    }
+
+    @Override
+    public int getQueueSize() {
+        return this.getQueue().size();
+    }
+
+    @Override
+    public Map<String, PortletBulkhead> getBulkheads() {
+        return Collections.unmodifiableMap(this.bulkheads);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        if (callable instanceof IPortletExecutionContext) {
+            final String fname = ((IPortletExecutionContext) callable).getPortletFname();
+            if (fname != null) {
+                return new PortletTask<T>(fname, callable);
+            }
+        }
+
+        return super.newTaskFor(callable);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (!(command instanceof PortletTask)) {
+            super.execute(command);
+            return;
+        }
+
+        final PortletTask<?> task = (PortletTask<?>) command;
+        task.trial = task.bulkhead.acquire(this.getMaxTasksPerFname(), System.currentTimeMillis());
+        try {
+            super.execute(command);
+        } catch (RejectedExecutionException e) {
+            task.bulkhead.abort(task.trial);
+            throw e;
+        }
+    }
+
+    private PortletBulkhead getBulkhead(String fname) {
+        PortletBulkhead bulkhead = this.bulkheads.get(fname);
+        if (bulkhead == null) {
+            bulkhead =
+                    ConcurrentMapUtils.putIfAbsent(
+                            this.bulkheads, fname, new PortletBulkhead(fname));
+        }
+        return bulkhead;
+    }
+
+    /** Task for a single portlet execution, tracks its lifecycle against the portlet's bulkhead */
+    private final class PortletTask<V> extends FutureTask<V> {
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        private final String fname;
+        private final PortletBulkhead bulkhead;
+        private volatile boolean trial;
+
+        public PortletTask(String fname, Callable<V> callable) {
+            super(callable);
+            this.fname = fname;
+            this.bulkhead = getBulkhead(fname);
+        }
+
+        @Override
+        public void run() {
+            if (!this.state.compareAndSet(QUEUED, RUNNING)) {
+                //Cancelled while queued, done() has already released the slot
+                return;
+            }
+
+            this.bulkhead.started();
+            try {
+                super.run();
+            } finally {
+                this.state.set(DONE);
+                this.bulkhead.finished();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (this.state.compareAndSet(QUEUED, DONE)) {
+                //Cancelled before a thread picked it up, the portlet never ran so it did not time out
+                this.bulkhead.dequeued(this.trial);
+                remove(this);
+                return;
+            }
+
+            if (this.isCancelled()) {
+                this.bulkhead.recordTimeout(
+                        circuitBreakerTimeouts,
+                        TimeUnit.SECONDS.toMillis(circuitBreakerOpenSeconds),
+                        System.currentTimeMillis(),
+                        this.trial);
+            } else {
+                this.bulkhead.recordCompletion(this.trial);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "PortletTask [fname=" + this.fname + ", state=" + this.state + "]";
+        }
+    }
+
+    /**
+     * Queues executions per fname and takes them round-robin, non-portlet tasks share the empty key
+     */
+    static final class FairPortletQueue extends QualityOfServiceBlockingQueue<String, Runnable> {
+        private String lastKey = null;
+
+        public FairPortletQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected String getElementKey(Runnable e) {
+            if (e instanceof PortletTask) {
+                return ((PortletTask<?>) e).fname;
+            }
+            return "";
+        }
+
+        @Override
+        protected String getNextElementKey() {
+            String firstKey = null;
+            boolean afterLastKey = false;
+            for (final String key : this.getKeySet()) {
+                if (!this.isKeyEmpty(key)) {
+                    if (afterLastKey) {
+                        this.lastKey = key;
+                        return key;
+                    }
+                    if (firstKey == null) {
+                        firstKey = key;
+                    }
+                }
+                if (key.equals(this.lastKey)) {
+                    afterLastKey = true;
+                }
+            }
+
+            this.lastKey = firstKey;
+            return firstKey;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.Map;
+
+/** JMX stats and settings for PortletThreadPoolExecutor */
+public interface PortletThreadPoolExecutorMXBean {
+
+    /** @return Number of threads currently executing portlets */
+    int getActiveCount();
+
+    /** @return Number of threads in the pool */
+    int getPoolSize();
+
+    /** @return Largest number of threads that have been in the pool at once */
+    int getLargestPoolSize();
+
+    /** @return Maximum number of threads in the pool */
+    int getMaximumPoolSize();
+
+    /** @return Number of portlet executions waiting for a thread */
+    int getQueueSize();
+
+    /** @return Number of portlet executions that have completed */
+    long getCompletedTaskCount();
+
+    /** @return Maximum number of executions of a single portlet that can be queued or running */
+    int getMaxTasksPerFname();
+
+    /**
+     * @param percentPermittedPerFname The allowed ratio of queued or running executions of a single
+     *     portlet to the maximum pool size
+     */
+    void setPercentPermittedPerFname(double percentPermittedPerFname);
+
+    /**
+     * @return The allowed ratio of queued or running executions of a single portlet to the maximum
+     *     pool size
+     */
+    double getPercentPermittedPerFname();
+
+    /**
+     * @param circuitBreakerTimeouts Number of consecutive timeouts after which executions of a
+     *     portlet fail immediately, 0 disables the circuit breaker
+     */
+    void setCircuitBreakerTimeouts(int circuitBreakerTimeouts);
+
+    /**
+     * @return Number of consecutive timeouts after which executions of a portlet fail immediately
+     */
+    int getCircuitBreakerTimeouts();
+
+    /** @param circuitBreakerOpenSeconds Seconds to fail executions before retrying the portlet */
+    void setCircuitBreakerOpenSeconds(int circuitBreakerOpenSeconds);
+
+    /** @return Seconds to fail executions before retrying the portlet */
+    int getCircuitBreakerOpenSeconds();
+
+    /** @return Bulkhead state for each portlet that has been executed, keyed by fname */
+    Map<String, PortletBulkhead> getBulkheads();
+}
@@ -14,6 +14,8 @@
  */
 package org.apereo.portal.rendering;
 
+import java.io.Flushable;
+import java.io.IOException;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -29,6 +31,8 @@ import org.apereo.portal.character.stream.events.PortletTitlePlaceholderEvent;
 import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
 import org.apereo.portal.utils.cache.CacheKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
@@ -36,6 +40,16 @@ import org.springframework.beans.factory.annotation.Autowired;
  *
  */
 public class PortletRenderingIncorporationComponent extends CharacterPipelineComponentWrapper {
+    /**
+     * Request attribute that may contain a {@link Flushable}, it is called before the pipeline
+     * waits on portlet output so content that has already been rendered can be sent to the client
+     * first.
+     */
+    public static final String PENDING_OUTPUT_FLUSHER =
+            PortletRenderingIncorporationComponent.class.getName() + ".PENDING_OUTPUT_FLUSHER";
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
     private IPortletExecutionManager portletExecutionManager;
 
     @Autowired
@@ -86,6 +100,22 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
             this.response = response;
         }
 
+        /**
+         * Give the top level renderer a chance to write out buffered content before waiting on a
+         * portlet that has not finished rendering
+         */
+        private void flushPendingOutput() {
+            final Flushable flusher = (Flushable) this.request.getAttribute(PENDING_OUTPUT_FLUSHER);
+            if (flusher != null) {
+                try {
+                    flusher.flush();
+                } catch (IOException e) {
+                    //The same failure is reported when the renderer next writes to the response
+                    logger.debug("Failed to flush pending output before waiting on portlet", e);
+                }
+            }
+        }
+
         @Override
         protected CharacterEvent filterEvent(CharacterEvent event, boolean peek) {
             switch (event.getEventType()) {
@@ -95,12 +125,16 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                                 (PortletHeaderPlaceholderEvent) event;
                         final IPortletWindowId portletWindowId =
                                 headerPlaceholderEvent.getPortletWindowId();
+                        if (!portletExecutionManager.isPortletRenderHeaderComplete(
+                                portletWindowId, this.request, this.response)) {
+                            flushPendingOutput();
+                        }
 
                         final String output =
                                 portletExecutionManager.getPortletHeadOutput(
                                         portletWindowId, this.request, this.response);
 
-                        return CharacterDataEventImpl.create(output);
+                        return CharacterDataEventImpl.createUncached(output);
                     }
                 case PORTLET_CONTENT:
                     {
@@ -108,12 +142,16 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                                 (PortletContentPlaceholderEvent) event;
                         final IPortletWindowId portletWindowId =
                                 contentPlaceholderEvent.getPortletWindowId();
+                        if (!portletExecutionManager.isPortletRenderComplete(
+                                portletWindowId, this.request, this.response)) {
+                            flushPendingOutput();
+                        }
 
                         final String output =
-                                portletExecutionManager.getPortletOutput(
+                                portletExecutionManager.getPortletPageOutput(
                                         portletWindowId, this.request, this.response);
 
-                        return CharacterDataEventImpl.create(output);
+                        return CharacterDataEventImpl.createUncached(output);
                     }
                 case PORTLET_TITLE:
                     {
@@ -121,12 +159,16 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                                 (PortletTitlePlaceholderEvent) event;
                         final IPortletWindowId portletWindowId =
                                 titlePlaceholderEvent.getPortletWindowId();
+                        if (!portletExecutionManager.isPortletRenderComplete(
+                                portletWindowId, this.request, this.response)) {
+                            flushPendingOutput();
+                        }
 
                         final String title =
                                 portletExecutionManager.getPortletTitle(
                                         portletWindowId, this.request, this.response);
 
-                        return CharacterDataEventImpl.create(title);
+                        return CharacterDataEventImpl.createUncached(title);
                     }
                 case PORTLET_NEW_ITEM_COUNT:
                     {
@@ -157,7 +199,7 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                                         this.request,
                                         this.response);
 
-                        return CharacterDataEventImpl.create(link);
+                        return CharacterDataEventImpl.createUncached(link);
                     }
                 default:
                     {
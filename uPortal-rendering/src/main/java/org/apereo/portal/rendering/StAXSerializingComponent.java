@@ -15,7 +15,6 @@
 package org.apereo.portal.rendering;
 
 import java.io.StringWriter;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -33,6 +32,7 @@ import org.apereo.portal.character.stream.events.CharacterEvent;
 import org.apereo.portal.utils.cache.CacheKey;
 import org.apereo.portal.xml.XmlUtilities;
 import org.apereo.portal.xml.stream.ChunkingEventReader;
+import org.apereo.portal.xml.stream.MultiPatternScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -49,8 +49,8 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
 
     private StAXPipelineComponent wrappedComponent;
     private Map<String, CharacterEventSource> chunkingElements;
-    private Map<Pattern, CharacterEventSource> chunkingPatternEventSources;
-    private Pattern[] chunkingPatterns;
+    private MultiPatternScanner chunkingPatternScanner;
+    private CharacterEventSource[] chunkingPatternEventSources;
 
     @Autowired
     public void setXmlUtilities(XmlUtilities xmlUtilities) {
@@ -66,22 +66,21 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
     }
 
     public void setChunkingPatterns(Map<String, CharacterEventSource> chunkingPatterns) {
-        final Map<Pattern, CharacterEventSource> compiledChunkingPatternEventSources =
-                new LinkedHashMap<Pattern, CharacterEventSource>();
+        final Pattern[] compiledChunkingPatterns = new Pattern[chunkingPatterns.size()];
+        final CharacterEventSource[] chunkingPatternEventSources =
+                new CharacterEventSource[chunkingPatterns.size()];
 
+        int index = 0;
         for (final Map.Entry<String, CharacterEventSource> chunkingPatternEntry :
                 chunkingPatterns.entrySet()) {
-            final String key = chunkingPatternEntry.getKey();
-            final Pattern pattern = Pattern.compile(key);
-            final CharacterEventSource value = chunkingPatternEntry.getValue();
-            compiledChunkingPatternEventSources.put(pattern, value);
+            compiledChunkingPatterns[index] = Pattern.compile(chunkingPatternEntry.getKey());
+            chunkingPatternEventSources[index] = chunkingPatternEntry.getValue();
+            index++;
         }
 
-        this.chunkingPatternEventSources = compiledChunkingPatternEventSources;
-        this.chunkingPatterns =
-                this.chunkingPatternEventSources
-                        .keySet()
-                        .toArray(new Pattern[this.chunkingPatternEventSources.size()]);
+        //Compiled once and shared by all requests
+        this.chunkingPatternScanner = new MultiPatternScanner(compiledChunkingPatterns);
+        this.chunkingPatternEventSources = chunkingPatternEventSources;
     }
 
     @Override
@@ -107,8 +106,8 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
                 new ChunkingEventReader(
                         request,
                         this.chunkingElements,
+                        this.chunkingPatternScanner,
                         this.chunkingPatternEventSources,
-                        this.chunkingPatterns,
                         xmlEventReader,
                         xmlEventWriter,
                         writer);
@@ -15,27 +15,52 @@
 package org.apereo.portal.rendering.cache;
 
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
-/** Holder class for an event cache and output properties */
+/**
+ * Holder class for an event cache and output properties. Events are stored in an exactly sized
+ * array and exposed as an immutable, index based {@link List} to keep cache entries compact.
+ */
 class CachedEventReader<E> implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    private final List<E> eventCache;
+    private final Object[] eventCache;
     private final Map<String, String> outputProperties;
 
     public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties) {
-        this.eventCache = Collections.unmodifiableList(eventCache);
+        this.eventCache = eventCache.toArray();
         this.outputProperties = Collections.unmodifiableMap(outputProperties);
     }
 
     public List<E> getEventCache() {
-        return this.eventCache;
+        return new EventList<E>(this.eventCache);
     }
 
     public Map<String, String> getOutputProperties() {
         return this.outputProperties;
     }
+
+    /** Immutable view of the event array */
+    private static final class EventList<E> extends AbstractList<E> implements RandomAccess {
+        private final Object[] events;
+
+        EventList(Object[] events) {
+            this.events = events;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public E get(int index) {
+            return (E) this.events[index];
+        }
+
+        @Override
+        public int size() {
+            return this.events.length;
+        }
+    }
 }
@@ -14,10 +14,15 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ListIterator;
 import org.apereo.portal.character.stream.CharacterEventBufferReader;
 import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
 import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.CharacterEventTypes;
 import org.apereo.portal.rendering.CharacterPipelineComponent;
 
 /**
@@ -28,6 +33,70 @@ public class CachingCharacterPipelineComponent
         extends CachingPipelineComponent<CharacterEventReader, CharacterEvent>
         implements CharacterPipelineComponent {
 
+    /**
+     * Merges runs of adjacent non-empty {@link CharacterDataEvent}s into a single event. Empty
+     * events are chunk points and are kept as boundaries, see {@link
+     * org.apereo.portal.character.stream.events.ChunkPointPlaceholderEventSource}
+     */
+    @Override
+    protected List<CharacterEvent> compactEvents(List<CharacterEvent> events) {
+        final List<CharacterEvent> compactEvents = new ArrayList<CharacterEvent>(events.size());
+        final StringBuilder data = new StringBuilder();
+        CharacterEvent pendingEvent = null;
+
+        for (final CharacterEvent event : events) {
+            if (isMergeable(event)) {
+                if (pendingEvent == null) {
+                    pendingEvent = event;
+                } else {
+                    if (data.length() == 0) {
+                        data.append(((CharacterDataEvent) pendingEvent).getData());
+                    }
+                    data.append(((CharacterDataEvent) event).getData());
+                }
+                continue;
+            }
+
+            addPendingEvent(compactEvents, pendingEvent, data);
+            pendingEvent = null;
+
+            //Collapse runs of chunk points, they all mark the same boundary
+            final int size = compactEvents.size();
+            if (size > 0 && isChunkPoint(event) && isChunkPoint(compactEvents.get(size - 1))) {
+                continue;
+            }
+
+            compactEvents.add(event);
+        }
+        addPendingEvent(compactEvents, pendingEvent, data);
+
+        return compactEvents;
+    }
+
+    private static void addPendingEvent(
+            List<CharacterEvent> compactEvents, CharacterEvent pendingEvent, StringBuilder data) {
+        if (pendingEvent == null) {
+            return;
+        }
+
+        if (data.length() == 0) {
+            compactEvents.add(pendingEvent);
+        } else {
+            compactEvents.add(CharacterDataEventImpl.create(data.toString()));
+            data.setLength(0);
+        }
+    }
+
+    private static boolean isMergeable(CharacterEvent event) {
+        return event.getEventType() == CharacterEventTypes.CHARACTER
+                && ((CharacterDataEvent) event).getData().length() > 0;
+    }
+
+    private static boolean isChunkPoint(CharacterEvent event) {
+        return event.getEventType() == CharacterEventTypes.CHARACTER
+                && ((CharacterDataEvent) event).getData().length() == 0;
+    }
+
     @Override
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
         return new CharacterEventBufferReader(eventCache);
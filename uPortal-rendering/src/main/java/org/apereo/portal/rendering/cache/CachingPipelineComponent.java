@@ -14,11 +14,17 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import net.sf.ehcache.Ehcache;
@@ -37,14 +43,26 @@ import org.springframework.beans.factory.annotation.Autowired;
 /**
  * Component that caches events from a wrapped component
  *
+ * <p>Only one thread builds the entry for a given cache key at a time. Other requests for the same
+ * key wait up to {@link #setMaxBuildWait(long)} for that thread to finish instead of running the
+ * same transform concurrently. If {@link #setRefreshAheadRatio(double)} is set an entry is rebuilt
+ * by a single request once it nears the cache's time to live while all other requests keep using
+ * the current entry.
+ *
  */
 public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWrapper<R, E>
         implements BeanNameAware {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     private ResourcesElementsProvider resourcesElementsProvider;
+    private final ConcurrentMap<CacheKey, SettableFuture<CachedEventReader<E>>> inFlightBuilds =
+            new ConcurrentHashMap<CacheKey, SettableFuture<CachedEventReader<E>>>();
+    private final PipelineCacheStatistics statistics = new PipelineCacheStatistics();
+
     private Ehcache cache;
     private String beanName;
+    private long maxBuildWait = TimeUnit.SECONDS.toMillis(30);
+    private double refreshAheadRatio = 0;
 
     @Autowired
     public void setResourcesElementsProvider(ResourcesElementsProvider resourcesElementsProvider) {
@@ -55,9 +73,32 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         this.cache = cache;
     }
 
+    /**
+     * Maximum time in milliseconds to wait for another thread that is building the same cache
+     * entry. If exceeded the waiting request builds the entry itself. Defaults to 30 seconds.
+     */
+    public void setMaxBuildWait(long maxBuildWait) {
+        this.maxBuildWait = maxBuildWait;
+    }
+
+    /**
+     * Fraction of the cache's time to live after which an entry is rebuilt ahead of expiration, for
+     * example 0.8 rebuilds an entry with a 300 second TTL once it is 240 seconds old. Has no effect
+     * for caches without a time to live. Defaults to 0, disabled.
+     */
+    public void setRefreshAheadRatio(double refreshAheadRatio) {
+        this.refreshAheadRatio = refreshAheadRatio;
+    }
+
+    /** @return Hit, miss and wait statistics for this component */
+    public PipelineCacheStatistics getStatistics() {
+        return this.statistics;
+    }
+
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
+        this.statistics.setBeanName(name);
     }
 
     @Override
@@ -81,48 +122,157 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
 
         //Get the key for this request from the target component and see if there is a cache entry
         final CacheKey cacheKey = this.wrappedComponent.getCacheKey(request, response);
-        Element element = this.cache.get(cacheKey);
+        final Element element = this.cache.get(cacheKey);
         CachedEventReader<E> cachedEventReader = null;
         if (element != null) {
             cachedEventReader = (CachedEventReader<E>) element.getObjectValue();
         }
 
-        //If there was a cached reader return it immediately
         if (cachedEventReader == null) {
+            this.statistics.recordMiss();
+            cachedEventReader = this.waitForOrBuildEventCache(cacheKey, request, response);
+        } else if (this.isRefreshDue(element)) {
+            //Only one request refreshes the entry, everyone else keeps using the current one
+            final SettableFuture<CachedEventReader<E>> future = SettableFuture.create();
+            if (this.inFlightBuilds.putIfAbsent(cacheKey, future) == null) {
+                logger.debug("{} - Refreshing cached events for key {}", this.beanName, cacheKey);
+                this.statistics.recordRefresh();
+                cachedEventReader = this.buildEventCache(cacheKey, future, request, response);
+            } else {
+                this.statistics.recordHit();
+            }
+        } else {
+            this.statistics.recordHit();
+            logger.debug("{} - Found cached events for key {}", this.beanName, cacheKey);
+        }
+
+        final List<E> eventCache = cachedEventReader.getEventCache();
+        final Map<String, String> outputProperties = cachedEventReader.getOutputProperties();
+
+        final R eventReader = this.createEventReader(eventCache.listIterator());
+        return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
+    }
+
+    /**
+     * Build the cache entry for the key or, if another thread is already building it, wait for that
+     * thread to finish and use its result.
+     */
+    private CachedEventReader<E> waitForOrBuildEventCache(
+            CacheKey cacheKey, HttpServletRequest request, HttpServletResponse response) {
+        final SettableFuture<CachedEventReader<E>> future = SettableFuture.create();
+        final SettableFuture<CachedEventReader<E>> inFlightBuild =
+                this.inFlightBuilds.putIfAbsent(cacheKey, future);
+        if (inFlightBuild == null) {
+            return this.buildEventCache(cacheKey, future, request, response);
+        }
+
+        logger.debug(
+                "{} - Waiting on another thread to build events for key {}",
+                this.beanName,
+                cacheKey);
+        final long start = System.nanoTime();
+        try {
+            final CachedEventReader<E> cachedEventReader =
+                    inFlightBuild.get(this.maxBuildWait, TimeUnit.MILLISECONDS);
+            this.statistics.recordWait(System.nanoTime() - start, true);
+            return cachedEventReader;
+        } catch (TimeoutException e) {
+            logger.warn(
+                    "{} - Timed out after {}ms waiting on another thread to build events for key {}, building them instead",
+                    this.beanName,
+                    this.maxBuildWait,
+                    cacheKey);
+        } catch (ExecutionException e) {
+            logger.debug(
+                    "{} - Another thread failed to build events for key {}, building them instead",
+                    this.beanName,
+                    cacheKey,
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    this.beanName + " - Interrupted waiting on events for key " + cacheKey, e);
+        }
+
+        this.statistics.recordWait(System.nanoTime() - start, false);
+        return this.buildEventCache(cacheKey, null, request, response);
+    }
+
+    /**
+     * Call the wrapped component, buffer and cache its events.
+     *
+     * @param future Completed with the result for threads waiting on this build, may be null
+     */
+    private CachedEventReader<E> buildEventCache(
+            CacheKey cacheKey,
+            SettableFuture<CachedEventReader<E>> future,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        try {
             //No cached data for key, call target component to get events and an updated cache key
             logger.debug(
                     "{} - No cached events found for key {}, calling parent",
                     this.beanName,
                     cacheKey);
+            this.statistics.recordBuild();
             final PipelineEventReader<R, E> pipelineEventReader =
                     this.wrappedComponent.getEventReader(request, response);
 
             //Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
+            final List<E> eventBuffer = new ArrayList<E>();
             for (final E event : pipelineEventReader) {
-                //TODO add de-duplication logic here
-                eventCache.add(event);
+                eventBuffer.add(event);
             }
+            final List<E> eventCache = this.compactEvents(eventBuffer);
 
             final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-            cachedEventReader =
+            final CachedEventReader<E> cachedEventReader =
                     new CachedEventReader<E>(
                             eventCache, new LinkedHashMap<String, String>(outputProperties));
 
             //Cache the buffer
-            element = new Element(cacheKey, cachedEventReader);
-            this.cache.put(element);
+            this.cache.put(new Element(cacheKey, cachedEventReader));
             logger.debug(
                     "{} - Cached {} events for key {}", this.beanName, eventCache.size(), cacheKey);
-        } else {
-            logger.debug("{} - Found cached events for key {}", this.beanName, cacheKey);
+
+            if (future != null) {
+                future.set(cachedEventReader);
+            }
+            return cachedEventReader;
+        } catch (RuntimeException | Error e) {
+            if (future != null) {
+                future.setException(e);
+            }
+            throw e;
+        } finally {
+            if (future != null) {
+                this.inFlightBuilds.remove(cacheKey, future);
+            }
         }
+    }
 
-        final List<E> eventCache = cachedEventReader.getEventCache();
-        final Map<String, String> outputProperties = cachedEventReader.getOutputProperties();
+    /** @return true if the element is old enough that it should be rebuilt ahead of expiration */
+    private boolean isRefreshDue(Element element) {
+        if (this.refreshAheadRatio <= 0) {
+            return false;
+        }
 
-        final R eventReader = this.createEventReader(eventCache.listIterator());
-        return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
+        final long timeToLive = this.cache.getCacheConfiguration().getTimeToLiveSeconds();
+        if (timeToLive <= 0) {
+            return false;
+        }
+
+        final long age = System.currentTimeMillis() - element.getCreationTime();
+        return age >= TimeUnit.SECONDS.toMillis(timeToLive) * this.refreshAheadRatio;
+    }
+
+    /**
+     * Called with the complete list of events from the wrapped component before they are cached,
+     * allows subclasses to merge or drop events to reduce the size of the cache entry. The default
+     * implementation returns the list unmodified.
+     */
+    protected List<E> compactEvents(List<E> events) {
+        return events;
     }
 
     //Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
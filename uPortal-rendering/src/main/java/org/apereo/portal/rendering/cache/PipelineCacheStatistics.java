@@ -0,0 +1,159 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Hit, miss and wait statistics for a single {@link CachingPipelineComponent}, exposed via JMX. */
+public class PipelineCacheStatistics {
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong buildCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong waitFailureCount = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    private volatile String beanName;
+
+    void setBeanName(String beanName) {
+        this.beanName = beanName;
+    }
+
+    void recordHit() {
+        this.hitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        this.missCount.incrementAndGet();
+    }
+
+    void recordBuild() {
+        this.buildCount.incrementAndGet();
+    }
+
+    void recordRefresh() {
+        this.refreshCount.incrementAndGet();
+    }
+
+    void recordWait(long waitNanos, boolean success) {
+        this.waitCount.incrementAndGet();
+        if (!success) {
+            this.waitFailureCount.incrementAndGet();
+        }
+
+        final long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        this.totalWaitTime.addAndGet(waitMillis);
+
+        long max;
+        do {
+            max = this.maxWaitTime.get();
+        } while (waitMillis > max && !this.maxWaitTime.compareAndSet(max, waitMillis));
+    }
+
+    /** @return Name of the pipeline component these statistics are for */
+    public String getBeanName() {
+        return this.beanName;
+    }
+
+    /** @return Number of requests served from the cache */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /** @return Number of requests that found no cache entry */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /** @return Ratio of hits to total requests */
+    public double getHitRate() {
+        final long hits = this.hitCount.get();
+        final long requests = hits + this.missCount.get();
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    /** @return Number of times the wrapped component was called to build an entry */
+    public long getBuildCount() {
+        return this.buildCount.get();
+    }
+
+    /** @return Number of entries rebuilt ahead of their expiration */
+    public long getRefreshCount() {
+        return this.refreshCount.get();
+    }
+
+    /** @return Number of requests that waited on another thread building the same entry */
+    public long getWaitCount() {
+        return this.waitCount.get();
+    }
+
+    /**
+     * @return Number of waits that timed out or where the building thread failed, these requests
+     *     built the entry themselves
+     */
+    public long getWaitFailureCount() {
+        return this.waitFailureCount.get();
+    }
+
+    /** @return Total milliseconds spent waiting on other threads to build entries */
+    public long getTotalWaitTime() {
+        return this.totalWaitTime.get();
+    }
+
+    /** @return Longest time in milliseconds a request waited on another thread */
+    public long getMaxWaitTime() {
+        return this.maxWaitTime.get();
+    }
+
+    /** @return Average time in milliseconds a request waited on another thread */
+    public double getAverageWaitTime() {
+        final long waits = this.waitCount.get();
+        return waits == 0 ? 0 : (double) this.totalWaitTime.get() / waits;
+    }
+
+    /** Reset all counters */
+    public void reset() {
+        this.hitCount.set(0);
+        this.missCount.set(0);
+        this.buildCount.set(0);
+        this.refreshCount.set(0);
+        this.waitCount.set(0);
+        this.waitFailureCount.set(0);
+        this.totalWaitTime.set(0);
+        this.maxWaitTime.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineCacheStatistics [beanName="
+                + this.beanName
+                + ", hitCount="
+                + this.hitCount
+                + ", missCount="
+                + this.missCount
+                + ", buildCount="
+                + this.buildCount
+                + ", refreshCount="
+                + this.refreshCount
+                + ", waitCount="
+                + this.waitCount
+                + ", totalWaitTime="
+                + this.totalWaitTime
+                + "]";
+    }
+}
@@ -14,12 +14,16 @@
  */
 package org.apereo.portal.rendering.xslt;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
@@ -39,13 +43,18 @@ import org.apereo.portal.xml.ResourceLoaderURIResolver;
 import org.apereo.portal.xml.StaxUtils;
 import org.apereo.portal.xml.stream.XMLEventBufferReader;
 import org.apereo.portal.xml.stream.XMLEventBufferWriter;
+import org.apereo.portal.xml.stream.XMLEventPipe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.context.ResourceLoaderAware;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.util.xml.FixedXMLEventStreamReader;
 import org.springframework.util.xml.SimpleTransformErrorListener;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.helpers.LocatorImpl;
 
@@ -59,6 +68,11 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
     private ResourceLoaderURIResolver uriResolver;
     private TransformerSource transformerSource;
     private TransformerConfigurationSource xsltParameterSource;
+    private ExecutorService streamingExecutor;
+    private boolean streaming = false;
+    private int streamingCapacity = 16;
+    private int streamingBatchSize = 128;
+    private long streamingTimeout = 30000;
 
     private String beanName;
 
@@ -74,6 +88,43 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         this.transformerSource = transformerSource;
     }
 
+    /** Executor the transform runs on when {@link #setStreaming(boolean)} is enabled */
+    public void setStreamingExecutor(ExecutorService streamingExecutor) {
+        this.streamingExecutor = streamingExecutor;
+    }
+
+    /**
+     * If true the transform runs on the {@link #setStreamingExecutor(ExecutorService)} and the next
+     * component in the pipeline reads events while they are generated, instead of after the whole
+     * result has been buffered. The previous component is still read on the calling thread, its
+     * events are buffered before the transform is handed off. If the executor has no free thread
+     * the transform is buffered on the calling thread. Defaults to false
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Number of event batches that can be waiting on the next component before the transform
+     * blocks. Defaults to 16
+     */
+    public void setStreamingCapacity(int streamingCapacity) {
+        this.streamingCapacity = streamingCapacity;
+    }
+
+    /** Number of events handed to the next component at a time. Defaults to 128 */
+    public void setStreamingBatchSize(int streamingBatchSize) {
+        this.streamingBatchSize = streamingBatchSize;
+    }
+
+    /**
+     * Milliseconds the transform and the next component wait on each other before the request
+     * fails. Defaults to 30000
+     */
+    public void setStreamingTimeout(long streamingTimeout) {
+        this.streamingTimeout = streamingTimeout;
+    }
+
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
@@ -129,7 +180,16 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         }
 
         //The event reader from the previous component in the pipeline
-        final XMLEventReader eventReader = pipelineEventReader.getEventReader();
+        XMLEventReader eventReader = pipelineEventReader.getEventReader();
+
+        final boolean streaming = this.streaming && this.streamingExecutor != null;
+        if (streaming) {
+            /*
+             * Upstream components use the request thread's EntityManager and transaction
+             * resources while being read, they are drained here instead of on the transform thread
+             */
+            eventReader = this.bufferEvents(eventReader);
+        }
 
         //Wrap the event reader in a stream reader to avoid a JDK bug
         final XMLStreamReader streamReader;
@@ -143,26 +203,24 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         //Setup logging for the transform
         transformer.setErrorListener(this.errorListener);
 
-        //Transform to a SAX ContentHandler to avoid JDK bug: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6775588
-        final XMLEventBufferWriter eventWriterBuffer = new XMLEventBufferWriter();
-        final ContentHandler contentHandler =
-                StaxUtils.createLexicalContentHandler(eventWriterBuffer);
-        contentHandler.setDocumentLocator(new LocatorImpl());
-
-        final SAXResult outputTarget = new SAXResult(contentHandler);
-        try {
-            this.logger.debug("{} - Begining XML Transformation", this.beanName);
-            transformer.transform(xmlReaderSource, outputTarget);
-            this.logger.debug("{} - XML Transformation complete", this.beanName);
-        } catch (TransformerException e) {
-            throw new RuntimeException("Failed to transform document", e);
+        XMLEventReader outputEventReader = null;
+        String mediaType = null;
+        if (streaming) {
+            //Output properties come from the stylesheet, read before the transform is handed off
+            mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+            outputEventReader = this.startStreamingTransform(transformer, xmlReaderSource);
         }
 
-        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+        if (outputEventReader == null) {
+            //Transform to a SAX ContentHandler to avoid JDK bug: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6775588
+            final XMLEventBufferWriter eventWriterBuffer = new XMLEventBufferWriter();
+            this.transform(transformer, xmlReaderSource, eventWriterBuffer);
 
-        final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
-        final XMLEventReader outputEventReader =
-                new XMLEventBufferReader(eventBuffer.listIterator());
+            mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+
+            final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
+            outputEventReader = new XMLEventBufferReader(eventBuffer.listIterator());
+        }
 
         final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
         final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl =
@@ -172,6 +230,82 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         return pipelineEventReaderImpl;
     }
 
+    /** @return A reader over all remaining events of the reader, read on the calling thread */
+    private XMLEventReader bufferEvents(XMLEventReader eventReader) {
+        if (eventReader instanceof XMLEventBufferReader) {
+            //Already buffered, reading it has no side effects
+            return eventReader;
+        }
+
+        final List<XMLEvent> eventBuffer = new ArrayList<XMLEvent>();
+        try {
+            while (eventReader.hasNext()) {
+                eventBuffer.add(eventReader.nextEvent());
+            }
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Failed to read events from the previous component", e);
+        }
+        return new XMLEventBufferReader(eventBuffer.listIterator());
+    }
+
+    /**
+     * Run the transform on the streaming executor, writing into a bounded {@link XMLEventPipe}.
+     *
+     * @return Reader for the transform output, null if the executor rejected the transform
+     */
+    private XMLEventReader startStreamingTransform(
+            final Transformer transformer, final Source xmlReaderSource) {
+        final XMLEventPipe eventPipe =
+                new XMLEventPipe(this.streamingCapacity, this.streamingBatchSize);
+        eventPipe.setTimeout(this.streamingTimeout);
+
+        //XSLT extension functions may rely on the request bound thread locals
+        final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        final LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+
+        try {
+            this.streamingExecutor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            RequestContextHolder.setRequestAttributes(requestAttributes);
+                            LocaleContextHolder.setLocaleContext(localeContext);
+                            try {
+                                transform(transformer, xmlReaderSource, eventPipe.getWriter());
+                                eventPipe.complete();
+                            } catch (Throwable t) {
+                                eventPipe.fail(t);
+                            } finally {
+                                RequestContextHolder.resetRequestAttributes();
+                                LocaleContextHolder.resetLocaleContext();
+                            }
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            this.logger.debug(
+                    "{} - No thread available for a streaming transform, buffering instead",
+                    this.beanName);
+            return null;
+        }
+
+        return eventPipe.getReader();
+    }
+
+    private void transform(
+            Transformer transformer, Source xmlReaderSource, XMLEventWriter eventWriter) {
+        final ContentHandler contentHandler = StaxUtils.createLexicalContentHandler(eventWriter);
+        contentHandler.setDocumentLocator(new LocatorImpl());
+
+        final SAXResult outputTarget = new SAXResult(contentHandler);
+        try {
+            this.logger.debug("{} - Begining XML Transformation", this.beanName);
+            transformer.transform(xmlReaderSource, outputTarget);
+            this.logger.debug("{} - XML Transformation complete", this.beanName);
+        } catch (TransformerException e) {
+            throw new RuntimeException("Failed to transform document", e);
+        }
+    }
+
     @Override
     public CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
         final CacheKey parentCacheKey = this.wrappedComponent.getCacheKey(request, response);
@@ -14,14 +14,12 @@
  */
 package org.apereo.portal.url;
 
-import com.google.common.base.Function;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.xpath.XPathExpression;
 import org.apache.commons.lang.StringUtils;
 import org.apereo.portal.IUserPreferencesManager;
 import org.apereo.portal.PortalException;
@@ -31,7 +29,6 @@ import org.apereo.portal.layout.IStylesheetUserPreferencesService;
 import org.apereo.portal.layout.IStylesheetUserPreferencesService.PreferencesScope;
 import org.apereo.portal.layout.IUserLayout;
 import org.apereo.portal.layout.IUserLayoutManager;
-import org.apereo.portal.layout.PortletTabIdResolver;
 import org.apereo.portal.layout.node.IUserLayoutNodeDescription;
 import org.apereo.portal.layout.om.IStylesheetDescriptor;
 import org.apereo.portal.layout.om.IStylesheetParameterDescriptor;
@@ -44,7 +41,6 @@ import org.apereo.portal.portlet.registry.IPortletEntityRegistry;
 import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.user.IUserInstance;
 import org.apereo.portal.user.IUserInstanceManager;
-import org.apereo.portal.xml.xpath.XPathOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -63,13 +59,9 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
 
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private String defaultLayoutNodeIdExpression =
-            "/layout/folder/folder[@type='regular' and @hidden!='true'][$defaultTab]/@ID";
-    //    private String tabIdExpression = "/layout/folder/folder[@ID=$nodeId or descendant::node()[@ID=$nodeId]]/@ID";
     private String defaultTabParameter = "defaultTab";
 
     private IUserInstanceManager userInstanceManager;
-    private XPathOperations xpathOperations;
     private IStylesheetUserPreferencesService stylesheetUserPreferencesService;
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortletEntityRegistry portletEntityRegistry;
@@ -89,11 +81,6 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         this.userInstanceManager = userInstanceManager;
     }
 
-    @Autowired
-    public void setXpathOperations(XPathOperations xpathOperations) {
-        this.xpathOperations = xpathOperations;
-    }
-
     @Autowired
     public void setStylesheetUserPreferencesService(
             IStylesheetUserPreferencesService stylesheetUserPreferencesService) {
@@ -143,16 +130,12 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         return userLayout.getRootId();
     }
 
+    /**
+     * The tab index is not used as a position, the default tab has always been the first visible
+     * tab in the layout
+     */
     protected String getTabId(final IUserLayout userLayout, final String tabIndex) {
-        return this.xpathOperations.doWithExpression(
-                defaultLayoutNodeIdExpression,
-                Collections.singletonMap("defaultTab", tabIndex),
-                new Function<XPathExpression, String>() {
-                    @Override
-                    public String apply(XPathExpression xPathExpression) {
-                        return userLayout.findNodeId(xPathExpression);
-                    }
-                });
+        return userLayout.getVisibleTabId(1);
     }
 
     /** Get the index of the default tab for the user */
@@ -193,7 +176,7 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
         final IUserLayout userLayout = userLayoutManager.getUserLayout();
 
-        final String tabId = userLayout.findNodeId(new PortletTabIdResolver(layoutNodeId));
+        final String tabId = userLayout.getTabId(layoutNodeId);
 
         if (StringUtils.isEmpty(tabId)) {
             return Collections.emptyList();
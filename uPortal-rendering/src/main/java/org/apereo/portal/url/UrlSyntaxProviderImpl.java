@@ -14,7 +14,6 @@
  */
 package org.apereo.portal.url;
 
-import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import java.io.UnsupportedEncodingException;
@@ -36,9 +35,9 @@ import java.util.regex.Pattern;
 import javax.portlet.PortletMode;
 import javax.portlet.WindowState;
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.xpath.XPathExpression;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apereo.portal.IUserPreferencesManager;
 import org.apereo.portal.layout.IUserLayout;
 import org.apereo.portal.layout.IUserLayoutManager;
@@ -52,7 +51,6 @@ import org.apereo.portal.user.IUserInstance;
 import org.apereo.portal.user.IUserInstanceManager;
 import org.apereo.portal.utils.Tuple;
 import org.apereo.portal.utils.web.PortalWebUtils;
-import org.apereo.portal.xml.xpath.XPathOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -266,18 +264,12 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
     private IUrlNodeSyntaxHelperRegistry urlNodeSyntaxHelperRegistry;
     private IPortalUrlProvider portalUrlProvider;
     private IUserInstanceManager userInstanceManager;
-    private XPathOperations xpathOperations;
 
     @Autowired
     public void setUserInstanceManager(IUserInstanceManager userInstanceManager) {
         this.userInstanceManager = userInstanceManager;
     }
 
-    @Autowired
-    public void setXpathOperations(XPathOperations xpathOperations) {
-        this.xpathOperations = xpathOperations;
-    }
-
     @Autowired
     public void setPortalUrlProvider(IPortalUrlProvider portalUrlProvider) {
         this.portalUrlProvider = portalUrlProvider;
@@ -844,7 +836,7 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
                         final String[] activeTabId =
                                 parameterMap.remove(LEGACY_PARAM_LAYOUT_TAB_ID);
                         if (activeTabId != null && activeTabId.length > 0) {
-                            //Get the user's layout and do xpath for tab at index=activeTabId[0]
+                            //Get the user's layout and look up the tab at index=activeTabId[0]
                             final IUserInstance userInstance =
                                     this.userInstanceManager.getUserInstance(request);
                             final IUserPreferencesManager preferencesManager =
@@ -854,16 +846,8 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
                             final IUserLayout userLayout = userLayoutManager.getUserLayout();
 
                             final String nodeId =
-                                    this.xpathOperations.doWithExpression(
-                                            "/layout/folder/folder[@type='regular' and @hidden='false'][position() = $activeTabId]/@ID",
-                                            Collections.singletonMap("activeTabId", activeTabId[0]),
-                                            new Function<XPathExpression, String>() {
-                                                @Override
-                                                public String apply(
-                                                        XPathExpression xPathExpression) {
-                                                    return userLayout.findNodeId(xPathExpression);
-                                                }
-                                            });
+                                    userLayout.getVisibleTabId(
+                                            NumberUtils.toInt(activeTabId[0], -1));
 
                             //Found nodeId for activeTabId
                             if (nodeId != null) {
@@ -0,0 +1,145 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.portlet.Event;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletEntity;
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.rendering.IPortletRenderer;
+import org.apereo.portal.utils.threading.LoggingAbortHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+public class PortletExecutionWorkerTest {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<IPortletWindowId> executed = new CopyOnWriteArrayList<IPortletWindowId>();
+    private final IPortletRenderer portletRenderer = mock(IPortletRenderer.class);
+    private PortletThreadPoolExecutor executor;
+
+    @Before
+    public void setUp() {
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("test-");
+        threadFactory.setDaemon(true);
+        this.executor =
+                new PortletThreadPoolExecutor(1, 10, 60, threadFactory, new LoggingAbortHandler());
+        this.executor.setPercentPermittedPerFname(1);
+
+        when(this.portletRenderer.doEvent(
+                        any(IPortletWindowId.class),
+                        any(HttpServletRequest.class),
+                        any(HttpServletResponse.class),
+                        any(Event.class)))
+                .thenAnswer(
+                        new Answer<Long>() {
+                            @Override
+                            public Long answer(InvocationOnMock invocation) throws Exception {
+                                executed.add((IPortletWindowId) invocation.getArguments()[0]);
+                                started.countDown();
+                                release.await();
+                                return 0L;
+                            }
+                        });
+    }
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testQueuedWorkerTimesOutAndCancels() throws Exception {
+        final PortletEventExecutionWorker running = createWorker("running");
+        running.submit();
+        assertTrue(this.started.await(1, TimeUnit.SECONDS));
+
+        // The only thread is busy so this worker waits in the queue
+        final PortletEventExecutionWorker queued = createWorker("queued");
+        queued.submit();
+        assertFalse(queued.isStarted());
+        assertFalse(queued.isComplete());
+
+        try {
+            queued.get(50);
+            fail("A worker still waiting for a thread should time out");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertFalse(queued.isComplete());
+
+        queued.cancel();
+        assertTrue(queued.isComplete());
+        assertEquals(1, queued.getCancelCount());
+        assertEquals(0, this.executor.getQueueSize());
+
+        final PortletBulkhead bulkhead = this.executor.getBulkheads().get("queued");
+        assertEquals(0, bulkhead.getQueuedCount());
+        assertEquals(0, bulkhead.getTimeoutCount());
+
+        this.release.countDown();
+        running.get(1000);
+        this.executor.shutdown();
+        assertTrue(this.executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        // The cancelled worker never ran against its request
+        assertEquals(Collections.singletonList(running.getPortletWindowId()), this.executed);
+        assertFalse(queued.isStarted());
+    }
+
+    private PortletEventExecutionWorker createWorker(String fname) {
+        final IPortletWindow portletWindow = mock(IPortletWindow.class);
+        final IPortletEntity portletEntity = mock(IPortletEntity.class);
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletWindow.getPortletWindowId()).thenReturn(mock(IPortletWindowId.class));
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletEntity.getPortletDefinition()).thenReturn(portletDefinition);
+        when(portletDefinition.getFName()).thenReturn(fname);
+        when(portletDefinition.getTimeout()).thenReturn(1000);
+
+        return new PortletEventExecutionWorker(
+                this.executor,
+                Collections.<IPortletExecutionInterceptor>emptyList(),
+                this.portletRenderer,
+                new MockHttpServletRequest(),
+                new MockHttpServletResponse(),
+                portletWindow,
+                mock(Event.class));
+    }
+}
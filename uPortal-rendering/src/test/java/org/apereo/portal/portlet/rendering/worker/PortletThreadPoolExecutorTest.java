@@ -0,0 +1,266 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import org.apereo.portal.utils.threading.LoggingAbortHandler;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+public class PortletThreadPoolExecutorTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> executed = new CopyOnWriteArrayList<String>();
+    private PortletThreadPoolExecutor executor;
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBulkheadLimitsSinglePortlet() throws Exception {
+        createExecutor(4);
+
+        this.executor.submit(createCallable("slow", true));
+        this.executor.submit(createCallable("slow", true));
+        try {
+            this.executor.submit(createCallable("slow", true));
+            fail("The third slow execution should exceed the bulkhead");
+        } catch (RejectedExecutionException e) {
+            assertFalse(e instanceof PortletCircuitOpenException);
+        }
+
+        final Future<Object> fast = this.executor.submit(createCallable("fast", false));
+        fast.get(1, TimeUnit.SECONDS);
+
+        final PortletBulkhead bulkhead = this.executor.getBulkheads().get("slow");
+        assertEquals(1, bulkhead.getRejectedCount());
+        assertEquals(2, bulkhead.getActiveCount() + bulkhead.getQueuedCount());
+
+        this.release.countDown();
+        this.executor.shutdown();
+        assertTrue(this.executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(0, bulkhead.getActiveCount() + bulkhead.getQueuedCount());
+        assertEquals(2, bulkhead.getCompletedCount());
+    }
+
+    @Test
+    public void testQueuedPortletsTakenRoundRobin() throws Exception {
+        createExecutor(1);
+        this.executor.setPercentPermittedPerFname(10);
+
+        this.executor.submit(createCallable("blocker", true));
+        for (int i = 0; i < 3; i++) {
+            this.executor.submit(createCallable("busy", false));
+        }
+        this.executor.submit(createCallable("quiet", false));
+        assertEquals(4, this.executor.getQueueSize());
+
+        this.release.countDown();
+        this.executor.shutdown();
+        assertTrue(this.executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        assertEquals(5, this.executed.size());
+        assertTrue(
+                "quiet waited behind every busy execution: " + this.executed,
+                this.executed.indexOf("quiet") <= 2);
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveTimeouts() throws Exception {
+        createExecutor(4);
+        this.executor.setPercentPermittedPerFname(1);
+        this.executor.setCircuitBreakerTimeouts(2);
+        this.executor.setCircuitBreakerOpenSeconds(60);
+
+        submitAndCancelWhenRunning("hung");
+        submitAndCancelWhenRunning("hung");
+
+        try {
+            this.executor.submit(createCallable("hung", false));
+            fail("The circuit should be open");
+        } catch (PortletCircuitOpenException e) {
+            assertEquals("hung", e.getFname());
+        }
+
+        final PortletBulkhead bulkhead = this.executor.getBulkheads().get("hung");
+        assertTrue(bulkhead.isCircuitOpen());
+        assertEquals(2, bulkhead.getTimeoutCount());
+        assertEquals(1, bulkhead.getCircuitOpenCount());
+        assertEquals(1, bulkhead.getCircuitRejectedCount());
+
+        //Bulkheads are visible via JMX
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("uPortal:section=Test,name=PortletThreadPool");
+        mbeanServer.registerMBean(this.executor, name);
+        try {
+            final TabularData bulkheads = (TabularData) mbeanServer.getAttribute(name, "Bulkheads");
+            assertEquals(1, bulkheads.size());
+        } finally {
+            mbeanServer.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void testHalfOpenCircuitClosesAfterTrialCompletes() throws Exception {
+        createExecutor(4);
+        this.executor.setPercentPermittedPerFname(1);
+        this.executor.setCircuitBreakerTimeouts(1);
+        this.executor.setCircuitBreakerOpenSeconds(0);
+
+        submitAndCancelWhenRunning("flaky");
+        final PortletBulkhead bulkhead = this.executor.getBulkheads().get("flaky");
+        assertTrue(bulkhead.isCircuitOpen());
+
+        //One trial execution is let through, others fail until it completes
+        final Future<Object> trial = this.executor.submit(createCallable("flaky", true));
+        try {
+            this.executor.submit(createCallable("flaky", false));
+            fail("Only one trial execution should be allowed");
+        } catch (PortletCircuitOpenException e) {
+            //expected
+        }
+
+        this.release.countDown();
+        trial.get(1, TimeUnit.SECONDS);
+
+        //The outcome is recorded after the trial's result is available
+        final long waitUntil = System.currentTimeMillis() + 1000;
+        while (bulkhead.isCircuitOpen() && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10);
+        }
+        assertFalse(bulkhead.isCircuitOpen());
+
+        this.executor.submit(createCallable("flaky", false)).get(1, TimeUnit.SECONDS);
+        assertEquals(0, bulkhead.getConsecutiveTimeouts());
+    }
+
+    @Test
+    public void testCancelWhileQueuedIsNotTimeout() throws Exception {
+        createExecutor(1);
+        this.executor.setPercentPermittedPerFname(1);
+        this.executor.setCircuitBreakerTimeouts(1);
+
+        this.executor.submit(createCallable("blocker", true));
+        this.executor.submit(createCallable("queued", false)).cancel(true);
+
+        final PortletBulkhead bulkhead = this.executor.getBulkheads().get("queued");
+        assertEquals(0, bulkhead.getQueuedCount());
+        assertEquals(0, bulkhead.getTimeoutCount());
+        assertFalse(bulkhead.isCircuitOpen());
+        assertEquals(0, this.executor.getQueueSize());
+
+        this.release.countDown();
+        this.executor.submit(createCallable("queued", false)).get(1, TimeUnit.SECONDS);
+        assertEquals(1, bulkhead.getCompletedCount());
+    }
+
+    @Test
+    public void testOnlyTrialReleasesHalfOpenCircuit() throws Exception {
+        final PortletBulkhead bulkhead = new PortletBulkhead("flaky");
+
+        //Both admitted before the circuit opened
+        assertFalse(bulkhead.acquire(10, 0));
+        assertFalse(bulkhead.acquire(10, 0));
+        bulkhead.started();
+        bulkhead.finished();
+        bulkhead.recordTimeout(1, 1000, 0, false);
+        assertTrue(bulkhead.isCircuitOpen());
+
+        assertTrue(bulkhead.acquire(10, 2000));
+
+        //The older execution leaving the queue must not let a second trial through
+        bulkhead.dequeued(false);
+        try {
+            bulkhead.acquire(10, 2000);
+            fail("Only one trial should run while the circuit is half open");
+        } catch (PortletCircuitOpenException e) {
+            // expected
+        }
+
+        bulkhead.started();
+        bulkhead.finished();
+        bulkhead.recordTimeout(1, 1000, 2000, true);
+        assertTrue(bulkhead.acquire(10, 4000));
+    }
+
+    private void createExecutor(int maxThreads) {
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("test-");
+        threadFactory.setDaemon(true);
+        this.executor =
+                new PortletThreadPoolExecutor(
+                        maxThreads, 10, 60, threadFactory, new LoggingAbortHandler());
+    }
+
+    /** Cancels the execution once it is running, like a worker that hit its timeout */
+    private void submitAndCancelWhenRunning(String fname) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final Future<Object> future = this.executor.submit(createCallable(fname, true, started));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        future.cancel(true);
+    }
+
+    private Callable<Object> createCallable(String fname, boolean blocks) throws Exception {
+        return createCallable(fname, blocks, new CountDownLatch(1));
+    }
+
+    private Callable<Object> createCallable(
+            final String fname, final boolean blocks, final CountDownLatch started)
+            throws Exception {
+        final PortletExecutionContextCallable callable =
+                mock(PortletExecutionContextCallable.class);
+        when(callable.getPortletFname()).thenReturn(fname);
+        when(callable.call())
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) throws Exception {
+                                started.countDown();
+                                if (blocks) {
+                                    release.await();
+                                }
+                                executed.add(fname);
+                                return fname;
+                            }
+                        });
+        return callable;
+    }
+
+    private interface PortletExecutionContextCallable
+            extends IPortletExecutionContext, Callable<Object> {}
+}
@@ -14,6 +14,7 @@
  */
 package org.apereo.portal.security;
 
+import java.util.Set;
 import java.util.Vector;
 import org.apereo.portal.AuthorizationException;
 import org.apereo.portal.groups.GroupsException;
@@ -185,6 +186,16 @@ public interface IAuthorizationService {
     IPermission[] getPermissionsForPrincipal(
             IAuthorizationPrincipal principal, String owner, String activity, String target)
             throws AuthorizationException;
+    /**
+     * Returns the keys of the groups containing the target. Permissions for the target held on
+     * these groups apply to the target as well, {@link #getPermissionsForPrincipal(
+     * IAuthorizationPrincipal, String, String, String)} includes them.
+     *
+     * @param owner The owner of the permissions, may be null
+     * @param activity The activity of the permissions, may be null
+     * @param target The target of the permissions, null for no target
+     */
+    Set<String> getGroupsContainingTarget(String owner, String activity, String target);
     /**
      * Creates a new <code>IPermission</code> for the <code>principal</code> on behalf of the <code>
      * owner</code>.
@@ -14,15 +14,7 @@
  */
 package org.apereo.portal.security.provider;
 
-import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.Element;
 import org.apereo.portal.AuthorizationException;
-import org.apereo.portal.groups.GroupsException;
-import org.apereo.portal.groups.IEntityGroup;
-import org.apereo.portal.groups.IGroupMember;
 import org.apereo.portal.permission.IPermissionActivity;
 import org.apereo.portal.permission.IPermissionOwner;
 import org.apereo.portal.permission.dao.IPermissionOwnerDao;
@@ -35,7 +27,6 @@ import org.apereo.portal.security.IPermissionPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 /**
@@ -62,6 +53,9 @@ import org.springframework.stereotype.Service;
  * <p>Principal -- Small group (DENY) -- Bigger group -- Huge group Principal -- Some other group --
  * Bigger other group (GRANT) -- Huge group Results in GRANT because there is an unblocked path to a
  * GRANT.
+ *
+ * <p>The groups hierarchy and the GRANTs and DENYs are evaluated through the {@link
+ * PermissionIndex}.
  */
 @Service("anyUnblockedGrantPermissionPolicy")
 public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
@@ -72,12 +66,7 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
 
     @Autowired private IPermissionTargetProviderRegistry targetProviderRegistry;
 
-    @Autowired
-    @Qualifier(
-        value =
-                "org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.HAS_UNBLOCKED_GRANT"
-    )
-    private Cache hasUnblockedGrantCache;
+    @Autowired private PermissionIndex permissionIndex;
 
     public boolean doesPrincipalHavePermission(
             IAuthorizationService service,
@@ -181,11 +170,13 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
         // Search ourselves and all ancestors for an unblocked GRANT.
         boolean rslt;
         try {
-            // Track groups we've already explored to avoid infinite loop
-            final Set<IGroupMember> seenGroups = new HashSet<>();
             rslt =
-                    hasUnblockedPathToGrantWithCache(
-                            service, principal, owner, activity, target, seenGroups);
+                    permissionIndex.hasUnblockedGrant(
+                            service,
+                            principal,
+                            owner.getFname(),
+                            activity.getFname(),
+                            target.getKey());
         } catch (Exception e) {
             log.error(
                     "Error searching for unblocked path to grant for principal [" + principal + "]",
@@ -222,8 +213,8 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
     /**
      * Allows an outside actor to force this policy to evaluate and cache an authorization decision.
      * Permissions checking can be expensive; a well-primed cache can make the task perform better.
-     * This method will create the cache entry whether it exists already or not, forcibly resetting
-     * the TTL.
+     * This method compiles the permissions for the target whether they are compiled already or not,
+     * forcibly resetting the TTL.
      *
      * @since 4.3
      */
@@ -234,284 +225,8 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
             IPermissionActivity activity,
             IPermissionTarget target) {
 
-        final Set<IGroupMember> seenGroups = new HashSet<>();
-        final CacheTuple cacheTuple =
-                new CacheTuple(
-                        principal.getPrincipalString(),
-                        owner.getFname(),
-                        activity.getFname(),
-                        target.getKey());
-        final boolean answer =
-                hasUnblockedPathToGrant(service, principal, owner, activity, target, seenGroups);
-        Element element = new Element(cacheTuple, answer);
-        hasUnblockedGrantCache.put(element);
-    }
-
-    private boolean hasUnblockedPathToGrantWithCache(
-            IAuthorizationService service,
-            IAuthorizationPrincipal principal,
-            IPermissionOwner owner,
-            IPermissionActivity activity,
-            IPermissionTarget target,
-            Set<IGroupMember> seenGroups)
-            throws GroupsException {
-
-        final CacheTuple cacheTuple =
-                new CacheTuple(
-                        principal.getPrincipalString(),
-                        owner.getFname(),
-                        activity.getFname(),
-                        target.getKey());
-        Element element = hasUnblockedGrantCache.get(cacheTuple);
-        if (element == null) {
-            final boolean answer =
-                    hasUnblockedPathToGrant(
-                            service, principal, owner, activity, target, seenGroups);
-            element = new Element(cacheTuple, answer);
-            hasUnblockedGrantCache.put(element);
-        }
-        return (Boolean) element.getObjectValue();
-    }
-
-    /**
-     * This method performs the actual, low-level checking of a single activity and target. Is IS
-     * responsible for performing the same check for affiliated groups in the Groups hierarchy, but
-     * it is NOT responsible for understanding the nuances of relationships some activities and/or
-     * targets have with one another (e.g. MANAGE_APPROVED, ALL_PORTLETS, etc.). It performs the
-     * following steps, in order:
-     *
-     * <ol>
-     *   <li>Find out if the specified principal is <em>specifically</em> granted or denied; if an
-     *       answer is found in this step, return it
-     *   <li>Find out what groups this principal belongs to; convert each one to a principal and
-     *       seek an answer by invoking ourselves recursively; if an answer is found in this step,
-     *       return it
-     *   <li>Return false (no explicit GRANT means no permission)
-     * </ol>
-     */
-    private boolean hasUnblockedPathToGrant(
-            IAuthorizationService service,
-            IAuthorizationPrincipal principal,
-            IPermissionOwner owner,
-            IPermissionActivity activity,
-            IPermissionTarget target,
-            Set<IGroupMember> seenGroups)
-            throws GroupsException {
-
-        if (log.isTraceEnabled()) {
-            log.trace(
-                    "Searching for unblocked path to GRANT for principal '{}' to "
-                            + "'{}' on target '{}' having already checked:  {}",
-                    principal.getKey(),
-                    activity.getFname(),
-                    target.getKey(),
-                    seenGroups);
-        }
-
-        /*
-         * Step #1:  Specific GRANT/DENY attached to this principal
-         */
-        final IPermission[] permissions =
-                service.getPermissionsForPrincipal(
-                        principal, owner.getFname(), activity.getFname(), target.getKey());
-
-        final Set<IPermission> activePermissions = removeInactivePermissions(permissions);
-        final boolean denyExists =
-                containsType(activePermissions, IPermission.PERMISSION_TYPE_DENY);
-        if (denyExists) {
-            // We need go no further;  DENY trumps both GRANT & inherited permissions
-            return false;
-        }
-        final boolean grantExists =
-                containsType(activePermissions, IPermission.PERMISSION_TYPE_GRANT);
-        if (grantExists) {
-            // We need go no further;  explicit GRANT at this level of the hierarchy
-            if (log.isTraceEnabled()) {
-                log.trace(
-                        "Found unblocked path to this permission set including a GRANT:  {}",
-                        activePermissions);
-            }
-            return true;
-        }
-
-        /*
-         * Step #2:  Seek an answer from affiliated groups
-         */
-        IGroupMember principalAsGroupMember = service.getGroupMember(principal);
-        if (seenGroups.contains(principalAsGroupMember)) {
-            if (log.isTraceEnabled()) {
-                log.trace(
-                        "Declining to re-examine principal '{}' for permission to '{}' "
-                                + "on '{}' because this group is among already checked groups:  {}",
-                        principal.getKey(),
-                        activity.getFname(),
-                        target.getKey(),
-                        seenGroups);
-            }
-            return false;
-        }
-        seenGroups.add(principalAsGroupMember);
-        Set<IEntityGroup> immediatelyContainingGroups = principalAsGroupMember.getParentGroups();
-        for (IGroupMember parentGroup : immediatelyContainingGroups) {
-            try {
-                if (parentGroup != null) {
-                    IAuthorizationPrincipal parentPrincipal = service.newPrincipal(parentGroup);
-                    boolean parentHasUnblockedPathToGrant =
-                            hasUnblockedPathToGrantWithCache(
-                                    service, parentPrincipal, owner, activity, target, seenGroups);
-                    if (parentHasUnblockedPathToGrant) {
-                        return true;
-                    }
-                    // Parent didn't have a path to grant, fall through and try another parent (if any)
-                }
-            } catch (Exception e) {
-                // problem evaluating this path, but let's not let it stop
-                // us from exploring other paths.  Though a portion of the
-                // group structure is broken, permission may be granted by
-                // an unbroken portion
-                log.error("Error evaluating permissions of parent group [" + parentGroup + "]", e);
-            }
-        }
-
-        /*
-         * Step #3:  No explicit GRANT means no permission
-         */
-        return false;
-    }
-
-    /**
-     * Returns a Set containing those IPermission instances where the present date is neither after
-     * the permission expiration if present nor before the permission start date if present. Only
-     * permissions objects that have been filtered by this method should be checked.
-     *
-     * @return Potentially empty non-null Set of active permissions.
-     */
-    private Set<IPermission> removeInactivePermissions(final IPermission[] perms) {
-        Date now = new Date();
-
-        Set<IPermission> rslt = new HashSet<IPermission>(1);
-
-        for (int i = 0; i < perms.length; i++) {
-            IPermission p = perms[i];
-
-            if ((p.getEffective() == null || !p.getEffective().after(now))
-                    && (p.getExpires() == null || p.getExpires().after(now))) {
-                rslt.add(p);
-            }
-        }
-
-        return rslt;
-    }
-
-    /**
-     * Returns true if a set of IPermission instances contains a permission of the specified type,
-     * otherwise false. Permissions passed to this method <em>must</em> already be filtered of
-     * inactive (expired) instances.
-     *
-     * @return True if the set contains a permission of the sought type, false otherwise
-     * @throws IllegalArgumentException if input set or type is null.
-     */
-    private boolean containsType(final Set<IPermission> permissions, final String soughtType) {
-
-        // Assertions
-        if (permissions == null) {
-            throw new IllegalArgumentException("Cannot check null set for contents.");
-        }
-        if (soughtType == null) {
-            throw new IllegalArgumentException("Cannot search for type null.");
-        }
-
-        boolean rslt = false; // default
-
-        for (IPermission p : permissions) {
-            if (soughtType.equals(p.getType())) {
-                rslt = true;
-            }
-        }
-
-        return rslt;
-    }
-
-    /*
-     * Nested Types
-     */
-
-    private static final class CacheTuple {
-        private final String principalName;
-        private final String owner;
-        private final String activity;
-        private final String target;
-
-        public CacheTuple(String principalName, String owner, String activity, String target) {
-            this.principalName = principalName;
-            this.owner = owner;
-            this.activity = activity;
-            this.target = target;
-        }
-
-        @SuppressWarnings("unused")
-        public String getPrincipalName() {
-            return principalName;
-        }
-
-        @SuppressWarnings("unused")
-        public String getOwner() {
-            return owner;
-        }
-
-        @SuppressWarnings("unused")
-        public String getActivity() {
-            return activity;
-        }
-
-        @SuppressWarnings("unused")
-        public String getTarget() {
-            return target;
-        }
-
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + ((activity == null) ? 0 : activity.hashCode());
-            result = prime * result + ((owner == null) ? 0 : owner.hashCode());
-            result = prime * result + ((principalName == null) ? 0 : principalName.hashCode());
-            result = prime * result + ((target == null) ? 0 : target.hashCode());
-            return result;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) return true;
-            if (obj == null) return false;
-            if (getClass() != obj.getClass()) return false;
-            CacheTuple other = (CacheTuple) obj;
-            if (activity == null) {
-                if (other.activity != null) return false;
-            } else if (!activity.equals(other.activity)) return false;
-            if (owner == null) {
-                if (other.owner != null) return false;
-            } else if (!owner.equals(other.owner)) return false;
-            if (principalName == null) {
-                if (other.principalName != null) return false;
-            } else if (!principalName.equals(other.principalName)) return false;
-            if (target == null) {
-                if (other.target != null) return false;
-            } else if (!target.equals(other.target)) return false;
-            return true;
-        }
-
-        @Override
-        public String toString() {
-            return "CacheTuple [principalName="
-                    + principalName
-                    + ", owner="
-                    + owner
-                    + ", activity="
-                    + activity
-                    + ", target="
-                    + target
-                    + "]";
-        }
+        permissionIndex.loadTarget(service, owner.getFname(), activity.getFname(), target.getKey());
+        permissionIndex.hasUnblockedGrant(
+                service, principal, owner.getFname(), activity.getFname(), target.getKey());
     }
 }
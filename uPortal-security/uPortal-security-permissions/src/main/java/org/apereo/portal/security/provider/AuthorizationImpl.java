@@ -101,6 +101,9 @@ public class AuthorizationImpl implements IAuthorizationService {
     /** The cache to hold permission resolution. */
     private Ehcache doesPrincipalHavePermissionCache;
 
+    /** Compiled permissions, kept current as permissions are changed. */
+    private PermissionIndex permissionIndex;
+
     /** The class representing the permission set type. */
     private static final Class<IPermissionSet> PERMISSION_SET_TYPE = IPermissionSet.class;
 
@@ -157,6 +160,11 @@ public class AuthorizationImpl implements IAuthorizationService {
         this.doesPrincipalHavePermissionCache = doesPrincipalHavePermissionCache;
     }
 
+    @Autowired
+    public void setPermissionIndex(PermissionIndex permissionIndex) {
+        this.permissionIndex = permissionIndex;
+    }
+
     @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
@@ -184,6 +192,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            permissionIndex.permissionsChanged(permissions);
         }
     }
 
@@ -581,7 +590,21 @@ public class AuthorizationImpl implements IAuthorizationService {
             throws AuthorizationException {
         IPermission[] perms = getPermissionsForPrincipal(principal, owner, activity, target);
         ArrayList<IPermission> al = new ArrayList<IPermission>(Arrays.asList(perms));
-        Iterator i = getInheritedPrincipals(principal);
+        Iterator i;
+        if (owner != null && activity != null) {
+            // Only the groups holding permissions for the activity can contribute any
+            try {
+                i =
+                        permissionIndex
+                                .getInheritedPrincipalsWithPermissions(
+                                        this, principal, owner, activity)
+                                .iterator();
+            } catch (GroupsException ge) {
+                throw new AuthorizationException("Could not retrieve Groups for " + principal, ge);
+            }
+        } else {
+            i = getInheritedPrincipals(principal);
+        }
         while (i.hasNext()) {
             IAuthorizationPrincipal p = (IAuthorizationPrincipal) i.next();
             perms = getPermissionsForPrincipal(p, owner, activity, target);
@@ -935,6 +958,77 @@ public class AuthorizationImpl implements IAuthorizationService {
         return ps.getPermissions();
     }
 
+    /**
+     * The synthetic ALL targets and targets of activities whose target provider is not an entity
+     * provider are contained by no groups.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getGroupsContainingTarget(String owner, String activity, String target) {
+        if (target == null) {
+            return new HashSet<String>();
+        }
+
+        final Set<String> containingGroups;
+
+        final Element element = this.entityParentsCache.get(target);
+        if (element != null) {
+            containingGroups = (Set<String>) element.getObjectValue();
+        } else {
+            containingGroups = new HashSet<String>();
+
+            //Ignore target entity lookups for the various synthetic ALL targets
+            if (!IPermission.ALL_CATEGORIES_TARGET.equals(target)
+                    && !IPermission.ALL_GROUPS_TARGET.equals(target)
+                    && !IPermission.ALL_PORTLETS_TARGET.equals(target)
+                    && !IPermission.ALL_TARGET.equals(target)) {
+
+                // UP-4410; It would be ideal if the target string indicated it was a group or entity that might be
+                // a member of a group so we could determine whether to check what groups the target entity might be
+                // contained within to see if the principal has permission to the containing group, but it does not
+                // (too significant to refactor database values at this point).  If the owner and activity strings map to
+                // a type of target that might be a group name or entity name, create a set of the groups the target
+                // entity is contained in.
+                boolean checkTargetForContainingGroups = true;
+                if (owner != null && activity != null) {
+                    IPermissionActivity permissionActivity =
+                            permissionOwner.getPermissionActivity(owner, activity);
+                    if (nonEntityPermissionTargetProviders.contains(
+                            permissionActivity.getTargetProviderKey())) {
+                        checkTargetForContainingGroups = false;
+                    }
+                }
+                if (checkTargetForContainingGroups) {
+                    log.debug(
+                            "Target '{}' is an entity. Checking for group or groups containing entity",
+                            target);
+
+                    IGroupMember targetEntity = GroupService.findGroup(target);
+                    if (targetEntity == null) {
+                        if (target.startsWith(IPermission.PORTLET_PREFIX)) {
+                            targetEntity =
+                                    GroupService.getGroupMember(
+                                            target.replace(IPermission.PORTLET_PREFIX, ""),
+                                            IPortletDefinition.class);
+                        } else {
+                            targetEntity = GroupService.getGroupMember(target, IPerson.class);
+                        }
+                    }
+
+                    if (targetEntity != null) {
+                        for (IEntityGroup ancestor : targetEntity.getAncestorGroups()) {
+                            containingGroups.add(ancestor.getKey());
+                        }
+                    }
+                }
+            }
+
+            this.entityParentsCache.put(new Element(target, containingGroups));
+        }
+
+        return containingGroups;
+    }
+
     /**
      * @return IPermission[]
      * @param principal org.apereo.portal.security.IAuthorizationPrincipal
@@ -961,68 +1055,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             return perms;
         }
 
-        Set<String> containingGroups;
-
-        if (target != null) {
-
-            final Element element = this.entityParentsCache.get(target);
-            if (element != null) {
-                containingGroups = (Set<String>) element.getObjectValue();
-            } else {
-                containingGroups = new HashSet<String>();
-
-                //Ignore target entity lookups for the various synthetic ALL targets
-                if (!IPermission.ALL_CATEGORIES_TARGET.equals(target)
-                        && !IPermission.ALL_GROUPS_TARGET.equals(target)
-                        && !IPermission.ALL_PORTLETS_TARGET.equals(target)
-                        && !IPermission.ALL_TARGET.equals(target)) {
-
-                    // UP-4410; It would be ideal if the target string indicated it was a group or entity that might be
-                    // a member of a group so we could determine whether to check what groups the target entity might be
-                    // contained within to see if the principal has permission to the containing group, but it does not
-                    // (too significant to refactor database values at this point).  If the owner and activity strings map to
-                    // a type of target that might be a group name or entity name, create a set of the groups the target
-                    // entity is contained in.
-                    boolean checkTargetForContainingGroups = true;
-                    if (owner != null && activity != null) {
-                        IPermissionActivity permissionActivity =
-                                permissionOwner.getPermissionActivity(owner, activity);
-                        if (nonEntityPermissionTargetProviders.contains(
-                                permissionActivity.getTargetProviderKey())) {
-                            checkTargetForContainingGroups = false;
-                        }
-                    }
-                    if (checkTargetForContainingGroups) {
-                        log.debug(
-                                "Target '{}' is an entity. Checking for group or groups containing entity",
-                                target);
-
-                        IGroupMember targetEntity = GroupService.findGroup(target);
-                        if (targetEntity == null) {
-                            if (target.startsWith(IPermission.PORTLET_PREFIX)) {
-                                targetEntity =
-                                        GroupService.getGroupMember(
-                                                target.replace(IPermission.PORTLET_PREFIX, ""),
-                                                IPortletDefinition.class);
-                            } else {
-                                targetEntity = GroupService.getGroupMember(target, IPerson.class);
-                            }
-                        }
-
-                        if (targetEntity != null) {
-                            for (IEntityGroup ancestor : targetEntity.getAncestorGroups()) {
-                                containingGroups.add(ancestor.getKey());
-                            }
-                        }
-                    }
-                }
-
-                this.entityParentsCache.put(new Element(target, containingGroups));
-            }
-
-        } else {
-            containingGroups = new HashSet<String>();
-        }
+        final Set<String> containingGroups = getGroupsContainingTarget(owner, activity, target);
 
         List<IPermission> al = new ArrayList<IPermission>(perms.length);
 
@@ -1125,6 +1158,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            permissionIndex.permissionsChanged(permissions);
         }
     }
 
@@ -1140,6 +1174,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            permissionIndex.permissionsChanged(permissions);
         }
     }
 }
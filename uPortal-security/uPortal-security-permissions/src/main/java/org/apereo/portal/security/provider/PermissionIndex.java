@@ -0,0 +1,465 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.apereo.portal.utils.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Compiled form of the permissions evaluated by {@link AnyUnblockedGrantPermissionPolicy}. Groups
+ * and principals holding permissions are numbered densely as they are seen, so the groups
+ * containing a principal and the principals granted or denied an activity on a target can be held
+ * as bitsets. Other principals, e.g. most individual users, are never numbered; their own
+ * permissions are looked up directly. Whether a principal has an unblocked path to a grant is then
+ * a few bitwise operations; only when both a grant and a deny apply among the principal's groups is
+ * the groups hierarchy walked, and then only along branches that lead to a grant.
+ *
+ * <p>Compiled permissions for an owner and activity are dropped when permissions for them are
+ * changed through {@link AuthorizationImpl}. A principal's groups are dropped when its memberships
+ * change, as signalled by removals from the groups parent cache; a change to the memberships of a
+ * group drops the groups of every principal. Both also expire, which covers changes that are not
+ * signalled, e.g. permissions changed on another node of a cluster.
+ *
+ * @since 5.0
+ */
+@Service
+public class PermissionIndex {
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private int timeToLiveSeconds = 300;
+
+    /** The number of every group and permission holder seen, by principal string */
+    private final ConcurrentMap<String, Integer> principalNumbers = new ConcurrentHashMap<>();
+
+    /** Every group and permission holder seen, by number */
+    private final List<IAuthorizationPrincipal> numberedPrincipals = new ArrayList<>();
+
+    /** Compiled permissions by owner and activity */
+    private final ConcurrentMap<Tuple<String, String>, ActivityPermissions> activityPermissions =
+            new ConcurrentHashMap<>();
+
+    /** Incremented when a change to the memberships of a group may affect any set of ancestors */
+    private final AtomicLong membershipGeneration = new AtomicLong();
+
+    /** {@link Ancestors} by principal key and type */
+    private Ehcache ancestorsCache;
+
+    @Autowired
+    public void setAncestorsCache(
+            @Qualifier("org.apereo.portal.security.provider.PermissionIndex.ANCESTORS")
+                    Ehcache ancestorsCache) {
+        this.ancestorsCache = ancestorsCache;
+    }
+
+    @Autowired
+    public void setParentGroupsCache(
+            @Qualifier("org.apereo.portal.groups.GroupMemberImpl.parentGroups")
+                    Ehcache parentGroupsCache) {
+        parentGroupsCache
+                .getCacheEventNotificationService()
+                .registerListener(new MembershipChangeListener());
+    }
+
+    /** How long compiled permissions are used before they are compiled again */
+    @Value("${org.apereo.portal.security.provider.PermissionIndex.timeToLiveSeconds:300}")
+    public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    /**
+     * Answers if there is a path up the groups hierarchy from the principal to a principal that is
+     * granted the activity on the target, where no principal along the path is denied it. A deny
+     * trumps a grant for the same principal.
+     */
+    public boolean hasUnblockedGrant(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            String owner,
+            String activity,
+            String target) {
+
+        final TargetPermissions permissions =
+                getTargetPermissions(service, owner, activity, target, false);
+
+        final int number = findNumber(principal);
+        if (number >= 0 && permissions.denies.get(number)) {
+            // DENY trumps both GRANT & inherited permissions
+            return false;
+        }
+        if (number >= 0 && permissions.grants.get(number)) {
+            return true;
+        }
+
+        final BitSet ancestors = getAncestors(service, principal);
+
+        if (!ancestors.intersects(permissions.unblockedGrants)) {
+            // No grant that could apply
+            return false;
+        }
+        if (!ancestors.intersects(permissions.denies)) {
+            // Nothing that could block the path to a grant
+            return true;
+        }
+
+        return hasUnblockedPathToGrant(service, principal, permissions, new BitSet());
+    }
+
+    /**
+     * Compiles the permissions for the activity on the target whether they are compiled already or
+     * not, so that later checks need not.
+     */
+    public void loadTarget(
+            IAuthorizationService service, String owner, String activity, String target) {
+        getTargetPermissions(service, owner, activity, target, true);
+    }
+
+    /**
+     * @return The groups containing the principal, directly or indirectly, that hold permissions
+     *     for the activity
+     */
+    public List<IAuthorizationPrincipal> getInheritedPrincipalsWithPermissions(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            String owner,
+            String activity) {
+
+        final BitSet inherited = (BitSet) getAncestors(service, principal).clone();
+        inherited.and(getActivityPermissions(service, owner, activity).holders);
+
+        final List<IAuthorizationPrincipal> rslt = new ArrayList<>(inherited.cardinality());
+        synchronized (numberedPrincipals) {
+            for (int i = inherited.nextSetBit(0); i >= 0; i = inherited.nextSetBit(i + 1)) {
+                rslt.add(numberedPrincipals.get(i));
+            }
+        }
+        return rslt;
+    }
+
+    /** Drops the compiled permissions for the owners and activities of the permissions */
+    public void permissionsChanged(IPermission[] permissions) {
+        for (final IPermission permission : permissions) {
+            activityPermissions.remove(
+                    new Tuple<String, String>(permission.getOwner(), permission.getActivity()));
+        }
+    }
+
+    /*
+     * Implementation
+     */
+
+    private boolean hasUnblockedPathToGrant(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            TargetPermissions permissions,
+            BitSet seen) {
+
+        final int number = findNumber(principal);
+        if (number >= 0) {
+            if (permissions.denies.get(number)) {
+                // DENY trumps both GRANT & inherited permissions
+                return false;
+            }
+            if (permissions.grants.get(number)) {
+                return true;
+            }
+            if (seen.get(number)) {
+                return false;
+            }
+            seen.set(number);
+        }
+
+        final IGroupMember groupMember = service.getGroupMember(principal);
+        if (groupMember == null) {
+            return false;
+        }
+        for (final IEntityGroup parentGroup : groupMember.getParentGroups()) {
+            try {
+                if (parentGroup != null) {
+                    final IAuthorizationPrincipal parentPrincipal =
+                            service.newPrincipal(parentGroup);
+                    // Only follow branches that lead to a grant
+                    if ((permissions.unblockedGrants.get(getNumber(parentPrincipal))
+                                    || getAncestors(service, parentPrincipal)
+                                            .intersects(permissions.unblockedGrants))
+                            && hasUnblockedPathToGrant(
+                                    service, parentPrincipal, permissions, seen)) {
+                        return true;
+                    }
+                }
+            } catch (Exception e) {
+                // Permission may still be granted by an unbroken portion of the groups structure
+                log.error("Error evaluating permissions of parent group [" + parentGroup + "]", e);
+            }
+        }
+
+        return false;
+    }
+
+    /** @return The number of the principal, or -1 if it is neither a group nor a holder */
+    private int findNumber(IAuthorizationPrincipal principal) {
+        final Integer number = principalNumbers.get(principal.getPrincipalString());
+        return number != null ? number : -1;
+    }
+
+    /** Numbers the principal, which must be a group or hold permissions */
+    private int getNumber(IAuthorizationPrincipal principal) {
+        final String principalString = principal.getPrincipalString();
+        final Integer number = principalNumbers.get(principalString);
+        if (number != null) {
+            return number;
+        }
+
+        synchronized (numberedPrincipals) {
+            Integer rslt = principalNumbers.get(principalString);
+            if (rslt == null) {
+                rslt = numberedPrincipals.size();
+                numberedPrincipals.add(principal);
+                principalNumbers.put(principalString, rslt);
+            }
+            return rslt;
+        }
+    }
+
+    /** @return The numbers of every group containing the principal, directly or indirectly */
+    private BitSet getAncestors(IAuthorizationService service, IAuthorizationPrincipal principal) {
+        final Tuple<String, Class> key =
+                new Tuple<String, Class>(principal.getKey(), principal.getType());
+        final long generation = membershipGeneration.get();
+
+        final Element element = ancestorsCache.get(key);
+        if (element != null) {
+            final Ancestors ancestors = (Ancestors) element.getObjectValue();
+            if (ancestors.generation == generation) {
+                return ancestors.numbers;
+            }
+        }
+
+        final BitSet numbers = new BitSet();
+        final IGroupMember groupMember = service.getGroupMember(principal);
+        if (groupMember != null) {
+            for (final IEntityGroup group : groupMember.getAncestorGroups()) {
+                numbers.set(getNumber(service.newPrincipal(group)));
+            }
+        }
+
+        ancestorsCache.put(new Element(key, new Ancestors(numbers, generation)));
+        return numbers;
+    }
+
+    private ActivityPermissions getActivityPermissions(
+            IAuthorizationService service, String owner, String activity) {
+
+        final Tuple<String, String> key = new Tuple<String, String>(owner, activity);
+        final long now = System.currentTimeMillis();
+
+        ActivityPermissions rslt = activityPermissions.get(key);
+        if (rslt == null || rslt.validUntil <= now) {
+            // Only principals holding some permission for the activity can be granted or denied it
+            final BitSet holders = new BitSet();
+            final Map<String, List<HeldPermission>> targetPermissions = new HashMap<>();
+            for (final IPermission permission :
+                    service.getPermissionsForOwner(owner, activity, null)) {
+                final IAuthorizationPrincipal principal = service.getPrincipal(permission);
+                final int number = getNumber(principal);
+                holders.set(number);
+
+                List<HeldPermission> held = targetPermissions.get(permission.getTarget());
+                if (held == null) {
+                    held = new ArrayList<>();
+                    targetPermissions.put(permission.getTarget(), held);
+                }
+                held.add(new HeldPermission(number, permission));
+            }
+
+            rslt =
+                    new ActivityPermissions(
+                            holders, targetPermissions, now + timeToLiveSeconds * 1000L);
+            activityPermissions.put(key, rslt);
+        }
+        return rslt;
+    }
+
+    private TargetPermissions getTargetPermissions(
+            IAuthorizationService service,
+            String owner,
+            String activity,
+            String target,
+            boolean forceCompile) {
+
+        final ActivityPermissions permissions = getActivityPermissions(service, owner, activity);
+        final long now = System.currentTimeMillis();
+
+        TargetPermissions rslt = permissions.targets.get(target);
+        if (forceCompile || rslt == null || rslt.validUntil <= now) {
+            final BitSet grants = new BitSet();
+            final BitSet denies = new BitSet();
+            long validUntil = permissions.validUntil;
+
+            // Permissions on the target itself and on the groups containing it apply, the same ones
+            // getPermissionsForPrincipal would return for each holder
+            final List<HeldPermission> held = new ArrayList<>();
+            addTargetPermissions(permissions, target, held);
+            for (final String group : service.getGroupsContainingTarget(owner, activity, target)) {
+                addTargetPermissions(permissions, group, held);
+            }
+
+            for (final HeldPermission heldPermission : held) {
+                final IPermission permission = heldPermission.permission;
+
+                // Recompile when a permission becomes active or expires
+                final Date effective = permission.getEffective();
+                if (effective != null && effective.getTime() > now) {
+                    validUntil = Math.min(validUntil, effective.getTime());
+                    continue;
+                }
+                final Date expires = permission.getExpires();
+                if (expires != null) {
+                    if (expires.getTime() <= now) {
+                        continue;
+                    }
+                    validUntil = Math.min(validUntil, expires.getTime());
+                }
+
+                if (IPermission.PERMISSION_TYPE_DENY.equals(permission.getType())) {
+                    denies.set(heldPermission.holder);
+                } else if (IPermission.PERMISSION_TYPE_GRANT.equals(permission.getType())) {
+                    grants.set(heldPermission.holder);
+                }
+            }
+
+            rslt = new TargetPermissions(grants, denies, validUntil);
+            permissions.targets.put(target, rslt);
+        }
+        return rslt;
+    }
+
+    private void addTargetPermissions(
+            ActivityPermissions permissions, String target, List<HeldPermission> held) {
+        final List<HeldPermission> targetPermissions = permissions.targetPermissions.get(target);
+        if (targetPermissions != null) {
+            held.addAll(targetPermissions);
+        }
+    }
+
+    /*
+     * Nested Types
+     */
+
+    private static final class Ancestors {
+        private final BitSet numbers;
+        private final long generation;
+
+        public Ancestors(BitSet numbers, long generation) {
+            this.numbers = numbers;
+            this.generation = generation;
+        }
+    }
+
+    private static final class ActivityPermissions {
+        private final BitSet holders;
+        /** Every permission for the owner and activity, by target */
+        private final Map<String, List<HeldPermission>> targetPermissions;
+
+        private final long validUntil;
+        private final Map<String, TargetPermissions> targets = new ConcurrentHashMap<>();
+
+        public ActivityPermissions(
+                BitSet holders,
+                Map<String, List<HeldPermission>> targetPermissions,
+                long validUntil) {
+            this.holders = holders;
+            this.targetPermissions = targetPermissions;
+            this.validUntil = validUntil;
+        }
+    }
+
+    private static final class HeldPermission {
+        /** Number of the principal holding the permission */
+        private final int holder;
+
+        private final IPermission permission;
+
+        public HeldPermission(int holder, IPermission permission) {
+            this.holder = holder;
+            this.permission = permission;
+        }
+    }
+
+    private static final class TargetPermissions {
+        private final BitSet grants;
+        private final BitSet denies;
+        /** Principals granted and not also denied */
+        private final BitSet unblockedGrants;
+
+        private final long validUntil;
+
+        public TargetPermissions(BitSet grants, BitSet denies, long validUntil) {
+            this.grants = grants;
+            this.denies = denies;
+            this.unblockedGrants = (BitSet) grants.clone();
+            this.unblockedGrants.andNot(denies);
+            this.validUntil = validUntil;
+        }
+    }
+
+    /** Drops ancestors when the parent groups of a member are invalidated */
+    private final class MembershipChangeListener extends CacheEventListenerAdapter {
+        @Override
+        public void notifyElementRemoved(Ehcache cache, Element element) {
+            if (element == null || !(element.getObjectKey() instanceof EntityIdentifier)) {
+                return;
+            }
+
+            final EntityIdentifier entityIdentifier = (EntityIdentifier) element.getObjectKey();
+            if (IEntityGroup.class.isAssignableFrom(entityIdentifier.getType())) {
+                // Every member of the group may have gained or lost ancestors
+                membershipGeneration.incrementAndGet();
+            } else {
+                ancestorsCache.remove(
+                        new Tuple<String, Class>(
+                                entityIdentifier.getKey(), entityIdentifier.getType()));
+            }
+        }
+
+        @Override
+        public void notifyRemoveAll(Ehcache cache) {
+            membershipGeneration.incrementAndGet();
+        }
+    }
+}
@@ -16,7 +16,6 @@ package org.apereo.portal.security.provider;
 
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -24,32 +23,23 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
-import org.apereo.portal.EntityIdentifier;
-import org.apereo.portal.groups.IEntityGroup;
-import org.apereo.portal.groups.IGroupMember;
 import org.apereo.portal.permission.IPermissionActivity;
 import org.apereo.portal.permission.IPermissionOwner;
 import org.apereo.portal.permission.dao.IPermissionOwnerDao;
-import org.apereo.portal.permission.target.IPermissionTarget;
-import org.apereo.portal.permission.target.IPermissionTargetProvider;
-import org.apereo.portal.permission.target.IPermissionTargetProviderRegistry;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
-import org.apereo.portal.security.IAuthorizationPrincipal;
 import org.apereo.portal.security.IAuthorizationService;
-import org.apereo.portal.security.IPerson;
 import org.apereo.portal.security.PermissionHelper;
-import org.apereo.portal.services.GroupService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Required;
 
 /**
- * Responsible for pre-loading the permissions cache maintained by the
- * anyUnblockedGrantPermissionPolicy bean with some portlet-related evaluation decisions. This is
- * computationally expensive work, especially for operations that need a decision for every portlet
- * in the registry; it's better to do it outside of a request thread.
+ * Responsible for pre-loading the {@link PermissionIndex} used by the
+ * anyUnblockedGrantPermissionPolicy bean with the compiled permissions for every portlet in the
+ * registry. Operations that need a decision for every portlet in the registry then only evaluate
+ * compiled permissions; compiling them is better done outside of a request thread.
  *
  * @since 4.3
  */
@@ -59,11 +49,9 @@ public class PortletPermissionsCachePrimer {
 
     @Autowired private IPermissionOwnerDao permissionOwnerDao;
 
-    @Autowired private IPermissionTargetProviderRegistry targetProviderRegistry;
-
     @Autowired private IAuthorizationService authorizationService;
 
-    @Autowired private AnyUnblockedGrantPermissionPolicy policy;
+    @Autowired private PermissionIndex permissionIndex;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -96,35 +84,31 @@ public class PortletPermissionsCachePrimer {
          * minute to run in a single thread.  Going to use a divide-and-conquer
          * approach.
          */
-        final Map<NodeWalker, Future<NodeWalkerReport>> futures = new HashMap<>();
+        final Map<TargetLoader, Future<TargetLoaderReport>> futures = new HashMap<>();
 
-        final IEntityGroup rootGroup = GroupService.getRootGroup(IPerson.class);
         for (Map.Entry<String, Set<String>> y : permissionsMap.entrySet()) {
             final IPermissionOwner owner = permissionOwnerDao.getPermissionOwner(y.getKey());
             for (String s : y.getValue()) {
                 final IPermissionActivity activity =
                         permissionOwnerDao.getPermissionActivity(y.getKey(), s);
-                final IPermissionTargetProvider targetProvider =
-                        targetProviderRegistry.getTargetProvider(activity.getTargetProviderKey());
-                final NodeWalker walker =
-                        new NodeWalker(rootGroup, owner, activity, targetProvider);
-                final Future<NodeWalkerReport> future = this.executor.submit(walker);
-                futures.put(walker, future);
+                final TargetLoader loader = new TargetLoader(owner, activity);
+                final Future<TargetLoaderReport> future = this.executor.submit(loader);
+                futures.put(loader, future);
             }
         }
 
         int totalCombinations = 0;
-        for (Map.Entry<NodeWalker, Future<NodeWalkerReport>> y : futures.entrySet()) {
+        for (Map.Entry<TargetLoader, Future<TargetLoaderReport>> y : futures.entrySet()) {
             try {
-                final NodeWalkerReport report = y.getValue().get();
+                final TargetLoaderReport report = y.getValue().get();
                 totalCombinations += report.getCombinationCount();
                 log.debug(
-                        "NodeWalker '{}' processed {} combinations in {}ms",
+                        "TargetLoader '{}' processed {} combinations in {}ms",
                         y.getKey(),
                         report.getCombinationCount(),
                         report.getDuration());
             } catch (InterruptedException | ExecutionException e) {
-                log.error("NodeWalker '{}' failed", y.getKey());
+                log.error("TargetLoader '{}' failed", y.getKey());
             }
         }
 
@@ -138,88 +122,46 @@ public class PortletPermissionsCachePrimer {
      * Nested Types
      */
 
-    private /* non-static */ final class NodeWalker implements Callable<NodeWalkerReport> {
+    private /* non-static */ final class TargetLoader implements Callable<TargetLoaderReport> {
 
-        final IEntityGroup rootGroup;
         final IPermissionOwner owner;
         final IPermissionActivity activity;
-        final IPermissionTargetProvider targetProvider;
-
-        public NodeWalker(
-                IEntityGroup rootGroup,
-                IPermissionOwner owner,
-                IPermissionActivity activity,
-                IPermissionTargetProvider targetProvider) {
-            this.rootGroup = rootGroup;
+
+        public TargetLoader(IPermissionOwner owner, IPermissionActivity activity) {
             this.owner = owner;
             this.activity = activity;
-            this.targetProvider = targetProvider;
         }
 
         @Override
-        public NodeWalkerReport call() throws Exception {
-            final NodeWalkerReport rslt = new NodeWalkerReport();
+        public TargetLoaderReport call() throws Exception {
+            final TargetLoaderReport rslt = new TargetLoaderReport();
             final long timestamp = System.currentTimeMillis();
-            walk(rootGroup, new HashSet<EntityIdentifier>(), rslt);
-            rslt.setDuration(System.currentTimeMillis() - timestamp);
-            return rslt;
-        }
-
-        private void walk(
-                final IEntityGroup group,
-                final Set<EntityIdentifier> visitedNodes,
-                final NodeWalkerReport report) {
 
             /*
-             * Recursive groups structures are a bad idea, but
-             * we will attempt to prevent issues with them.
+             * Compiled permissions answer for every group, so there is no
+             * need to walk the groups hierarchy.
              */
-            if (visitedNodes.contains(group.getUnderlyingEntityIdentifier())) {
-                return;
-            }
-            visitedNodes.add(group.getUnderlyingEntityIdentifier());
-
-            /*
-             * First we load ourselves.
-             */
-            final IAuthorizationPrincipal principal = authorizationService.newPrincipal(group);
             final List<IPortletDefinition> portletDefinitions =
                     portletDefinitionRegistry.getAllPortletDefinitions();
             for (IPortletDefinition pdef : portletDefinitions) {
                 final String targetString =
                         PermissionHelper.permissionTargetIdForPortletDefinition(pdef);
-                final IPermissionTarget target = targetProvider.getTarget(targetString);
-                policy.loadInCache(authorizationService, principal, owner, activity, target);
-                report.incrementCombinationCount();
+                permissionIndex.loadTarget(
+                        authorizationService, owner.getFname(), activity.getFname(), targetString);
+                rslt.incrementCombinationCount();
             }
 
-            /*
-             * Then we load our children.
-             */
-            if (group.hasMembers()) {
-                final Set<IGroupMember> members = group.getChildren();
-                for (IGroupMember member : members) {
-                    if (member.isGroup()) {
-                        IEntityGroup child = (IEntityGroup) member;
-                        walk(child, visitedNodes, report);
-                    }
-                }
-            }
+            rslt.setDuration(System.currentTimeMillis() - timestamp);
+            return rslt;
         }
 
         @Override
         public String toString() {
-            return "NodeWalker [rootGroup="
-                    + rootGroup
-                    + ", owner="
-                    + owner
-                    + ", activity="
-                    + activity
-                    + "]";
+            return "TargetLoader [owner=" + owner + ", activity=" + activity + "]";
         }
     }
 
-    private static final class NodeWalkerReport {
+    private static final class TargetLoaderReport {
 
         private int combinationCount;
         private long duration;
@@ -0,0 +1,284 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.Configuration;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.apereo.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PermissionIndexTest {
+    private static final String OWNER = "UP_PORTLET_SUBSCRIBE";
+    private static final String ACTIVITY = "SUBSCRIBE";
+    private static final String TARGET = "PORTLET_ID_1";
+
+    /** Permissions held by each principal, for the owner, activity and target */
+    private final Map<IAuthorizationPrincipal, List<IPermission>> permissions = new HashMap<>();
+    /** Parent groups of each principal */
+    private final Map<IAuthorizationPrincipal, Set<IEntityGroup>> parents = new HashMap<>();
+
+    private final Map<IEntityGroup, IAuthorizationPrincipal> groupPrincipals = new HashMap<>();
+
+    private CacheManager cacheManager;
+    private Cache parentGroupsCache;
+    private IAuthorizationService service;
+    private PermissionIndex permissionIndex;
+
+    private IAuthorizationPrincipal user;
+    private IAuthorizationPrincipal smallGroup;
+    private IAuthorizationPrincipal bigGroup;
+    private IAuthorizationPrincipal otherGroup;
+
+    @Before
+    public void setup() {
+        this.cacheManager = new CacheManager(new Configuration());
+        final Cache ancestorsCache = new Cache("ancestors", 100, false, false, 0, 0);
+        this.parentGroupsCache = new Cache("parentGroups", 100, false, false, 0, 0);
+        this.cacheManager.addCache(ancestorsCache);
+        this.cacheManager.addCache(this.parentGroupsCache);
+
+        this.service = mock(IAuthorizationService.class);
+        this.permissionIndex = new PermissionIndex();
+        this.permissionIndex.setAncestorsCache(ancestorsCache);
+        this.permissionIndex.setParentGroupsCache(this.parentGroupsCache);
+
+        // user -- small group -- big group
+        //      -- other group -- big group
+        this.user = createPrincipal("student", IPerson.class);
+        this.smallGroup = createGroup("local.1");
+        this.bigGroup = createGroup("local.2");
+        this.otherGroup = createGroup("local.3");
+        addParent(this.user, this.smallGroup);
+        addParent(this.user, this.otherGroup);
+        addParent(this.smallGroup, this.bigGroup);
+        addParent(this.otherGroup, this.bigGroup);
+
+        when(this.service.getPermissionsForOwner(OWNER, ACTIVITY, null))
+                .thenAnswer(
+                        new Answer<IPermission[]>() {
+                            @Override
+                            public IPermission[] answer(InvocationOnMock invocation) {
+                                final List<IPermission> rslt = new ArrayList<>();
+                                for (final List<IPermission> held : permissions.values()) {
+                                    rslt.addAll(held);
+                                }
+                                return rslt.toArray(new IPermission[rslt.size()]);
+                            }
+                        });
+        when(this.service.newPrincipal(any(IGroupMember.class)))
+                .thenAnswer(
+                        new Answer<IAuthorizationPrincipal>() {
+                            @Override
+                            public IAuthorizationPrincipal answer(InvocationOnMock invocation) {
+                                return groupPrincipals.get(invocation.getArguments()[0]);
+                            }
+                        });
+    }
+
+    @After
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+
+    @Test
+    public void testInheritedGrant() {
+        assertFalse(hasUnblockedGrant());
+
+        addPermission(this.bigGroup, IPermission.PERMISSION_TYPE_GRANT);
+        assertTrue(hasUnblockedGrant());
+    }
+
+    @Test
+    public void testDenyBlocksOnlyItsPath() {
+        addPermission(this.bigGroup, IPermission.PERMISSION_TYPE_GRANT);
+        addPermission(this.smallGroup, IPermission.PERMISSION_TYPE_DENY);
+        assertTrue("The path through the other group is unblocked", hasUnblockedGrant());
+
+        addPermission(this.otherGroup, IPermission.PERMISSION_TYPE_DENY);
+        assertFalse("Every path is blocked", hasUnblockedGrant());
+    }
+
+    @Test
+    public void testDenyTrumpsGrant() {
+        addPermission(this.user, IPermission.PERMISSION_TYPE_GRANT);
+        assertTrue(hasUnblockedGrant());
+
+        addPermission(this.user, IPermission.PERMISSION_TYPE_DENY);
+        assertFalse(hasUnblockedGrant());
+    }
+
+    @Test
+    public void testInactivePermissionsIgnored() {
+        final IPermission grant = addPermission(this.bigGroup, IPermission.PERMISSION_TYPE_GRANT);
+        when(grant.getExpires()).thenReturn(new Date(System.currentTimeMillis() - 1000));
+        this.permissionIndex.permissionsChanged(new IPermission[] {grant});
+
+        assertFalse(hasUnblockedGrant());
+    }
+
+    @Test
+    public void testGrantOnGroupContainingTarget() {
+        addPermission(this.bigGroup, IPermission.PERMISSION_TYPE_GRANT, "local.9");
+        assertFalse(hasUnblockedGrant());
+
+        // The portlet is in the category the grant is for
+        when(this.service.getGroupsContainingTarget(OWNER, ACTIVITY, TARGET))
+                .thenReturn(Collections.singleton("local.9"));
+        this.permissionIndex.loadTarget(this.service, OWNER, ACTIVITY, TARGET);
+        assertTrue(hasUnblockedGrant());
+
+        // Compiled from the owner's permissions, not one query per holder
+        verify(this.service, never())
+                .getPermissionsForPrincipal(
+                        any(IAuthorizationPrincipal.class),
+                        any(String.class),
+                        any(String.class),
+                        any(String.class));
+    }
+
+    @Test
+    public void testMembershipChange() {
+        addPermission(this.smallGroup, IPermission.PERMISSION_TYPE_GRANT);
+        assertTrue(hasUnblockedGrant());
+
+        // The user leaves the small group
+        this.parents.get(this.user).remove(this.groupOf(this.smallGroup));
+        final EntityIdentifier userIdentifier = new EntityIdentifier("student", IPerson.class);
+        this.parentGroupsCache.put(new Element(userIdentifier, Collections.emptySet()));
+        this.parentGroupsCache.remove(userIdentifier);
+
+        assertFalse(hasUnblockedGrant());
+    }
+
+    @Test
+    public void testInheritedPrincipalsWithPermissions() {
+        addPermission(this.bigGroup, IPermission.PERMISSION_TYPE_GRANT);
+        addPermission(this.user, IPermission.PERMISSION_TYPE_GRANT);
+
+        assertEquals(
+                Collections.singletonList(this.bigGroup),
+                this.permissionIndex.getInheritedPrincipalsWithPermissions(
+                        this.service, this.user, OWNER, ACTIVITY));
+    }
+
+    private boolean hasUnblockedGrant() {
+        return this.permissionIndex.hasUnblockedGrant(
+                this.service, this.user, OWNER, ACTIVITY, TARGET);
+    }
+
+    private IPermission addPermission(IAuthorizationPrincipal principal, String type) {
+        return addPermission(principal, type, TARGET);
+    }
+
+    /** Adds the permission the way AuthorizationImpl does, notifying the index */
+    private IPermission addPermission(
+            IAuthorizationPrincipal principal, String type, String target) {
+        final IPermission permission = mock(IPermission.class);
+        when(permission.getOwner()).thenReturn(OWNER);
+        when(permission.getActivity()).thenReturn(ACTIVITY);
+        when(permission.getTarget()).thenReturn(target);
+        when(permission.getType()).thenReturn(type);
+        when(this.service.getPrincipal(permission)).thenReturn(principal);
+
+        List<IPermission> held = this.permissions.get(principal);
+        if (held == null) {
+            held = new ArrayList<>();
+            this.permissions.put(principal, held);
+        }
+        held.add(permission);
+
+        this.permissionIndex.permissionsChanged(new IPermission[] {permission});
+        return permission;
+    }
+
+    private IAuthorizationPrincipal createGroup(String key) {
+        final IAuthorizationPrincipal rslt = createPrincipal(key, IEntityGroup.class);
+        this.groupPrincipals.put(mock(IEntityGroup.class), rslt);
+        return rslt;
+    }
+
+    private IAuthorizationPrincipal createPrincipal(String key, Class type) {
+        final IAuthorizationPrincipal rslt = mock(IAuthorizationPrincipal.class);
+        when(rslt.getKey()).thenReturn(key);
+        when(rslt.getType()).thenReturn(type);
+        when(rslt.getPrincipalString()).thenReturn(type.getSimpleName() + "." + key);
+        this.parents.put(rslt, new HashSet<IEntityGroup>());
+
+        final IGroupMember groupMember = mock(IGroupMember.class);
+        when(groupMember.getParentGroups()).thenReturn(this.parents.get(rslt));
+        when(groupMember.getAncestorGroups())
+                .thenAnswer(
+                        new Answer<Set<IEntityGroup>>() {
+                            @Override
+                            public Set<IEntityGroup> answer(InvocationOnMock invocation) {
+                                return getAncestorGroups(rslt);
+                            }
+                        });
+        when(this.service.getGroupMember(rslt)).thenReturn(groupMember);
+        return rslt;
+    }
+
+    private void addParent(IAuthorizationPrincipal child, IAuthorizationPrincipal parent) {
+        this.parents.get(child).add(groupOf(parent));
+    }
+
+    private IEntityGroup groupOf(IAuthorizationPrincipal principal) {
+        for (final Map.Entry<IEntityGroup, IAuthorizationPrincipal> y :
+                this.groupPrincipals.entrySet()) {
+            if (y.getValue() == principal) {
+                return y.getKey();
+            }
+        }
+        throw new IllegalArgumentException("Not a group:  " + principal);
+    }
+
+    private Set<IEntityGroup> getAncestorGroups(IAuthorizationPrincipal principal) {
+        final Set<IEntityGroup> rslt = new HashSet<>();
+        for (final IEntityGroup parent : this.parents.get(principal)) {
+            rslt.add(parent);
+            rslt.addAll(getAncestorGroups(this.groupPrincipals.get(parent)));
+        }
+        return rslt;
+    }
+}
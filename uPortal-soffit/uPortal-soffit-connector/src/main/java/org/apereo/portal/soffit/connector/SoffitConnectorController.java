@@ -15,11 +15,23 @@
 package org.apereo.portal.soffit.connector;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.ObjectName;
+import javax.portlet.PortletConfig;
 import javax.portlet.PortletPreferences;
 import javax.portlet.RenderRequest;
 import javax.portlet.RenderResponse;
@@ -28,14 +40,13 @@ import net.sf.ehcache.Element;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.util.EntityUtils;
 import org.apereo.portal.soffit.Headers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,14 +57,25 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.jmx.export.MBeanExportOperations;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.portlet.bind.annotation.RenderMapping;
+import org.springframework.web.portlet.context.PortletConfigAware;
 
-/** @since 5.0 */
+/**
+ * Renders a remote soffit. Requests go through one long-lived HTTP client per portlet, so pooled
+ * connections to the soffit are kept alive and reused across renders. With asyncRequests enabled
+ * the request runs on one of at most asyncRequestThreads threads and the render waits at most
+ * {@link #TIMEOUT_SECONDS} for the whole exchange, aborting the request and releasing its
+ * connection on timeout or when the portlet worker is interrupted.
+ *
+ * @since 5.0
+ */
 @Controller
 @RequestMapping(value = {"VIEW", "EDIT", "HELP"})
-public class SoffitConnectorController implements ApplicationContextAware {
+public class SoffitConnectorController implements ApplicationContextAware, PortletConfigAware {
 
     /** Preferences that begin with this String will not be shared with the remote soffit. */
     public static final String CONNECTOR_PREFERENCE_PREFIX =
@@ -64,6 +86,12 @@ public class SoffitConnectorController implements ApplicationContextAware {
 
     private static final int TIMEOUT_SECONDS = 10;
 
+    /** Pooled connections idle for longer than this are closed */
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    /** Pooled connections idle for longer than this are checked before they are reused */
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
     @Value(
             "${org.apereo.portlet.soffit.connector.SoffitConnectorController.maxConnectionsPerRoute:20}")
     private Integer maxConnectionsPerRoute;
@@ -72,20 +100,30 @@ public class SoffitConnectorController implements ApplicationContextAware {
             "${org.apereo.portlet.soffit.connector.SoffitConnectorController.maxConnectionsTotal:50}")
     private Integer maxConnectionsTotal;
 
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.asyncRequests:false}")
+    private boolean asyncRequests;
+
+    /** Maximum number of requests sent at once in async mode, further requests wait their turn */
+    @Value(
+            "${org.apereo.portlet.soffit.connector.SoffitConnectorController.asyncRequestThreads:20}")
+    private Integer asyncRequestThreads;
+
     private final RequestConfig requestConfig =
             RequestConfig.custom()
                     .setSocketTimeout(TIMEOUT_SECONDS * 1000)
                     .setConnectTimeout(TIMEOUT_SECONDS * 1000)
                     .build();
 
-    private final HttpClientBuilder httpClientBuilder =
-            HttpClientBuilder.create()
-                    .setDefaultRequestConfig(requestConfig)
-                    .setConnectionManagerShared(
-                            true); // Prevents the client from shutting down the pool
-
     private ApplicationContext applicationContext;
+    private String portletName;
     private List<IHeaderProvider> headerProviders;
+    private CloseableHttpClient httpClient;
+    private ExecutorService requestExecutor;
+    private SoffitConnectorStatistics statistics;
+    private ObjectName statisticsName;
+
+    @Autowired(required = false)
+    private MBeanExportOperations mBeanExportOperations;
 
     @Autowired
     @Qualifier(
@@ -100,13 +138,45 @@ public class SoffitConnectorController implements ApplicationContextAware {
         this.applicationContext = applicationContext;
     }
 
+    @Override
+    public void setPortletConfig(PortletConfig portletConfig) {
+        this.portletName = portletConfig.getPortletName();
+    }
+
     @PostConstruct
     public void init() {
         PoolingHttpClientConnectionManager poolingHttpClientConnectionManager =
                 new PoolingHttpClientConnectionManager();
         poolingHttpClientConnectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
         poolingHttpClientConnectionManager.setMaxTotal(maxConnectionsTotal);
-        httpClientBuilder.setConnectionManager(poolingHttpClientConnectionManager);
+        poolingHttpClientConnectionManager.setValidateAfterInactivity(
+                VALIDATE_AFTER_INACTIVITY_MILLIS);
+        httpClient =
+                HttpClientBuilder.create()
+                        .setDefaultRequestConfig(requestConfig)
+                        .setConnectionManager(poolingHttpClientConnectionManager)
+                        .evictExpiredConnections()
+                        .evictIdleConnections(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)
+                        .build();
+
+        statistics = new SoffitConnectorStatistics(poolingHttpClientConnectionManager);
+        registerStatistics();
+
+        if (asyncRequests) {
+            final CustomizableThreadFactory threadFactory =
+                    new CustomizableThreadFactory("SoffitConnector-");
+            threadFactory.setDaemon(true);
+            final ThreadPoolExecutor threadPoolExecutor =
+                    new ThreadPoolExecutor(
+                            asyncRequestThreads,
+                            asyncRequestThreads,
+                            KEEP_ALIVE_SECONDS,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            threadFactory);
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            requestExecutor = threadPoolExecutor;
+        }
 
         final Map<String, IHeaderProvider> beans =
                 BeanFactoryUtils.beansOfTypeIncludingAncestors(
@@ -115,6 +185,20 @@ public class SoffitConnectorController implements ApplicationContextAware {
         headerProviders = Collections.unmodifiableList(values);
     }
 
+    @PreDestroy
+    public void destroy() throws IOException {
+        unregisterStatistics();
+        if (requestExecutor != null) {
+            requestExecutor.shutdownNow();
+        }
+        // Also shuts down the connection pool
+        httpClient.close();
+    }
+
+    public SoffitConnectorStatistics getStatistics() {
+        return statistics;
+    }
+
     @RenderMapping
     public void invokeService(final RenderRequest req, final RenderResponse res) {
 
@@ -134,7 +218,7 @@ public class SoffitConnectorController implements ApplicationContextAware {
             logger.debug("No applicable response in cache;  invoking serviceUrl '{}'", serviceUrl);
 
             final HttpGet getMethod = new HttpGet(serviceUrl);
-            try (final CloseableHttpClient httpClient = httpClientBuilder.build()) {
+            try {
 
                 // Send the data model as encrypted JWT HTTP headers
                 for (IHeaderProvider headerProvider : headerProviders) {
@@ -143,27 +227,21 @@ public class SoffitConnectorController implements ApplicationContextAware {
                 }
 
                 // Send the request
-                final HttpResponse httpResponse = httpClient.execute(getMethod);
-                try {
-                    final int statusCode = httpResponse.getStatusLine().getStatusCode();
-                    logger.debug("HTTP response code for url '{}' was '{}'", serviceUrl, statusCode);
-
-                    if (statusCode == HttpStatus.SC_OK) {
-                        responseValue =
-                                extractResponseAndCacheIfAppropriate(httpResponse, req, serviceUrl);
-                    } else {
-                        logger.error(
-                                "Failed to get content from remote service '{}';  HttpStatus={}",
-                                serviceUrl,
-                                statusCode);
-                        res.getWriter()
-                                .write("FAILED!  statusCode=" + statusCode); // TODO:  Better message
-                    }
-                } finally {
-                    if (null != httpResponse) {
-                        // Ensures that the entity content is fully consumed and the content stream, if exists, is closed.
-                        EntityUtils.consumeQuietly(httpResponse.getEntity());
-                    }
+                final RemoteResponse remoteResponse =
+                        asyncRequests ? executeAsync(getMethod) : execute(getMethod);
+                final int statusCode = remoteResponse.getStatusCode();
+                logger.debug("HTTP response code for url '{}' was '{}'", serviceUrl, statusCode);
+
+                if (statusCode == HttpStatus.SC_OK) {
+                    responseValue =
+                            extractResponseAndCacheIfAppropriate(remoteResponse, req, serviceUrl);
+                } else {
+                    logger.error(
+                            "Failed to get content from remote service '{}';  HttpStatus={}",
+                            serviceUrl,
+                            statusCode);
+                    res.getWriter()
+                            .write("FAILED!  statusCode=" + statusCode); // TODO:  Better message
                 }
             } catch (IOException e) {
                 logger.error("Failed to invoke serviceUrl '{}'", serviceUrl, e);
@@ -184,6 +262,95 @@ public class SoffitConnectorController implements ApplicationContextAware {
      * Implementation
      */
 
+    private void registerStatistics() {
+        if (mBeanExportOperations == null) {
+            return;
+        }
+
+        final String nameString =
+                "uPortal:section=Soffit,name=SoffitConnectorStatistics,portlet="
+                        + ObjectName.quote(String.valueOf(portletName));
+        try {
+            final ObjectName name = new ObjectName(nameString);
+            mBeanExportOperations.registerManagedResource(statistics, name);
+            statisticsName = name;
+        } catch (Exception e) {
+            logger.warn(
+                    "Failed to register {}, SoffitConnectorStatistics will not be available via JMX",
+                    nameString,
+                    e);
+        }
+    }
+
+    private void unregisterStatistics() {
+        if (statisticsName == null) {
+            return;
+        }
+
+        try {
+            mBeanExportOperations.unregisterManagedResource(statisticsName);
+        } catch (Exception e) {
+            logger.warn("Failed to unregister {}", statisticsName, e);
+        }
+        statisticsName = null;
+    }
+
+    /** Sends the request on the calling thread and reads the full response. */
+    private RemoteResponse execute(final HttpGet getMethod) throws IOException {
+        final long start = System.nanoTime();
+        // Closing the response after reading it returns the connection to the pool
+        try (final CloseableHttpResponse httpResponse = httpClient.execute(getMethod)) {
+            final RemoteResponse rslt = new RemoteResponse(httpResponse);
+            statistics.recordRequest(System.nanoTime() - start);
+            return rslt;
+        } catch (IOException e) {
+            if (!getMethod.isAborted()) {
+                statistics.recordFailure();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the request on the request executor, waiting at most {@link #TIMEOUT_SECONDS} for the
+     * response. The request is aborted if the wait times out or the calling thread is interrupted.
+     */
+    private RemoteResponse executeAsync(final HttpGet getMethod) throws IOException {
+        final Future<RemoteResponse> future =
+                requestExecutor.submit(
+                        new Callable<RemoteResponse>() {
+                            @Override
+                            public RemoteResponse call() throws Exception {
+                                return execute(getMethod);
+                            }
+                        });
+
+        try {
+            return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            abort(getMethod, future);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + getMethod.getURI());
+        } catch (TimeoutException e) {
+            abort(getMethod, future);
+            throw new InterruptedIOException(
+                    "No response from " + getMethod.getURI() + " in " + TIMEOUT_SECONDS + "s");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RuntimeException("Failed to invoke " + getMethod.getURI(), cause);
+        }
+    }
+
+    private void abort(HttpGet getMethod, Future<RemoteResponse> future) {
+        // Closes the connection if the request is in flight
+        getMethod.abort();
+        future.cancel(true);
+        statistics.recordAbort();
+    }
+
     private ResponseWrapper fetchContentFromCacheIfAvailable(
             final RenderRequest req, final String serviceUrl) {
 
@@ -219,20 +386,13 @@ public class SoffitConnectorController implements ApplicationContextAware {
     }
 
     private ResponseWrapper extractResponseAndCacheIfAppropriate(
-            final HttpResponse httpResponse, final RenderRequest req, final String serviceUrl) {
+            final RemoteResponse remoteResponse, final RenderRequest req, final String serviceUrl) {
 
         // Extract
-        final HttpEntity entity = httpResponse.getEntity();
-        ResponseWrapper rslt;
-        try {
-            rslt = new ResponseWrapper(IOUtils.toByteArray(entity.getContent()));
-        } catch (UnsupportedOperationException | IOException e) {
-            throw new RuntimeException("Failed to read the response", e);
-        }
+        final ResponseWrapper rslt = new ResponseWrapper(remoteResponse.getBytes());
 
         // Cache the response if indicated by the remote service
-        final Header cacheControlHeader =
-                httpResponse.getFirstHeader(Headers.CACHE_CONTROL.getName());
+        final Header cacheControlHeader = remoteResponse.getCacheControlHeader();
         if (cacheControlHeader != null) {
             final String cacheControlValue = cacheControlHeader.getValue();
             logger.debug(
@@ -306,6 +466,32 @@ public class SoffitConnectorController implements ApplicationContextAware {
      * Nested Types
      */
 
+    /** The parts of a remote soffit's response used by the connector, read in full. */
+    private static final class RemoteResponse {
+        private final int statusCode;
+        private final Header cacheControlHeader;
+        private final byte[] bytes;
+
+        public RemoteResponse(CloseableHttpResponse httpResponse) throws IOException {
+            this.statusCode = httpResponse.getStatusLine().getStatusCode();
+            this.cacheControlHeader = httpResponse.getFirstHeader(Headers.CACHE_CONTROL.getName());
+            final HttpEntity entity = httpResponse.getEntity();
+            this.bytes = entity != null ? IOUtils.toByteArray(entity.getContent()) : new byte[0];
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public Header getCacheControlHeader() {
+            return cacheControlHeader;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+
     private static final class CacheTuple {
         private final String serviceUrl;
         private final String mode;
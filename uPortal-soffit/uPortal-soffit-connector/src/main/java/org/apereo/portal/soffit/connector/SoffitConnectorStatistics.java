@@ -0,0 +1,134 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.soffit.connector;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Connection pool and latency statistics for the requests {@link SoffitConnectorController} sends
+ * to remote soffits, exposed via JMX.
+ *
+ * @since 5.0
+ */
+public class SoffitConnectorStatistics {
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong abortedCount = new AtomicLong();
+    private final AtomicLong totalRequestTime = new AtomicLong();
+    private final AtomicLong maxRequestTime = new AtomicLong();
+
+    SoffitConnectorStatistics(PoolingHttpClientConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    void recordRequest(long requestNanos) {
+        this.requestCount.incrementAndGet();
+
+        final long requestMillis = TimeUnit.NANOSECONDS.toMillis(requestNanos);
+        this.totalRequestTime.addAndGet(requestMillis);
+
+        long current;
+        do {
+            current = this.maxRequestTime.get();
+        } while (requestMillis > current
+                && !this.maxRequestTime.compareAndSet(current, requestMillis));
+    }
+
+    void recordFailure() {
+        this.failedCount.incrementAndGet();
+    }
+
+    void recordAbort() {
+        this.abortedCount.incrementAndGet();
+    }
+
+    /** @return Number of requests that got a response from the remote soffit */
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    /** @return Number of requests that failed with an I/O error */
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    /** @return Number of requests abandoned on timeout or interrupt, only in async mode */
+    public long getAbortedCount() {
+        return this.abortedCount.get();
+    }
+
+    /** @return Average time from sending a request to reading the full response in ms */
+    public double getAverageRequestTime() {
+        final long requests = this.requestCount.get();
+        return requests == 0 ? 0 : (double) this.totalRequestTime.get() / requests;
+    }
+
+    /** @return Longest time from sending a request to reading the full response in ms */
+    public long getMaxRequestTime() {
+        return this.maxRequestTime.get();
+    }
+
+    /** @return Number of pooled connections in use by a request */
+    public int getLeasedConnections() {
+        return this.connectionManager.getTotalStats().getLeased();
+    }
+
+    /** @return Number of idle pooled connections kept alive for reuse */
+    public int getAvailableConnections() {
+        return this.connectionManager.getTotalStats().getAvailable();
+    }
+
+    /** @return Number of requests waiting for a pooled connection */
+    public int getPendingConnections() {
+        return this.connectionManager.getTotalStats().getPending();
+    }
+
+    /** @return Maximum number of pooled connections */
+    public int getMaxConnections() {
+        return this.connectionManager.getTotalStats().getMax();
+    }
+
+    /** Reset all counters */
+    public void reset() {
+        this.requestCount.set(0);
+        this.failedCount.set(0);
+        this.abortedCount.set(0);
+        this.totalRequestTime.set(0);
+        this.maxRequestTime.set(0);
+    }
+
+    @Override
+    public String toString() {
+        final PoolStats poolStats = this.connectionManager.getTotalStats();
+        return "SoffitConnectorStatistics [requestCount="
+                + this.requestCount
+                + ", failedCount="
+                + this.failedCount
+                + ", abortedCount="
+                + this.abortedCount
+                + ", totalRequestTime="
+                + this.totalRequestTime
+                + ", maxRequestTime="
+                + this.maxRequestTime
+                + ", poolStats="
+                + poolStats
+                + "]";
+    }
+}
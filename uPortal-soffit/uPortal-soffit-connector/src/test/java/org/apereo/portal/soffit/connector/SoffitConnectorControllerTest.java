@@ -0,0 +1,236 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.soffit.connector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.jmx.export.MBeanExporter;
+import org.springframework.mock.web.portlet.MockPortletPreferences;
+import org.springframework.mock.web.portlet.MockRenderRequest;
+import org.springframework.mock.web.portlet.MockRenderResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SoffitConnectorControllerTest {
+    private static final byte[] CONTENT = "<p>Hello World</p>".getBytes(StandardCharsets.UTF_8);
+
+    private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+    /** Client port of every request the stub soffit received */
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<Integer>();
+
+    private final CountDownLatch requestReceived = new CountDownLatch(1);
+    private final CountDownLatch releaseResponse = new CountDownLatch(1);
+
+    private CacheManager cacheManager;
+    private HttpServer server;
+    private SoffitConnectorController soffitConnectorController;
+
+    @Before
+    public void setup() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(this.serverExecutor);
+        this.server.createContext(
+                "/soffit",
+                new HttpHandler() {
+                    @Override
+                    public void handle(HttpExchange exchange) throws IOException {
+                        respond(exchange);
+                    }
+                });
+        this.server.createContext(
+                "/slow",
+                new HttpHandler() {
+                    @Override
+                    public void handle(HttpExchange exchange) throws IOException {
+                        requestReceived.countDown();
+                        try {
+                            releaseResponse.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        respond(exchange);
+                    }
+                });
+        this.server.start();
+
+        this.soffitConnectorController = new SoffitConnectorController();
+        this.soffitConnectorController.setApplicationContext(new StaticApplicationContext());
+        ReflectionTestUtils.setField(this.soffitConnectorController, "maxConnectionsPerRoute", 2);
+        ReflectionTestUtils.setField(this.soffitConnectorController, "maxConnectionsTotal", 5);
+        ReflectionTestUtils.setField(this.soffitConnectorController, "asyncRequestThreads", 1);
+        this.cacheManager = new CacheManager(new Configuration());
+        final Cache responseCache = new Cache("responseCache", 100, false, false, 0, 0);
+        this.cacheManager.addCache(responseCache);
+        ReflectionTestUtils.setField(
+                this.soffitConnectorController, "responseCache", responseCache);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.releaseResponse.countDown();
+        this.soffitConnectorController.destroy();
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+        this.cacheManager.shutdown();
+    }
+
+    @Test
+    public void testConnectionReusedAcrossRenders() throws Exception {
+        this.soffitConnectorController.init();
+
+        for (int i = 0; i < 3; i++) {
+            final MockRenderResponse res = new MockRenderResponse();
+            this.soffitConnectorController.invokeService(createRequest("/soffit"), res);
+            assertArrayEquals(CONTENT, res.getContentAsByteArray());
+        }
+
+        assertEquals(3, this.clientPorts.size());
+        assertEquals(
+                "Every render used the same connection",
+                1,
+                new HashSet<Integer>(this.clientPorts).size());
+
+        final SoffitConnectorStatistics statistics = this.soffitConnectorController.getStatistics();
+        assertEquals(3, statistics.getRequestCount());
+        assertEquals(0, statistics.getFailedCount());
+        assertEquals(0, statistics.getLeasedConnections());
+        assertEquals(1, statistics.getAvailableConnections());
+    }
+
+    @Test
+    public void testAsyncRequest() throws Exception {
+        ReflectionTestUtils.setField(this.soffitConnectorController, "asyncRequests", true);
+        this.soffitConnectorController.init();
+
+        final MockRenderResponse res = new MockRenderResponse();
+        this.soffitConnectorController.invokeService(createRequest("/soffit"), res);
+        assertArrayEquals(CONTENT, res.getContentAsByteArray());
+        assertEquals(1, this.soffitConnectorController.getStatistics().getRequestCount());
+    }
+
+    @Test
+    public void testAsyncRequestThreadsBounded() throws Exception {
+        ReflectionTestUtils.setField(this.soffitConnectorController, "asyncRequests", true);
+        this.soffitConnectorController.init();
+
+        final ThreadPoolExecutor requestExecutor =
+                (ThreadPoolExecutor)
+                        ReflectionTestUtils.getField(
+                                this.soffitConnectorController, "requestExecutor");
+        assertEquals(1, requestExecutor.getMaximumPoolSize());
+    }
+
+    @Test
+    public void testStatisticsUnregisteredOnDestroy() throws Exception {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final MBeanExporter mBeanExporter = new MBeanExporter();
+        mBeanExporter.setServer(mBeanServer);
+        ReflectionTestUtils.setField(
+                this.soffitConnectorController, "mBeanExportOperations", mBeanExporter);
+        ReflectionTestUtils.setField(this.soffitConnectorController, "portletName", "test");
+        this.soffitConnectorController.init();
+
+        final ObjectName name =
+                new ObjectName(
+                        "uPortal:section=Soffit,name=SoffitConnectorStatistics,portlet="
+                                + ObjectName.quote("test"));
+        assertTrue(mBeanServer.isRegistered(name));
+
+        this.soffitConnectorController.destroy();
+        assertFalse(mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testAsyncRequestAbortedOnInterrupt() throws Exception {
+        ReflectionTestUtils.setField(this.soffitConnectorController, "asyncRequests", true);
+        this.soffitConnectorController.init();
+
+        final MockRenderResponse res = new MockRenderResponse();
+        final Set<Boolean> interrupted = new HashSet<Boolean>();
+        final Thread renderThread =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        soffitConnectorController.invokeService(createRequest("/slow"), res);
+                        interrupted.add(Thread.currentThread().isInterrupted());
+                    }
+                };
+        renderThread.start();
+
+        assertTrue(this.requestReceived.await(5, TimeUnit.SECONDS));
+        renderThread.interrupt();
+        renderThread.join(5000);
+
+        assertFalse("The render waited for the response", renderThread.isAlive());
+        assertTrue("The interrupt was not preserved", interrupted.contains(Boolean.TRUE));
+        assertEquals(0, res.getContentAsByteArray().length);
+
+        final SoffitConnectorStatistics statistics = this.soffitConnectorController.getStatistics();
+        assertEquals(1, statistics.getAbortedCount());
+        assertEquals(0, statistics.getRequestCount());
+        assertEquals(0, statistics.getFailedCount());
+    }
+
+    private MockRenderRequest createRequest(String path) {
+        final MockPortletPreferences preferences = new MockPortletPreferences();
+        try {
+            preferences.setValue(
+                    SoffitConnectorController.CONNECTOR_PREFERENCE_PREFIX + ".serviceUrl",
+                    "http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        final MockRenderRequest req = new MockRenderRequest();
+        req.setPreferences(preferences);
+        return req;
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        this.clientPorts.add(exchange.getRemoteAddress().getPort());
+        exchange.sendResponseHeaders(200, CONTENT.length);
+        try (final OutputStream body = exchange.getResponseBody()) {
+            body.write(CONTENT);
+        }
+    }
+}
@@ -18,9 +18,20 @@ import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Date;
 import java.util.UUID;
 import javax.annotation.PostConstruct;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 import org.apache.commons.lang3.StringUtils;
 import org.apereo.portal.soffit.ITokenizable;
 import org.jasypt.util.text.BasicTextEncryptor;
@@ -29,7 +40,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 
 /**
- * Base class for services that produce JASON Web Tokens.
+ * Base class for services that produce JASON Web Tokens. Tokens are encrypted either with Jasypt,
+ * which every version of the soffit renderer can read, or with AES-GCM using a key derived from the
+ * encryption password once, at startup; see {@link #ENCRYPTION_FORMAT_PROPERTY}. Tokens in either
+ * format are accepted.
  *
  * @since 5.0
  */
@@ -44,6 +58,37 @@ public class AbstractJwtService {
             "org.apereo.portal.soffit.jwt.encryptionPassword";
     public static final String DEFAULT_ENCRYPTION_PASSWORD = "CHANGEME";
 
+    public static final String ENCRYPTION_FORMAT_PROPERTY =
+            "org.apereo.portal.soffit.jwt.encryptionFormat";
+    public static final String DEFAULT_ENCRYPTION_FORMAT = "JASYPT";
+
+    public static final String TOKEN_CACHE_SECONDS_PROPERTY =
+            "org.apereo.portal.soffit.jwt.tokenCacheSeconds";
+    public static final int DEFAULT_TOKEN_CACHE_SECONDS = 60;
+
+    public static final String TOKEN_CACHE_SIZE_PROPERTY =
+            "org.apereo.portal.soffit.jwt.tokenCacheSize";
+    public static final int DEFAULT_TOKEN_CACHE_SIZE = 1000;
+
+    /** Marks tokens encrypted with AES-GCM; tokens without it were encrypted with Jasypt */
+    static final String ENCRYPTED_TOKEN_PREFIX = "gcm.";
+
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int KEY_DERIVATION_ITERATIONS = 10000;
+    private static final int KEY_LENGTH_BITS = 128; // Available without the JCE policy files
+    private static final int IV_LENGTH_BYTES = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    /*
+     * Both sides of the transaction derive the same key from the shared password, so the salt
+     * must be fixed as well.
+     */
+    private static final byte[] KEY_DERIVATION_SALT =
+            "org.apereo.portal.soffit".getBytes(StandardCharsets.UTF_8);
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Value("${" + SIGNATURE_KEY_PROPERTY + ":" + DEFAULT_SIGNATURE_KEY + "}")
@@ -52,12 +97,20 @@ public class AbstractJwtService {
     @Value("${" + ENCRYPTION_PASSWORD_PROPERTY + ":" + DEFAULT_ENCRYPTION_PASSWORD + "}")
     private String encryptionPassword;
 
+    @Value("${" + ENCRYPTION_FORMAT_PROPERTY + ":" + DEFAULT_ENCRYPTION_FORMAT + "}")
+    private EncryptionFormat encryptionFormat = EncryptionFormat.JASYPT;
+
+    @Value("${" + TOKEN_CACHE_SECONDS_PROPERTY + ":" + DEFAULT_TOKEN_CACHE_SECONDS + "}")
+    private int tokenCacheSeconds = DEFAULT_TOKEN_CACHE_SECONDS;
+
+    @Value("${" + TOKEN_CACHE_SIZE_PROPERTY + ":" + DEFAULT_TOKEN_CACHE_SIZE + "}")
+    private int tokenCacheSize = DEFAULT_TOKEN_CACHE_SIZE;
+
+    private SecretKey encryptionKey;
+
     /*
-     * NOTE:  There is also a StrongTextEncryptor, but it requires each deployment
-     * to download and install the "Java Cryptography Extension (JCE) Unlimited
-     * Strength Jurisdiction Policy Files," which sounds like a tremendous PITA.
-     * The BasicTextEncryptor supports "normal-strength encryption of texts,"
-     * which should be satisfactory for our needs.
+     * NOTE:  Runs password-based key derivation on every call;  prefer AES_GCM
+     * once every soffit reads it, and keep the token cache enabled until then.
      */
     final BasicTextEncryptor textEncryptor = new BasicTextEncryptor();
 
@@ -85,6 +138,15 @@ public class AbstractJwtService {
                     ENCRYPTION_PASSWORD_PROPERTY);
         }
         textEncryptor.setPassword(encryptionPassword);
+        encryptionKey = deriveEncryptionKey(encryptionPassword);
+    }
+
+    /**
+     * Creates a cache for tokens produced or parsed by this service, sized by the {@link
+     * #TOKEN_CACHE_SECONDS_PROPERTY} and {@link #TOKEN_CACHE_SIZE_PROPERTY} properties.
+     */
+    protected <K, V> TokenCache<K, V> createTokenCache() {
+        return new TokenCache<>(tokenCacheSeconds, tokenCacheSize);
     }
 
     protected Claims createClaims(
@@ -114,7 +176,10 @@ public class AbstractJwtService {
                         .compact();
 
         // Encryption
-        final String rslt = textEncryptor.encrypt(jwt);
+        final String rslt =
+                encryptionFormat == EncryptionFormat.AES_GCM
+                        ? encrypt(jwt)
+                        : textEncryptor.encrypt(jwt);
 
         return rslt;
     }
@@ -123,7 +188,10 @@ public class AbstractJwtService {
             String encryptedToken, Class<? extends ITokenizable> clazz) {
 
         // Decryption
-        final String jwt = textEncryptor.decrypt(encryptedToken);
+        final String jwt =
+                encryptedToken.startsWith(ENCRYPTED_TOKEN_PREFIX)
+                        ? decrypt(encryptedToken)
+                        : textEncryptor.decrypt(encryptedToken);
 
         final Jws<Claims> rslt = Jwts.parser().setSigningKey(signatureKey).parseClaimsJws(jwt);
 
@@ -145,4 +213,76 @@ public class AbstractJwtService {
 
         return rslt;
     }
+
+    /** Formats in which tokens may be encrypted */
+    public enum EncryptionFormat {
+
+        /** Readable by soffits on every version of the renderer library */
+        JASYPT,
+
+        /** Much cheaper, but only readable by soffits on 5.0 or later */
+        AES_GCM
+    }
+
+    /*
+     * Implementation
+     */
+
+    private static SecretKey deriveEncryptionKey(String password) {
+        try {
+            final PBEKeySpec keySpec =
+                    new PBEKeySpec(
+                            password.toCharArray(),
+                            KEY_DERIVATION_SALT,
+                            KEY_DERIVATION_ITERATIONS,
+                            KEY_LENGTH_BITS);
+            final byte[] key =
+                    SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM)
+                            .generateSecret(keySpec)
+                            .getEncoded();
+            return new SecretKeySpec(key, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to derive the encryption key", e);
+        }
+    }
+
+    private String encrypt(String jwt) {
+        final byte[] iv = new byte[IV_LENGTH_BYTES];
+        SECURE_RANDOM.nextBytes(iv);
+        try {
+            final Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(
+                    Cipher.ENCRYPT_MODE, encryptionKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            final byte[] ciphertext = cipher.doFinal(jwt.getBytes(StandardCharsets.UTF_8));
+
+            // The IV travels with the token
+            final byte[] token = Arrays.copyOf(iv, iv.length + ciphertext.length);
+            System.arraycopy(ciphertext, 0, token, iv.length, ciphertext.length);
+            return ENCRYPTED_TOKEN_PREFIX + Base64.getEncoder().encodeToString(token);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt the token", e);
+        }
+    }
+
+    private String decrypt(String encryptedToken) {
+        final byte[] token =
+                Base64.getDecoder()
+                        .decode(encryptedToken.substring(ENCRYPTED_TOKEN_PREFIX.length()));
+        if (token.length <= IV_LENGTH_BYTES) {
+            throw new SecurityException("The specified token is malformed");
+        }
+        try {
+            final Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(
+                    Cipher.DECRYPT_MODE,
+                    encryptionKey,
+                    new GCMParameterSpec(TAG_LENGTH_BITS, token, 0, IV_LENGTH_BYTES));
+            final byte[] jwt =
+                    cipher.doFinal(token, IV_LENGTH_BYTES, token.length - IV_LENGTH_BYTES);
+            return new String(jwt, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            // Includes tokens that were tampered with or encrypted with a different key
+            throw new SecurityException("Failed to decrypt the specified token", e);
+        }
+    }
 }
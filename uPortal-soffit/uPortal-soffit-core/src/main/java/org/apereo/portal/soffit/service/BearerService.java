@@ -17,23 +17,46 @@ package org.apereo.portal.soffit.service;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
 import java.util.*;
+import javax.annotation.PostConstruct;
 import org.apereo.portal.soffit.model.v1_0.Bearer;
 import org.springframework.stereotype.Service;
 
 /**
- * Responsible for issuing and parsing Bearer tokens.
+ * Responsible for issuing and parsing Bearer tokens. Both are cached briefly, so a user's Bearer
+ * token is reused across requests instead of being signed and encrypted every time.
  *
  * @since 5.0
  */
 @Service
 public class BearerService extends AbstractJwtService {
 
+    private TokenCache<List<Object>, Bearer> bearerCache;
+    private TokenCache<String, Bearer> parsedBearerCache;
+
+    @Override
+    @PostConstruct
+    public void init() {
+        super.init();
+        bearerCache = createTokenCache();
+        parsedBearerCache = createTokenCache();
+    }
+
+    /**
+     * @param expires Expiration of a new token; a cached token for the same user, attributes and
+     *     groups may expire slightly sooner
+     */
     public Bearer createBearer(
             String username,
             Map<String, List<String>> attributes,
             List<String> groups,
             Date expires) {
 
+        final List<Object> cacheKey = Arrays.<Object>asList(username, attributes, groups);
+        final Bearer cached = bearerCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
         final Claims claims = createClaims(Bearer.class, username, expires);
 
         /*
@@ -61,11 +84,19 @@ public class BearerService extends AbstractJwtService {
         // Groups
         claims.put(JwtClaims.GROUPS.getName(), groups);
 
-        return new Bearer(generateEncryptedToken(claims), username, attributes, groups);
+        final Bearer rslt =
+                new Bearer(generateEncryptedToken(claims), username, attributes, groups);
+        bearerCache.put(cacheKey, rslt, expires);
+        return rslt;
     }
 
     public Bearer parseBearerToken(String bearerToken) {
 
+        final Bearer cached = parsedBearerCache.get(bearerToken);
+        if (cached != null) {
+            return cached;
+        }
+
         final Jws<Claims> claims = parseEncrypteToken(bearerToken, Bearer.class);
 
         final String username = claims.getBody().getSubject();
@@ -94,6 +125,7 @@ public class BearerService extends AbstractJwtService {
 
         Bearer rslt = new Bearer(bearerToken, username, attributes, groups);
         logger.debug("Produced the following Bearer for user '{}':  {}", username, rslt);
+        parsedBearerCache.put(bearerToken, rslt, claims.getBody().getExpiration());
         return rslt;
     }
 }
@@ -16,20 +16,38 @@ package org.apereo.portal.soffit.service;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.PostConstruct;
 import org.apereo.portal.soffit.model.v1_0.Definition;
 import org.springframework.stereotype.Service;
 
 /**
- * Responsible for issuing and parsing Definition tokens.
+ * Responsible for issuing and parsing Definition tokens. Both are cached briefly, so the Definition
+ * token of a soffit is reused across requests instead of being signed and encrypted every time.
  *
  * @since 5.0
  */
 @Service
 public class DefinitionService extends AbstractJwtService {
 
+    private TokenCache<List<Object>, Definition> definitionCache;
+    private TokenCache<String, Definition> parsedDefinitionCache;
+
+    @Override
+    @PostConstruct
+    public void init() {
+        super.init();
+        definitionCache = createTokenCache();
+        parsedDefinitionCache = createTokenCache();
+    }
+
+    /**
+     * @param expires Expiration of a new token; a cached token with the same content may expire
+     *     slightly sooner
+     */
     public Definition createDefinition(
             String title,
             String fname,
@@ -39,6 +57,13 @@ public class DefinitionService extends AbstractJwtService {
             String username,
             Date expires) {
 
+        final List<Object> cacheKey =
+                Arrays.<Object>asList(title, fname, description, categories, parameters, username);
+        final Definition cached = definitionCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
         final Claims claims = createClaims(Definition.class, username, expires);
 
         // Title
@@ -56,12 +81,25 @@ public class DefinitionService extends AbstractJwtService {
         // Parameters
         claims.put(JwtClaims.PARAMETERS.getName(), parameters);
 
-        return new Definition(
-                generateEncryptedToken(claims), title, fname, description, categories, parameters);
+        final Definition rslt =
+                new Definition(
+                        generateEncryptedToken(claims),
+                        title,
+                        fname,
+                        description,
+                        categories,
+                        parameters);
+        definitionCache.put(cacheKey, rslt, expires);
+        return rslt;
     }
 
     public Definition parseDefinition(String definitionToken) {
 
+        final Definition cached = parsedDefinitionCache.get(definitionToken);
+        if (cached != null) {
+            return cached;
+        }
+
         final Jws<Claims> claims = parseEncrypteToken(definitionToken, Definition.class);
 
         final String username = claims.getBody().getSubject();
@@ -88,6 +126,7 @@ public class DefinitionService extends AbstractJwtService {
         Definition rslt =
                 new Definition(definitionToken, title, fname, description, categories, parameters);
         logger.debug("Produced the following Definition for user '{}':  {}", username, rslt);
+        parsedDefinitionCache.put(definitionToken, rslt, claims.getBody().getExpiration());
         return rslt;
     }
 }
@@ -0,0 +1,95 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.soffit.service;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU cache of the values produced by a {@link AbstractJwtService}, so that the same token is
+ * not signed and encrypted (or decrypted and parsed) over and over. Entries are served for at most
+ * the configured time to live and never past the expiration of the token they hold.
+ *
+ * @since 5.0
+ */
+final class TokenCache<K, V> {
+
+    private final long timeToLiveMillis;
+    private final Map<K, Entry<V>> entries;
+
+    /**
+     * @param timeToLiveSeconds How long an entry is served, caching is disabled if not positive
+     * @param maxSize Maximum number of entries, the least recently used entry is evicted first
+     */
+    TokenCache(int timeToLiveSeconds, final int maxSize) {
+        this.timeToLiveMillis = timeToLiveSeconds * 1000L;
+        this.entries =
+                new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                        return size() > maxSize;
+                    }
+                };
+    }
+
+    /** @return The cached value, null if there is none or it is no longer valid */
+    V get(K key) {
+        if (timeToLiveMillis <= 0) {
+            return null;
+        }
+
+        synchronized (entries) {
+            final Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.validUntil <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    /** @param expires Expiration of the token the value holds, the entry is not served past it */
+    void put(K key, V value, Date expires) {
+        if (timeToLiveMillis <= 0) {
+            return;
+        }
+
+        final long validUntil =
+                Math.min(System.currentTimeMillis() + timeToLiveMillis, expires.getTime());
+        synchronized (entries) {
+            entries.put(key, new Entry<V>(value, validUntil));
+        }
+    }
+
+    /*
+     * Nested Types
+     */
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long validUntil;
+
+        public Entry(V value, long validUntil) {
+            this.value = value;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.soffit.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.soffit.model.v1_0.Bearer;
+import org.apereo.portal.soffit.service.AbstractJwtService.EncryptionFormat;
+import org.jasypt.util.text.BasicTextEncryptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class BearerServiceTest {
+    private static final Map<String, List<String>> ATTRIBUTES =
+            Collections.singletonMap("mail", Collections.singletonList("student@example.edu"));
+    private static final List<String> GROUPS = Collections.singletonList("Students");
+
+    private final Date expires = new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+
+    private BearerService bearerService;
+
+    @Before
+    public void setup() {
+        this.bearerService = createBearerService(60, EncryptionFormat.AES_GCM);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final Bearer bearer =
+                this.bearerService.createBearer("student", ATTRIBUTES, GROUPS, this.expires);
+        assertTrue(
+                bearer.getEncryptedToken().startsWith(AbstractJwtService.ENCRYPTED_TOKEN_PREFIX));
+
+        // Parse with a separate instance, as the soffit would
+        final Bearer parsed =
+                createBearerService(60, EncryptionFormat.JASYPT)
+                        .parseBearerToken(bearer.getEncryptedToken());
+        assertEquals("student", parsed.getUsername());
+        assertEquals(ATTRIBUTES, parsed.getAttributes());
+        assertEquals(GROUPS, parsed.getGroups());
+    }
+
+    @Test
+    public void testJasyptFormat() {
+        final Bearer bearer =
+                createBearerService(60, EncryptionFormat.JASYPT)
+                        .createBearer("student", ATTRIBUTES, GROUPS, this.expires);
+        assertFalse(
+                bearer.getEncryptedToken().startsWith(AbstractJwtService.ENCRYPTED_TOKEN_PREFIX));
+
+        // Readable by renderers that predate AES-GCM
+        final BasicTextEncryptor legacyEncryptor = new BasicTextEncryptor();
+        legacyEncryptor.setPassword(AbstractJwtService.DEFAULT_ENCRYPTION_PASSWORD);
+        assertNotNull(legacyEncryptor.decrypt(bearer.getEncryptedToken()));
+
+        final Bearer parsed = this.bearerService.parseBearerToken(bearer.getEncryptedToken());
+        assertEquals("student", parsed.getUsername());
+        assertEquals(GROUPS, parsed.getGroups());
+    }
+
+    @Test
+    public void testTokensAreCached() {
+        final Bearer bearer =
+                this.bearerService.createBearer("student", ATTRIBUTES, GROUPS, this.expires);
+        assertSame(
+                bearer,
+                this.bearerService.createBearer("student", ATTRIBUTES, GROUPS, this.expires));
+        assertNotEquals(
+                bearer.getEncryptedToken(),
+                this.bearerService
+                        .createBearer("staff", ATTRIBUTES, GROUPS, this.expires)
+                        .getEncryptedToken());
+
+        final Bearer parsed = this.bearerService.parseBearerToken(bearer.getEncryptedToken());
+        assertSame(parsed, this.bearerService.parseBearerToken(bearer.getEncryptedToken()));
+    }
+
+    @Test
+    public void testTokenCacheDisabled() {
+        final BearerService uncached = createBearerService(0, EncryptionFormat.AES_GCM);
+        final Bearer bearer = uncached.createBearer("student", ATTRIBUTES, GROUPS, this.expires);
+        assertNotEquals(
+                bearer.getEncryptedToken(),
+                uncached.createBearer("student", ATTRIBUTES, GROUPS, this.expires)
+                        .getEncryptedToken());
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testTamperedToken() {
+        final String token =
+                this.bearerService
+                        .createBearer("student", ATTRIBUTES, GROUPS, this.expires)
+                        .getEncryptedToken();
+        final char last = token.charAt(token.length() - 2);
+        this.bearerService.parseBearerToken(
+                token.substring(0, token.length() - 2)
+                        + (last == 'A' ? 'B' : 'A')
+                        + token.charAt(token.length() - 1));
+    }
+
+    @Test
+    public void testLegacyToken() {
+        final Claims claims =
+                this.bearerService.createClaims(Bearer.class, "student", this.expires);
+        claims.put(JwtClaims.GROUPS.getName(), GROUPS);
+        final String jwt =
+                Jwts.builder()
+                        .setClaims(claims)
+                        .signWith(
+                                SignatureAlgorithm.HS512, AbstractJwtService.DEFAULT_SIGNATURE_KEY)
+                        .compact();
+
+        // Encrypted as before AES-GCM
+        final String legacyToken = this.bearerService.textEncryptor.encrypt(jwt);
+
+        final Bearer parsed = this.bearerService.parseBearerToken(legacyToken);
+        assertEquals("student", parsed.getUsername());
+        assertEquals(GROUPS, parsed.getGroups());
+    }
+
+    private static BearerService createBearerService(
+            int tokenCacheSeconds, EncryptionFormat encryptionFormat) {
+        final BearerService rslt = new BearerService();
+        ReflectionTestUtils.setField(
+                rslt, "signatureKey", AbstractJwtService.DEFAULT_SIGNATURE_KEY);
+        ReflectionTestUtils.setField(
+                rslt, "encryptionPassword", AbstractJwtService.DEFAULT_ENCRYPTION_PASSWORD);
+        ReflectionTestUtils.setField(rslt, "encryptionFormat", encryptionFormat);
+        ReflectionTestUtils.setField(rslt, "tokenCacheSeconds", tokenCacheSeconds);
+        rslt.init();
+        return rslt;
+    }
+}
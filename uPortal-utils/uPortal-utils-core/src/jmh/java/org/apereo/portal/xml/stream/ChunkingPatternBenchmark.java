@@ -0,0 +1,214 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.StartElement;
+import org.apereo.portal.character.stream.CharacterEventSource;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the single pass {@link MultiPatternScanner} used by {@link ChunkingEventReader} with the
+ * previous approach of running each chunking pattern over the text in turn.
+ *
+ * <p>The input mimics the serialized output of the Respondr theme with every pattern based portlet
+ * placeholder from renderingPipelineContext.xml in use: title, help, new item count and link. The
+ * element based placeholders (content, header, chunk points) are split on StAX events before the
+ * text is scanned and are not part of this benchmark.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChunkingPatternBenchmark {
+    private static final String[] CHUNKING_PATTERNS = {
+        "\\{up-portlet-title\\(([^\\)]+)\\)\\}",
+        "\\{up-portlet-help\\(([^\\)]+)\\)\\}",
+        "\\{up-portlet-new-item-count\\(([^\\)]+)\\)\\}",
+        "\\{up-portlet-link\\(([^,]+),([^\\)]+)\\)\\}"
+    };
+
+    /** Number of portlets on the page */
+    @Param({"10", "40"})
+    public int portletCount;
+
+    private String themeOutput;
+    private Pattern[] patterns;
+    private CharacterEventSource[] eventSources;
+    private ChunkingEventReader chunkingEventReader;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.themeOutput = createThemeOutput(this.portletCount);
+
+        this.patterns = new Pattern[CHUNKING_PATTERNS.length];
+        this.eventSources = new CharacterEventSource[CHUNKING_PATTERNS.length];
+        for (int i = 0; i < CHUNKING_PATTERNS.length; i++) {
+            this.patterns[i] = Pattern.compile(CHUNKING_PATTERNS[i]);
+            this.eventSources[i] = new PlaceholderEventSource();
+        }
+
+        this.chunkingEventReader =
+                new ChunkingEventReader(
+                        null,
+                        Collections.<String, CharacterEventSource>emptyMap(),
+                        new MultiPatternScanner(this.patterns),
+                        this.eventSources,
+                        null,
+                        null,
+                        null);
+    }
+
+    @Benchmark
+    public List<CharacterEvent> singlePass() {
+        final List<CharacterEvent> characterEvents = new ArrayList<CharacterEvent>();
+        this.chunkingEventReader.chunkString(characterEvents, this.themeOutput);
+        return characterEvents;
+    }
+
+    @Benchmark
+    public List<CharacterEvent> patternPerPass() {
+        final List<CharacterEvent> characterEvents = new ArrayList<CharacterEvent>();
+        this.chunkStringPerPattern(characterEvents, this.themeOutput, 0);
+        return characterEvents;
+    }
+
+    /** The chunking logic ChunkingEventReader used before the single pass scanner */
+    private void chunkStringPerPattern(
+            List<CharacterEvent> characterEvents, CharSequence buffer, int patternIndex) {
+        for (; patternIndex < this.patterns.length; patternIndex++) {
+            final Matcher matcher = this.patterns[patternIndex].matcher(buffer);
+            if (matcher.find()) {
+                final CharacterEventSource eventSource = this.eventSources[patternIndex];
+                int prevMatchEnd = 0;
+
+                do {
+                    this.chunkStringPerPattern(
+                            characterEvents,
+                            buffer.subSequence(prevMatchEnd, matcher.start()),
+                            patternIndex + 1);
+
+                    final MatchResult matchResult = matcher.toMatchResult();
+                    eventSource.generateCharacterEvents(null, matchResult, characterEvents);
+
+                    prevMatchEnd = matcher.end();
+                } while (matcher.find());
+
+                if (prevMatchEnd < buffer.length()) {
+                    this.chunkStringPerPattern(
+                            characterEvents,
+                            buffer.subSequence(prevMatchEnd, buffer.length()),
+                            patternIndex + 1);
+                }
+
+                return;
+            }
+        }
+
+        characterEvents.add(CharacterDataEventImpl.create(buffer.toString()));
+    }
+
+    /** Builds markup similar to the Respondr theme between the portlet content placeholders */
+    private static String createThemeOutput(int portletCount) {
+        final StringBuilder output = new StringBuilder();
+        output.append("<!DOCTYPE html><html lang=\"en\"><head><title>uPortal</title>");
+        for (int i = 0; i < 20; i++) {
+            output.append("<link rel=\"stylesheet\" href=\"/ResourceServingWebapp/rs/css")
+                    .append(i)
+                    .append(".min.css\" type=\"text/css\" media=\"all\">");
+        }
+        output.append("</head><body class=\"up dashboard portal fl-theme-mist\">");
+        output.append("<div id=\"portalPageBody\" class=\"container-fluid\"><div class=\"row\">");
+
+        for (int i = 0; i < portletCount; i++) {
+            final String subscribeId = "u12l1n" + (100 + i);
+            output.append("<div class=\"col-md-6\"><section id=\"portlet_")
+                    .append(subscribeId)
+                    .append("\" class=\"up-portlet-wrapper portlet-container\">")
+                    .append("<div class=\"up-portlet-titlebar\"><h2><a href=\"")
+                    .append("{up-portlet-link(")
+                    .append(subscribeId)
+                    .append(",max)}\">{up-portlet-title(")
+                    .append(subscribeId)
+                    .append(")}</a><span class=\"badge\">{up-portlet-new-item-count(")
+                    .append(subscribeId)
+                    .append(")}</span></h2>")
+                    .append("<div class=\"up-portlet-options-menu dropdown\">")
+                    .append("<ul class=\"dropdown-menu\" role=\"menu\">")
+                    .append("<li><a href=\"{up-portlet-link(")
+                    .append(subscribeId)
+                    .append(",min)}\">Minimize</a></li>")
+                    .append("<li><a href=\"{up-portlet-link(")
+                    .append(subscribeId)
+                    .append(",help)}\" title=\"{up-portlet-help(")
+                    .append(subscribeId)
+                    .append(")}\">Help</a></li>")
+                    .append("<li><a href=\"/uPortal/f/u12l1s5/p/layout.u12l1n1/exclusive/")
+                    .append("action.uP?pP_action=remove\">Remove</a></li></ul></div></div>")
+                    .append("<div class=\"up-portlet-content-wrapper\">")
+                    .append("<div class=\"up-portlet-content-wrapper-inner\"></div></div>")
+                    .append("</section></div>");
+        }
+
+        output.append("</div></div><footer><div class=\"container\"><p>Powered by uPortal</p>");
+        output.append("</div></footer><script src=\"/uPortal/scripts/jquery.min.js\"></script>");
+        output.append("</body></html>");
+        return output.toString();
+    }
+
+    /** Stands in for the Portlet*PlaceholderEventSources which need a portlet window registry */
+    private static final class PlaceholderEventSource implements CharacterEventSource {
+        @Override
+        public void generateCharacterEvents(
+                HttpServletRequest servletRequest,
+                XMLEventReader eventReader,
+                StartElement event,
+                Collection<CharacterEvent> eventBuffer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void generateCharacterEvents(
+                HttpServletRequest servletRequest,
+                MatchResult matchResult,
+                Collection<CharacterEvent> eventBuffer) {
+            eventBuffer.add(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+        }
+    }
+}
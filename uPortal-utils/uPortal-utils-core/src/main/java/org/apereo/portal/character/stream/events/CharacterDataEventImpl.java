@@ -18,6 +18,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import java.util.concurrent.atomic.AtomicLong;
 import org.springframework.util.Assert;
 
 /**
@@ -25,9 +26,13 @@ import org.springframework.util.Assert;
 public final class CharacterDataEventImpl implements CharacterDataEvent {
     private static final long serialVersionUID = 1L;
 
-    /** Character data for an empty string */
+    /** Character data for an empty string, also used to mark chunk points in the pipeline */
     public static final CharacterDataEvent EMPTY_CHARACTER_DATA = new CharacterDataEventImpl("");
 
+    //Empty dynamic data, kept distinct from EMPTY_CHARACTER_DATA so it is never mistaken for a chunk point
+    private static final CharacterDataEvent EMPTY_UNCACHED_CHARACTER_DATA =
+            new CharacterDataEventImpl("");
+
     //Since the cache using weak refs for the events it should never be a cause for object retention therefor no max-size is needed
     private static final LoadingCache<String, CharacterDataEvent> WEAK_EVENT_CACHE =
             CacheBuilder.newBuilder()
@@ -41,6 +46,15 @@ public final class CharacterDataEventImpl implements CharacterDataEvent {
                                 }
                             });
 
+    //Statistics for createUncached, reported by CharacterDataEventCacheStatsBean
+    private static final AtomicLong UNCACHED_EVENT_COUNT = new AtomicLong();
+    private static final AtomicLong UNCACHED_CHARACTER_COUNT = new AtomicLong();
+
+    /**
+     * Get a de-duplicated event for the data. Use for data that is likely to be repeated across
+     * requests such as the static markup fragments produced by the XSLT transforms, dynamic data
+     * should use {@link #createUncached(String)} instead.
+     */
     public static CharacterDataEvent create(String data) {
         if (data.length() == 0) {
             return EMPTY_CHARACTER_DATA;
@@ -55,10 +69,33 @@ public final class CharacterDataEventImpl implements CharacterDataEvent {
         return event;
     }
 
+    /**
+     * Create an event for the data without de-duplicating it. Use for dynamic data such as portlet
+     * output that is rarely repeated, avoids hashing and copying the full string and churning the
+     * shared event cache.
+     */
+    public static CharacterDataEvent createUncached(String data) {
+        if (data.length() == 0) {
+            return EMPTY_UNCACHED_CHARACTER_DATA;
+        }
+
+        UNCACHED_EVENT_COUNT.incrementAndGet();
+        UNCACHED_CHARACTER_COUNT.addAndGet(data.length());
+        return new CharacterDataEventImpl(data);
+    }
+
     static Cache<String, CharacterDataEvent> getEventCache() {
         return WEAK_EVENT_CACHE;
     }
 
+    static long getUncachedEventCount() {
+        return UNCACHED_EVENT_COUNT.get();
+    }
+
+    static long getUncachedCharacterCount() {
+        return UNCACHED_CHARACTER_COUNT.get();
+    }
+
     private final String data;
     private int hash = 0;
 
@@ -67,6 +104,14 @@ public final class CharacterDataEventImpl implements CharacterDataEvent {
         this.data = data;
     }
 
+    /** Cached pipeline events may be serialized, keep the empty event a singleton */
+    private Object readResolve() {
+        if (this.data.length() == 0) {
+            return EMPTY_CHARACTER_DATA;
+        }
+        return this;
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.character.stream.events.CharacterDataEvent#getData()
      */
@@ -20,7 +20,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.regex.MatchResult;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.namespace.QName;
@@ -46,8 +45,8 @@ public class ChunkingEventReader extends BaseXMLEventReader {
 
     private final HttpServletRequest request;
     private final Map<String, CharacterEventSource> chunkingElements;
-    private final Map<Pattern, CharacterEventSource> chunkingPatternEventSources;
-    private final Pattern[] chunkingPatterns;
+    private final CharacterEventSource[] chunkingPatternEventSources;
+    private final MultiPatternScanner chunkingPatternScanner;
     private final XMLEventWriter xmlEventWriter;
     private final StringWriter writer;
     private boolean removeXmlDeclaration = true;
@@ -66,16 +65,50 @@ public class ChunkingEventReader extends BaseXMLEventReader {
             XMLEventReader xmlEventReader,
             XMLEventWriter xmlEventWriter,
             StringWriter writer) {
+        this(
+                request,
+                chunkingElements,
+                new MultiPatternScanner(chunkingPatterns),
+                getEventSources(chunkingPatternEventSources, chunkingPatterns),
+                xmlEventReader,
+                xmlEventWriter,
+                writer);
+    }
+
+    /**
+     * @param chunkingPatternScanner Scanner for the chunking patterns, can be shared across readers
+     * @param chunkingPatternEventSources Event source for each pattern of the scanner, in the same
+     *     order as {@link MultiPatternScanner#getPatterns()}
+     */
+    public ChunkingEventReader(
+            HttpServletRequest request,
+            Map<String, CharacterEventSource> chunkingElements,
+            MultiPatternScanner chunkingPatternScanner,
+            CharacterEventSource[] chunkingPatternEventSources,
+            XMLEventReader xmlEventReader,
+            XMLEventWriter xmlEventWriter,
+            StringWriter writer) {
         super(xmlEventReader);
 
         this.request = request;
         this.chunkingElements = chunkingElements;
+        this.chunkingPatternScanner = chunkingPatternScanner;
         this.chunkingPatternEventSources = chunkingPatternEventSources;
-        this.chunkingPatterns = chunkingPatterns;
         this.xmlEventWriter = xmlEventWriter;
         this.writer = writer;
     }
 
+    private static CharacterEventSource[] getEventSources(
+            Map<Pattern, CharacterEventSource> chunkingPatternEventSources,
+            Pattern[] chunkingPatterns) {
+        final CharacterEventSource[] eventSources =
+                new CharacterEventSource[chunkingPatterns.length];
+        for (int i = 0; i < chunkingPatterns.length; i++) {
+            eventSources[i] = chunkingPatternEventSources.get(chunkingPatterns[i]);
+        }
+        return eventSources;
+    }
+
     public boolean isRemoveXmlDeclaration() {
         return this.removeXmlDeclaration;
     }
@@ -174,7 +207,7 @@ public class ChunkingEventReader extends BaseXMLEventReader {
         this.xmlEventWriter.flush();
 
         //Add character chunk to events
-        this.chunkString(this.characterEvents, this.writer.toString(), 0);
+        this.chunkString(this.characterEvents, this.writer.toString());
 
         this.clearWriter();
     }
@@ -187,52 +220,43 @@ public class ChunkingEventReader extends BaseXMLEventReader {
 
     /**
      * Breaks up the String into a List of CharacterEvents based on the configured Map of Patterns
-     * to CharacterEventSources
+     * to CharacterEventSources. All patterns are found in a single pass over the buffer, see {@link
+     * MultiPatternScanner} for how overlapping matches are resolved.
      */
     protected void chunkString(
-            final List<CharacterEvent> characterEvents,
-            final CharSequence buffer,
-            int patternIndex) {
-        //Iterate over the chunking patterns
-        for (; patternIndex < this.chunkingPatterns.length; patternIndex++) {
-            final Pattern pattern = this.chunkingPatterns[patternIndex];
-
-            final Matcher matcher = pattern.matcher(buffer);
-            if (matcher.find()) {
-                final CharacterEventSource eventSource =
-                        this.chunkingPatternEventSources.get(pattern);
-                int prevMatchEnd = 0;
-
-                do {
-                    //Add all of the text up to the match as a new chunk, use subSequence to avoid extra string alloc
-                    this.chunkString(
-                            characterEvents,
-                            buffer.subSequence(prevMatchEnd, matcher.start()),
-                            patternIndex + 1);
-
-                    //Get the generated CharacterEvents for the match
-                    final MatchResult matchResult = matcher.toMatchResult();
-                    eventSource.generateCharacterEvents(this.request, matchResult, characterEvents);
-
-                    prevMatchEnd = matcher.end();
-                } while (matcher.find());
-
-                //Add any remaining text from the original CharacterDataEvent
-                if (prevMatchEnd < buffer.length()) {
-                    this.chunkString(
-                            characterEvents,
-                            buffer.subSequence(prevMatchEnd, buffer.length()),
-                            patternIndex + 1);
-                }
-
-                return;
+            final List<CharacterEvent> characterEvents, final CharSequence buffer) {
+        final MultiPatternScanner.Scan scan = this.chunkingPatternScanner.scan(buffer);
+
+        int prevMatchEnd = 0;
+        boolean matched = false;
+        while (scan.find()) {
+            matched = true;
+
+            //Add all of the text up to the match as a new chunk
+            if (prevMatchEnd < scan.start()) {
+                this.addCharacterDataEvent(characterEvents, buffer, prevMatchEnd, scan.start());
             }
+
+            //Get the generated CharacterEvents for the match
+            final CharacterEventSource eventSource =
+                    this.chunkingPatternEventSources[scan.patternIndex()];
+            final MatchResult matchResult = scan.toMatchResult();
+            eventSource.generateCharacterEvents(this.request, matchResult, characterEvents);
+
+            prevMatchEnd = scan.end();
         }
 
-        //Buffer didn't match anything, just append the string data
+        //Add any remaining text from the original CharacterDataEvent, if nothing matched the whole
+        //buffer is added even when empty
+        if (!matched || prevMatchEnd < buffer.length()) {
+            this.addCharacterDataEvent(characterEvents, buffer, prevMatchEnd, buffer.length());
+        }
+    }
 
+    private void addCharacterDataEvent(
+            List<CharacterEvent> characterEvents, CharSequence buffer, int start, int end) {
         //de-duplication of the event string data
-        final String eventString = buffer.toString();
+        final String eventString = buffer.subSequence(start, end).toString();
         characterEvents.add(CharacterDataEventImpl.create(eventString));
     }
 
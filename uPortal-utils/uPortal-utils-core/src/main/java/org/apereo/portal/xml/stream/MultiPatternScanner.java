@@ -0,0 +1,420 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the matches of several {@link Pattern}s in a single left to right pass over the input.
+ *
+ * <p>The literal prefix of each pattern, for example <code>{up-portlet-title(</code> for <code>
+ * \{up-portlet-title\(([^\)]+)\)\}</code>, is compiled into an Aho-Corasick automaton. The input is
+ * scanned once for all prefixes and the full pattern is only run at positions where its prefix
+ * occurs. Patterns without a usable literal prefix (leading groups, character classes, alternation,
+ * flags) are searched for with {@link Matcher#find(int)} instead.
+ *
+ * <p>Matches never overlap. When several patterns match the leftmost match is used, if more than
+ * one pattern matches at the same position the one that comes first in the pattern array wins.
+ *
+ * <p>Instances are immutable and thread safe, the {@link Scan}s they create are not.
+ */
+public final class MultiPatternScanner {
+    /** Transitions for characters below this are pre-computed for every node */
+    private static final int DENSE_TRANSITIONS = 128;
+
+    private final Pattern[] patterns;
+    private final int[] prefixLengths;
+    private final int[] unprefixedPatterns;
+    private final int maxPrefixLength;
+
+    // Aho-Corasick automaton, node 0 is the root
+    private final char[][] childChars;
+    private final int[][] childNodes;
+    private final int[] failure;
+    private final int[][] output;
+    private final int[][] denseTransitions;
+    private final int rootSkipChar;
+
+    public MultiPatternScanner(Pattern... patterns) {
+        this.patterns = patterns.clone();
+        this.prefixLengths = new int[patterns.length];
+
+        final List<char[]> nodeChars = new ArrayList<char[]>();
+        final List<int[]> nodeChildren = new ArrayList<int[]>();
+        final List<int[]> nodeOutput = new ArrayList<int[]>();
+        nodeChars.add(new char[0]);
+        nodeChildren.add(new int[0]);
+        nodeOutput.add(new int[0]);
+
+        final List<Integer> unprefixed = new ArrayList<Integer>();
+        int maxPrefixLength = 0;
+        for (int patternIndex = 0; patternIndex < patterns.length; patternIndex++) {
+            final String prefix = getLiteralPrefix(patterns[patternIndex]);
+            this.prefixLengths[patternIndex] = prefix.length();
+            if (prefix.isEmpty()) {
+                unprefixed.add(patternIndex);
+                continue;
+            }
+            maxPrefixLength = Math.max(maxPrefixLength, prefix.length());
+
+            //Add the prefix to the trie
+            int node = 0;
+            for (int i = 0; i < prefix.length(); i++) {
+                final char c = prefix.charAt(i);
+                int child = findChild(nodeChars.get(node), nodeChildren.get(node), c);
+                if (child < 0) {
+                    child = nodeChars.size();
+                    nodeChars.add(new char[0]);
+                    nodeChildren.add(new int[0]);
+                    nodeOutput.add(new int[0]);
+
+                    final char[] chars = nodeChars.get(node);
+                    final int[] children = nodeChildren.get(node);
+                    final char[] newChars = Arrays.copyOf(chars, chars.length + 1);
+                    final int[] newChildren = Arrays.copyOf(children, children.length + 1);
+                    newChars[chars.length] = c;
+                    newChildren[children.length] = child;
+                    nodeChars.set(node, newChars);
+                    nodeChildren.set(node, newChildren);
+                }
+                node = child;
+            }
+            nodeOutput.set(node, append(nodeOutput.get(node), patternIndex));
+        }
+
+        this.maxPrefixLength = maxPrefixLength;
+        this.unprefixedPatterns = new int[unprefixed.size()];
+        for (int i = 0; i < this.unprefixedPatterns.length; i++) {
+            this.unprefixedPatterns[i] = unprefixed.get(i);
+        }
+
+        this.childChars = nodeChars.toArray(new char[nodeChars.size()][]);
+        this.childNodes = nodeChildren.toArray(new int[nodeChildren.size()][]);
+        this.output = nodeOutput.toArray(new int[nodeOutput.size()][]);
+        this.failure = new int[this.childChars.length];
+
+        //Breadth first walk of the trie to compute the failure links and merged outputs
+        final List<Integer> breadthFirstNodes = new ArrayList<Integer>();
+        final Queue<Integer> queue = new LinkedList<Integer>();
+        for (final int child : this.childNodes[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int node = queue.remove();
+            breadthFirstNodes.add(node);
+            for (int i = 0; i < this.childChars[node].length; i++) {
+                final char c = this.childChars[node][i];
+                final int child = this.childNodes[node][i];
+                queue.add(child);
+
+                int fail = this.failure[node];
+                int target = findChild(this.childChars[fail], this.childNodes[fail], c);
+                while (target < 0 && fail != 0) {
+                    fail = this.failure[fail];
+                    target = findChild(this.childChars[fail], this.childNodes[fail], c);
+                }
+                this.failure[child] = target < 0 ? 0 : target;
+
+                for (final int patternIndex : this.output[this.failure[child]]) {
+                    this.output[child] = append(this.output[child], patternIndex);
+                }
+            }
+        }
+
+        //Turn the common case of ASCII input into a single array lookup per character, a node's
+        //failure target is always shallower so it is filled in before the node itself
+        this.denseTransitions = new int[this.childChars.length][DENSE_TRANSITIONS];
+        for (char c = 0; c < DENSE_TRANSITIONS; c++) {
+            this.denseTransitions[0][c] =
+                    Math.max(0, findChild(this.childChars[0], this.childNodes[0], c));
+        }
+        for (final int node : breadthFirstNodes) {
+            for (char c = 0; c < DENSE_TRANSITIONS; c++) {
+                final int child = findChild(this.childChars[node], this.childNodes[node], c);
+                this.denseTransitions[node][c] =
+                        child >= 0 ? child : this.denseTransitions[this.failure[node]][c];
+            }
+        }
+
+        //When every prefix starts with the same character, like the { of the portlet placeholders,
+        //String.indexOf can be used to jump between candidates while in the root state
+        this.rootSkipChar = this.childChars[0].length == 1 ? this.childChars[0][0] : -1;
+    }
+
+    /** @return The patterns this scanner matches, in priority order */
+    public Pattern[] getPatterns() {
+        return this.patterns.clone();
+    }
+
+    /** @return A new scan over the input */
+    public Scan scan(CharSequence input) {
+        return new Scan(input);
+    }
+
+    /**
+     * Determine the literal text every match of the pattern must start with, returns an empty
+     * string if there is none that can safely be determined.
+     */
+    static String getLiteralPrefix(Pattern pattern) {
+        final String regex = pattern.pattern();
+        final int flags = pattern.flags();
+        if ((flags & Pattern.LITERAL) != 0) {
+            return (flags & (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)) == 0 ? regex : "";
+        }
+        if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ)) != 0) {
+            return "";
+        }
+
+        //Top level alternation means there is no single prefix, give up on any unescaped |
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '|') {
+                return "";
+            }
+        }
+
+        final StringBuilder prefix = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            final int next;
+            final char literal;
+            if (c == '\\') {
+                if (i + 1 >= regex.length()) {
+                    break;
+                }
+                //Only escaped punctuation is a literal, \d \Q etc are not
+                final char escaped = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(escaped)) {
+                    break;
+                }
+                literal = escaped;
+                next = i + 2;
+            } else if ("^$.|?*+()[]{}".indexOf(c) >= 0
+                    || Character.isHighSurrogate(c)
+                    || Character.isLowSurrogate(c)) {
+                break;
+            } else {
+                literal = c;
+                next = i + 1;
+            }
+
+            //A quantifier makes the literal optional or repeatable, stop before it
+            if (next < regex.length() && "?*+{".indexOf(regex.charAt(next)) >= 0) {
+                break;
+            }
+
+            prefix.append(literal);
+            i = next;
+        }
+
+        return prefix.toString();
+    }
+
+    private static int findChild(char[] chars, int[] children, char c) {
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] == c) {
+                return children[i];
+            }
+        }
+        return -1;
+    }
+
+    private static int[] append(int[] values, int value) {
+        final int[] newValues = Arrays.copyOf(values, values.length + 1);
+        newValues[values.length] = value;
+        return newValues;
+    }
+
+    /**
+     * A single pass over an input, used like a {@link Matcher}: call {@link #find()} until it
+     * returns false and read the details of each match in between.
+     */
+    public final class Scan {
+        private final CharSequence input;
+        private final String inputString;
+        private final Matcher[] matchers;
+        private final int[] unprefixedStarts;
+        private final int[] matcherStarts;
+
+        private int position = 0;
+        private int matchPatternIndex = -1;
+        private Matcher match;
+
+        Scan(CharSequence input) {
+            this.input = input;
+            this.inputString = input instanceof String ? (String) input : null;
+            this.matchers = new Matcher[patterns.length];
+            this.matcherStarts = new int[patterns.length];
+            this.unprefixedStarts = new int[unprefixedPatterns.length];
+            Arrays.fill(this.unprefixedStarts, -1);
+        }
+
+        /**
+         * Find the next match
+         *
+         * @return true if a match was found
+         */
+        public boolean find() {
+            this.matchPatternIndex = -1;
+            this.match = null;
+            if (this.position > this.input.length()) {
+                return false;
+            }
+
+            int bestStart = Integer.MAX_VALUE;
+            int bestPatternIndex = Integer.MAX_VALUE;
+
+            //Patterns without a prefix have to be searched for directly
+            for (int i = 0; i < unprefixedPatterns.length; i++) {
+                final int patternIndex = unprefixedPatterns[i];
+                int start = this.unprefixedStarts[i];
+                if (start != Integer.MAX_VALUE && start < this.position) {
+                    final Matcher matcher = this.getMatcher(patternIndex);
+                    start = matcher.find(this.position) ? matcher.start() : Integer.MAX_VALUE;
+                    this.unprefixedStarts[i] = start;
+                    this.matcherStarts[patternIndex] = start;
+                }
+                if (start < bestStart || (start == bestStart && patternIndex < bestPatternIndex)) {
+                    bestStart = start;
+                    bestPatternIndex = patternIndex;
+                }
+            }
+
+            //Walk the automaton, a match starting before the best one so far must have its prefix
+            //end within maxPrefixLength characters of that start
+            int node = 0;
+            final int length = this.input.length();
+            for (int i = this.position; i < length; i++) {
+                if (node == 0 && rootSkipChar >= 0 && this.inputString != null) {
+                    i = this.inputString.indexOf(rootSkipChar, i);
+                    if (i < 0) {
+                        break;
+                    }
+                }
+                if (bestStart != Integer.MAX_VALUE && i >= bestStart + maxPrefixLength) {
+                    break;
+                }
+
+                final char c = this.input.charAt(i);
+                if (c < DENSE_TRANSITIONS) {
+                    node = denseTransitions[node][c];
+                } else {
+                    int child = findChild(childChars[node], childNodes[node], c);
+                    while (child < 0 && node != 0) {
+                        node = failure[node];
+                        child = findChild(childChars[node], childNodes[node], c);
+                    }
+                    node = child < 0 ? 0 : child;
+                }
+
+                final int[] patternIndexes = output[node];
+                if (patternIndexes.length == 0) {
+                    continue;
+                }
+                for (final int patternIndex : patternIndexes) {
+                    final int start = i - prefixLengths[patternIndex] + 1;
+                    if ((start < bestStart
+                                    || (start == bestStart && patternIndex < bestPatternIndex))
+                            && this.matchesAt(patternIndex, start)) {
+                        bestStart = start;
+                        bestPatternIndex = patternIndex;
+                    }
+                }
+            }
+
+            if (bestStart == Integer.MAX_VALUE) {
+                this.position = length + 1;
+                return false;
+            }
+
+            //Re-run the winning pattern if its matcher was used for a later candidate
+            final Matcher matcher = this.getMatcher(bestPatternIndex);
+            if (this.matcherStarts[bestPatternIndex] != bestStart
+                    && !this.matchesAt(bestPatternIndex, bestStart)) {
+                throw new IllegalStateException(
+                        "Pattern "
+                                + patterns[bestPatternIndex]
+                                + " no longer matches at "
+                                + bestStart);
+            }
+            this.matchPatternIndex = bestPatternIndex;
+            this.match = matcher;
+
+            //Step past empty matches so the scan always makes progress
+            this.position = matcher.end() == matcher.start() ? matcher.end() + 1 : matcher.end();
+            return true;
+        }
+
+        /** @return Index in {@link MultiPatternScanner#getPatterns()} of the matching pattern */
+        public int patternIndex() {
+            this.checkMatch();
+            return this.matchPatternIndex;
+        }
+
+        /** @return Start index of the match */
+        public int start() {
+            this.checkMatch();
+            return this.match.start();
+        }
+
+        /** @return End index of the match, exclusive */
+        public int end() {
+            this.checkMatch();
+            return this.match.end();
+        }
+
+        /** @return Snapshot of the current match, including its groups */
+        public MatchResult toMatchResult() {
+            this.checkMatch();
+            return this.match.toMatchResult();
+        }
+
+        private void checkMatch() {
+            if (this.match == null) {
+                throw new IllegalStateException("No match available");
+            }
+        }
+
+        private boolean matchesAt(int patternIndex, int start) {
+            final Matcher matcher = this.getMatcher(patternIndex);
+            matcher.region(start, this.input.length());
+            final boolean matches = matcher.lookingAt();
+            this.matcherStarts[patternIndex] = matches ? start : -1;
+            return matches;
+        }
+
+        private Matcher getMatcher(int patternIndex) {
+            Matcher matcher = this.matchers[patternIndex];
+            if (matcher == null) {
+                matcher = patterns[patternIndex].matcher(this.input);
+                //Behave like find() on the whole input, lookarounds and anchors see past the region
+                matcher.useTransparentBounds(true);
+                matcher.useAnchoringBounds(false);
+                this.matchers[patternIndex] = matcher;
+            }
+            return matcher;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Bounded hand-off of {@link XMLEvent}s from a producer thread writing to {@link #getWriter()} to a
+ * consumer thread reading from {@link #getReader()}. Events are passed in batches to limit the
+ * synchronization overhead, once {@link #setCapacity(int)} batches are waiting the producer blocks
+ * until the consumer catches up.
+ *
+ * <p>The producer must finish by calling either {@link #complete()} or {@link #fail(Throwable)}, a
+ * failure discards any unread events and is thrown to the consumer on its next read. Both sides
+ * give up with an exception after waiting {@link #setTimeout(long)} milliseconds on the other, so
+ * an abandoned pipe cannot block a thread forever.
+ */
+public class XMLEventPipe {
+    private final BlockingQueue<List<XMLEvent>> queue;
+    private final List<XMLEvent> endOfStream = new ArrayList<XMLEvent>(0);
+    private final int batchSize;
+    private final PipeWriter writer = new PipeWriter();
+    private final PipeReader reader = new PipeReader();
+
+    private long timeout = TimeUnit.SECONDS.toMillis(30);
+    private volatile Throwable failure;
+    private volatile boolean readerClosed = false;
+
+    /**
+     * @param capacity Maximum number of batches waiting to be read
+     * @param batchSize Number of events in each batch
+     */
+    public XMLEventPipe(int capacity, int batchSize) {
+        this.queue = new ArrayBlockingQueue<List<XMLEvent>>(capacity);
+        this.batchSize = batchSize;
+    }
+
+    /** Milliseconds either side waits on the other before failing, defaults to 30 seconds */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /** @return The writer the producer thread adds events to */
+    public XMLEventWriter getWriter() {
+        return this.writer;
+    }
+
+    /** @return The reader the consumer thread reads events from */
+    public XMLEventReader getReader() {
+        return this.reader;
+    }
+
+    /** Called by the producer once all events have been written */
+    public void complete() throws XMLStreamException {
+        this.writer.flush();
+        this.put(this.endOfStream);
+    }
+
+    /** Called by the producer if it failed */
+    public void fail(Throwable failure) {
+        this.failure = failure;
+        this.queue.clear();
+        this.queue.offer(this.endOfStream);
+    }
+
+    private void put(List<XMLEvent> batch) throws XMLStreamException {
+        try {
+            if (this.readerClosed) {
+                throw new XMLStreamException("XMLEventPipe reader has been closed");
+            }
+            if (!this.queue.offer(batch, this.timeout, TimeUnit.MILLISECONDS)) {
+                throw new XMLStreamException(
+                        "Timed out after " + this.timeout + "ms waiting for the reader");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XMLStreamException("Interrupted while waiting for the reader", e);
+        }
+    }
+
+    private final class PipeWriter extends XMLEventBufferWriter {
+        private List<XMLEvent> batch = new ArrayList<XMLEvent>(batchSize);
+
+        @Override
+        public void add(XMLEvent event) throws XMLStreamException {
+            this.batch.add(event);
+            if (this.batch.size() >= batchSize) {
+                this.flush();
+            }
+        }
+
+        @Override
+        public void add(XMLEventReader reader) throws XMLStreamException {
+            while (reader.hasNext()) {
+                this.add(reader.nextEvent());
+            }
+        }
+
+        @Override
+        public void flush() throws XMLStreamException {
+            if (!this.batch.isEmpty()) {
+                put(this.batch);
+                this.batch = new ArrayList<XMLEvent>(batchSize);
+            }
+        }
+
+        @Override
+        public List<XMLEvent> getEventBuffer() {
+            throw new UnsupportedOperationException("Events are not buffered by an XMLEventPipe");
+        }
+    }
+
+    private final class PipeReader extends BaseXMLEventReader {
+        private Iterator<XMLEvent> batch = null;
+        private XMLEvent peekedEvent = null;
+        private boolean ended = false;
+
+        PipeReader() {
+            super(null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.peekedEvent != null) {
+                return true;
+            }
+
+            try {
+                this.peekedEvent = this.take();
+            } catch (XMLStreamException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+            return this.peekedEvent != null;
+        }
+
+        @Override
+        public XMLEvent peek() throws XMLStreamException {
+            if (this.peekedEvent == null) {
+                this.peekedEvent = this.take();
+            }
+            return this.peekedEvent;
+        }
+
+        @Override
+        protected XMLEvent internalNextEvent() throws XMLStreamException {
+            final XMLEvent event = this.peek();
+            if (event == null) {
+                throw new NoSuchElementException();
+            }
+            this.peekedEvent = null;
+            return event;
+        }
+
+        /** @return The next event from the producer, null at the end of the stream */
+        private XMLEvent take() throws XMLStreamException {
+            while (this.batch == null || !this.batch.hasNext()) {
+                if (this.ended) {
+                    return null;
+                }
+
+                final List<XMLEvent> nextBatch;
+                try {
+                    nextBatch = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new XMLStreamException("Interrupted while waiting for the writer", e);
+                }
+
+                if (nextBatch == null) {
+                    throw new XMLStreamException(
+                            "Timed out after " + timeout + "ms waiting for the writer");
+                }
+                if (nextBatch == endOfStream) {
+                    this.ended = true;
+                    final Throwable failure = XMLEventPipe.this.failure;
+                    if (failure != null) {
+                        throw new XMLStreamException("XMLEventPipe writer failed", failure);
+                    }
+                    return null;
+                }
+                this.batch = nextBatch.iterator();
+            }
+
+            return this.batch.next();
+        }
+
+        @Override
+        public Object getProperty(String name) throws IllegalArgumentException {
+            return null;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            //Lets a blocked writer give up instead of waiting for the timeout
+            readerClosed = true;
+            queue.clear();
+        }
+    }
+}
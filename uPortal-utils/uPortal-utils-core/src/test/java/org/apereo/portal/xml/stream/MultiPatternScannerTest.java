@@ -0,0 +1,136 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+/** Tests for {@link MultiPatternScanner} */
+public class MultiPatternScannerTest {
+    private static final Pattern TITLE = Pattern.compile("\\{up-portlet-title\\(([^\\)]+)\\)\\}");
+    private static final Pattern HELP = Pattern.compile("\\{up-portlet-help\\(([^\\)]+)\\)\\}");
+    private static final Pattern LINK =
+            Pattern.compile("\\{up-portlet-link\\(([^,]+),([^\\)]+)\\)\\}");
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals("{up-portlet-title(", MultiPatternScanner.getLiteralPrefix(TITLE));
+        assertEquals("ab", MultiPatternScanner.getLiteralPrefix(Pattern.compile("abc?")));
+        assertEquals("a.b", MultiPatternScanner.getLiteralPrefix(Pattern.compile("a\\.b\\d")));
+        assertEquals("", MultiPatternScanner.getLiteralPrefix(Pattern.compile("(a)b")));
+        assertEquals("", MultiPatternScanner.getLiteralPrefix(Pattern.compile("ab|cd")));
+        assertEquals(
+                "",
+                MultiPatternScanner.getLiteralPrefix(
+                        Pattern.compile("ab", Pattern.CASE_INSENSITIVE)));
+        assertEquals(
+                "a|b",
+                MultiPatternScanner.getLiteralPrefix(Pattern.compile("a|b", Pattern.LITERAL)));
+    }
+
+    @Test
+    public void testFindAllPatterns() {
+        final MultiPatternScanner scanner = new MultiPatternScanner(TITLE, HELP, LINK);
+
+        final String input =
+                "<h2>{up-portlet-title(u1l1n1)}</h2>{up-portlet-help(u1l1n2)}"
+                        + "<a href=\"{up-portlet-link(u1l1n1,render)}\">{up-portlet-title(u1l1n3)}</a>"
+                        + "{up-portlet-title(}";
+
+        final List<String> matches = this.findAll(scanner, input);
+        assertEquals(4, matches.size());
+        assertEquals("0:4:{up-portlet-title(u1l1n1)}:u1l1n1", matches.get(0));
+        assertEquals("1:35:{up-portlet-help(u1l1n2)}:u1l1n2", matches.get(1));
+        assertEquals("2:69:{up-portlet-link(u1l1n1,render)}:u1l1n1", matches.get(2));
+        assertEquals("0:103:{up-portlet-title(u1l1n3)}:u1l1n3", matches.get(3));
+
+        //Non-String input skips the indexOf fast path
+        assertEquals(matches, this.findAll(scanner, new StringBuilder(input)));
+    }
+
+    @Test
+    public void testNoMatch() {
+        final MultiPatternScanner scanner = new MultiPatternScanner(TITLE, HELP, LINK);
+        final MultiPatternScanner.Scan scan = scanner.scan("<div>{up-portlet-</div>");
+        assertFalse(scan.find());
+        assertFalse(scan.find());
+
+        assertFalse(new MultiPatternScanner().scan("abc").find());
+    }
+
+    @Test
+    public void testPriorityAndOverlap() {
+        // Same start, the first pattern wins
+        MultiPatternScanner scanner =
+                new MultiPatternScanner(Pattern.compile("abc"), Pattern.compile("abcd"));
+        assertEquals("0:0:abc", this.findAll(scanner, "abcd").get(0));
+
+        // Leftmost match wins regardless of pattern order, overlapping matches are skipped
+        scanner = new MultiPatternScanner(Pattern.compile("cde"), Pattern.compile("abcd"));
+        final List<String> matches = this.findAll(scanner, "xabcde cde");
+        assertEquals(2, matches.size());
+        assertEquals("1:1:abcd", matches.get(0));
+        assertEquals("0:7:cde", matches.get(1));
+    }
+
+    @Test
+    public void testUnprefixedPattern() {
+        final MultiPatternScanner scanner =
+                new MultiPatternScanner(TITLE, Pattern.compile("[0-9]+"));
+
+        final List<String> matches = this.findAll(scanner, "a1{up-portlet-title(22)}b333");
+        assertEquals(3, matches.size());
+        assertEquals("1:1:1", matches.get(0));
+        assertEquals("0:2:{up-portlet-title(22)}:22", matches.get(1));
+        assertEquals("1:25:333", matches.get(2));
+    }
+
+    @Test
+    public void testPrefixFailureFallback() {
+        // The shorter prefix of the second pattern is inside the longer prefix of the first
+        final MultiPatternScanner scanner =
+                new MultiPatternScanner(Pattern.compile("xxab1"), Pattern.compile("ab2"));
+
+        final MultiPatternScanner.Scan scan = scanner.scan("xxab2 xxab1");
+        assertTrue(scan.find());
+        assertEquals(1, scan.patternIndex());
+        assertEquals(2, scan.start());
+        assertTrue(scan.find());
+        assertEquals(0, scan.patternIndex());
+        assertEquals(6, scan.start());
+        assertFalse(scan.find());
+    }
+
+    private List<String> findAll(MultiPatternScanner scanner, CharSequence input) {
+        final List<String> matches = new ArrayList<String>();
+        final MultiPatternScanner.Scan scan = scanner.scan(input);
+        while (scan.find()) {
+            final StringBuilder match = new StringBuilder();
+            match.append(scan.patternIndex()).append(':').append(scan.start()).append(':');
+            match.append(input, scan.start(), scan.end());
+            if (scan.toMatchResult().groupCount() > 0) {
+                match.append(':').append(scan.toMatchResult().group(1));
+            }
+            matches.add(match.toString());
+        }
+        return matches;
+    }
+}
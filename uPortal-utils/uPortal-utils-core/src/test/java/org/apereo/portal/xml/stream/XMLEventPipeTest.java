@@ -0,0 +1,132 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests for {@link XMLEventPipe} */
+public class XMLEventPipeTest {
+    private final XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testStreamEvents() throws Exception {
+        final XMLEventPipe pipe = new XMLEventPipe(2, 3);
+        final Future<Void> producer = this.produce(pipe, 100, null);
+
+        final XMLEventReader reader = pipe.getReader();
+        int count = 0;
+        while (reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            assertEquals(String.valueOf(count), event.asCharacters().getData());
+            count++;
+        }
+        assertEquals(100, count);
+        assertFalse(reader.hasNext());
+        producer.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final XMLEventPipe pipe = new XMLEventPipe(1, 1);
+        pipe.setTimeout(100);
+        final Future<Void> producer = this.produce(pipe, 10, null);
+
+        //Nothing is read so the producer can only get one batch ahead before timing out
+        try {
+            producer.get(5, TimeUnit.SECONDS);
+            fail("Producer should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof XMLStreamException);
+        }
+    }
+
+    @Test
+    public void testProducerFailure() throws Exception {
+        final XMLEventPipe pipe = new XMLEventPipe(2, 3);
+        final IllegalStateException failure = new IllegalStateException("transform failed");
+        this.produce(pipe, 5, failure).get(1, TimeUnit.SECONDS);
+
+        final XMLEventReader reader = pipe.getReader();
+        try {
+            while (reader.hasNext()) {
+                reader.nextEvent();
+            }
+            fail("Reader should have thrown the producer failure");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e.getCause().getCause());
+        }
+    }
+
+    @Test
+    public void testReaderClose() throws Exception {
+        final XMLEventPipe pipe = new XMLEventPipe(1, 1);
+        final Future<Void> producer = this.produce(pipe, 100, null);
+
+        final XMLEventReader reader = pipe.getReader();
+        assertTrue(reader.hasNext());
+        reader.close();
+
+        try {
+            producer.get(5, TimeUnit.SECONDS);
+            fail("Producer should have failed after the reader was closed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof XMLStreamException);
+        }
+    }
+
+    private Future<Void> produce(
+            final XMLEventPipe pipe, final int eventCount, final RuntimeException failure) {
+        return this.executor.submit(
+                new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final XMLEventWriter writer = pipe.getWriter();
+                        for (int i = 0; i < eventCount; i++) {
+                            writer.add(eventFactory.createCharacters(String.valueOf(i)));
+                        }
+                        if (failure != null) {
+                            pipe.fail(failure);
+                        } else {
+                            pipe.complete();
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -28,26 +28,41 @@ import javax.persistence.criteria.Root;
 import org.apache.commons.lang.Validate;
 import org.apereo.portal.jpa.BasePortalJpaDao;
 import org.apereo.portal.jpa.OpenEntityManager;
+import org.apereo.portal.portlet.dao.AbstractPortletDefinitionEvent;
 import org.apereo.portal.portlet.dao.IPortletDefinitionDao;
+import org.apereo.portal.portlet.dao.PortletDefinitionDeletedEvent;
+import org.apereo.portal.portlet.dao.PortletDefinitionSavedEvent;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletDefinitionId;
 import org.apereo.portal.spring.tx.DialectAwareTransactional;
 import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
- * JPA implementation of the portlet definition DAO
+ * JPA implementation of the portlet definition DAO. Publishes a {@link PortletDefinitionSavedEvent}
+ * or {@link PortletDefinitionDeletedEvent} for every change once its transaction commits.
  *
  */
 @Repository
-public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortletDefinitionDao {
+public class JpaPortletDefinitionDao extends BasePortalJpaDao
+        implements IPortletDefinitionDao, ApplicationEventPublisherAware {
     private CriteriaQuery<PortletDefinitionImpl> findAllPortletDefinitions;
     private CriteriaQuery<PortletDefinitionImpl> findDefinitionByNameQuery;
     private CriteriaQuery<PortletDefinitionImpl> findDefinitionByNameOrTitleQuery;
     private CriteriaQuery<PortletDefinitionImpl> searchDefinitionByNameOrTitleQuery;
     private ParameterExpression<String> nameParameter;
     private ParameterExpression<String> titleParameter;
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
 
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -247,6 +262,8 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
         }
 
         entityManager.remove(persistentPortletDefinition);
+        this.publishEventAfterCommit(
+                new PortletDefinitionDeletedEvent(this, persistentPortletDefinition));
     }
 
     @Override
@@ -272,9 +289,29 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
         Validate.notEmpty(portletDefinition.getName(), "portletDefinition name can not be null");
         Validate.notEmpty(portletDefinition.getTitle(), "portletDefinition title can not be null");
         this.getEntityManager().persist(portletDefinition);
+        this.publishEventAfterCommit(new PortletDefinitionSavedEvent(this, portletDefinition));
         return portletDefinition;
     }
 
+    /**
+     * Listeners re-read the definition, so the event is only published once the change is
+     * committed. Nothing is published if the transaction rolls back.
+     */
+    protected void publishEventAfterCommit(final AbstractPortletDefinitionEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            this.applicationEventPublisher.publishEvent(event);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        applicationEventPublisher.publishEvent(event);
+                    }
+                });
+    }
+
     protected long getNativePortletDefinitionId(IPortletDefinitionId portletDefinitionId) {
         return Long.parseLong(portletDefinitionId.getStringId());
     }
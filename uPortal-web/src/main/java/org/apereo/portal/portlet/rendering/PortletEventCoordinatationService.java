@@ -18,12 +18,9 @@ import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import java.io.Serializable;
 import java.io.StringReader;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import javax.portlet.Event;
@@ -37,16 +34,12 @@ import javax.xml.namespace.QName;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
-import net.sf.ehcache.Ehcache;
-import net.sf.ehcache.Element;
-import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.PortletContainer;
 import org.apache.pluto.container.PortletContainerException;
 import org.apache.pluto.container.PortletWindow;
 import org.apache.pluto.container.driver.PortletContextService;
 import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.EventDefinition;
-import org.apache.pluto.container.om.portlet.EventDefinitionReference;
 import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.apereo.portal.EntityIdentifier;
@@ -69,13 +62,11 @@ import org.apereo.portal.services.AuthorizationService;
 import org.apereo.portal.url.IPortalRequestUtils;
 import org.apereo.portal.user.IUserInstance;
 import org.apereo.portal.user.IUserInstanceManager;
-import org.apereo.portal.utils.Tuple;
 import org.apereo.portal.utils.web.PortalWebUtils;
 import org.apereo.portal.xml.XmlUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 /**
@@ -101,7 +92,7 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
     private IPortletEntityRegistry portletEntityRegistry;
     private IPortletDefinitionRegistry portletDefinitionRegistry;
     private IUserInstanceManager userInstanceManager;
-    private Ehcache supportedEventCache;
+    private PortletEventSubscriptionIndex portletEventSubscriptionIndex;
     private IPortalRequestUtils portalRequestUtils;
     private XmlUtilities xmlUtilities;
     private PortletContextService portletContextService;
@@ -122,10 +113,9 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
     }
 
     @Autowired
-    public void setSupportedEventCache(
-            @Qualifier("org.apereo.portal.portlet.rendering.SupportedEventCache")
-                    Ehcache supportedEventCache) {
-        this.supportedEventCache = supportedEventCache;
+    public void setPortletEventSubscriptionIndex(
+            PortletEventSubscriptionIndex portletEventSubscriptionIndex) {
+        this.portletEventSubscriptionIndex = portletEventSubscriptionIndex;
     }
 
     @Autowired
@@ -213,12 +203,26 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
         final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
 
-        //Make a local copy so we can remove data from it
-        final Set<String> allLayoutNodeIds =
-                new LinkedHashSet<String>(userLayoutManager.getAllSubscribedChannels());
+        //Index the portlets on the page before looking up subscribers, picks up definitions published on other servers
+        final List<IPortletEntity> eventPortletEntities = new ArrayList<IPortletEntity>();
+        for (final String layoutNodeId : userLayoutManager.getAllSubscribedChannels()) {
+            final IPortletEntity portletEntity =
+                    this.portletEntityRegistry.getOrCreatePortletEntity(
+                            request, userInstance, layoutNodeId);
 
-        final Map<String, IPortletEntity> portletEntityCache =
-                new LinkedHashMap<String, IPortletEntity>();
+            // if portlet entity registry returned null, then portlet has been deleted - skip it (see UP-3378)
+            if (portletEntity == null) {
+                continue;
+            }
+
+            //Skip portlets that don't handle any events so they are not checked for each event
+            if (!this.portletEventSubscriptionIndex.processesEvents(
+                    portletEntity.getPortletDefinition())) {
+                continue;
+            }
+
+            eventPortletEntities.add(portletEntity);
+        }
 
         while (!events.isEmpty()) {
             final QueuedEvent queuedEvent = events.poll();
@@ -230,60 +234,28 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
             final IPortletWindowId sourceWindowId = queuedEvent.getPortletWindowId();
             final Event event = queuedEvent.getEvent();
 
+            //Only portlet definitions that process the event need to be considered
+            final Set<IPortletDefinitionId> subscribers =
+                    this.portletEventSubscriptionIndex.getSubscribers(event.getQName());
+            if (subscribers.isEmpty()) {
+                this.logger.debug("No portlets process event {}", event);
+                continue;
+            }
+
             final boolean globalEvent = isGlobalEvent(request, sourceWindowId, event);
 
-            final Set<IPortletDefinition> portletDefinitions =
-                    new LinkedHashSet<IPortletDefinition>();
+            final Set<IPortletDefinitionId> portletDefinitionIds =
+                    new LinkedHashSet<IPortletDefinitionId>();
             if (globalEvent) {
-                portletDefinitions.addAll(
-                        this.portletDefinitionRegistry.getAllPortletDefinitions());
+                portletDefinitionIds.addAll(subscribers);
             }
 
             //Check each subscription to see what events it is registered to see
-            for (final Iterator<String> layoutNodeIdItr = allLayoutNodeIds.iterator();
-                    layoutNodeIdItr.hasNext();
-                    ) {
-                final String layoutNodeId = layoutNodeIdItr.next();
-
-                IPortletEntity portletEntity = portletEntityCache.get(layoutNodeId);
-                if (portletEntity == null) {
-                    portletEntity =
-                            this.portletEntityRegistry.getOrCreatePortletEntity(
-                                    request, userInstance, layoutNodeId);
-
-                    // if portlet entity registry returned null, then portlet has been deleted - remove it (see UP-3378)
-                    if (portletEntity == null) {
-                        layoutNodeIdItr.remove();
-                        continue;
-                    }
-
-                    final IPortletDefinitionId portletDefinitionId =
-                            portletEntity.getPortletDefinitionId();
-                    final PortletDefinition portletDescriptor =
-                            this.portletDefinitionRegistry.getParentPortletDescriptor(
-                                    portletDefinitionId);
-                    if (portletDescriptor == null) {
-                        //Missconfigured portlet, remove it from the list so we don't check again and ignore it
-                        layoutNodeIdItr.remove();
-                        continue;
-                    }
-
-                    final List<? extends EventDefinitionReference> supportedProcessingEvents =
-                            portletDescriptor.getSupportedProcessingEvents();
-                    //Skip portlets that don't handle any events and remove them from the set so they are not checked again
-                    if (supportedProcessingEvents == null
-                            || supportedProcessingEvents.size() == 0) {
-                        layoutNodeIdItr.remove();
-                        continue;
-                    }
-
-                    portletEntityCache.put(layoutNodeId, portletEntity);
-                }
-
+            for (final IPortletEntity portletEntity : eventPortletEntities) {
                 final IPortletDefinition portletDefinition = portletEntity.getPortletDefinition();
                 final IPortletDefinitionId portletDefinitionId =
                         portletDefinition.getPortletDefinitionId();
-                if (this.supportsEvent(event, portletDefinitionId)) {
+                if (subscribers.contains(portletDefinitionId)) {
                     this.logger.debug("{} supports event {}", portletDefinition, event);
 
                     //If this is the default portlet entity remove the definition from the all defs set to avoid duplicate processing
@@ -291,7 +263,7 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
                             this.portletEntityRegistry.getOrCreateDefaultPortletEntity(
                                     request, portletDefinitionId);
                     if (defaultPortletEntity.equals(portletEntity)) {
-                        portletDefinitions.remove(portletDefinition);
+                        portletDefinitionIds.remove(portletDefinitionId);
                     }
 
                     // Is this portlet permitted to receive events?  (Or is it disablePortletEvents=true?)
@@ -319,19 +291,24 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
                                 portletWindowId,
                                 new QueuedEvent(sourceWindowId, unmarshalledEvent));
                     }
-                } else {
-                    portletDefinitions.remove(portletDefinition);
                 }
             }
 
-            if (!portletDefinitions.isEmpty()) {
+            if (!portletDefinitionIds.isEmpty()) {
                 final IPerson user = userInstance.getPerson();
                 final EntityIdentifier ei = user.getEntityIdentifier();
                 final IAuthorizationPrincipal ap =
                         AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
 
                 //If the event is global there might still be portlet definitions that need targeting
-                for (final IPortletDefinition portletDefinition : portletDefinitions) {
+                for (final IPortletDefinitionId portletDefinitionId : portletDefinitionIds) {
+                    final IPortletDefinition portletDefinition =
+                            this.portletDefinitionRegistry.getPortletDefinition(
+                                    portletDefinitionId);
+                    if (portletDefinition == null) {
+                        //Deleted since the index was updated
+                        continue;
+                    }
 
                     // Is this portlet permitted to receive events?  (Or is it disablePortletEvents=true?)
                     IPortletDefinitionParameter disablePortletEvents =
@@ -345,32 +322,26 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
                         continue;
                     }
 
-                    final IPortletDefinitionId portletDefinitionId =
-                            portletDefinition.getPortletDefinitionId();
                     //Check if the user can render the portlet definition before doing event tests
                     if (ap.canRender(portletDefinitionId.getStringId())) {
-                        if (this.supportsEvent(event, portletDefinitionId)) {
-                            this.logger.debug("{} supports event {}", portletDefinition, event);
-
-                            final IPortletEntity portletEntity =
-                                    this.portletEntityRegistry.getOrCreateDefaultPortletEntity(
-                                            request, portletDefinitionId);
-                            final IPortletEntityId portletEntityId =
-                                    portletEntity.getPortletEntityId();
-                            final Set<IPortletWindow> portletWindows =
-                                    this.portletWindowRegistry.getAllPortletWindowsForEntity(
-                                            request, portletEntityId);
-
-                            for (final IPortletWindow portletWindow : portletWindows) {
-                                this.logger.debug("{} resolved target {}", event, portletWindow);
-                                final IPortletWindowId portletWindowId =
-                                        portletWindow.getPortletWindowId();
-                                final Event unmarshalledEvent =
-                                        this.unmarshall(portletWindow, event);
-                                portletEventQueue.offerEvent(
-                                        portletWindowId,
-                                        new QueuedEvent(sourceWindowId, unmarshalledEvent));
-                            }
+                        this.logger.debug("{} supports event {}", portletDefinition, event);
+
+                        final IPortletEntity portletEntity =
+                                this.portletEntityRegistry.getOrCreateDefaultPortletEntity(
+                                        request, portletDefinitionId);
+                        final IPortletEntityId portletEntityId = portletEntity.getPortletEntityId();
+                        final Set<IPortletWindow> portletWindows =
+                                this.portletWindowRegistry.getAllPortletWindowsForEntity(
+                                        request, portletEntityId);
+
+                        for (final IPortletWindow portletWindow : portletWindows) {
+                            this.logger.debug("{} resolved target {}", event, portletWindow);
+                            final IPortletWindowId portletWindowId =
+                                    portletWindow.getPortletWindowId();
+                            final Event unmarshalledEvent = this.unmarshall(portletWindow, event);
+                            portletEventQueue.offerEvent(
+                                    portletWindowId,
+                                    new QueuedEvent(sourceWindowId, unmarshalledEvent));
                         }
                     }
                 }
@@ -481,93 +452,4 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         }
         throw new IllegalStateException();
     }
-
-    protected Set<QName> getAllAliases(
-            QName eventName, PortletApplicationDefinition portletApplicationDefinition) {
-        final List<? extends EventDefinition> eventDefinitions =
-                portletApplicationDefinition.getEventDefinitions();
-        if (eventDefinitions == null || eventDefinitions.isEmpty()) {
-            return Collections.emptySet();
-        }
-
-        final String defaultNamespace = portletApplicationDefinition.getDefaultNamespace();
-
-        for (final EventDefinition eventDefinition : eventDefinitions) {
-            final QName defQName = eventDefinition.getQualifiedName(defaultNamespace);
-            if (defQName != null && defQName.equals(eventName)) {
-                final List<QName> aliases = eventDefinition.getAliases();
-                if (aliases == null || aliases.isEmpty()) {
-                    return Collections.emptySet();
-                }
-
-                return new LinkedHashSet<QName>(aliases);
-            }
-        }
-
-        return Collections.emptySet();
-    }
-
-    protected boolean supportsEvent(Event event, IPortletDefinitionId portletDefinitionId) {
-        final QName eventName = event.getQName();
-
-        //The cache key to use
-        final Tuple<IPortletDefinitionId, QName> key =
-                new Tuple<IPortletDefinitionId, QName>(portletDefinitionId, eventName);
-
-        //Check in the cache if the portlet definition supports this event
-        final Element element = this.supportedEventCache.get(key);
-        if (element != null) {
-            final Boolean supported = (Boolean) element.getObjectValue();
-            if (supported != null) {
-                return supported;
-            }
-        }
-
-        final PortletApplicationDefinition portletApplicationDescriptor =
-                this.portletDefinitionRegistry.getParentPortletApplicationDescriptor(
-                        portletDefinitionId);
-        if (portletApplicationDescriptor == null) {
-            return false;
-        }
-
-        final Set<QName> aliases = this.getAllAliases(eventName, portletApplicationDescriptor);
-
-        final String defaultNamespace = portletApplicationDescriptor.getDefaultNamespace();
-
-        //No support found so far, do more complex namespace matching
-        final PortletDefinition portletDescriptor =
-                this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId);
-        if (portletDescriptor == null) {
-            return false;
-        }
-
-        final List<? extends EventDefinitionReference> supportedProcessingEvents =
-                portletDescriptor.getSupportedProcessingEvents();
-        for (final EventDefinitionReference eventDefinitionReference : supportedProcessingEvents) {
-            final QName qualifiedName = eventDefinitionReference.getQualifiedName(defaultNamespace);
-            if (qualifiedName == null) {
-                continue;
-            }
-
-            //See if the supported qname and event qname match explicitly
-            //Look for alias names
-            if (qualifiedName.equals(eventName) || aliases.contains(qualifiedName)) {
-                this.supportedEventCache.put(new Element(key, Boolean.TRUE));
-                return true;
-            }
-
-            //Look for namespaced events
-            if (StringUtils.isEmpty(qualifiedName.getNamespaceURI())) {
-                final QName namespacedName =
-                        new QName(defaultNamespace, qualifiedName.getLocalPart());
-                if (eventName.equals(namespacedName)) {
-                    this.supportedEventCache.put(new Element(key, Boolean.TRUE));
-                    return true;
-                }
-            }
-        }
-
-        this.supportedEventCache.put(new Element(key, Boolean.FALSE));
-        return false;
-    }
 }
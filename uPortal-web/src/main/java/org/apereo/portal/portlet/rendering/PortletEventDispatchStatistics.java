@@ -0,0 +1,130 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics for portlet event dispatching done by {@link PortletExecutionManager}, exposed via
+ * JMX. The fan-out depth of a dispatch is the length of the longest chain of events where each
+ * event was sent by the portlet handling the previous one, 1 if no handler sent further events.
+ */
+public class PortletEventDispatchStatistics {
+    private final AtomicLong dispatchCount = new AtomicLong();
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong totalFanOutDepth = new AtomicLong();
+    private final AtomicLong maxFanOutDepth = new AtomicLong();
+    private final AtomicLong iterationCount = new AtomicLong();
+    private final AtomicLong totalIterationTime = new AtomicLong();
+    private final AtomicLong maxIterationTime = new AtomicLong();
+    private final AtomicLong iterationLimitCount = new AtomicLong();
+
+    void recordIteration(long iterationNanos) {
+        this.iterationCount.incrementAndGet();
+
+        final long iterationMicros = TimeUnit.NANOSECONDS.toMicros(iterationNanos);
+        this.totalIterationTime.addAndGet(iterationMicros);
+        updateMax(this.maxIterationTime, iterationMicros);
+    }
+
+    void recordDispatch(int events, int fanOutDepth, boolean iterationLimitHit) {
+        this.dispatchCount.incrementAndGet();
+        this.eventCount.addAndGet(events);
+        this.totalFanOutDepth.addAndGet(fanOutDepth);
+        updateMax(this.maxFanOutDepth, fanOutDepth);
+        if (iterationLimitHit) {
+            this.iterationLimitCount.incrementAndGet();
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        do {
+            current = max.get();
+        } while (value > current && !max.compareAndSet(current, value));
+    }
+
+    /** @return Number of requests that dispatched at least one event */
+    public long getDispatchCount() {
+        return this.dispatchCount.get();
+    }
+
+    /** @return Number of event workers submitted */
+    public long getEventCount() {
+        return this.eventCount.get();
+    }
+
+    /** @return Longest chain of events seen in a single request */
+    public long getMaxFanOutDepth() {
+        return this.maxFanOutDepth.get();
+    }
+
+    /** @return Average length of the longest chain of events per request */
+    public double getAverageFanOutDepth() {
+        final long dispatches = this.dispatchCount.get();
+        return dispatches == 0 ? 0 : (double) this.totalFanOutDepth.get() / dispatches;
+    }
+
+    /** @return Number of dispatch iterations, each waits for at least one event worker */
+    public long getIterationCount() {
+        return this.iterationCount.get();
+    }
+
+    /** @return Average wall time of a dispatch iteration in microseconds */
+    public double getAverageIterationTime() {
+        final long iterations = this.iterationCount.get();
+        return iterations == 0 ? 0 : (double) this.totalIterationTime.get() / iterations;
+    }
+
+    /** @return Longest wall time of a dispatch iteration in microseconds */
+    public long getMaxIterationTime() {
+        return this.maxIterationTime.get();
+    }
+
+    /** @return Number of requests that stopped dispatching at the maximum iteration count */
+    public long getIterationLimitCount() {
+        return this.iterationLimitCount.get();
+    }
+
+    /** Reset all counters */
+    public void reset() {
+        this.dispatchCount.set(0);
+        this.eventCount.set(0);
+        this.totalFanOutDepth.set(0);
+        this.maxFanOutDepth.set(0);
+        this.iterationCount.set(0);
+        this.totalIterationTime.set(0);
+        this.maxIterationTime.set(0);
+        this.iterationLimitCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "PortletEventDispatchStatistics [dispatchCount="
+                + this.dispatchCount
+                + ", eventCount="
+                + this.eventCount
+                + ", maxFanOutDepth="
+                + this.maxFanOutDepth
+                + ", iterationCount="
+                + this.iterationCount
+                + ", totalIterationTime="
+                + this.totalIterationTime
+                + ", maxIterationTime="
+                + this.maxIterationTime
+                + "]";
+    }
+}
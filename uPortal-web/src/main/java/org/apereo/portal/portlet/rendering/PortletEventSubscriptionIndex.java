@@ -0,0 +1,398 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import org.apache.commons.lang.StringUtils;
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryListener;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.EventDefinitionReference;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apereo.portal.portlet.dao.AbstractPortletDefinitionEvent;
+import org.apereo.portal.portlet.dao.PortletDefinitionDeletedEvent;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.utils.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Index from event QName to the portlet definitions that process the event, used by {@link
+ * PortletEventCoordinatationService} so event resolution only looks at actual subscribers.
+ *
+ * <p>A definition subscribes to the qualified names of its supported processing events, to those
+ * names in the application's default namespace when they have no namespace and to every event
+ * defined by its application that has one of them as an alias. A processing event whose local part
+ * ends with '*' subscribes to every event in the namespace whose local part starts with the text
+ * before the '*'.
+ *
+ * <p>The index is built from all portlet definitions on first use. Saved and deleted definitions
+ * are re-indexed individually as they are published, deploying or removing a portlet application
+ * marks the index for a rebuild on next use and {@link #rebuild()} is run periodically to pick up
+ * definitions published on other servers.
+ */
+@Service("portletEventSubscriptionIndex")
+public class PortletEventSubscriptionIndex
+        implements ApplicationListener<AbstractPortletDefinitionEvent>,
+                PortletRegistryListener,
+                InitializingBean {
+    private static final String WILDCARD = "*";
+
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private IPortletDefinitionRegistry portletDefinitionRegistry;
+    private PortletRegistryService portletRegistryService;
+
+    private final Object updateMutex = new Object();
+    private volatile Subscriptions subscriptions;
+
+    @Autowired
+    public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
+        this.portletDefinitionRegistry = portletDefinitionRegistry;
+    }
+
+    @Autowired
+    public void setPortletRegistryService(PortletRegistryService portletRegistryService) {
+        this.portletRegistryService = portletRegistryService;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.portletRegistryService.addPortletRegistryListener(this);
+    }
+
+    /**
+     * @param eventName The QName of the event
+     * @return IDs of the portlet definitions that process the event, never null
+     */
+    public Set<IPortletDefinitionId> getSubscribers(QName eventName) {
+        final Subscriptions subscriptions = this.getSubscriptions();
+
+        final Set<IPortletDefinitionId> subscribers = subscriptions.eventSubscribers.get(eventName);
+        if (subscriptions.wildcardSubscribers.isEmpty()) {
+            return subscribers != null
+                    ? Collections.unmodifiableSet(subscribers)
+                    : Collections.<IPortletDefinitionId>emptySet();
+        }
+
+        final Set<IPortletDefinitionId> result = new LinkedHashSet<IPortletDefinitionId>();
+        if (subscribers != null) {
+            result.addAll(subscribers);
+        }
+        for (final Map.Entry<QName, Set<IPortletDefinitionId>> wildcardEntry :
+                subscriptions.wildcardSubscribers.entrySet()) {
+            if (matchesWildcard(wildcardEntry.getKey(), eventName)) {
+                result.addAll(wildcardEntry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Indexes the portlet definition if it is not yet known, this picks up definitions published on
+     * other servers as soon as they are seen in a layout.
+     *
+     * @return true if the portlet definition processes any events
+     */
+    public boolean processesEvents(IPortletDefinition portletDefinition) {
+        final IPortletDefinitionId portletDefinitionId = portletDefinition.getPortletDefinitionId();
+        Set<QName> processedEvents =
+                this.getSubscriptions().definitionEvents.get(portletDefinitionId);
+        if (processedEvents == null) {
+            processedEvents = this.updatePortletDefinition(portletDefinition);
+        }
+        return !processedEvents.isEmpty();
+    }
+
+    /** Rebuild the index from all portlet definitions */
+    public void rebuild() {
+        synchronized (this.updateMutex) {
+            this.subscriptions = this.buildSubscriptions();
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractPortletDefinitionEvent event) {
+        if (event instanceof PortletDefinitionDeletedEvent) {
+            this.removePortletDefinition(event.getPortletDefinitionId());
+        } else if (event.getPortletDefinition() != null) {
+            this.updatePortletDefinition(event.getPortletDefinition());
+        }
+    }
+
+    @Override
+    public void portletApplicationRegistered(PortletRegistryEvent event) {
+        this.subscriptions = null;
+    }
+
+    @Override
+    public void portletApplicationRemoved(PortletRegistryEvent event) {
+        this.subscriptions = null;
+    }
+
+    protected Set<QName> updatePortletDefinition(IPortletDefinition portletDefinition) {
+        final Set<QName> processedEvents =
+                this.getProcessedEvents(portletDefinition, this.getRegisteredApplicationNames());
+
+        synchronized (this.updateMutex) {
+            //Skip the update if the index is due for a rebuild, the rebuild includes the definition
+            final Subscriptions subscriptions = this.subscriptions;
+            if (subscriptions != null) {
+                final Map<IPortletDefinitionId, Set<QName>> definitionEvents =
+                        new LinkedHashMap<IPortletDefinitionId, Set<QName>>(
+                                subscriptions.definitionEvents);
+                definitionEvents.put(portletDefinition.getPortletDefinitionId(), processedEvents);
+                this.subscriptions = new Subscriptions(definitionEvents);
+            }
+        }
+
+        this.logger.debug("Indexed {} processing events {}", portletDefinition, processedEvents);
+        return processedEvents;
+    }
+
+    protected void removePortletDefinition(IPortletDefinitionId portletDefinitionId) {
+        synchronized (this.updateMutex) {
+            final Subscriptions subscriptions = this.subscriptions;
+            if (subscriptions != null
+                    && subscriptions.definitionEvents.containsKey(portletDefinitionId)) {
+                final Map<IPortletDefinitionId, Set<QName>> definitionEvents =
+                        new LinkedHashMap<IPortletDefinitionId, Set<QName>>(
+                                subscriptions.definitionEvents);
+                definitionEvents.remove(portletDefinitionId);
+                this.subscriptions = new Subscriptions(definitionEvents);
+            }
+        }
+    }
+
+    private Subscriptions getSubscriptions() {
+        Subscriptions subscriptions = this.subscriptions;
+        if (subscriptions == null) {
+            synchronized (this.updateMutex) {
+                subscriptions = this.subscriptions;
+                if (subscriptions == null) {
+                    subscriptions = this.buildSubscriptions();
+                    this.subscriptions = subscriptions;
+                }
+            }
+        }
+        return subscriptions;
+    }
+
+    private Subscriptions buildSubscriptions() {
+        final List<IPortletDefinition> portletDefinitions =
+                this.portletDefinitionRegistry.getAllPortletDefinitions();
+        final Set<String> applicationNames = this.getRegisteredApplicationNames();
+
+        final Map<IPortletDefinitionId, Set<QName>> definitionEvents =
+                new LinkedHashMap<IPortletDefinitionId, Set<QName>>();
+        for (final IPortletDefinition portletDefinition : portletDefinitions) {
+            definitionEvents.put(
+                    portletDefinition.getPortletDefinitionId(),
+                    this.getProcessedEvents(portletDefinition, applicationNames));
+        }
+
+        this.logger.debug(
+                "Indexed processing events of {} portlet definitions", definitionEvents.size());
+        return new Subscriptions(definitionEvents);
+    }
+
+    private Set<String> getRegisteredApplicationNames() {
+        final Set<String> applicationNames = new HashSet<String>();
+        for (final Iterator<String> applicationNameItr =
+                        this.portletRegistryService.getRegisteredPortletApplicationNames();
+                applicationNameItr.hasNext();
+                ) {
+            applicationNames.add(applicationNameItr.next());
+        }
+        return applicationNames;
+    }
+
+    /**
+     * @return The names of the events the portlet definition processes, empty if the portlet
+     *     application is not deployed
+     */
+    private Set<QName> getProcessedEvents(
+            IPortletDefinition portletDefinition, Set<String> applicationNames) {
+        final Tuple<String, String> portletDescriptorKeys =
+                this.portletDefinitionRegistry.getPortletDescriptorKeys(portletDefinition);
+
+        //Check the application is registered first, the registry logs a warning for every miss
+        if (!applicationNames.contains(portletDescriptorKeys.first)) {
+            return Collections.emptySet();
+        }
+
+        final PortletApplicationDefinition portletApplicationDescriptor;
+        try {
+            portletApplicationDescriptor =
+                    this.portletRegistryService.getPortletApplication(portletDescriptorKeys.first);
+        } catch (PortletContainerException e) {
+            this.logger.debug(
+                    "Portlet application {} was removed while indexing {}",
+                    portletDescriptorKeys.first,
+                    portletDefinition);
+            return Collections.emptySet();
+        }
+
+        final PortletDefinition portletDescriptor =
+                portletApplicationDescriptor.getPortlet(portletDescriptorKeys.second);
+        if (portletDescriptor == null) {
+            return Collections.emptySet();
+        }
+
+        return getProcessedEvents(portletApplicationDescriptor, portletDescriptor);
+    }
+
+    static Set<QName> getProcessedEvents(
+            PortletApplicationDefinition portletApplicationDescriptor,
+            PortletDefinition portletDescriptor) {
+        final List<? extends EventDefinitionReference> supportedProcessingEvents =
+                portletDescriptor.getSupportedProcessingEvents();
+        if (supportedProcessingEvents == null || supportedProcessingEvents.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        final String defaultNamespace = portletApplicationDescriptor.getDefaultNamespace();
+
+        final Set<QName> processedEvents = new LinkedHashSet<QName>();
+        for (final EventDefinitionReference eventDefinitionReference : supportedProcessingEvents) {
+            final QName qualifiedName = eventDefinitionReference.getQualifiedName(defaultNamespace);
+            if (qualifiedName == null) {
+                continue;
+            }
+
+            processedEvents.add(qualifiedName);
+
+            //Events without a namespace are also processed in the default namespace
+            if (StringUtils.isEmpty(qualifiedName.getNamespaceURI())) {
+                processedEvents.add(new QName(defaultNamespace, qualifiedName.getLocalPart()));
+            }
+        }
+
+        //Events defined by the application are processed if the portlet processes one of their aliases
+        final List<? extends EventDefinition> eventDefinitions =
+                portletApplicationDescriptor.getEventDefinitions();
+        if (eventDefinitions != null) {
+            final Set<QName> aliasedEvents = new LinkedHashSet<QName>();
+            for (final EventDefinition eventDefinition : eventDefinitions) {
+                final QName defQName = eventDefinition.getQualifiedName(defaultNamespace);
+                final List<QName> aliases = eventDefinition.getAliases();
+                if (defQName == null || aliases == null) {
+                    continue;
+                }
+
+                for (final QName alias : aliases) {
+                    if (matchesAny(processedEvents, alias)) {
+                        aliasedEvents.add(defQName);
+                        break;
+                    }
+                }
+            }
+            processedEvents.addAll(aliasedEvents);
+        }
+
+        return Collections.unmodifiableSet(processedEvents);
+    }
+
+    private static boolean matchesAny(Set<QName> processedEvents, QName eventName) {
+        if (processedEvents.contains(eventName)) {
+            return true;
+        }
+        for (final QName processedEvent : processedEvents) {
+            if (isWildcard(processedEvent)
+                    && matchesWildcard(getWildcardPrefix(processedEvent), eventName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWildcard(QName processedEvent) {
+        return processedEvent.getLocalPart().endsWith(WILDCARD);
+    }
+
+    private static QName getWildcardPrefix(QName processedEvent) {
+        final String localPart = processedEvent.getLocalPart();
+        return new QName(
+                processedEvent.getNamespaceURI(),
+                localPart.substring(0, localPart.length() - WILDCARD.length()));
+    }
+
+    private static boolean matchesWildcard(QName wildcardPrefix, QName eventName) {
+        return wildcardPrefix.getNamespaceURI().equals(eventName.getNamespaceURI())
+                && eventName.getLocalPart().startsWith(wildcardPrefix.getLocalPart());
+    }
+
+    /** Immutable snapshot of the index, replaced as a whole on every change */
+    private static final class Subscriptions {
+        private final Map<IPortletDefinitionId, Set<QName>> definitionEvents;
+        private final Map<QName, Set<IPortletDefinitionId>> eventSubscribers;
+        private final Map<QName, Set<IPortletDefinitionId>> wildcardSubscribers;
+
+        Subscriptions(Map<IPortletDefinitionId, Set<QName>> definitionEvents) {
+            final Map<QName, Set<IPortletDefinitionId>> eventSubscribers =
+                    new HashMap<QName, Set<IPortletDefinitionId>>();
+            final Map<QName, Set<IPortletDefinitionId>> wildcardSubscribers =
+                    new HashMap<QName, Set<IPortletDefinitionId>>();
+
+            for (final Map.Entry<IPortletDefinitionId, Set<QName>> definitionEntry :
+                    definitionEvents.entrySet()) {
+                for (final QName processedEvent : definitionEntry.getValue()) {
+                    if (isWildcard(processedEvent)) {
+                        addSubscriber(
+                                wildcardSubscribers,
+                                getWildcardPrefix(processedEvent),
+                                definitionEntry.getKey());
+                    } else {
+                        addSubscriber(eventSubscribers, processedEvent, definitionEntry.getKey());
+                    }
+                }
+            }
+
+            this.definitionEvents = Collections.unmodifiableMap(definitionEvents);
+            this.eventSubscribers = eventSubscribers;
+            this.wildcardSubscribers = wildcardSubscribers;
+        }
+
+        private static void addSubscriber(
+                Map<QName, Set<IPortletDefinitionId>> subscribers,
+                QName eventName,
+                IPortletDefinitionId portletDefinitionId) {
+            Set<IPortletDefinitionId> portletDefinitionIds = subscribers.get(eventName);
+            if (portletDefinitionIds == null) {
+                portletDefinitionIds = new LinkedHashSet<IPortletDefinitionId>();
+                subscribers.put(eventName, portletDefinitionIds);
+            }
+            portletDefinitionIds.add(portletDefinitionId);
+        }
+    }
+}
@@ -19,23 +19,31 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Queue;
-import java.util.Set;
 import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.portlet.Event;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.apereo.portal.events.IPortletExecutionEventFactory;
+import org.apereo.portal.portlet.container.cache.CacheState;
+import org.apereo.portal.portlet.container.cache.CachedPortletData;
+import org.apereo.portal.portlet.container.cache.IPortletCacheControlService;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletDefinitionParameter;
 import org.apereo.portal.portlet.om.IPortletDescriptorKey;
@@ -44,12 +52,14 @@ import org.apereo.portal.portlet.om.IPortletWindow;
 import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.om.PortletLifecycleState;
 import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
+import org.apereo.portal.portlet.rendering.worker.IPortletEventExecutionWorker;
 import org.apereo.portal.portlet.rendering.worker.IPortletExecutionContext;
 import org.apereo.portal.portlet.rendering.worker.IPortletExecutionInterceptor;
 import org.apereo.portal.portlet.rendering.worker.IPortletExecutionWorker;
 import org.apereo.portal.portlet.rendering.worker.IPortletFailureExecutionWorker;
 import org.apereo.portal.portlet.rendering.worker.IPortletRenderExecutionWorker;
 import org.apereo.portal.portlet.rendering.worker.IPortletWorkerFactory;
+import org.apereo.portal.portlet.rendering.worker.PortletCircuitOpenException;
 import org.apereo.portal.portlets.error.MaintenanceModeException;
 import org.apereo.portal.utils.ConcurrentMapUtils;
 import org.apereo.portal.utils.web.PortalWebUtils;
@@ -81,7 +91,36 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
      */
     public static final String DISABLE_PORTLET_EVENTS_PARAMETER = "disablePortletEvents";
 
+    /**
+     * Optional publishing parameter that renders a portlet on the request thread instead of the
+     * portlet thread pool. Improves performance for trivial portlets such as static JSP or CMS
+     * content, the portlet's render timeout cannot be enforced.
+     */
+    public static final String EXECUTE_INLINE_PARAMETER = "executeInline";
+
+    /**
+     * Parameter of the rendered portlet REST API naming the async fill to load, see {@link
+     * #getAsyncFillOutput(String, String, HttpServletRequest, HttpServletResponse)}
+     */
+    public static final String ASYNC_FILL_PARAMETER = "asyncFill";
+
     private static final long DEBUG_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+    private static final int LATENCY_WINDOW_SIZE = 1000;
+    /** How long an async fill is kept for the browser to load it, past the portlet's timeout */
+    private static final long ASYNC_FILL_RETENTION = TimeUnit.MINUTES.toMillis(1);
+    /** Execution attribute holding the id of the async fill a worker was handed to */
+    private static final String ASYNC_FILL_ID_ATTRIBUTE =
+            PortletExecutionManager.class.getName() + ".ASYNC_FILL_ID";
+    private static final String ASYNC_FILL_PLACEHOLDER =
+            "<div id=\"%1$s\" class=\"up-portlet-async-fill\" data-portlet-url=\"%2$s\">"
+                    + "<script type=\"text/javascript\">(function() {"
+                    + "var e = document.getElementById('%3$s');"
+                    + "var u = e.getAttribute('data-portlet-url');"
+                    + "if (window.up && up.jQuery) { up.jQuery(e).load(u); return; }"
+                    + "var x = new XMLHttpRequest(); x.open('GET', u);"
+                    + "x.onload = function() {"
+                    + "if (x.status == 200) { e.innerHTML = x.responseText; } };"
+                    + "x.send(); })();</script></div>";
     private static final String PORTLET_HEADER_RENDERING_MAP =
             PortletExecutionManager.class.getName() + ".PORTLET_HEADER_RENDERING_MAP";
     private static final String PORTLET_RENDERING_MAP =
@@ -102,6 +141,10 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     private final Queue<IPortletExecutionWorker<?>> hungWorkers =
             new ConcurrentLinkedQueue<IPortletExecutionWorker<?>>();
 
+    /** Workers replaced by async fill placeholders, by id, until the browser loads their output */
+    private final ConcurrentMap<String, AsyncFill> asyncFills =
+            new ConcurrentHashMap<String, AsyncFill>();
+
     private final ConcurrentMap<IPortletDescriptorKey, AtomicInteger> executionCount =
             ConcurrentMapUtils.makeDefaultsMap(
                     new Function<IPortletDescriptorKey, AtomicInteger>() {
@@ -114,10 +157,28 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     private int extendedTimeoutExecutions = 5;
     private long extendedTimeoutMultiplier = 20;
     private int maxEventIterations = 100;
+    private final PortletEventDispatchStatistics eventDispatchStatistics =
+            new PortletEventDispatchStatistics();
+    private boolean inlineCachedRenders = true;
+    private final PortletRenderDispatchStatistics renderDispatchStatistics =
+            new PortletRenderDispatchStatistics();
+    private boolean adaptiveTimeouts = false;
+    private double adaptiveTimeoutPercentile = .99;
+    private double adaptiveTimeoutMultiplier = 2;
+    private long adaptiveTimeoutMinimum = 250;
+    private int adaptiveTimeoutMinSamples = 50;
+    private final ConcurrentMap<String, PortletLatencyHistogram> renderLatencies =
+            ConcurrentMapUtils.makeDefaultsMap(
+                    new Function<String, PortletLatencyHistogram>() {
+                        public PortletLatencyHistogram apply(String fname) {
+                            return new PortletLatencyHistogram(LATENCY_WINDOW_SIZE);
+                        }
+                    });
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortletEventCoordinationService eventCoordinationService;
     private IPortletWorkerFactory portletWorkerFactory;
     private IPortletExecutionEventFactory portletExecutionEventFactory;
+    private IPortletCacheControlService portletCacheControlService;
 
     /**
      * @param maxEventIterations The maximum number of iterations to spend dispatching events.
@@ -129,6 +190,85 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         this.maxEventIterations = maxEventIterations;
     }
 
+    /** @return Statistics for event dispatching, exposed via JMX */
+    public PortletEventDispatchStatistics getEventDispatchStatistics() {
+        return this.eventDispatchStatistics;
+    }
+
+    /** @return Statistics for render dispatching, exposed via JMX */
+    public PortletRenderDispatchStatistics getRenderDispatchStatistics() {
+        return this.renderDispatchStatistics;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.inlineCachedRenders:true}")
+    public void setInlineCachedRenders(boolean inlineCachedRenders) {
+        this.inlineCachedRenders = inlineCachedRenders;
+    }
+
+    @Override
+    public boolean isInlineCachedRenders() {
+        return this.inlineCachedRenders;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeouts:false}")
+    public void setAdaptiveTimeouts(boolean adaptiveTimeouts) {
+        this.adaptiveTimeouts = adaptiveTimeouts;
+    }
+
+    @Override
+    public boolean isAdaptiveTimeouts() {
+        return this.adaptiveTimeouts;
+    }
+
+    /**
+     * @param adaptiveTimeoutPercentile Percentile of a portlet's recent render times used for its
+     *     adaptive timeout. Defaults to .99
+     */
+    @Value("${org.apereo.portal.portlet.adaptiveTimeouts.percentile:.99}")
+    public void setAdaptiveTimeoutPercentile(double adaptiveTimeoutPercentile) {
+        this.adaptiveTimeoutPercentile = adaptiveTimeoutPercentile;
+    }
+
+    /**
+     * @param adaptiveTimeoutMultiplier Headroom multiplier applied to the percentile. Defaults to 2
+     */
+    @Value("${org.apereo.portal.portlet.adaptiveTimeouts.multiplier:2}")
+    public void setAdaptiveTimeoutMultiplier(double adaptiveTimeoutMultiplier) {
+        this.adaptiveTimeoutMultiplier = adaptiveTimeoutMultiplier;
+    }
+
+    /** @param adaptiveTimeoutMinimum Shortest adaptive timeout in milliseconds. Defaults to 250 */
+    @Value("${org.apereo.portal.portlet.adaptiveTimeouts.minimum:250}")
+    public void setAdaptiveTimeoutMinimum(long adaptiveTimeoutMinimum) {
+        this.adaptiveTimeoutMinimum = adaptiveTimeoutMinimum;
+    }
+
+    /**
+     * @param adaptiveTimeoutMinSamples Number of render times that must be recorded for a portlet
+     *     before its adaptive timeout is used. Defaults to 50
+     */
+    @Value("${org.apereo.portal.portlet.adaptiveTimeouts.minSamples:50}")
+    public void setAdaptiveTimeoutMinSamples(int adaptiveTimeoutMinSamples) {
+        this.adaptiveTimeoutMinSamples = adaptiveTimeoutMinSamples;
+    }
+
+    @Override
+    public Map<String, Long> getAdaptiveRenderTimeouts() {
+        final Map<String, Long> timeouts = new TreeMap<String, Long>();
+
+        for (final Map.Entry<String, PortletLatencyHistogram> entry :
+                this.renderLatencies.entrySet()) {
+            final long timeout = this.getAdaptiveTimeout(entry.getValue());
+            if (timeout > 0) {
+                timeouts.put(entry.getKey(), timeout);
+            }
+        }
+
+        return timeouts;
+    }
+
     @Override
     public int getMaxEventIterations() {
         return this.maxEventIterations;
@@ -203,6 +343,12 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         this.portletExecutionEventFactory = portletExecutionEventFactory;
     }
 
+    @Autowired
+    public void setPortletCacheControlService(
+            IPortletCacheControlService portletCacheControlService) {
+        this.portletCacheControlService = portletCacheControlService;
+    }
+
     @Override
     public void afterCompletion(
             HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex)
@@ -219,6 +365,14 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
                 this.getPortletRenderingMap(request);
         for (final IPortletRenderExecutionWorker portletRenderExecutionWorker :
                 portletRenderingMap.values()) {
+            //The worker renders with this request, keep only the output for an async fill
+            final String asyncFillId =
+                    (String)
+                            portletRenderExecutionWorker.getExecutionAttribute(
+                                    ASYNC_FILL_ID_ATTRIBUTE);
+            if (asyncFillId != null) {
+                completeAsyncFill(asyncFillId, portletRenderExecutionWorker);
+            }
             checkWorkerCompletion(request, portletRenderExecutionWorker);
         }
     }
@@ -274,6 +428,8 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
     @Scheduled(fixedRate = 1000)
     public void cleanupHungWorkers() {
+        this.expireAsyncFills();
+
         if (this.hungWorkers.isEmpty()) {
             return;
         }
@@ -342,6 +498,17 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
         final AtomicInteger counter = this.executionCount.get(portletDescriptorKey);
         counter.incrementAndGet();
+
+        //Only renders that executed the portlet say anything about how long it takes
+        if (e == null
+                && context.getExecutionType() == IPortletExecutionContext.ExecutionType.RENDER
+                && context.getExecutionAttribute(
+                                IPortletRenderExecutionWorker.CACHED_REPLAY_ATTRIBUTE)
+                        == null) {
+            final PortletLatencyHistogram latencies =
+                    this.renderLatencies.get(portletDefinition.getFName());
+            latencies.record(System.currentTimeMillis() - context.getStartedTime());
+        }
     }
 
     /* (non-Javadoc)
@@ -398,12 +565,22 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
             return;
         }
 
-        final Map<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkers =
-                new LinkedHashMap<IPortletWindowId, IPortletExecutionWorker<Long>>();
+        //Event workers add themselves to this queue when they finish, in completion order
+        final BlockingQueue<IPortletEventExecutionWorker> completedWorkers =
+                new LinkedBlockingQueue<IPortletEventExecutionWorker>();
+        final Map<IPortletWindowId, EventWorker> eventWorkers =
+                new LinkedHashMap<IPortletWindowId, EventWorker>();
+
+        int eventCount = 0;
+        int fanOutDepth = 0;
+        //Depth of the event chain for events resolved in this iteration
+        int sourceDepth = 0;
 
         //TODO what to do if we hit the max iterations?
         int iteration = 0;
         for (; iteration < this.maxEventIterations; iteration++) {
+            final long iterationStart = System.nanoTime();
+
             //Make sure all queued events have been resolved
             this.eventCoordinationService.resolvePortletEvents(request, eventQueue);
 
@@ -421,60 +598,40 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
                 if (queuedEvent != null) {
                     final Event event = queuedEvent.getEvent();
-                    final IPortletExecutionWorker<Long> portletEventExecutionWorker =
+                    final IPortletEventExecutionWorker portletEventExecutionWorker =
                             this.portletWorkerFactory.createEventWorker(
                                     request, response, eventWindowId, event);
-                    eventWorkers.put(eventWindowId, portletEventExecutionWorker);
-                    portletEventExecutionWorker.submit();
+                    final EventWorker eventWorker =
+                            new EventWorker(
+                                    portletEventExecutionWorker,
+                                    getPortletEventTimeout(eventWindowId, request),
+                                    sourceDepth + 1);
+                    eventWorkers.put(eventWindowId, eventWorker);
+                    portletEventExecutionWorker.submit(completedWorkers);
+
+                    eventCount++;
+                    fanOutDepth = Math.max(fanOutDepth, eventWorker.depth);
                 }
             }
 
             //If no event workers exist we're done with event processing!
             if (eventWorkers.isEmpty()) {
-                return;
-            }
-
-            //See if any of the events have completed
-            int completedEventWorkers = 0;
-            final Set<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>> entrySet =
-                    eventWorkers.entrySet();
-            for (final Iterator<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>>
-                            eventWorkerEntryItr = entrySet.iterator();
-                    eventWorkerEntryItr.hasNext();
-                    ) {
-                final Entry<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkerEntry =
-                        eventWorkerEntryItr.next();
-
-                final IPortletExecutionWorker<Long> eventWorker = eventWorkerEntry.getValue();
-                if (eventWorker.isComplete()) {
-                    final IPortletWindowId portletWindowId = eventWorkerEntry.getKey();
-                    //TODO return number of new queued events, use to break the loop earlier
-                    waitForEventWorker(request, eventQueue, eventWorker, portletWindowId);
-
-                    eventWorkerEntryItr.remove();
-                    completedEventWorkers++;
-                }
+                break;
             }
 
             /*
-             * If no event workers have completed without waiting wait for the first one and then loop again
-             * Not waiting for all events since each event may spawn more events and we want to start them
-             * processing as soon as possible
+             * Wait for whichever worker finishes first then loop again to resolve and submit the
+             * events it sent. Not waiting for all workers since each event may spawn more events
+             * and we want to start them processing as soon as possible
              */
-            if (completedEventWorkers == 0) {
-                final Iterator<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>>
-                        eventWorkerEntryItr = entrySet.iterator();
-                final Entry<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkerEntry =
-                        eventWorkerEntryItr.next();
-                eventWorkerEntryItr.remove();
-
-                final IPortletWindowId portletWindowId = eventWorkerEntry.getKey();
-                final IPortletExecutionWorker<Long> eventWorker = eventWorkerEntry.getValue();
-                waitForEventWorker(request, eventQueue, eventWorker, portletWindowId);
-            }
+            sourceDepth =
+                    this.waitForEventWorkers(request, eventQueue, eventWorkers, completedWorkers);
+            this.eventDispatchStatistics.recordIteration(System.nanoTime() - iterationStart);
         }
 
-        if (iteration == this.maxEventIterations) {
+        final boolean iterationLimitHit = iteration == this.maxEventIterations;
+        this.eventDispatchStatistics.recordDispatch(eventCount, fanOutDepth, iterationLimitHit);
+        if (iterationLimitHit) {
             this.logger.error(
                     "The Event dispatching iteration maximum of "
                             + this.maxEventIterations
@@ -482,6 +639,83 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         }
     }
 
+    /**
+     * Blocks until at least one event worker completes or the earliest worker timeout passes. All
+     * workers that completed by then are retrieved and workers past their timeout are canceled.
+     *
+     * @return The largest event chain depth of the workers that ended
+     */
+    private int waitForEventWorkers(
+            HttpServletRequest request,
+            PortletEventQueue eventQueue,
+            Map<IPortletWindowId, EventWorker> eventWorkers,
+            BlockingQueue<IPortletEventExecutionWorker> completedWorkers) {
+
+        int depth = 0;
+        while (depth == 0) {
+            final long now = System.currentTimeMillis();
+            long wait = Long.MAX_VALUE;
+            for (final EventWorker eventWorker : eventWorkers.values()) {
+                wait = Math.min(wait, eventWorker.getDeadline() - now);
+            }
+
+            IPortletEventExecutionWorker completedWorker;
+            try {
+                completedWorker = completedWorkers.poll(Math.max(0, wait), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                //Let get() on each worker see the interrupt, they are all canceled
+                Thread.currentThread().interrupt();
+                for (final Iterator<EventWorker> eventWorkerItr = eventWorkers.values().iterator();
+                        eventWorkerItr.hasNext(); ) {
+                    final EventWorker eventWorker = eventWorkerItr.next();
+                    eventWorkerItr.remove();
+                    this.expireEventWorker(request, eventQueue, eventWorker);
+                    depth = Math.max(depth, eventWorker.depth);
+                }
+                return depth;
+            }
+
+            //Retrieve every worker that has completed so far
+            while (completedWorker != null) {
+                final IPortletWindowId portletWindowId = completedWorker.getPortletWindowId();
+                final EventWorker eventWorker = eventWorkers.get(portletWindowId);
+
+                //Workers canceled in an earlier iteration may still report completion
+                if (eventWorker != null && eventWorker.worker == completedWorker) {
+                    eventWorkers.remove(portletWindowId);
+                    //TODO return number of new queued events, use to break the loop earlier
+                    waitForEventWorker(request, eventQueue, completedWorker, portletWindowId);
+                    depth = Math.max(depth, eventWorker.depth);
+                }
+
+                completedWorker = completedWorkers.poll();
+            }
+
+            //Nothing completed in time, give up on the workers past their timeout
+            if (depth == 0) {
+                final long expired = System.currentTimeMillis();
+                for (final Iterator<EventWorker> eventWorkerItr = eventWorkers.values().iterator();
+                        eventWorkerItr.hasNext(); ) {
+                    final EventWorker eventWorker = eventWorkerItr.next();
+                    if (eventWorker.getDeadline() <= expired) {
+                        eventWorkerItr.remove();
+                        this.expireEventWorker(request, eventQueue, eventWorker);
+                        depth = Math.max(depth, eventWorker.depth);
+                    }
+                }
+            }
+        }
+
+        return depth;
+    }
+
+    /** Retrieves a worker that is past its timeout without waiting, canceling it if it is hung */
+    private void expireEventWorker(
+            HttpServletRequest request, PortletEventQueue eventQueue, EventWorker eventWorker) {
+        final IPortletEventExecutionWorker worker = eventWorker.worker;
+        waitForEventWorker(request, eventQueue, worker, worker.getPortletWindowId(), 0);
+    }
+
     protected void waitForEventWorker(
             HttpServletRequest request,
             PortletEventQueue eventQueue,
@@ -489,6 +723,15 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
             IPortletWindowId portletWindowId) {
 
         final long timeout = getPortletEventTimeout(portletWindowId, request);
+        waitForEventWorker(request, eventQueue, eventWorker, portletWindowId, timeout);
+    }
+
+    protected void waitForEventWorker(
+            HttpServletRequest request,
+            PortletEventQueue eventQueue,
+            IPortletExecutionWorker<Long> eventWorker,
+            IPortletWindowId portletWindowId,
+            long timeout) {
 
         try {
             eventWorker.get(timeout);
@@ -509,6 +752,28 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         }
     }
 
+    /** An event worker being dispatched along with its timeout and event chain depth */
+    private static final class EventWorker {
+        private final IPortletEventExecutionWorker worker;
+        private final long timeout;
+        private final int depth;
+
+        EventWorker(IPortletEventExecutionWorker worker, long timeout, int depth) {
+            this.worker = worker;
+            this.timeout = timeout;
+            this.depth = depth;
+        }
+
+        /**
+         * @return Time the worker times out, counted from when it started or from submission if it
+         *     has not started yet
+         */
+        long getDeadline() {
+            final long started = this.worker.getStartedTime();
+            return (started > 0 ? started : this.worker.getSubmittedTime()) + this.timeout;
+        }
+    }
+
     /**
      * Only actually starts rendering the head if the portlet has the 'javax.portlet.renderHeaders'
      * container-runtime-option present and set to "true."
@@ -635,6 +900,40 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return tracker != null;
     }
 
+    /* (non-Javadoc)
+     * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#isPortletRenderHeaderComplete(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletRenderHeaderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        if (!doesPortletNeedHeaderWorker(portletWindowId, request)) {
+            return true;
+        }
+
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap =
+                this.getPortletHeaderRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+
+        return tracker != null && tracker.isComplete();
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#isPortletRenderComplete(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap =
+                this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+
+        return tracker != null && tracker.isComplete();
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#getPortletHeadOutput(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -676,20 +975,217 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
             final String output = tracker.getOutput(timeout);
             return output == null ? "" : output;
         } catch (Exception e) {
-            final IPortletFailureExecutionWorker failureWorker =
-                    this.portletWorkerFactory.createFailureWorker(
-                            request, response, portletWindowId, e);
-            // TODO publish portlet error event?
+            return getPortletFailureOutput(portletWindowId, request, response, e, timeout);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#getPortletPageOutput(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public String getPortletPageOutput(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        final long timeout = getPortletRenderTimeout(portletWindowId, request);
+        final long pageTimeout = getPortletPageRenderTimeout(portletWindowId, request, timeout);
+        if (pageTimeout >= timeout) {
+            return this.getPortletOutput(portletWindowId, request, response);
+        }
+
+        final IPortletRenderExecutionWorker tracker =
+                getRenderedPortletBodyWorker(portletWindowId, request, response);
+        try {
+            final String output = tracker.getOutput(pageTimeout);
+            return output == null ? "" : output;
+        } catch (TimeoutException e) {
+            // Running later than usual, let the browser load the content once the page is shown
+            this.renderDispatchStatistics.recordAsyncFill();
+            final String asyncFillId = UUID.randomUUID().toString();
+            tracker.setExecutionAttribute(ASYNC_FILL_ID_ATTRIBUTE, asyncFillId);
+            this.asyncFills.put(
+                    asyncFillId,
+                    new AsyncFill(
+                            request.getSession().getId(),
+                            tracker.getPortletFname(),
+                            portletWindowId.getStringId(),
+                            System.currentTimeMillis() + timeout + ASYNC_FILL_RETENTION,
+                            timeout));
+            return getAsyncFillPlaceholder(portletWindowId, asyncFillId, request);
+        } catch (Exception e) {
+            return getPortletFailureOutput(portletWindowId, request, response, e, timeout);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#getAsyncFillOutput(java.lang.String, java.lang.String, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public String getAsyncFillOutput(
+            String asyncFillId,
+            String fname,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        final AsyncFill asyncFill = this.asyncFills.get(asyncFillId);
+        final HttpSession session = request.getSession(false);
+        if (asyncFill == null
+                || session == null
+                || !asyncFill.sessionId.equals(session.getId())
+                || !asyncFill.fname.equals(fname)
+                || !this.asyncFills.remove(asyncFillId, asyncFill)) {
+            return null;
+        }
+
+        final String output = asyncFill.awaitPageOutput();
+        if (output != null) {
+            return output;
+        }
+
+        //The page's render did not finish before the page's request ended, render it again here
+        final IPortletWindowId portletWindowId;
+        try {
+            portletWindowId =
+                    this.portletWindowRegistry.getPortletWindowId(
+                            request, asyncFill.portletWindowId);
+        } catch (IllegalArgumentException e) {
+            this.logger.debug(
+                    "Portlet window {} of async fill {} no longer exists",
+                    asyncFill.portletWindowId,
+                    asyncFillId,
+                    e);
+            return null;
+        }
+        if (portletWindowId == null) {
+            return null;
+        }
+
+        return this.getPortletOutput(portletWindowId, request, response);
+    }
+
+    /**
+     * Called as the request that rendered an async fill placeholder completes. The worker renders
+     * with that request so it can't be used once the request is done, only output that is already
+     * complete is kept for the browser.
+     */
+    protected void completeAsyncFill(String asyncFillId, IPortletRenderExecutionWorker worker) {
+        final AsyncFill asyncFill = this.asyncFills.get(asyncFillId);
+        if (asyncFill == null) {
+            return;
+        }
+
+        String output = null;
+        if (worker.isComplete()) {
             try {
-                failureWorker.submit();
-                return failureWorker.getOutput(timeout);
-            } catch (Exception e1) {
-                logger.error("Failed to render error portlet for: " + portletWindowId, e1);
-                return "Error Portlet Unavailable. Please contact your portal administrators.";
+                output = worker.getOutput(0);
+                if (output == null) {
+                    output = "";
+                }
+            } catch (Exception e) {
+                this.logger.debug("{} failed, async fill will render it again", worker, e);
+            }
+        }
+        asyncFill.pageCompleted(output);
+    }
+
+    /** Drops async fills the browser has not loaded in time */
+    protected void expireAsyncFills() {
+        final long now = System.currentTimeMillis();
+        for (final Iterator<AsyncFill> asyncFillItr = this.asyncFills.values().iterator();
+                asyncFillItr.hasNext();
+                ) {
+            final AsyncFill asyncFill = asyncFillItr.next();
+            if (asyncFill.expires <= now) {
+                asyncFillItr.remove();
+            }
+        }
+    }
+
+    /**
+     * Render the error portlet in place of a portlet that failed, a portlet that was not executed
+     * because its circuit is open shows its last cached output instead if it has any
+     */
+    protected String getPortletFailureOutput(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Exception cause,
+            long timeout) {
+        if (ExceptionUtils.indexOfThrowable(cause, PortletCircuitOpenException.class) != -1) {
+            final String cachedOutput = getStaleCachedOutput(portletWindowId, request);
+            if (cachedOutput != null) {
+                return cachedOutput;
+            }
+        }
+
+        final IPortletFailureExecutionWorker failureWorker =
+                this.portletWorkerFactory.createFailureWorker(
+                        request, response, portletWindowId, cause);
+        // TODO publish portlet error event?
+        try {
+            failureWorker.submit();
+            return failureWorker.getOutput(timeout);
+        } catch (Exception e1) {
+            logger.error("Failed to render error portlet for: " + portletWindowId, e1);
+            return "Error Portlet Unavailable. Please contact your portal administrators.";
+        }
+    }
+
+    /**
+     * @return The portlet's cached render output even if it has expired, null if there is none or
+     *     it can't be read
+     */
+    protected String getStaleCachedOutput(
+            IPortletWindowId portletWindowId, HttpServletRequest request) {
+        if (this.portletCacheControlService == null) {
+            return null;
+        }
+
+        try {
+            final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                    cacheState =
+                            this.portletCacheControlService.getPortletRenderState(
+                                    request, portletWindowId);
+            final CachedPortletData<PortletRenderResult> cachedPortletData =
+                    cacheState.getCachedPortletData();
+            if (cachedPortletData == null) {
+                return null;
             }
+
+            logger.debug(
+                    "Circuit is open for {}, serving cached output stored at {}",
+                    portletWindowId,
+                    cachedPortletData.getTimeStored());
+            return cachedPortletData.getCachedWriterOutput();
+        } catch (RuntimeException e) {
+            logger.debug("Failed to load cached output for {}", portletWindowId, e);
+            return null;
         }
     }
 
+    /**
+     * Markup written to the page in place of a portlet that passed its adaptive timeout, loads the
+     * portlet's output from the rendered portlet REST API once the page is displayed
+     */
+    protected String getAsyncFillPlaceholder(
+            IPortletWindowId portletWindowId, String asyncFillId, HttpServletRequest request) {
+        final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
+        final String elementId = "up-async-fill-" + portletWindowId.getStringId();
+        final String portletUrl =
+                request.getContextPath()
+                        + "/api/v4-3/portlet/"
+                        + portletDefinition.getFName()
+                        + ".html?"
+                        + ASYNC_FILL_PARAMETER
+                        + "="
+                        + asyncFillId;
+
+        return String.format(
+                ASYNC_FILL_PLACEHOLDER,
+                StringEscapeUtils.escapeHtml(elementId),
+                StringEscapeUtils.escapeHtml(portletUrl),
+                StringEscapeUtils.escapeJavaScript(elementId));
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#getPortletTitle(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -849,6 +1345,40 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
     }
 
+    /**
+     * @return The adaptive render timeout for the portlet when rendering it into a page, bounded by
+     *     the configured render timeout
+     */
+    protected long getPortletPageRenderTimeout(
+            IPortletWindowId portletWindowId, HttpServletRequest request, long timeout) {
+        if (!this.adaptiveTimeouts || this.ignoreTimeouts) {
+            return timeout;
+        }
+
+        final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
+        final long adaptiveTimeout =
+                this.getAdaptiveTimeout(this.renderLatencies.get(portletDefinition.getFName()));
+        if (adaptiveTimeout <= 0) {
+            return timeout;
+        }
+        return Math.min(timeout, adaptiveTimeout);
+    }
+
+    /**
+     * @return The timeout derived from the latencies, 0 if not enough have been recorded to derive
+     *     one
+     */
+    private long getAdaptiveTimeout(PortletLatencyHistogram latencies) {
+        if (latencies.getSampleCount() < this.adaptiveTimeoutMinSamples) {
+            return 0;
+        }
+
+        final long percentile = latencies.getPercentile(this.adaptiveTimeoutPercentile);
+        return Math.max(
+                this.adaptiveTimeoutMinimum,
+                (long) Math.ceil(percentile * this.adaptiveTimeoutMultiplier));
+    }
+
     protected long getPortletResourceTimeout(
             IPortletWindowId portletWindowId, HttpServletRequest request) {
         if (this.ignoreTimeouts) {
@@ -915,7 +1445,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletRenderExecutionWorker tracker =
                 getRenderedPortletBodyWorker(portletWindowId, request, response);
         final long timeout = getPortletRenderTimeout(portletWindowId, request);
-        return tracker.get(timeout);
+        return tracker.get(getPortletPageRenderTimeout(portletWindowId, request, timeout));
     }
 
     /**
@@ -966,8 +1496,21 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
                 portletRenderExecutionWorker =
                         this.portletWorkerFactory.createFailureWorker(
                                 request, response, portletWindowId, new MaintenanceModeException());
+            } else if (this.isExecuteInline(portletDef)) {
+                // Trivial portlet, skip the hand off to the thread pool
+                this.renderDispatchStatistics.recordPublishedInline();
+                portletRenderExecutionWorker =
+                        this.portletWorkerFactory.createInlineRenderWorker(
+                                request, response, portletWindowId);
+            } else if (this.isRenderCached(request, portletWindowId)) {
+                // Cached output will be replayed, skip the hand off to the thread pool
+                this.renderDispatchStatistics.recordCachedInline();
+                portletRenderExecutionWorker =
+                        this.portletWorkerFactory.createInlineRenderWorker(
+                                request, response, portletWindowId);
             } else {
                 // Happy path
+                this.renderDispatchStatistics.recordPooled();
                 portletRenderExecutionWorker =
                         this.portletWorkerFactory.createRenderWorker(
                                 request, response, portletWindowId);
@@ -983,6 +1526,46 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return portletRenderExecutionWorker;
     }
 
+    /** @return true if the portlet was published with {@link #EXECUTE_INLINE_PARAMETER} */
+    protected boolean isExecuteInline(IPortletDefinition portletDefinition) {
+        final IPortletDefinitionParameter executeInline =
+                portletDefinition.getParameter(EXECUTE_INLINE_PARAMETER);
+        return executeInline != null && Boolean.parseBoolean(executeInline.getValue());
+    }
+
+    /**
+     * @return true if the portlet's render output is cached and can be replayed as-is, the checked
+     *     state is handed to the renderer so the replay can't turn into a full inline render
+     */
+    protected boolean isRenderCached(HttpServletRequest request, IPortletWindowId portletWindowId) {
+        if (!this.inlineCachedRenders || this.portletCacheControlService == null) {
+            return false;
+        }
+
+        try {
+            final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                    cacheState =
+                            this.portletCacheControlService.getPortletRenderState(
+                                    request, portletWindowId);
+            if (!cacheState.isUseCachedData()) {
+                return false;
+            }
+
+            request.setAttribute(
+                    IPortletRenderer.ATTRIBUTE__CHECKED_RENDER_STATE_PREFIX
+                            + portletWindowId.getStringId(),
+                    cacheState);
+            return true;
+        } catch (RuntimeException e) {
+            // Let the worker hit the same failure so it is handled like any other render failure
+            logger.debug(
+                    "Failed to check cached render output for {}, rendering in the thread pool",
+                    portletWindowId,
+                    e);
+            return false;
+        }
+    }
+
     /**
      * Returns a request attribute scoped Map of portlets that are rendering for the current
      * request.
@@ -1044,4 +1627,48 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
             return portletFailureMap;
         }
     }
+
+    /** A render replaced by a placeholder on the page, waiting for the browser to load it */
+    private static final class AsyncFill {
+        private final CountDownLatch pageCompleted = new CountDownLatch(1);
+        private final String sessionId;
+        private final String fname;
+        private final String portletWindowId;
+        private final long expires;
+        private final long timeout;
+        private volatile String pageOutput;
+
+        public AsyncFill(
+                String sessionId,
+                String fname,
+                String portletWindowId,
+                long expires,
+                long timeout) {
+            this.sessionId = sessionId;
+            this.fname = fname;
+            this.portletWindowId = portletWindowId;
+            this.expires = expires;
+            this.timeout = timeout;
+        }
+
+        /** @param pageOutput Output of the page's render, null if it did not complete */
+        void pageCompleted(String pageOutput) {
+            this.pageOutput = pageOutput;
+            this.pageCompleted.countDown();
+        }
+
+        /**
+         * Waits, up to the portlet's timeout, for the page's request to complete
+         *
+         * @return Output of the page's render, null if it did not complete
+         */
+        String awaitPageOutput() {
+            try {
+                this.pageCompleted.await(this.timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return this.pageOutput;
+        }
+    }
 }
@@ -0,0 +1,91 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+/**
+ * Rolling histogram of portlet execution times, used by {@link PortletExecutionManager} to derive
+ * adaptive timeouts. Times are counted in exponentially sized buckets, four per doubling, so
+ * percentiles are accurate to within about 20%. Each time {@code windowSize} samples have been
+ * recorded every bucket is halved so older samples fade out and the distribution follows changes in
+ * the portlet's latency.
+ */
+class PortletLatencyHistogram {
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    /** Largest bucket holds times over 2^17ms, a bit more than two minutes */
+    private static final int BUCKET_COUNT = 17 * BUCKETS_PER_DOUBLING + 2;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private final int windowSize;
+    private long sampleCount = 0;
+    private int samplesSinceDecay = 0;
+
+    PortletLatencyHistogram(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /** Record an execution time in milliseconds */
+    synchronized void record(long millis) {
+        this.counts[getBucket(millis)]++;
+        this.sampleCount++;
+
+        if (++this.samplesSinceDecay >= this.windowSize) {
+            this.sampleCount = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                this.counts[i] = this.counts[i] / 2;
+                this.sampleCount += this.counts[i];
+            }
+            this.samplesSinceDecay = 0;
+        }
+    }
+
+    /** @return Number of samples currently weighted in the histogram */
+    synchronized long getSampleCount() {
+        return this.sampleCount;
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 1
+     * @return The upper bound in milliseconds of the bucket containing the percentile, 0 if no
+     *     samples have been recorded
+     */
+    synchronized long getPercentile(double percentile) {
+        if (this.sampleCount == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1, (long) Math.ceil(percentile * this.sampleCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.counts[i];
+            if (seen >= target) {
+                return getUpperBound(i);
+            }
+        }
+        return getUpperBound(BUCKET_COUNT - 1);
+    }
+
+    static int getBucket(long millis) {
+        if (millis <= 1) {
+            return 0;
+        }
+        final int bucket =
+                (int) Math.ceil(Math.log(millis) / Math.log(2) * BUCKETS_PER_DOUBLING - 1e-9);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    static long getUpperBound(int bucket) {
+        return (long) Math.ceil(Math.pow(2, (double) bucket / BUCKETS_PER_DOUBLING) - 1e-9);
+    }
+}
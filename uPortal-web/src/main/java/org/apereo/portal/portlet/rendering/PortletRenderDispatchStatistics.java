@@ -0,0 +1,97 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics for how {@link PortletExecutionManager} dispatches portlet body renders, exposed via
+ * JMX. Renders are either submitted to the portlet thread pool or take the inline fast path and
+ * execute on the request thread, either because valid cached output exists or because the portlet
+ * was published to execute inline.
+ */
+public class PortletRenderDispatchStatistics {
+    private final AtomicLong pooledCount = new AtomicLong();
+    private final AtomicLong cachedInlineCount = new AtomicLong();
+    private final AtomicLong publishedInlineCount = new AtomicLong();
+    private final AtomicLong asyncFillCount = new AtomicLong();
+
+    void recordPooled() {
+        this.pooledCount.incrementAndGet();
+    }
+
+    void recordCachedInline() {
+        this.cachedInlineCount.incrementAndGet();
+    }
+
+    void recordPublishedInline() {
+        this.publishedInlineCount.incrementAndGet();
+    }
+
+    void recordAsyncFill() {
+        this.asyncFillCount.incrementAndGet();
+    }
+
+    /** @return Number of renders submitted to the portlet thread pool */
+    public long getPooledCount() {
+        return this.pooledCount.get();
+    }
+
+    /** @return Number of renders replayed from cached output on the request thread */
+    public long getCachedInlineCount() {
+        return this.cachedInlineCount.get();
+    }
+
+    /** @return Number of renders executed on the request thread because the portlet asked to be */
+    public long getPublishedInlineCount() {
+        return this.publishedInlineCount.get();
+    }
+
+    /**
+     * @return Number of renders that passed their adaptive timeout and were replaced in the page
+     *     with a placeholder filled by the browser
+     */
+    public long getAsyncFillCount() {
+        return this.asyncFillCount.get();
+    }
+
+    /** @return Ratio of renders that took the inline fast path to all dispatched renders */
+    public double getInlineRatio() {
+        final long inline = this.cachedInlineCount.get() + this.publishedInlineCount.get();
+        final long total = inline + this.pooledCount.get();
+        return total == 0 ? 0 : (double) inline / total;
+    }
+
+    /** Reset all counters */
+    public void reset() {
+        this.pooledCount.set(0);
+        this.cachedInlineCount.set(0);
+        this.publishedInlineCount.set(0);
+        this.asyncFillCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "PortletRenderDispatchStatistics [pooledCount="
+                + this.pooledCount
+                + ", cachedInlineCount="
+                + this.cachedInlineCount
+                + ", publishedInlineCount="
+                + this.publishedInlineCount
+                + ", asyncFillCount="
+                + this.asyncFillCount
+                + "]";
+    }
+}
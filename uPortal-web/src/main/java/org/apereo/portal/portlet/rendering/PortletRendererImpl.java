@@ -330,6 +330,23 @@ public class PortletRendererImpl implements IPortletRenderer {
                             IPortletCacheControlService portletCacheControlService,
                             HttpServletRequest request,
                             IPortletWindowId portletWindowId) {
+                // Replay the state checked before the render was inlined, the cached output may
+                // have expired since and rendering it again here would run with no timeout
+                final String checkedStateAttribute =
+                        IPortletRenderer.ATTRIBUTE__CHECKED_RENDER_STATE_PREFIX
+                                + portletWindowId.getStringId();
+                @SuppressWarnings("unchecked")
+                final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                        checkedState =
+                                (CacheState<
+                                                CachedPortletData<PortletRenderResult>,
+                                                PortletRenderResult>)
+                                        request.getAttribute(checkedStateAttribute);
+                if (checkedState != null) {
+                    request.removeAttribute(checkedStateAttribute);
+                    return checkedState;
+                }
+
                 return portletCacheControlService.getPortletRenderState(request, portletWindowId);
             }
 
@@ -573,8 +590,9 @@ public class PortletRendererImpl implements IPortletRenderer {
 
         publishRenderEvent(portletWindow, httpServletRequest, renderPart, executionTime, true);
 
+        //Without a base execution time the portlet was not executed at all
         final PortletRenderResult portletResult = cachedPortletData.getPortletResult();
-        return new PortletRenderResult(portletResult, executionTime);
+        return new PortletRenderResult(portletResult, executionTime, baseExecutionTime == 0);
     }
 
     /** Publish the portlet render event */
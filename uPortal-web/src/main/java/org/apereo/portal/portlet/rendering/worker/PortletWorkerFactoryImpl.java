@@ -14,6 +14,7 @@
  */
 package org.apereo.portal.portlet.rendering.worker;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import javax.portlet.Event;
@@ -42,6 +43,7 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
     public static final String DEFAULT_ERROR_PORTLET_FNAME = "error";
 
     private ExecutorService portletThreadPool;
+    private final ExecutorService inlineExecutorService = MoreExecutors.sameThreadExecutor();
     private IPortletRenderer portletRenderer;
     private List<IPortletExecutionInterceptor> executionInterceptors;
     private String errorPortletFName = DEFAULT_ERROR_PORTLET_FNAME;
@@ -160,6 +162,26 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
                 portletWindow);
     }
 
+    @Override
+    public IPortletRenderExecutionWorker createInlineRenderWorker(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            IPortletWindowId portletWindowId) {
+        final IPortletWindow portletWindow =
+                this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
+        if (portletWindow == null) {
+            throw new RuntimeException(
+                    "Failed to retrieve the specified PortletWindow:  " + portletWindowId);
+        }
+        return new PortletRenderExecutionWorker(
+                inlineExecutorService,
+                executionInterceptors,
+                portletRenderer,
+                request,
+                response,
+                portletWindow);
+    }
+
     @Override
     public IPortletResourceExecutionWorker createResourceWorker(
             HttpServletRequest request,
@@ -227,13 +227,13 @@ public class AnalyticsIncorporationComponent extends CharacterPipelineComponentW
 
                         final String data = serializePortletRenderExecutionEvents(portalEvents);
 
-                        return CharacterDataEventImpl.create(data);
+                        return CharacterDataEventImpl.createUncached(data);
                     }
                 case PAGE_ANALYTICS_DATA:
                     {
                         final String data = serializePageData(request, startTime);
 
-                        return CharacterDataEventImpl.create(data);
+                        return CharacterDataEventImpl.createUncached(data);
                     }
                 default:
                     {
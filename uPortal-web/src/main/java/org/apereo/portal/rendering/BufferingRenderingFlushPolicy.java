@@ -0,0 +1,81 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.ChunkPointPlaceholderEventSource;
+
+/**
+ * Flush policy that buffers markup and only flushes when:
+ *
+ * <ul>
+ *   <li>At least {@link #setBufferSize(int)} characters are buffered
+ *   <li>A chunk point is reached and at least {@link #setMinimumChunkPointFlush(int)} characters
+ *       are buffered, see {@link ChunkPointPlaceholderEventSource}
+ *   <li>The pipeline is about to wait on a portlet that has not finished rendering
+ * </ul>
+ *
+ * Setting the buffer size to 0 restores the flush-on-every-event behavior.
+ */
+public class BufferingRenderingFlushPolicy implements IRenderingFlushPolicy {
+    private int bufferSize = 8192;
+    private boolean flushOnChunkPoint = true;
+    private int minimumChunkPointFlush = 1024;
+    private boolean flushBeforeWait = true;
+
+    /** Number of buffered characters that always triggers a flush, defaults to 8192 */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /** If buffered output should be flushed at chunk points, defaults to true */
+    public void setFlushOnChunkPoint(boolean flushOnChunkPoint) {
+        this.flushOnChunkPoint = flushOnChunkPoint;
+    }
+
+    /**
+     * Minimum number of buffered characters required for a chunk point to trigger a flush, avoids
+     * tiny writes for closely spaced chunk points. Defaults to 1024
+     */
+    public void setMinimumChunkPointFlush(int minimumChunkPointFlush) {
+        this.minimumChunkPointFlush = minimumChunkPointFlush;
+    }
+
+    /**
+     * If buffered output should be flushed before waiting on portlet output so the client can start
+     * working on the page while slow portlets render, defaults to true
+     */
+    public void setFlushBeforeWait(boolean flushBeforeWait) {
+        this.flushBeforeWait = flushBeforeWait;
+    }
+
+    @Override
+    public boolean flushAfterEvent(CharacterDataEvent event, int bufferedChars) {
+        if (bufferedChars >= this.bufferSize) {
+            return true;
+        }
+
+        // Chunk points are marked by the shared empty event, other empty data is not a chunk point
+        return this.flushOnChunkPoint
+                && bufferedChars >= this.minimumChunkPointFlush
+                && event == CharacterDataEventImpl.EMPTY_CHARACTER_DATA;
+    }
+
+    @Override
+    public boolean flushBeforeWait(int bufferedChars) {
+        return this.flushBeforeWait && bufferedChars > 0;
+    }
+}
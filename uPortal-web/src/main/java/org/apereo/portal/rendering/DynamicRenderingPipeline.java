@@ -14,8 +14,8 @@
  */
 package org.apereo.portal.rendering;
 
+import java.io.Flushable;
 import java.io.IOException;
-import java.io.PrintWriter;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -39,11 +39,24 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
     public static final String CHARACTER_SET = "UTF-8";
     public static final String DEFAULT_MEDIA_TYPE = "text/html";
 
+    /**
+     * Request attribute set to the number of times the page was flushed to the client, as an
+     * Integer. Like {@link #CHARACTERS_WRITTEN_ATTRIBUTE} it can be included in the container's
+     * access log, e.g. %{org.apereo.portal.rendering.DynamicRenderingPipeline.FLUSH_COUNT}r
+     */
+    public static final String FLUSH_COUNT_ATTRIBUTE =
+            DynamicRenderingPipeline.class.getName() + ".FLUSH_COUNT";
+
+    /** Request attribute set to the number of characters in the rendered page, as a Long */
+    public static final String CHARACTERS_WRITTEN_ATTRIBUTE =
+            DynamicRenderingPipeline.class.getName() + ".CHARACTERS_WRITTEN";
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     private CharacterPipelineComponent pipeline;
     private IPortletExecutionEventFactory portalEventFactory;
     private IUrlSyntaxProvider urlSyntaxProvider;
+    private IRenderingFlushPolicy flushPolicy = new BufferingRenderingFlushPolicy();
 
     @Autowired
     public void setUrlSyntaxProvider(IUrlSyntaxProvider urlSyntaxProvider) {
@@ -63,6 +76,14 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         this.pipeline = pipeline;
     }
 
+    /**
+     * Policy that controls when buffered output is flushed to the client, defaults to {@link
+     * BufferingRenderingFlushPolicy}
+     */
+    public void setFlushPolicy(IRenderingFlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
     @Override
     public void renderState(HttpServletRequest req, HttpServletResponse res)
             throws ServletException, IOException {
@@ -81,22 +102,43 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         final String contentType = mediaType + "; charset=" + CHARACTER_SET;
         res.setContentType(contentType);
 
-        final PrintWriter writer = res.getWriter();
-
-        for (final CharacterEvent event : pipelineEventReader) {
-            if (CharacterEventTypes.CHARACTER != event.getEventType()) {
-                throw new RenderingPipelineConfigurationException(
-                        "Only "
-                                + CharacterEventTypes.CHARACTER
-                                + " events are supported in the top level renderer. "
-                                + event.getEventType()
-                                + " is not supported.");
+        final RenderingResponseWriter writer = new RenderingResponseWriter(res, this.flushPolicy);
+        req.setAttribute(
+                PortletRenderingIncorporationComponent.PENDING_OUTPUT_FLUSHER,
+                new Flushable() {
+                    @Override
+                    public void flush() throws IOException {
+                        writer.flushBeforeWait();
+                    }
+                });
+        try {
+            for (final CharacterEvent event : pipelineEventReader) {
+                if (CharacterEventTypes.CHARACTER != event.getEventType()) {
+                    throw new RenderingPipelineConfigurationException(
+                            "Only "
+                                    + CharacterEventTypes.CHARACTER
+                                    + " events are supported in the top level renderer. "
+                                    + event.getEventType()
+                                    + " is not supported.");
+                }
+
+                writer.write((CharacterDataEvent) event);
             }
 
-            final String data = ((CharacterDataEvent) event).getData();
-            writer.print(data);
             writer.flush();
-            res.flushBuffer();
+        } finally {
+            req.removeAttribute(PortletRenderingIncorporationComponent.PENDING_OUTPUT_FLUSHER);
+            writer.release();
+            req.setAttribute(FLUSH_COUNT_ATTRIBUTE, writer.getFlushCount());
+            req.setAttribute(CHARACTERS_WRITTEN_ATTRIBUTE, writer.getCharactersWritten());
+        }
+
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug(
+                    "Wrote {} characters in {} flushes for {}",
+                    writer.getCharactersWritten(),
+                    writer.getFlushCount(),
+                    req.getRequestURI());
         }
 
         final long executionTime = System.nanoTime() - startTime;
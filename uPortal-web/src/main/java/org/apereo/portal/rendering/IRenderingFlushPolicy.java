@@ -0,0 +1,42 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+
+/**
+ * Decides when the {@link DynamicRenderingPipeline} pushes buffered markup out to the client. Every
+ * flush is a write to the servlet container and usually a TCP send, so flushing after each
+ * character event is very expensive for pages made up of hundreds of small events.
+ */
+public interface IRenderingFlushPolicy {
+    /**
+     * Called after an event has been appended to the response buffer.
+     *
+     * @param event The event that was just buffered
+     * @param bufferedChars The number of characters currently buffered and not yet flushed
+     * @return true if the buffer should be flushed to the client now
+     */
+    boolean flushAfterEvent(CharacterDataEvent event, int bufferedChars);
+
+    /**
+     * Called before the pipeline blocks waiting on portlet output, see {@link
+     * PortletRenderingIncorporationComponent#PENDING_OUTPUT_FLUSHER}.
+     *
+     * @param bufferedChars The number of characters currently buffered and not yet flushed
+     * @return true if the buffer should be flushed to the client before waiting
+     */
+    boolean flushBeforeWait(int bufferedChars);
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import javax.servlet.http.HttpServletResponse;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+
+/**
+ * Buffers the character data produced by the rendering pipeline and writes it to the response as
+ * directed by an {@link IRenderingFlushPolicy}. The buffer is borrowed from a per-thread pool when
+ * the writer is created and must be returned by calling {@link #release()}.
+ *
+ * <p>Instances are NOT thread safe and are only valid for the request they were created for.
+ */
+class RenderingResponseWriter implements Flushable {
+    /** Buffers larger than this are discarded instead of being returned to the pool */
+    static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<char[]> BUFFER_POOL = new ThreadLocal<char[]>();
+
+    private final HttpServletResponse response;
+    private final IRenderingFlushPolicy flushPolicy;
+    private PrintWriter writer;
+    private char[] buffer;
+    private int buffered = 0;
+
+    private int flushCount = 0;
+    private long charactersWritten = 0;
+
+    RenderingResponseWriter(HttpServletResponse response, IRenderingFlushPolicy flushPolicy) {
+        this.response = response;
+        this.flushPolicy = flushPolicy;
+
+        final char[] pooled = BUFFER_POOL.get();
+        if (pooled != null) {
+            BUFFER_POOL.remove();
+            this.buffer = pooled;
+        } else {
+            this.buffer = new char[INITIAL_BUFFER_SIZE];
+        }
+    }
+
+    /** Buffer the event and flush if required by the policy */
+    public void write(CharacterDataEvent event) throws IOException {
+        final String data = event.getData();
+        final int length = data.length();
+        final int required = this.buffered + length;
+        if (required > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(required, this.buffer.length * 2));
+        }
+        data.getChars(0, length, this.buffer, this.buffered);
+        this.buffered = required;
+        this.charactersWritten += length;
+
+        if (this.flushPolicy.flushAfterEvent(event, this.buffered)) {
+            this.flush();
+        }
+    }
+
+    /** Flush if the policy wants buffered content sent before the pipeline blocks */
+    public void flushBeforeWait() throws IOException {
+        if (this.flushPolicy.flushBeforeWait(this.buffered)) {
+            this.flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.writer == null) {
+            this.writer = this.response.getWriter();
+        }
+
+        if (this.buffered > 0) {
+            this.writer.write(this.buffer, 0, this.buffered);
+            this.buffered = 0;
+        }
+
+        this.writer.flush();
+        this.response.flushBuffer();
+        this.flushCount++;
+    }
+
+    /**
+     * Returns the buffer to the pool, any content that has not been flushed is discarded. The
+     * writer cannot be used after this is called.
+     */
+    public void release() {
+        final char[] buffer = this.buffer;
+        this.buffer = null;
+        this.buffered = 0;
+        if (buffer != null && buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+            BUFFER_POOL.set(buffer);
+        }
+    }
+
+    /** @return The number of times content was flushed to the client */
+    public int getFlushCount() {
+        return this.flushCount;
+    }
+
+    /** @return The number of characters written by the pipeline */
+    public long getCharactersWritten() {
+        return this.charactersWritten;
+    }
+}
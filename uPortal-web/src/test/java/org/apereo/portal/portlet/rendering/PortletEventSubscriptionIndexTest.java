@@ -0,0 +1,215 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.namespace.QName;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.EventDefinitionReference;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apereo.portal.portlet.dao.PortletDefinitionDeletedEvent;
+import org.apereo.portal.portlet.dao.PortletDefinitionSavedEvent;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.utils.Tuple;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PortletEventSubscriptionIndexTest {
+    private static final String NAMESPACE = "https://source.example.edu/events";
+
+    private final List<IPortletDefinition> portletDefinitions = new ArrayList<IPortletDefinition>();
+    private final List<String> applicationNames = new ArrayList<String>();
+
+    private PortletEventSubscriptionIndex portletEventSubscriptionIndex;
+    private IPortletDefinitionRegistry portletDefinitionRegistry;
+    private PortletRegistryService portletRegistryService;
+    private PortletApplicationDefinition portletApplicationDescriptor;
+
+    @Before
+    public void setup() throws Exception {
+        this.portletDefinitionRegistry = mock(IPortletDefinitionRegistry.class);
+        when(this.portletDefinitionRegistry.getAllPortletDefinitions())
+                .thenReturn(this.portletDefinitions);
+
+        this.portletApplicationDescriptor = mock(PortletApplicationDefinition.class);
+        when(this.portletApplicationDescriptor.getDefaultNamespace()).thenReturn(NAMESPACE);
+
+        //Iterator is created per call so the test can deploy applications later
+        this.portletRegistryService = mock(PortletRegistryService.class);
+        when(this.portletRegistryService.getRegisteredPortletApplicationNames())
+                .thenAnswer(
+                        new Answer<Iterator<String>>() {
+                            @Override
+                            public Iterator<String> answer(InvocationOnMock invocation) {
+                                return new ArrayList<String>(applicationNames).iterator();
+                            }
+                        });
+        when(this.portletRegistryService.getPortletApplication("/events"))
+                .thenReturn(this.portletApplicationDescriptor);
+
+        this.portletEventSubscriptionIndex = new PortletEventSubscriptionIndex();
+        this.portletEventSubscriptionIndex.setPortletDefinitionRegistry(
+                this.portletDefinitionRegistry);
+        this.portletEventSubscriptionIndex.setPortletRegistryService(this.portletRegistryService);
+        this.portletEventSubscriptionIndex.afterPropertiesSet();
+    }
+
+    @Test
+    public void testExactAndDefaultNamespaceNames() {
+        this.applicationNames.add("/events");
+        final IPortletDefinitionId weather =
+                mockPortlet(
+                        "weather",
+                        new QName(NAMESPACE, "location"),
+                        new QName("", "unit"),
+                        new QName("https://other.example.edu", "alert"));
+        final IPortletDefinitionId news = mockPortlet("news", new QName(NAMESPACE, "location"));
+        mockPortlet("calendar");
+
+        assertEquals(
+                Arrays.asList(weather, news),
+                new ArrayList<IPortletDefinitionId>(
+                        this.portletEventSubscriptionIndex.getSubscribers(
+                                new QName(NAMESPACE, "location"))));
+        assertEquals(
+                Collections.singleton(weather),
+                this.portletEventSubscriptionIndex.getSubscribers(new QName(NAMESPACE, "unit")));
+        assertEquals(
+                Collections.singleton(weather),
+                this.portletEventSubscriptionIndex.getSubscribers(
+                        new QName("https://other.example.edu", "alert")));
+        assertTrue(
+                this.portletEventSubscriptionIndex
+                        .getSubscribers(new QName(NAMESPACE, "alert"))
+                        .isEmpty());
+    }
+
+    @Test
+    public void testAliasAndWildcardNames() {
+        this.applicationNames.add("/events");
+        final IPortletDefinitionId search =
+                mockPortlet(
+                        "search",
+                        new QName(NAMESPACE, "search.*"),
+                        new QName("https://alias.example.edu", "find"));
+
+        final EventDefinition aliased = mock(EventDefinition.class);
+        when(aliased.getQualifiedName(NAMESPACE)).thenReturn(new QName(NAMESPACE, "lookup"));
+        when(aliased.getAliases())
+                .thenReturn(
+                        Collections.singletonList(new QName("https://alias.example.edu", "find")));
+        final EventDefinition unrelated = mock(EventDefinition.class);
+        when(unrelated.getQualifiedName(NAMESPACE)).thenReturn(new QName(NAMESPACE, "other"));
+        when(unrelated.getAliases())
+                .thenReturn(Collections.singletonList(new QName(NAMESPACE, "different")));
+        when(this.portletApplicationDescriptor.getEventDefinitions())
+                .thenReturn((List) Arrays.asList(aliased, unrelated));
+
+        assertEquals(
+                Collections.singleton(search),
+                this.portletEventSubscriptionIndex.getSubscribers(new QName(NAMESPACE, "lookup")));
+        assertEquals(
+                Collections.singleton(search),
+                this.portletEventSubscriptionIndex.getSubscribers(
+                        new QName(NAMESPACE, "search.query")));
+        assertTrue(
+                this.portletEventSubscriptionIndex
+                        .getSubscribers(new QName(NAMESPACE, "other"))
+                        .isEmpty());
+        assertTrue(
+                this.portletEventSubscriptionIndex
+                        .getSubscribers(new QName("https://other.example.edu", "search.query"))
+                        .isEmpty());
+    }
+
+    @Test
+    public void testPublishedDefinitionsUpdateIndex() {
+        this.applicationNames.add("/events");
+        final QName location = new QName(NAMESPACE, "location");
+        final IPortletDefinitionId weather = mockPortlet("weather", location);
+        assertEquals(
+                Collections.singleton(weather),
+                this.portletEventSubscriptionIndex.getSubscribers(location));
+
+        //Published after the index was built
+        final IPortletDefinitionId news = mockPortlet("news", location);
+        this.portletEventSubscriptionIndex.onApplicationEvent(
+                new PortletDefinitionSavedEvent(this, this.portletDefinitions.get(1)));
+        assertEquals(2, this.portletEventSubscriptionIndex.getSubscribers(location).size());
+
+        this.portletEventSubscriptionIndex.onApplicationEvent(
+                new PortletDefinitionDeletedEvent(this, this.portletDefinitions.get(0)));
+        assertEquals(
+                Collections.singleton(news),
+                this.portletEventSubscriptionIndex.getSubscribers(location));
+    }
+
+    @Test
+    public void testApplicationDeployedAfterIndexBuilt() {
+        final QName location = new QName(NAMESPACE, "location");
+        final IPortletDefinitionId weather = mockPortlet("weather", location);
+        assertTrue(this.portletEventSubscriptionIndex.getSubscribers(location).isEmpty());
+        assertFalse(
+                this.portletEventSubscriptionIndex.processesEvents(this.portletDefinitions.get(0)));
+
+        this.applicationNames.add("/events");
+        this.portletEventSubscriptionIndex.portletApplicationRegistered(new PortletRegistryEvent());
+        assertEquals(
+                Collections.singleton(weather),
+                this.portletEventSubscriptionIndex.getSubscribers(location));
+        assertTrue(
+                this.portletEventSubscriptionIndex.processesEvents(this.portletDefinitions.get(0)));
+    }
+
+    /** Adds a portlet definition in the "/events" application processing the events */
+    private IPortletDefinitionId mockPortlet(String portletName, QName... processingEvents) {
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(this.portletDefinitionRegistry.getPortletDescriptorKeys(portletDefinition))
+                .thenReturn(new Tuple<String, String>("/events", portletName));
+
+        final List<EventDefinitionReference> references = new ArrayList<EventDefinitionReference>();
+        for (final QName processingEvent : processingEvents) {
+            final EventDefinitionReference reference = mock(EventDefinitionReference.class);
+            when(reference.getQualifiedName(NAMESPACE)).thenReturn(processingEvent);
+            references.add(reference);
+        }
+        final PortletDefinition portletDescriptor = mock(PortletDefinition.class);
+        when(portletDescriptor.getSupportedProcessingEvents()).thenReturn((List) references);
+        when(this.portletApplicationDescriptor.getPortlet(portletName))
+                .thenReturn(portletDescriptor);
+
+        this.portletDefinitions.add(portletDefinition);
+        return portletDefinitionId;
+    }
+}
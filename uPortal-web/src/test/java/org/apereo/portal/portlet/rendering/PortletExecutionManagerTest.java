@@ -0,0 +1,598 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.portlet.Event;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apereo.portal.events.IPortletExecutionEventFactory;
+import org.apereo.portal.portlet.container.cache.CacheState;
+import org.apereo.portal.portlet.container.cache.CachedPortletData;
+import org.apereo.portal.portlet.container.cache.IPortletCacheControlService;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionParameter;
+import org.apereo.portal.portlet.om.IPortletDescriptorKey;
+import org.apereo.portal.portlet.om.IPortletEntity;
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.om.PortletLifecycleState;
+import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
+import org.apereo.portal.portlet.rendering.worker.IPortletEventExecutionWorker;
+import org.apereo.portal.portlet.rendering.worker.IPortletExecutionContext;
+import org.apereo.portal.portlet.rendering.worker.IPortletExecutionContext.ExecutionType;
+import org.apereo.portal.portlet.rendering.worker.IPortletRenderExecutionWorker;
+import org.apereo.portal.portlet.rendering.worker.IPortletWorkerFactory;
+import org.apereo.portal.portlet.rendering.worker.PortletCircuitOpenException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class PortletExecutionManagerTest {
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    /** Time each window's worker was submitted and completed */
+    private final Map<String, Long> submitted = new ConcurrentHashMap<String, Long>();
+
+    private final Map<String, Long> completed = new ConcurrentHashMap<String, Long>();
+
+    private PortletExecutionManager portletExecutionManager;
+    private IPortletWorkerFactory portletWorkerFactory;
+    private IPortletWindowRegistry portletWindowRegistry;
+    private IPortletCacheControlService portletCacheControlService;
+    private PortletEventQueue eventQueue;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @Before
+    public void setup() {
+        this.eventQueue = new PortletEventQueue();
+        this.request = new MockHttpServletRequest();
+        this.response = new MockHttpServletResponse();
+        this.portletWorkerFactory = mock(IPortletWorkerFactory.class);
+        this.portletWindowRegistry = mock(IPortletWindowRegistry.class);
+        this.portletCacheControlService = mock(IPortletCacheControlService.class);
+
+        //Unresolved events are queued for the window they were created with
+        final IPortletEventCoordinationService eventCoordinationService =
+                mock(IPortletEventCoordinationService.class);
+        doAnswer(
+                        new Answer<Void>() {
+                            @Override
+                            public Void answer(InvocationOnMock invocation) {
+                                final PortletEventQueue queue =
+                                        (PortletEventQueue) invocation.getArguments()[1];
+                                QueuedEvent queuedEvent;
+                                while ((queuedEvent = queue.getUnresolvedEvents().poll()) != null) {
+                                    queue.offerEvent(queuedEvent.getPortletWindowId(), queuedEvent);
+                                }
+                                return null;
+                            }
+                        })
+                .when(eventCoordinationService)
+                .resolvePortletEvents(eq(this.request), any(PortletEventQueue.class));
+
+        this.portletExecutionManager = new PortletExecutionManager();
+        this.portletExecutionManager.setEventCoordinationService(eventCoordinationService);
+        this.portletExecutionManager.setPortletWorkerFactory(this.portletWorkerFactory);
+        this.portletExecutionManager.setPortletWindowRegistry(this.portletWindowRegistry);
+        this.portletExecutionManager.setPortletCacheControlService(this.portletCacheControlService);
+        this.portletExecutionManager.setIgnoreTimeouts(true);
+    }
+
+    @After
+    public void tearDown() {
+        this.executorService.shutdownNow();
+    }
+
+    @Test
+    public void testFollowOnEventsDispatchedBeforeSlowWorkerCompletes() throws Exception {
+        final IPortletWindowId slowWindow = mockWorker("slow", 1000, null);
+        final IPortletWindowId targetWindow = mockWorker("target", 0, null);
+        final IPortletWindowId fastWindow = mockWorker("fast", 0, targetWindow);
+
+        queueEvent(slowWindow);
+        queueEvent(fastWindow);
+
+        this.portletExecutionManager.doPortletEvents(this.eventQueue, this.request, this.response);
+
+        assertEquals(3, this.completed.size());
+        assertTrue(
+                "The follow on event waited for the slow worker",
+                this.submitted.get("target") < this.completed.get("slow"));
+
+        final PortletEventDispatchStatistics statistics =
+                this.portletExecutionManager.getEventDispatchStatistics();
+        assertEquals(1, statistics.getDispatchCount());
+        assertEquals(3, statistics.getEventCount());
+        assertEquals(2, statistics.getMaxFanOutDepth());
+        assertEquals(0, statistics.getIterationLimitCount());
+        assertTrue(statistics.getIterationCount() >= 2);
+    }
+
+    @Test
+    public void testIterationLimit() throws Exception {
+        //The window keeps sending itself events
+        final IPortletWindowId loopWindow = mock(IPortletWindowId.class);
+        mockWorker(loopWindow, "loop", 0, loopWindow);
+        queueEvent(loopWindow);
+
+        this.portletExecutionManager.setMaxEventIterations(5);
+        this.portletExecutionManager.doPortletEvents(this.eventQueue, this.request, this.response);
+
+        final PortletEventDispatchStatistics statistics =
+                this.portletExecutionManager.getEventDispatchStatistics();
+        assertEquals(1, statistics.getIterationLimitCount());
+        assertEquals(5, statistics.getIterationCount());
+        assertEquals(5, statistics.getMaxFanOutDepth());
+    }
+
+    @Test
+    public void testRendersTakeInlineFastPath() throws Exception {
+        final IPortletWindowId pooledWindow = mockRenderWindow(false, false);
+        final IPortletWindowId cachedWindow = mockRenderWindow(false, true);
+        final IPortletWindowId inlineWindow = mockRenderWindow(true, false);
+
+        for (final IPortletWindowId portletWindowId :
+                new IPortletWindowId[] {pooledWindow, cachedWindow, inlineWindow}) {
+            this.portletExecutionManager.startPortletRender(
+                    portletWindowId, this.request, this.response);
+        }
+
+        verify(this.portletWorkerFactory)
+                .createRenderWorker(this.request, this.response, pooledWindow);
+        verify(this.portletWorkerFactory)
+                .createInlineRenderWorker(this.request, this.response, cachedWindow);
+        verify(this.portletWorkerFactory)
+                .createInlineRenderWorker(this.request, this.response, inlineWindow);
+
+        final PortletRenderDispatchStatistics statistics =
+                this.portletExecutionManager.getRenderDispatchStatistics();
+        assertEquals(1, statistics.getPooledCount());
+        assertEquals(1, statistics.getCachedInlineCount());
+        assertEquals(1, statistics.getPublishedInlineCount());
+        assertEquals(2 / 3d, statistics.getInlineRatio(), 0.001);
+    }
+
+    @Test
+    public void testCheckedCacheStateHandedToInlineRender() throws Exception {
+        final IPortletWindowId cachedWindow = mockRenderWindow(false, true);
+        final IPortletWindowId pooledWindow = mockRenderWindow(false, false);
+        when(cachedWindow.getStringId()).thenReturn("cached");
+        when(pooledWindow.getStringId()).thenReturn("pooled");
+
+        this.portletExecutionManager.startPortletRender(cachedWindow, this.request, this.response);
+        this.portletExecutionManager.startPortletRender(pooledWindow, this.request, this.response);
+
+        // The replay must use the state that was checked, not look the cache up again
+        assertSame(
+                this.portletCacheControlService.getPortletRenderState(this.request, cachedWindow),
+                this.request.getAttribute(
+                        IPortletRenderer.ATTRIBUTE__CHECKED_RENDER_STATE_PREFIX + "cached"));
+        assertNull(
+                this.request.getAttribute(
+                        IPortletRenderer.ATTRIBUTE__CHECKED_RENDER_STATE_PREFIX + "pooled"));
+    }
+
+    @Test
+    public void testCachedRendersPooledWhenDisabled() throws Exception {
+        final IPortletWindowId cachedWindow = mockRenderWindow(false, true);
+
+        this.portletExecutionManager.setInlineCachedRenders(false);
+        this.portletExecutionManager.startPortletRender(cachedWindow, this.request, this.response);
+
+        verify(this.portletWorkerFactory)
+                .createRenderWorker(this.request, this.response, cachedWindow);
+        assertEquals(
+                0,
+                this.portletExecutionManager.getRenderDispatchStatistics().getCachedInlineCount());
+    }
+
+    @Test
+    public void testLatePortletReplacedWithAsyncFillPlaceholder() throws Exception {
+        final IPortletWindowId portletWindowId = mockAdaptiveTimeoutWindow();
+
+        //This render only completes if given most of the full configured timeout
+        final IPortletRenderExecutionWorker worker = mockLateRenderWorker(portletWindowId);
+        final AtomicBoolean complete = new AtomicBoolean();
+        when(worker.isComplete())
+                .thenAnswer(
+                        new Answer<Boolean>() {
+                            @Override
+                            public Boolean answer(InvocationOnMock invocation) {
+                                return complete.get();
+                            }
+                        });
+
+        final String pageOutput =
+                this.portletExecutionManager.getPortletPageOutput(
+                        portletWindowId, this.request, this.response);
+        assertTrue(pageOutput, pageOutput.contains("up-async-fill-P.1.1"));
+        assertTrue(pageOutput, pageOutput.contains("/api/v4-3/portlet/weather.html?asyncFill="));
+        assertEquals(
+                1, this.portletExecutionManager.getRenderDispatchStatistics().getAsyncFillCount());
+
+        //Other callers still wait the configured timeout
+        assertEquals(
+                "content",
+                this.portletExecutionManager.getPortletOutput(
+                        portletWindowId, this.request, this.response));
+
+        //The render finished before the page's request ended
+        complete.set(true);
+        this.portletExecutionManager.afterCompletion(this.request, this.response, null, null);
+        verify(worker, never()).cancel();
+
+        //Only the placeholder's portlet can load its output, once
+        final String asyncFillId = getAsyncFillId(pageOutput);
+        final MockHttpServletRequest fillRequest = new MockHttpServletRequest();
+        fillRequest.setSession(this.request.getSession());
+        assertNull(
+                this.portletExecutionManager.getAsyncFillOutput(
+                        asyncFillId, "news", fillRequest, this.response));
+        assertEquals(
+                "content",
+                this.portletExecutionManager.getAsyncFillOutput(
+                        asyncFillId, "weather", fillRequest, this.response));
+        assertNull(
+                this.portletExecutionManager.getAsyncFillOutput(
+                        asyncFillId, "weather", fillRequest, this.response));
+        verify(this.portletWorkerFactory, never())
+                .createRenderWorker(fillRequest, this.response, portletWindowId);
+    }
+
+    @Test
+    public void testUnfinishedAsyncFillRenderedByFillRequest() throws Exception {
+        final IPortletWindowId portletWindowId = mockAdaptiveTimeoutWindow();
+        final IPortletRenderExecutionWorker worker = mockLateRenderWorker(portletWindowId);
+        this.portletExecutionManager.setPortletExecutionEventFactory(
+                mock(IPortletExecutionEventFactory.class));
+
+        final String pageOutput =
+                this.portletExecutionManager.getPortletPageOutput(
+                        portletWindowId, this.request, this.response);
+
+        //The page's request is done, its render can't keep using it
+        this.portletExecutionManager.afterCompletion(this.request, this.response, null, null);
+        verify(worker).cancel();
+
+        final MockHttpServletRequest fillRequest = new MockHttpServletRequest();
+        fillRequest.setSession(this.request.getSession());
+        final IPortletWindow portletWindow =
+                this.portletWindowRegistry.getPortletWindow(this.request, portletWindowId);
+        when(this.portletWindowRegistry.getPortletWindowId(fillRequest, "P.1.1"))
+                .thenReturn(portletWindowId);
+        when(this.portletWindowRegistry.getPortletWindow(fillRequest, portletWindowId))
+                .thenReturn(portletWindow);
+        final IPortletRenderExecutionWorker fillWorker = mock(IPortletRenderExecutionWorker.class);
+        when(fillWorker.getOutput(anyLong())).thenReturn("fresh");
+        when(this.portletWorkerFactory.createRenderWorker(
+                        fillRequest, this.response, portletWindowId))
+                .thenReturn(fillWorker);
+
+        assertEquals(
+                "fresh",
+                this.portletExecutionManager.getAsyncFillOutput(
+                        getAsyncFillId(pageOutput), "weather", fillRequest, this.response));
+        verify(fillWorker).submit();
+    }
+
+    @Test
+    public void testCachedReplaysNotRecordedAsLatencies() throws Exception {
+        final IPortletWindowId portletWindowId = mockRenderWindow(false, true);
+        final IPortletDefinition portletDefinition =
+                this.portletWindowRegistry
+                        .getPortletWindow(this.request, portletWindowId)
+                        .getPortletEntity()
+                        .getPortletDefinition();
+        when(portletDefinition.getFName()).thenReturn("news");
+        when(portletDefinition.getPortletDescriptorKey())
+                .thenReturn(mock(IPortletDescriptorKey.class));
+
+        final IPortletExecutionContext context = mock(IPortletExecutionContext.class);
+        when(context.getPortletWindowId()).thenReturn(portletWindowId);
+        when(context.getExecutionType()).thenReturn(ExecutionType.RENDER);
+        when(context.getStartedTime()).thenReturn(System.currentTimeMillis() - 10);
+        when(context.getExecutionAttribute(IPortletRenderExecutionWorker.CACHED_REPLAY_ATTRIBUTE))
+                .thenReturn(Boolean.TRUE);
+        this.portletExecutionManager.postExecution(this.request, this.response, context, null);
+
+        this.portletExecutionManager.setAdaptiveTimeouts(true);
+        this.portletExecutionManager.setAdaptiveTimeoutMinSamples(1);
+        assertNull(this.portletExecutionManager.getAdaptiveRenderTimeouts().get("news"));
+    }
+
+    @Test
+    public void testOpenCircuitServesStaleCachedOutput() throws Exception {
+        final IPortletWindowId portletWindowId = mockRenderWindow(false, false);
+        final IPortletRenderExecutionWorker worker =
+                this.portletWorkerFactory.createRenderWorker(
+                        this.request, this.response, portletWindowId);
+        when(worker.getOutput(anyLong()))
+                .thenThrow(
+                        new ExecutionException(
+                                new PortletCircuitOpenException("weather", Long.MAX_VALUE)));
+
+        //Expired, the portlet would normally have to render again
+        final CachedPortletData<PortletRenderResult> cachedPortletData =
+                new CachedPortletData<PortletRenderResult>(
+                        new PortletRenderResult("Weather", null, 0, 10),
+                        "stale",
+                        null,
+                        "text/html",
+                        false,
+                        null,
+                        -1);
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState =
+                this.portletCacheControlService.getPortletRenderState(
+                        this.request, portletWindowId);
+        when(cacheState.getCachedPortletData()).thenReturn(cachedPortletData);
+
+        assertEquals(
+                "stale",
+                this.portletExecutionManager.getPortletOutput(
+                        portletWindowId, this.request, this.response));
+        verify(this.portletWorkerFactory, never())
+                .createFailureWorker(
+                        any(HttpServletRequest.class),
+                        any(HttpServletResponse.class),
+                        any(IPortletWindowId.class),
+                        any(Exception.class));
+    }
+
+    /** A window whose past renders took about 10ms, so pages wait 250ms for it */
+    private IPortletWindowId mockAdaptiveTimeoutWindow() throws Exception {
+        final IPortletWindowId portletWindowId = mockRenderWindow(false, false);
+        final IPortletDefinition portletDefinition =
+                this.portletWindowRegistry
+                        .getPortletWindow(this.request, portletWindowId)
+                        .getPortletEntity()
+                        .getPortletDefinition();
+        when(portletDefinition.getFName()).thenReturn("weather");
+        when(portletDefinition.getRenderTimeout()).thenReturn(5000);
+        when(portletDefinition.getPortletDescriptorKey())
+                .thenReturn(mock(IPortletDescriptorKey.class));
+        when(portletWindowId.getStringId()).thenReturn("P.1.1");
+
+        final IPortletExecutionContext context = mock(IPortletExecutionContext.class);
+        when(context.getPortletWindowId()).thenReturn(portletWindowId);
+        when(context.getExecutionType()).thenReturn(ExecutionType.RENDER);
+        when(context.getStartedTime()).thenReturn(System.currentTimeMillis() - 10);
+        this.portletExecutionManager.postExecution(this.request, this.response, context, null);
+
+        this.portletExecutionManager.setIgnoreTimeouts(false);
+        this.portletExecutionManager.setExtendedTimeoutExecutions(0);
+        this.portletExecutionManager.setAdaptiveTimeouts(true);
+        this.portletExecutionManager.setAdaptiveTimeoutMinSamples(1);
+        assertEquals(
+                Long.valueOf(250),
+                this.portletExecutionManager.getAdaptiveRenderTimeouts().get("weather"));
+
+        return portletWindowId;
+    }
+
+    /** The window's render worker, it only completes if given most of the configured timeout */
+    private IPortletRenderExecutionWorker mockLateRenderWorker(IPortletWindowId portletWindowId)
+            throws Exception {
+        final IPortletRenderExecutionWorker worker =
+                this.portletWorkerFactory.createRenderWorker(
+                        this.request, this.response, portletWindowId);
+        when(worker.getPortletFname()).thenReturn("weather");
+        when(worker.getSubmittedTime()).thenReturn(System.currentTimeMillis());
+        final Map<String, Object> executionAttributes = new ConcurrentHashMap<String, Object>();
+        when(worker.setExecutionAttribute(any(String.class), any()))
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                return executionAttributes.put(
+                                        (String) invocation.getArguments()[0],
+                                        invocation.getArguments()[1]);
+                            }
+                        });
+        when(worker.getExecutionAttribute(any(String.class)))
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                return executionAttributes.get(invocation.getArguments()[0]);
+                            }
+                        });
+        when(worker.getOutput(anyLong()))
+                .thenAnswer(
+                        new Answer<String>() {
+                            @Override
+                            public String answer(InvocationOnMock invocation) throws Exception {
+                                final long timeout = (Long) invocation.getArguments()[0];
+                                if (timeout < 1000 && !worker.isComplete()) {
+                                    throw new TimeoutException();
+                                }
+                                return "content";
+                            }
+                        });
+        return worker;
+    }
+
+    private String getAsyncFillId(String pageOutput) {
+        final Matcher asyncFill = Pattern.compile("asyncFill=([-0-9a-f]+)").matcher(pageOutput);
+        assertTrue(pageOutput, asyncFill.find());
+        return asyncFill.group(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private IPortletWindowId mockRenderWindow(boolean executeInline, boolean cached) {
+        final IPortletWindowId portletWindowId = mock(IPortletWindowId.class);
+        final IPortletWindow portletWindow = mock(IPortletWindow.class);
+        final IPortletEntity portletEntity = mock(IPortletEntity.class);
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(this.portletWindowRegistry.getPortletWindow(this.request, portletWindowId))
+                .thenReturn(portletWindow);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletEntity.getPortletDefinition()).thenReturn(portletDefinition);
+        when(portletDefinition.getLifecycleState()).thenReturn(PortletLifecycleState.PUBLISHED);
+
+        if (executeInline) {
+            final IPortletDefinitionParameter parameter = mock(IPortletDefinitionParameter.class);
+            when(parameter.getValue()).thenReturn("true");
+            when(portletDefinition.getParameter(PortletExecutionManager.EXECUTE_INLINE_PARAMETER))
+                    .thenReturn(parameter);
+        }
+
+        final CacheState cacheState = mock(CacheState.class);
+        when(cacheState.isUseCachedData()).thenReturn(cached);
+        when(this.portletCacheControlService.getPortletRenderState(this.request, portletWindowId))
+                .thenReturn(cacheState);
+
+        final IPortletRenderExecutionWorker pooledWorker =
+                mock(IPortletRenderExecutionWorker.class);
+        when(this.portletWorkerFactory.createRenderWorker(
+                        this.request, this.response, portletWindowId))
+                .thenReturn(pooledWorker);
+        final IPortletRenderExecutionWorker inlineWorker =
+                mock(IPortletRenderExecutionWorker.class);
+        when(this.portletWorkerFactory.createInlineRenderWorker(
+                        this.request, this.response, portletWindowId))
+                .thenReturn(inlineWorker);
+
+        return portletWindowId;
+    }
+
+    private void queueEvent(IPortletWindowId portletWindowId) {
+        this.eventQueue.addEvents(
+                Collections.singleton(new QueuedEvent(portletWindowId, mock(Event.class))));
+    }
+
+    private IPortletWindowId mockWorker(String name, long duration, IPortletWindowId sendsEventTo)
+            throws Exception {
+        final IPortletWindowId portletWindowId = mock(IPortletWindowId.class);
+        mockWorker(portletWindowId, name, duration, sendsEventTo);
+        return portletWindowId;
+    }
+
+    /**
+     * Every event for the window gets a new worker that runs for the duration then optionally sends
+     * an event to another window
+     */
+    private void mockWorker(
+            final IPortletWindowId portletWindowId,
+            final String name,
+            final long duration,
+            final IPortletWindowId sendsEventTo)
+            throws Exception {
+        when(this.portletWorkerFactory.createEventWorker(
+                        eq(this.request), eq(this.response), eq(portletWindowId), any(Event.class)))
+                .thenAnswer(
+                        new Answer<IPortletEventExecutionWorker>() {
+                            @Override
+                            public IPortletEventExecutionWorker answer(InvocationOnMock invocation)
+                                    throws Exception {
+                                return createWorker(portletWindowId, name, duration, sendsEventTo);
+                            }
+                        });
+    }
+
+    private IPortletEventExecutionWorker createWorker(
+            final IPortletWindowId portletWindowId,
+            final String name,
+            final long duration,
+            final IPortletWindowId sendsEventTo)
+            throws Exception {
+        final IPortletEventExecutionWorker worker = mock(IPortletEventExecutionWorker.class);
+        final CountDownLatch complete = new CountDownLatch(1);
+        final long now = System.currentTimeMillis();
+
+        when(worker.getPortletWindowId()).thenReturn(portletWindowId);
+        when(worker.getSubmittedTime()).thenReturn(now);
+        when(worker.getStartedTime()).thenReturn(now);
+        when(worker.isComplete())
+                .thenAnswer(
+                        new Answer<Boolean>() {
+                            @Override
+                            public Boolean answer(InvocationOnMock invocation) {
+                                return complete.getCount() == 0;
+                            }
+                        });
+        when(worker.get(anyLong()))
+                .thenAnswer(
+                        new Answer<Long>() {
+                            @Override
+                            public Long answer(InvocationOnMock invocation) throws Exception {
+                                final long timeout = (Long) invocation.getArguments()[0];
+                                complete.await(timeout, TimeUnit.MILLISECONDS);
+                                return 0L;
+                            }
+                        });
+        doAnswer(
+                        new Answer<Void>() {
+                            @Override
+                            public Void answer(InvocationOnMock invocation) {
+                                @SuppressWarnings("unchecked")
+                                final BlockingQueue<Object> completionQueue =
+                                        (BlockingQueue<Object>) invocation.getArguments()[0];
+                                submitted.put(name, System.nanoTime());
+                                executorService.submit(
+                                        new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                try {
+                                                    Thread.sleep(duration);
+                                                } catch (InterruptedException e) {
+                                                    return;
+                                                }
+                                                if (sendsEventTo != null) {
+                                                    queueEvent(sendsEventTo);
+                                                }
+                                                completed.put(name, System.nanoTime());
+                                                complete.countDown();
+                                                completionQueue.offer(worker);
+                                            }
+                                        });
+                                return null;
+                            }
+                        })
+                .when(worker)
+                .submit(any(BlockingQueue.class));
+
+        return worker;
+    }
+}
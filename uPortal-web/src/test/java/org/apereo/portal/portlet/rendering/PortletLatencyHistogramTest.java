@@ -0,0 +1,68 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PortletLatencyHistogramTest {
+
+    @Test
+    public void testBucketBoundsContainTimes() {
+        for (final long millis : new long[] {0, 1, 2, 3, 5, 17, 100, 999, 5000, 60000}) {
+            final long upperBound =
+                    PortletLatencyHistogram.getUpperBound(
+                            PortletLatencyHistogram.getBucket(millis));
+            assertTrue(millis + " above its bucket", millis <= upperBound);
+            assertTrue(millis + " far below its bucket", upperBound <= millis * 1.2 + 1);
+        }
+    }
+
+    @Test
+    public void testPercentile() {
+        final PortletLatencyHistogram histogram = new PortletLatencyHistogram(1000);
+        assertEquals(0, histogram.getPercentile(.99));
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(100);
+        }
+        histogram.record(2000);
+        histogram.record(2000);
+
+        assertEquals(100, histogram.getSampleCount());
+        final long median = histogram.getPercentile(.5);
+        assertTrue(median >= 100 && median < 120);
+        final long p99 = histogram.getPercentile(.99);
+        assertTrue(p99 >= 2000 && p99 < 2400);
+    }
+
+    @Test
+    public void testOldSamplesDecay() {
+        final PortletLatencyHistogram histogram = new PortletLatencyHistogram(100);
+        for (int i = 0; i < 100; i++) {
+            histogram.record(5000);
+        }
+        assertEquals(50, histogram.getSampleCount());
+
+        //Latency improves, after a few windows the slow samples are gone
+        for (int i = 0; i < 600; i++) {
+            histogram.record(50);
+        }
+        final long p99 = histogram.getPercentile(.99);
+        assertTrue(p99 >= 50 && p99 < 60);
+    }
+}
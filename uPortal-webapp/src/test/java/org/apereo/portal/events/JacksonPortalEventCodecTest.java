@@ -0,0 +1,93 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import org.apereo.portal.events.handlers.db.IPortalEventCodec;
+import org.apereo.portal.events.handlers.db.JacksonPortalEventCodec;
+import org.apereo.portal.security.SystemPerson;
+import org.junit.Test;
+
+public class JacksonPortalEventCodecTest {
+    private final PortalEvent.PortalEventBuilder eventBuilder =
+            new PortalEvent.PortalEventBuilder(
+                    this,
+                    "example.com",
+                    "1234567890123_system_AAAAAAAAAAA",
+                    SystemPerson.INSTANCE,
+                    null);
+
+    @Test
+    public void testSmileRoundTrip() {
+        final IPortalEventCodec codec = new JacksonPortalEventCodec();
+
+        final Map<String, List<String>> attributes =
+                ImmutableMap.<String, List<String>>of("roles", ImmutableList.of("student"));
+        final LoginEvent loginEvent =
+                new LoginEvent(this.eventBuilder, ImmutableSet.of("Students"), attributes);
+
+        final LoginEvent decodedLoginEvent =
+                codec.decode(codec.encode(loginEvent), LoginEvent.class);
+        assertEquals(loginEvent.getTimestampAsDate(), decodedLoginEvent.getTimestampAsDate());
+        assertEquals(loginEvent.getEventSessionId(), decodedLoginEvent.getEventSessionId());
+        assertEquals(loginEvent.getUserName(), decodedLoginEvent.getUserName());
+        assertEquals(loginEvent.getGroups(), decodedLoginEvent.getGroups());
+        assertEquals(loginEvent.getAttributes(), decodedLoginEvent.getAttributes());
+
+        final PortletRenderExecutionEvent renderEvent = createRenderEvent();
+        final PortletRenderExecutionEvent decodedRenderEvent =
+                codec.decode(codec.encode(renderEvent), PortletRenderExecutionEvent.class);
+        assertEquals(renderEvent.getFname(), decodedRenderEvent.getFname());
+        assertEquals(renderEvent.getExecutionTimeNano(), decodedRenderEvent.getExecutionTimeNano());
+        assertEquals(renderEvent.getWindowState(), decodedRenderEvent.getWindowState());
+        assertEquals(renderEvent.isTargeted(), decodedRenderEvent.isTargeted());
+        assertEquals(renderEvent.isUsedPortalCache(), decodedRenderEvent.isUsedPortalCache());
+    }
+
+    @Test
+    public void testSmileSmallerThanJson() {
+        final PortletRenderExecutionEvent renderEvent = createRenderEvent();
+
+        final byte[] json =
+                new JacksonPortalEventCodec(new ObjectMapper().findAndRegisterModules())
+                        .encode(renderEvent);
+        final byte[] smile = new JacksonPortalEventCodec().encode(renderEvent);
+        assertTrue("smile=" + smile.length + ", json=" + json.length, smile.length < json.length);
+    }
+
+    private PortletRenderExecutionEvent createRenderEvent() {
+        final PortletExecutionEvent.PortletExecutionEventBuilder executionEventBuilder =
+                new PortletExecutionEvent.PortletExecutionEventBuilder(
+                        this.eventBuilder,
+                        null,
+                        "weather",
+                        12345,
+                        Collections.<String, List<String>>emptyMap(),
+                        WindowState.NORMAL,
+                        PortletMode.VIEW);
+        return new PortletRenderExecutionEvent(executionEventBuilder, true, false);
+    }
+}
@@ -44,6 +44,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
@@ -54,6 +55,10 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
     @Autowired private IPortalEventDao portalEventDao;
 
+    @Autowired
+    @Qualifier("partitionedPortalEventDao")
+    private IPortalEventDao partitionedPortalEventDao;
+
     @Ignore // Breaks on move to Gradlde
     @Test
     public void testStoreSingleEvents() throws Exception {
@@ -72,12 +77,14 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
                     }
                 });
 
-        verifyGetEvents(originalEvents, startDate, endDate);
-        verifyAggregateEvents(originalEvents, startDate, endDate);
-        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
-        deleteEvents(originalEvents, startDate, endDate);
-        verifyGetEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
-        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
+        verifyGetEvents(portalEventDao, originalEvents, startDate, endDate);
+        verifyAggregateEvents(portalEventDao, originalEvents, startDate, endDate);
+        verifyAggregateEvents(
+                portalEventDao, Collections.<PortalEvent>emptyList(), startDate, endDate);
+        deleteEvents(portalEventDao, startDate, endDate);
+        verifyGetEvents(portalEventDao, Collections.<PortalEvent>emptyList(), startDate, endDate);
+        verifyAggregateEvents(
+                portalEventDao, Collections.<PortalEvent>emptyList(), startDate, endDate);
     }
 
     @Ignore // Breaks on move to Gradlde
@@ -143,15 +150,79 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
                     }
                 });
 
-        verifyGetEvents(originalEvents, startDate, endDate);
-        verifyAggregateEvents(originalEvents, startDate, endDate);
-        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
-        deleteEvents(originalEvents, startDate, endDate);
-        verifyGetEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
-        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
+        verifyGetEvents(portalEventDao, originalEvents, startDate, endDate);
+        verifyAggregateEvents(portalEventDao, originalEvents, startDate, endDate);
+        verifyAggregateEvents(
+                portalEventDao, Collections.<PortalEvent>emptyList(), startDate, endDate);
+        deleteEvents(portalEventDao, startDate, endDate);
+        verifyGetEvents(portalEventDao, Collections.<PortalEvent>emptyList(), startDate, endDate);
+        verifyAggregateEvents(
+                portalEventDao, Collections.<PortalEvent>emptyList(), startDate, endDate);
+    }
+
+    @Test
+    public void testLegacyAndPartitionedEvents() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+
+        final List<PortalEvent> originalEvents = generateEvents();
+        final List<PortalEvent> legacyEvents = originalEvents.subList(0, 6);
+        final List<PortalEvent> partitionedEvents =
+                originalEvents.subList(6, originalEvents.size());
+
+        //Events stored in UP_RAW_EVENTS before partitioning was enabled
+        execute(
+                new CallableWithoutResult() {
+                    @Override
+                    protected void callWithoutResult() {
+                        portalEventDao.storePortalEvents(legacyEvents);
+                    }
+                });
+        execute(
+                new CallableWithoutResult() {
+                    @Override
+                    protected void callWithoutResult() {
+                        partitionedPortalEventDao.storePortalEvents(partitionedEvents);
+                    }
+                });
+
+        execute(
+                new CallableWithoutResult() {
+                    @Override
+                    protected void callWithoutResult() {
+                        assertEquals(
+                                legacyEvents.get(0).getTimestampAsDate().getMillis(),
+                                partitionedPortalEventDao
+                                        .getOldestPortalEventTimestamp()
+                                        .getMillis());
+                        assertEquals(
+                                partitionedEvents
+                                        .get(partitionedEvents.size() - 1)
+                                        .getTimestampAsDate()
+                                        .getMillis(),
+                                partitionedPortalEventDao
+                                        .getNewestPortalEventTimestamp()
+                                        .getMillis());
+                    }
+                });
+
+        verifyGetEvents(partitionedPortalEventDao, originalEvents, startDate, endDate);
+        verifyAggregateEvents(partitionedPortalEventDao, originalEvents, startDate, endDate);
+        verifyAggregateEvents(
+                partitionedPortalEventDao,
+                Collections.<PortalEvent>emptyList(),
+                startDate,
+                endDate);
+        deleteEvents(partitionedPortalEventDao, startDate, endDate);
+        verifyGetEvents(
+                partitionedPortalEventDao,
+                Collections.<PortalEvent>emptyList(),
+                startDate,
+                endDate);
     }
 
     protected void verifyGetEvents(
+            final IPortalEventDao portalEventDao,
             final List<PortalEvent> originalEvents,
             final DateTime startDate,
             final DateTime endDate) {
@@ -185,6 +256,7 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
     }
 
     protected void verifyAggregateEvents(
+            final IPortalEventDao portalEventDao,
             final List<PortalEvent> originalEvents,
             final DateTime startDate,
             final DateTime endDate) {
@@ -231,7 +303,7 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
     }
 
     protected void deleteEvents(
-            final List<PortalEvent> originalEvents,
+            final IPortalEventDao portalEventDao,
             final DateTime startDate,
             final DateTime endDate) {
         execute(
@@ -0,0 +1,198 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apereo.portal.concurrency.FunctionWithoutResult;
+import org.apereo.portal.events.PortalEvent;
+import org.hibernate.dialect.HSQLDialect;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class PartitionedPortalEventStoreTest {
+    private static final DateTime DAY_ONE = new DateTime(2017, 3, 1, 0, 0, DateTimeZone.UTC);
+    private static final DateTime DAY_TWO = DAY_ONE.plusDays(1);
+
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+    private final AtomicInteger partitionTransactions = new AtomicInteger();
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private PartitionedPortalEventStore eventStore;
+
+    @Before
+    public void setup() throws Exception {
+        this.dataSource =
+                new SingleConnectionDataSource(
+                        "jdbc:hsqldb:mem:PartitionedPortalEventStoreTest", "sa", "", true);
+        this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+        final TransactionTemplate transactionTemplate =
+                new TransactionTemplate(new DataSourceTransactionManager(this.dataSource));
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.eventStore =
+                new PartitionedPortalEventStore(
+                        this.jdbcTemplate,
+                        new TransactionOperations() {
+                            @Override
+                            public <T> T execute(TransactionCallback<T> action) {
+                                partitionTransactions.incrementAndGet();
+                                return transactionTemplate.execute(action);
+                            }
+                        },
+                        new HSQLDialect(),
+                        new JacksonPortalEventCodec());
+        this.eventStore.setFlushPeriod(2);
+
+        this.eventStore.storePortalEvents(
+                ImmutableList.of(
+                        createEvent(DAY_ONE.plusHours(10)),
+                        createEvent(DAY_TWO.plusHours(1)),
+                        createEvent(DAY_ONE.plusHours(23))));
+    }
+
+    @After
+    public void teardown() {
+        this.jdbcTemplate.execute("SHUTDOWN");
+        this.dataSource.destroy();
+    }
+
+    @Test
+    public void testStoreAndGetEvents() {
+        assertEquals(
+                ImmutableList.of("UP_RAW_EVENTS_20170301", "UP_RAW_EVENTS_20170302"),
+                this.eventStore.getPartitions());
+        assertEquals(
+                DAY_ONE.plusHours(10).getMillis(),
+                this.eventStore.getOldestPortalEventTimestamp().getMillis());
+        assertEquals(
+                DAY_TWO.plusHours(1).getMillis(),
+                this.eventStore.getNewestPortalEventTimestamp().getMillis());
+
+        assertEquals(
+                ImmutableList.of(
+                        DAY_ONE.plusHours(10), DAY_ONE.plusHours(23), DAY_TWO.plusHours(1)),
+                getEventTimes(DAY_ONE, DAY_TWO.plusDays(1), -1));
+        assertEquals(
+                ImmutableList.of(DAY_ONE.plusHours(10), DAY_ONE.plusHours(23)),
+                getEventTimes(DAY_ONE, DAY_TWO.plusDays(1), 2));
+        assertEquals(
+                ImmutableList.of(DAY_ONE.plusHours(23), DAY_TWO.plusHours(1)),
+                getEventTimes(DAY_ONE.plusHours(12), DAY_TWO.plusHours(12), -1));
+    }
+
+    @Test
+    public void testOtherSchemasIgnored() {
+        this.jdbcTemplate.execute("CREATE SCHEMA OTHER");
+        this.jdbcTemplate.execute("CREATE TABLE OTHER.UP_RAW_EVENTS_20170228 (EVENT_ID BIGINT)");
+
+        assertEquals(
+                ImmutableList.of("UP_RAW_EVENTS_20170301", "UP_RAW_EVENTS_20170302"),
+                this.eventStore.getPartitions());
+    }
+
+    @Test
+    public void testAggregateEvents() {
+        final List<DateTime> aggregated = new ArrayList<DateTime>();
+
+        //Stop before the second event, it is returned again by the next aggregation
+        assertFalse(aggregate(aggregated, DAY_ONE.plusHours(23)));
+        assertEquals(ImmutableList.of(DAY_ONE.plusHours(10)), aggregated);
+
+        aggregated.clear();
+        assertTrue(aggregate(aggregated, null));
+        assertEquals(ImmutableList.of(DAY_ONE.plusHours(23), DAY_TWO.plusHours(1)), aggregated);
+
+        aggregated.clear();
+        assertTrue(aggregate(aggregated, null));
+        assertEquals(ImmutableList.of(), aggregated);
+    }
+
+    @Test
+    public void testDeleteDropsWholePartitions() {
+        assertEquals(0, this.eventStore.deletePortalEventsBefore(DAY_TWO.minusMinutes(1)));
+        assertEquals(2, this.eventStore.getPartitions().size());
+
+        assertEquals(2, this.eventStore.deletePortalEventsBefore(DAY_TWO.plusHours(12)));
+        assertEquals(ImmutableList.of("UP_RAW_EVENTS_20170302"), this.eventStore.getPartitions());
+        assertEquals(
+                DAY_TWO.plusHours(1).getMillis(),
+                this.eventStore.getOldestPortalEventTimestamp().getMillis());
+    }
+
+    @Test
+    public void testDeleteDropsInPartitionTransaction() {
+        this.partitionTransactions.set(0);
+        assertEquals(2, this.eventStore.deletePortalEventsBefore(DAY_TWO.plusHours(12)));
+        assertEquals(1, this.partitionTransactions.get());
+    }
+
+    private boolean aggregate(final List<DateTime> aggregated, final DateTime stopAt) {
+        return this.eventStore.aggregatePortalEvents(
+                DAY_ONE,
+                DAY_TWO.plusDays(1),
+                -1,
+                new Function<PortalEvent, Boolean>() {
+                    @Override
+                    public Boolean apply(PortalEvent input) {
+                        if (input.getTimestampAsDate().isEqual(stopAt)) {
+                            return false;
+                        }
+                        aggregated.add(input.getTimestampAsDate().withZone(DateTimeZone.UTC));
+                        return true;
+                    }
+                });
+    }
+
+    private List<DateTime> getEventTimes(DateTime start, DateTime end, int maxEvents) {
+        final List<DateTime> eventTimes = new ArrayList<DateTime>();
+        this.eventStore.getPortalEvents(
+                start,
+                end,
+                maxEvents,
+                new FunctionWithoutResult<PortalEvent>() {
+                    @Override
+                    protected void applyWithoutResult(PortalEvent input) {
+                        eventTimes.add(input.getTimestampAsDate().withZone(DateTimeZone.UTC));
+                    }
+                });
+        return eventTimes;
+    }
+
+    private PortalEvent createEvent(DateTime timestamp) throws Exception {
+        return this.mapper.readValue(
+                "{\"@c\":\".LogoutEvent\",\"timestamp\":"
+                        + timestamp.getMillis()
+                        + ",\"serverId\":\"example.com\",\"eventSessionId\":\"1234567890123_system_AAAAAAAAAAA\",\"userName\":\"system\"}",
+                PortalEvent.class);
+    }
+}
@@ -17,6 +17,7 @@ package org.apereo.portal.portlet.dao.jpa;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,9 +27,11 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import org.apereo.portal.concurrency.CallableWithoutResult;
+import org.apereo.portal.portlet.dao.AbstractPortletDefinitionEvent;
 import org.apereo.portal.portlet.dao.IPortletDefinitionDao;
 import org.apereo.portal.portlet.dao.IPortletEntityDao;
 import org.apereo.portal.portlet.dao.IPortletTypeDao;
+import org.apereo.portal.portlet.dao.PortletDefinitionSavedEvent;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletDefinitionId;
 import org.apereo.portal.portlet.om.IPortletEntity;
@@ -40,8 +43,13 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(locations = "classpath:jpaPortalTestApplicationContext.xml")
@@ -49,6 +57,7 @@ public class JpaPortletDaoTest extends BasePortalJpaDaoTest {
     @Autowired private IPortletTypeDao jpaChannelTypeDao;
     @Autowired private IPortletDefinitionDao jpaPortletDefinitionDao;
     @Autowired private IPortletEntityDao jpaPortletEntityDao;
+    @Autowired private ApplicationContext applicationContext;
 
     @Before
     public void onSetUp() throws Exception {
@@ -223,6 +232,71 @@ public class JpaPortletDaoTest extends BasePortalJpaDaoTest {
                 });
     }
 
+    @Test
+    public void testDefinitionEventsPublishedAfterCommit() throws Exception {
+        final List<AbstractPortletDefinitionEvent> events =
+                new ArrayList<AbstractPortletDefinitionEvent>();
+        ((ConfigurableApplicationContext) this.applicationContext)
+                .addApplicationListener(
+                        new ApplicationListener<AbstractPortletDefinitionEvent>() {
+                            @Override
+                            public void onApplicationEvent(AbstractPortletDefinitionEvent event) {
+                                events.add(event);
+                            }
+                        });
+
+        final IPortletDefinitionId portletDefinitionId =
+                executeInTransaction(
+                        new Callable<IPortletDefinitionId>() {
+                            @Override
+                            public IPortletDefinitionId call() {
+                                final IPortletType channelType =
+                                        jpaChannelTypeDao.createPortletType("BaseType", "foobar");
+                                final IPortletDefinition chanDef1 =
+                                        new PortletDefinitionImpl(
+                                                channelType,
+                                                "fname1",
+                                                "Test Portlet 1",
+                                                "Test Portlet 1 Title",
+                                                "/context1",
+                                                "portletName1",
+                                                false);
+                                jpaPortletDefinitionDao.savePortletDefinition(chanDef1);
+
+                                //Not visible to listeners until the transaction commits
+                                assertEquals(0, events.size());
+                                return chanDef1.getPortletDefinitionId();
+                            }
+                        });
+
+        assertEquals(1, events.size());
+        assertTrue(events.get(0) instanceof PortletDefinitionSavedEvent);
+        assertEquals(portletDefinitionId, events.get(0).getPortletDefinitionId());
+
+        execute(
+                new CallableWithoutResult() {
+                    @Override
+                    protected void callWithoutResult() {
+                        transactionOperations.execute(
+                                new TransactionCallbackWithoutResult() {
+                                    @Override
+                                    protected void doInTransactionWithoutResult(
+                                            TransactionStatus status) {
+                                        final IPortletDefinition portletDefinition =
+                                                jpaPortletDefinitionDao.getPortletDefinition(
+                                                        portletDefinitionId);
+                                        jpaPortletDefinitionDao.deletePortletDefinition(
+                                                portletDefinition);
+                                        status.setRollbackOnly();
+                                    }
+                                });
+                    }
+                });
+
+        //Nothing is published for a rolled back change
+        assertEquals(1, events.size());
+    }
+
     @Test
     public void testAllEntityDaoMethods() throws Exception {
         final IPortletDefinitionId portletDefinitionId =
@@ -22,20 +22,16 @@ import static org.mockito.Mockito.when;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import javax.portlet.Event;
 import javax.xml.namespace.QName;
-import net.sf.ehcache.Ehcache;
 import org.apache.pluto.container.om.portlet.EventDefinition;
 import org.apache.pluto.container.om.portlet.EventDefinitionReference;
 import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
-import org.apereo.portal.mock.portlet.om.MockPortletDefinitionId;
-import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
-import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 /**
@@ -43,13 +39,6 @@ import org.mockito.runners.MockitoJUnitRunner;
 @Ignore // Breaks on move to Gradlde
 @RunWith(MockitoJUnitRunner.class)
 public class PortletEventCoordinatationServiceTest {
-    @InjectMocks
-    private PortletEventCoordinatationService portletEventCoordinatationService =
-            new PortletEventCoordinatationService();
-
-    @Mock private Ehcache supportedEventCache;
-    @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
-
     @Test
     public void testSupportedEventResolution() throws Exception {
         final QName searchRequestName =
@@ -60,7 +49,6 @@ public class PortletEventCoordinatationServiceTest {
         //org.apereo.portal.search.SearchQuery
 
         final Event event = mock(Event.class);
-        final MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(1);
         final PortletApplicationDefinition portletApplicationDefinition =
                 mock(PortletApplicationDefinition.class);
         final PortletDefinition portletDefinition = mock(PortletDefinition.class);
@@ -73,6 +61,9 @@ public class PortletEventCoordinatationServiceTest {
 
         when(event.getQName()).thenReturn(searchRequestName);
 
+        when(portletApplicationDefinition.getDefaultNamespace())
+                .thenReturn(searchRequestName.getNamespaceURI());
+
         when(searchRequestEventDefinitionReference.getQualifiedName(anyString()))
                 .thenReturn(searchRequestName);
         when(searchRequestEventDefinitionReference.getQName()).thenReturn(searchRequestName);
@@ -89,12 +80,6 @@ public class PortletEventCoordinatationServiceTest {
         when(searchResultsEventDefinition.getQualifiedName(anyString()))
                 .thenReturn(searchResultsName);
 
-        when(this.portletDefinitionRegistry.getParentPortletApplicationDescriptor(
-                        portletDefinitionId))
-                .thenReturn(portletApplicationDefinition);
-        when(this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId))
-                .thenReturn(portletDefinition);
-
         final List<? extends EventDefinition> eventDefinitions =
                 Arrays.asList(searchRequestEventDefinition, searchResultsEventDefinition);
         when(portletApplicationDefinition.getEventDefinitions())
@@ -105,8 +90,9 @@ public class PortletEventCoordinatationServiceTest {
         when(portletDefinition.getSupportedProcessingEvents())
                 .thenReturn((List) supportedProcessingEvents);
 
-        final boolean supportsEvent =
-                portletEventCoordinatationService.supportsEvent(event, portletDefinitionId);
-        assertTrue(supportsEvent);
+        final Set<QName> processedEvents =
+                PortletEventSubscriptionIndex.getProcessedEvents(
+                        portletApplicationDefinition, portletDefinition);
+        assertTrue(processedEvents.contains(event.getQName()));
     }
 }
@@ -300,6 +300,55 @@ public class PortletRendererImplTest {
 
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
+
+    /**
+     * Cached data checked before the render was dispatched is replayed even though the cache no
+     * longer has it.
+     *
+     * @throws PortletContainerException
+     * @throws IOException
+     * @throws PortletException
+     */
+    @Test
+    public void doRenderMarkupReplaysCheckedCacheState()
+            throws PortletException, IOException, PortletContainerException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        TestingCacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState =
+                new TestingCacheState<
+                        CachedPortletData<PortletRenderResult>, PortletRenderResult>();
+        cacheState.setUseCachedData(true);
+        CacheControl cacheControl = cacheState.getCacheControl();
+
+        final PortletRenderResult portletResult = new PortletRenderResult("title", null, 0, 100);
+        final String output = "<p>Some content</p>";
+        CachedPortletData<PortletRenderResult> cachedPortletData =
+                new CachedPortletData<PortletRenderResult>(
+                        portletResult,
+                        output,
+                        null,
+                        null,
+                        false,
+                        null,
+                        cacheControl.getExpirationTime());
+        cacheState.setCachedPortletData(cachedPortletData);
+
+        setupPortletExecutionMocks(request);
+
+        when(portletWindowId.getStringId()).thenReturn("P.1");
+        final String checkedStateAttribute =
+                IPortletRenderer.ATTRIBUTE__CHECKED_RENDER_STATE_PREFIX + "P.1";
+        request.setAttribute(checkedStateAttribute, cacheState);
+        when(portalRequestInfo.getTargetedPortletWindowId()).thenReturn(portletWindowId);
+
+        RenderPortletOutputHandler handler = new RenderPortletOutputHandler("UTF-8");
+        portletRenderer.doRenderMarkup(portletWindowId, request, response, handler);
+        Assert.assertEquals(output, handler.getOutput());
+        Assert.assertNull(request.getAttribute(checkedStateAttribute));
+
+        verifyNoMoreInteractions(portletContainer, portletCacheControlService);
+    }
+
     /**
      * Mimic workflow when data cached portlet data using "validation" method is available.
      *
@@ -18,10 +18,19 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.util.Arrays;
+import java.util.List;
+import org.apereo.portal.character.stream.CharacterEventBufferReader;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.events.IPortletExecutionEventFactory;
 import org.apereo.portal.url.IUrlSyntaxProvider;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 /** Unit tests for DynamicRenderingPipeline. */
 public class DynamicRenderingPipelineTest {
@@ -30,6 +39,8 @@ public class DynamicRenderingPipelineTest {
 
     @Mock CharacterPipelineComponent characterPipelineComponent;
 
+    @Mock IPortletExecutionEventFactory portalEventFactory;
+
     @Before
     public void beforeTests() {
         initMocks(this);
@@ -54,4 +65,30 @@ public class DynamicRenderingPipelineTest {
 
         assertEquals(friendlyToString, dynamicRenderingPipeline.toString());
     }
+
+    /** Test that the flush count and characters written are exposed as request attributes. */
+    @Test
+    public void exposesWriterMetrics() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final List<CharacterEvent> events =
+                Arrays.<CharacterEvent>asList(
+                        CharacterDataEventImpl.create("<html>"),
+                        CharacterDataEventImpl.create("</html>"));
+        when(characterPipelineComponent.getEventReader(request, response))
+                .thenReturn(
+                        new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                                new CharacterEventBufferReader(events.listIterator())));
+
+        final DynamicRenderingPipeline dynamicRenderingPipeline = new DynamicRenderingPipeline();
+        dynamicRenderingPipeline.setUrlSyntaxProvider(urlSyntaxProvider);
+        dynamicRenderingPipeline.setPortalEventFactory(portalEventFactory);
+        dynamicRenderingPipeline.setPipeline(characterPipelineComponent);
+        dynamicRenderingPipeline.renderState(request, response);
+
+        assertEquals("<html></html>", response.getContentAsString());
+        assertEquals(1, request.getAttribute(DynamicRenderingPipeline.FLUSH_COUNT_ATTRIBUTE));
+        assertEquals(
+                13L, request.getAttribute(DynamicRenderingPipeline.CHARACTERS_WRITTEN_ATTRIBUTE));
+    }
 }
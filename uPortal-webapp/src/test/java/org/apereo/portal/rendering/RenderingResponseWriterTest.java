@@ -0,0 +1,125 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/** Unit tests for RenderingResponseWriter and BufferingRenderingFlushPolicy. */
+public class RenderingResponseWriterTest {
+    private MockHttpServletResponse response;
+    private BufferingRenderingFlushPolicy flushPolicy;
+
+    @Before
+    public void setup() {
+        this.response = new MockHttpServletResponse();
+        this.flushPolicy = new BufferingRenderingFlushPolicy();
+        this.flushPolicy.setBufferSize(10);
+        this.flushPolicy.setMinimumChunkPointFlush(4);
+    }
+
+    @Test
+    public void testBufferSizeFlush() throws Exception {
+        final RenderingResponseWriter writer =
+                new RenderingResponseWriter(this.response, this.flushPolicy);
+        try {
+            writer.write(CharacterDataEventImpl.create("abc"));
+            writer.write(CharacterDataEventImpl.create("def"));
+            assertEquals("", this.response.getContentAsString());
+            assertEquals(0, writer.getFlushCount());
+
+            writer.write(CharacterDataEventImpl.create("ghijk"));
+            assertEquals("abcdefghijk", this.response.getContentAsString());
+            assertEquals(1, writer.getFlushCount());
+
+            writer.write(CharacterDataEventImpl.create("lmn"));
+            writer.flush();
+            assertEquals("abcdefghijklmn", this.response.getContentAsString());
+            assertEquals(2, writer.getFlushCount());
+            assertEquals(14, writer.getCharactersWritten());
+        } finally {
+            writer.release();
+        }
+    }
+
+    @Test
+    public void testChunkPointFlush() throws Exception {
+        final RenderingResponseWriter writer =
+                new RenderingResponseWriter(this.response, this.flushPolicy);
+        try {
+            writer.write(CharacterDataEventImpl.create("ab"));
+            writer.write(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+            assertEquals("", this.response.getContentAsString());
+
+            writer.write(CharacterDataEventImpl.create("cd"));
+            writer.write(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+            assertEquals("abcd", this.response.getContentAsString());
+            assertEquals(1, writer.getFlushCount());
+        } finally {
+            writer.release();
+        }
+    }
+
+    @Test
+    public void testEmptyPortletOutputIsNotChunkPoint() throws Exception {
+        final RenderingResponseWriter writer =
+                new RenderingResponseWriter(this.response, this.flushPolicy);
+        try {
+            writer.write(CharacterDataEventImpl.create("abcd"));
+            writer.write(CharacterDataEventImpl.createUncached(""));
+            assertEquals("", this.response.getContentAsString());
+            assertEquals(0, writer.getFlushCount());
+        } finally {
+            writer.release();
+        }
+    }
+
+    @Test
+    public void testFlushBeforeWait() throws Exception {
+        final RenderingResponseWriter writer =
+                new RenderingResponseWriter(this.response, this.flushPolicy);
+        try {
+            writer.flushBeforeWait();
+            assertEquals(0, writer.getFlushCount());
+
+            writer.write(CharacterDataEventImpl.create("a"));
+            writer.flushBeforeWait();
+            assertEquals("a", this.response.getContentAsString());
+            assertEquals(1, writer.getFlushCount());
+        } finally {
+            writer.release();
+        }
+    }
+
+    @Test
+    public void testFlushEveryEvent() throws Exception {
+        this.flushPolicy.setBufferSize(0);
+
+        final RenderingResponseWriter writer =
+                new RenderingResponseWriter(this.response, this.flushPolicy);
+        try {
+            writer.write(CharacterDataEventImpl.create("a"));
+            writer.write(CharacterDataEventImpl.create("b"));
+            assertEquals("ab", this.response.getContentAsString());
+            assertEquals(2, writer.getFlushCount());
+        } finally {
+            writer.release();
+        }
+    }
+}
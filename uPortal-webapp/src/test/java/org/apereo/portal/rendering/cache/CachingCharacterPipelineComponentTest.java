@@ -21,14 +21,28 @@ import static org.easymock.EasyMock.notNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import org.apereo.portal.character.stream.CharacterEventBufferReader;
 import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
 import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
 import org.apereo.portal.rendering.CharacterPipelineComponent;
+import org.apereo.portal.rendering.CharacterPipelineComponentWrapper;
 import org.apereo.portal.rendering.PipelineEventReader;
 import org.apereo.portal.rendering.PipelineEventReaderImpl;
 import org.apereo.portal.utils.cache.CacheKey;
@@ -120,4 +134,124 @@ public class CachingCharacterPipelineComponentTest {
 
         verify(cache, targetComponent, elementsProvider);
     }
+
+    @Test
+    public void testConcurrentCacheMissBuildsOnce() throws Exception {
+        final MockHttpServletRequest mockReq = new MockHttpServletRequest();
+        final MockHttpServletResponse mockRes = new MockHttpServletResponse();
+        final CacheKey cacheKey = CacheKey.build("testCacheKey");
+
+        final Ehcache cache = createMock(Ehcache.class);
+        final ResourcesElementsProvider elementsProvider =
+                createMock(ResourcesElementsProvider.class);
+
+        expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED).times(2);
+        expect(cache.get(cacheKey)).andReturn(null).times(2);
+        cache.put((Element) notNull());
+        expectLastCall();
+
+        replay(cache, elementsProvider);
+
+        //Target component that blocks until a second request is waiting on the in-flight build
+        final CountDownLatch buildStarted = new CountDownLatch(1);
+        final CountDownLatch releaseBuild = new CountDownLatch(1);
+        final AtomicInteger buildCount = new AtomicInteger();
+        final CharacterPipelineComponent targetComponent =
+                new CharacterPipelineComponentWrapper() {
+                    @Override
+                    public CacheKey getCacheKey(
+                            HttpServletRequest request, HttpServletResponse response) {
+                        return cacheKey;
+                    }
+
+                    @Override
+                    public PipelineEventReader<CharacterEventReader, CharacterEvent> getEventReader(
+                            HttpServletRequest request, HttpServletResponse response) {
+                        buildCount.incrementAndGet();
+                        buildStarted.countDown();
+                        try {
+                            releaseBuild.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+
+                        final List<CharacterEvent> events =
+                                Collections.<CharacterEvent>singletonList(
+                                        CharacterDataEventImpl.create("built"));
+                        return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                                new CharacterEventBufferReader(events.listIterator()));
+                    }
+                };
+
+        final CachingCharacterPipelineComponent cachingComponent =
+                new CachingCharacterPipelineComponent();
+        cachingComponent.setCache(cache);
+        cachingComponent.setWrappedComponent(targetComponent);
+        cachingComponent.setResourcesElementsProvider(elementsProvider);
+        cachingComponent.setBeanName("testCachingComponent");
+
+        final Callable<CharacterEvent> render =
+                new Callable<CharacterEvent>() {
+                    @Override
+                    public CharacterEvent call() throws Exception {
+                        return cachingComponent
+                                .getEventReader(mockReq, mockRes)
+                                .getEventReader()
+                                .next();
+                    }
+                };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<CharacterEvent> first = executor.submit(render);
+            Assert.assertTrue(buildStarted.await(10, TimeUnit.SECONDS));
+
+            final Future<CharacterEvent> second = executor.submit(render);
+            while (cachingComponent.getStatistics().getMissCount() < 2) {
+                Thread.sleep(10);
+            }
+            releaseBuild.countDown();
+
+            Assert.assertEquals(CharacterDataEventImpl.create("built"), first.get());
+            Assert.assertEquals(CharacterDataEventImpl.create("built"), second.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(1, buildCount.get());
+        Assert.assertEquals(1, cachingComponent.getStatistics().getBuildCount());
+        Assert.assertEquals(1, cachingComponent.getStatistics().getWaitCount());
+        Assert.assertEquals("testCachingComponent", cachingComponent.getStatistics().getBeanName());
+
+        verify(cache, elementsProvider);
+    }
+
+    @Test
+    public void testCompactEvents() {
+        final CharacterEvent placeholder =
+                new PortletContentPlaceholderEventImpl(new MockPortletWindowId("1"));
+        final List<CharacterEvent> events =
+                Arrays.asList(
+                        CharacterDataEventImpl.create("a"),
+                        CharacterDataEventImpl.create("b"),
+                        CharacterDataEventImpl.EMPTY_CHARACTER_DATA,
+                        CharacterDataEventImpl.EMPTY_CHARACTER_DATA,
+                        CharacterDataEventImpl.create("c"),
+                        placeholder,
+                        CharacterDataEventImpl.create("d"),
+                        CharacterDataEventImpl.create("e"),
+                        CharacterDataEventImpl.create("f"));
+
+        final List<CharacterEvent> compactEvents =
+                new CachingCharacterPipelineComponent().compactEvents(events);
+
+        Assert.assertEquals(
+                Arrays.asList(
+                        CharacterDataEventImpl.create("ab"),
+                        CharacterDataEventImpl.EMPTY_CHARACTER_DATA,
+                        CharacterDataEventImpl.create("c"),
+                        placeholder,
+                        CharacterDataEventImpl.create("def")),
+                compactEvents);
+    }
 }
@@ -14,12 +14,18 @@
  */
 package org.apereo.portal.rendering.xslt;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -29,6 +35,7 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
@@ -60,10 +67,45 @@ public class XSLTComponentTest {
 
     @Test
     public void testXSLTComponent() throws Exception {
+        this.testXSLTComponent(null);
+    }
+
+    @Test
+    public void testStreamingXSLTComponent() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            this.testXSLTComponent(executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void testXSLTComponent(ExecutorService streamingExecutor) throws Exception {
         final MockHttpServletRequest mockReq = new MockHttpServletRequest();
         final MockHttpServletResponse mockRes = new MockHttpServletResponse();
 
-        final XMLEventReader xmlEventReader = this.getXmlEventReader("juser.xml");
+        // Records the threads the previous component is read on
+        final Set<Thread> readThreads = new CopyOnWriteArraySet<Thread>();
+        final XMLEventReader xmlEventReader =
+                new EventReaderDelegate(this.getXmlEventReader("juser.xml")) {
+                    @Override
+                    public XMLEvent nextEvent() throws XMLStreamException {
+                        readThreads.add(Thread.currentThread());
+                        return super.nextEvent();
+                    }
+
+                    @Override
+                    public Object next() {
+                        readThreads.add(Thread.currentThread());
+                        return super.next();
+                    }
+
+                    @Override
+                    public XMLEvent peek() throws XMLStreamException {
+                        readThreads.add(Thread.currentThread());
+                        return super.peek();
+                    }
+                };
         final PipelineEventReaderImpl<XMLEventReader, XMLEvent> cacheableEventReader =
                 new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(xmlEventReader);
 
@@ -82,6 +124,11 @@ public class XSLTComponentTest {
         final XSLTComponent xsltComponent = new XSLTComponent();
         xsltComponent.setWrappedComponent(targetComponent);
         xsltComponent.setTransformerSource(transformerSource);
+        if (streamingExecutor != null) {
+            xsltComponent.setStreaming(true);
+            xsltComponent.setStreamingExecutor(streamingExecutor);
+            xsltComponent.setStreamingBatchSize(4);
+        }
 
         final PipelineEventReader<XMLEventReader, XMLEvent> eventReader =
                 xsltComponent.getEventReader(mockReq, mockRes);
@@ -121,6 +168,9 @@ public class XSLTComponentTest {
         }
 
         EasyMock.verify(targetComponent, transformerSource);
+
+        // The previous component is always read on the calling thread
+        assertEquals(Collections.singleton(Thread.currentThread()), readThreads);
     }
 
     protected String serializeXMLEventReader(XMLEventReader reader) {
@@ -16,8 +16,15 @@ package org.apereo.portal.url;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import org.apereo.portal.IUserPreferencesManager;
+import org.apereo.portal.layout.IStylesheetUserPreferencesService;
+import org.apereo.portal.layout.IStylesheetUserPreferencesService.PreferencesScope;
+import org.apereo.portal.layout.IUserLayout;
+import org.apereo.portal.layout.IUserLayoutManager;
 import org.apereo.portal.mock.portlet.om.MockPortletEntityId;
 import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
 import org.apereo.portal.portlet.om.IPortletDefinition;
@@ -49,6 +56,27 @@ public class SingleTabUrlNodeSyntaxHelperTest {
     @Mock IPortletDefinition portletDefinition;
     @Mock IPortletEntity portletEntity;
     @Mock IPortletWindow portletWindow;
+    @Mock IStylesheetUserPreferencesService stylesheetUserPreferencesService;
+    @Mock IUserPreferencesManager preferencesManager;
+    @Mock IUserLayoutManager userLayoutManager;
+    @Mock IUserLayout userLayout;
+
+    @Test
+    public void getDefaultLayoutNodeIdIsFirstVisibleTabTest() {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+
+        when(this.userInstanceManager.getUserInstance(request)).thenReturn(this.userInstance);
+        when(this.userInstance.getPreferencesManager()).thenReturn(this.preferencesManager);
+        when(this.preferencesManager.getUserLayoutManager()).thenReturn(this.userLayoutManager);
+        when(this.userLayoutManager.getUserLayout()).thenReturn(this.userLayout);
+        when(this.stylesheetUserPreferencesService.getStylesheetParameter(
+                        request, PreferencesScope.STRUCTURE, "defaultTab"))
+                .thenReturn("2");
+        when(this.userLayout.getVisibleTabId(1)).thenReturn("s2");
+
+        assertEquals("s2", this.urlNodeSyntaxHelper.getDefaultLayoutNodeId(request));
+        verify(this.userLayout, never()).getVisibleTabId(2);
+    }
 
     @Test
     public void getPortletForFolderNameFanmeIdTest() {
@@ -21,7 +21,6 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
-import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import java.util.Arrays;
@@ -44,13 +43,11 @@ import org.apereo.portal.portlet.rendering.IPortletRenderer;
 import org.apereo.portal.user.IUserInstance;
 import org.apereo.portal.user.IUserInstanceManager;
 import org.apereo.portal.utils.Tuple;
-import org.apereo.portal.xml.xpath.XPathOperations;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.mock.web.MockHttpServletRequest;
 
@@ -67,7 +64,6 @@ public class UrlSyntaxProviderImplTest {
     @Mock private IPortalUrlProvider portalUrlProvider;
     @Mock private IPortletEntityRegistry portletEntityRegistry;
     @Mock private IPortletWindowRegistry portletWindowRegistry;
-    @Mock private XPathOperations xpathOperations;
     @Mock private IUserInstanceManager userInstanceManager;
     @Mock private IUserInstance userInstance;
     @Mock private IUserPreferencesManager userPreferencesManager;
@@ -1167,12 +1163,7 @@ public class UrlSyntaxProviderImplTest {
         request.addParameter("activeTab", "1");
 
         when(this.portalRequestUtils.getOriginalPortalRequest(request)).thenReturn(request);
-        when(this.xpathOperations.doWithExpression(
-                        Mockito.eq(
-                                "/layout/folder/folder[@type='regular' and @hidden='false'][position() = $activeTabId]/@ID"),
-                        Mockito.eq(Collections.singletonMap("activeTabId", "1")),
-                        Mockito.<Function>anyObject()))
-                .thenReturn("n12");
+        when(userLayout.getVisibleTabId(1)).thenReturn("n12");
 
         when(this.userInstanceManager.getUserInstance(request)).thenReturn(userInstance);
         when(userInstance.getPreferencesManager()).thenReturn(userPreferencesManager);